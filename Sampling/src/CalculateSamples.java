@@ -2,8 +2,6 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.Writer;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 
 public class CalculateSamples {
@@ -18,20 +16,32 @@ public class CalculateSamples {
 			int num_samples = Integer.parseInt(args[2]); //25
 			int max_levels = Integer.parseInt(args[3]); //6
 
+			// The samples are nested: samples/<j>.txt holds the largest sample
+			// of replica j and the sample of every smaller level is a prefix of
+			// it; samples/<j>.levels gives the size of each level in rows and
+			// in bytes.
 			ReservoirSampling rs = new ReservoirSampling();
-			HashMap<Integer, HashMap<Integer, List <String>>> sample = rs.bulkReservoirSampling(file, N_init, num_samples, max_levels);
-			for (Integer key : sample.keySet())
+			List<List <String>> samples = rs.nestedReservoirSampling(file, ReservoirSampling.levelSize(N_init, max_levels - 1), num_samples);
+			for (int j = 0; j < samples.size(); j++)
 			{
-				for (Integer _key : sample.get(key).keySet())
+				List <String> sample = samples.get(j);
+				Writer output = new BufferedWriter(new FileWriter("samples/"+j+".txt"));
+				Writer levels = new BufferedWriter(new FileWriter("samples/"+j+".levels"));
+				long bytes = 0;
+				int level = 0;
+				for (int row = 0; row < sample.size(); row++)
 				{
-					new File("samples/"+key).mkdir();
-					List <String> reservoir = sample.get(key).get(_key);
-					Iterator<String> iterator = reservoir.iterator();
-					Writer output = new BufferedWriter(new FileWriter("samples/"+key+"/"+_key+".txt"));
-					while (iterator.hasNext())
-						output.write(iterator.next()+"\n");
-					output.close();
+					String line = sample.get(row)+"\n";
+					output.write(line);
+					bytes += line.getBytes().length;
+					while (level < max_levels && (row + 1 == ReservoirSampling.levelSize(N_init, level) || row + 1 == sample.size()))
+					{
+						levels.write(ReservoirSampling.levelSize(N_init, level)+"\t"+(row + 1)+"\t"+bytes+"\n");
+						level++;
+					}
 				}
+				output.close();
+				levels.close();
 			}
 		}
 		catch (Exception e)
@@ -39,4 +49,4 @@ public class CalculateSamples {
 			System.out.println(e.toString());
 		}
 	}
-}
\ No newline at end of file
+}
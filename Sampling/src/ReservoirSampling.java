@@ -1,8 +1,11 @@
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.PriorityQueue;
 import java.util.Random;
 
 public class ReservoirSampling 
@@ -47,57 +50,133 @@ public class ReservoirSampling
 		
 	 }
 	
-	public HashMap<Integer, HashMap<Integer, List <String>>> bulkReservoirSampling (String file, int N_init, int num_samples, int max_levels )
+	/**
+	 * Nested samples: every row draws one random key per replica, and the
+	 * sample of size n of a replica is the n rows with the smallest keys. The
+	 * sample of every resolution level is then a prefix of the next one, so
+	 * only the largest sample is kept, sorted by key.
+	 *
+	 * @return for every replica, the largest sample sorted by key; the sample
+	 *         of size n is its first n rows
+	 */
+	public List<List <String>> nestedReservoirSampling (String file, int max_sample_size, int num_samples)
 	{
 		try
 		{
-			File f = new File(file);
-			BufferedReader br = new BufferedReader(new FileReader(f));
-			HashMap<Integer, HashMap<Integer, List <String>>> samples = new HashMap<Integer, HashMap<Integer, List <String>>>();
+			BufferedReader br = new BufferedReader(new FileReader(new File(file)));
+			List<PriorityQueue<KeyedRow>> reservoirs = new ArrayList<PriorityQueue<KeyedRow>>(num_samples);
+			for (int j = 0; j < num_samples; j++)
+				reservoirs.add(new PriorityQueue<KeyedRow>(max_sample_size + 1, Collections.reverseOrder()));
 
 			String line;
-			
-			int count=0;
-			int sample_size = 0;
 			Random rnd = new Random();
-			int randomNumber;
-			
 			while ((line = br.readLine()) != null)
 			{
-				count ++;
-				for (int i = 0; i < max_levels; i++)
+				for (int j = 0; j < num_samples; j++)
 				{
-					sample_size = (int) (N_init * Math.pow(2, i));
-					if (!samples.containsKey(sample_size))
-						samples.put(sample_size, new HashMap<Integer, List <String>>());
-					for (int j = 0; j < num_samples; j++)
+					PriorityQueue<KeyedRow> reservoir = reservoirs.get(j);
+					double key = rnd.nextDouble();
+					if (reservoir.size() < max_sample_size)
+						reservoir.add(new KeyedRow(key, line));
+					else if (key < reservoir.peek().key)
 					{
-						//System.out.println(line + " " + sample_size + " " + j);
-						if (!samples.get(sample_size).containsKey(j))
-							samples.get(sample_size).put(j, new ArrayList<String>());
-						List <String> reservoirList = samples.get(sample_size).get(j);
-						if (reservoirList.size() < sample_size)
-							reservoirList.add(line);
-						else
-						{
-							randomNumber = (int)rnd.nextInt(count);
-							if (randomNumber < sample_size)
-							{
-								samples.get(sample_size).get(j).set(randomNumber, line);
-							}
-						}
+						// the row enters every level whose size exceeds its rank
+						reservoir.poll();
+						reservoir.add(new KeyedRow(key, line));
 					}
-				}				
+				}
+			}
+			br.close();
+
+			List<List <String>> samples = new ArrayList<List <String>>(num_samples);
+			for (PriorityQueue<KeyedRow> reservoir : reservoirs)
+			{
+				KeyedRow[] rows = reservoir.toArray(new KeyedRow[reservoir.size()]);
+				Arrays.sort(rows);
+				List <String> sample = new ArrayList<String>(rows.length);
+				for (KeyedRow row : rows)
+					sample.add(row.line);
+				samples.add(sample);
 			}
-			
 			return samples;
 		}
 		catch (Exception e)
 		{
 			System.out.println(e.toString());
 		}
-		
+
 		return null;
-		
-	 }
+	}
+
+	/**
+	 * Samples of sizes N_init * 2^i for i < max_levels, num_samples of each
+	 * size. The samples of one replica are nested: every level is a view of
+	 * the first rows of the largest sample.
+	 */
+	public HashMap<Integer, HashMap<Integer, List <String>>> bulkReservoirSampling (String file, int N_init, int num_samples, int max_levels )
+	{
+		List<List <String>> nested = nestedReservoirSampling(file, levelSize(N_init, max_levels - 1), num_samples);
+		if (nested == null)
+			return null;
+
+		HashMap<Integer, HashMap<Integer, List <String>>> samples = new HashMap<Integer, HashMap<Integer, List <String>>>();
+		for (int i = 0; i < max_levels; i++)
+		{
+			int sample_size = levelSize(N_init, i);
+			HashMap<Integer, List <String>> level = new HashMap<Integer, List <String>>();
+			for (int j = 0; j < num_samples; j++)
+			{
+				List <String> sample = nested.get(j);
+				level.put(j, sample.subList(0, Math.min(sample_size, sample.size())));
+			}
+			samples.put(sample_size, level);
+		}
+		return samples;
+	}
+
+	public static int levelSize (int N_init, int level)
+	{
+		return (int) (N_init * Math.pow(2, level));
+	}
+
+	/**
+	 * Read the sample of the given size from a file holding a larger nested
+	 * sample: its first sample_size rows.
+	 */
+	public List <String> readNestedSample (String file, int sample_size)
+	{
+		try
+		{
+			BufferedReader br = new BufferedReader(new FileReader(new File(file)));
+			List <String> sample = new ArrayList<String>(sample_size);
+			String line;
+			while (sample.size() < sample_size && (line = br.readLine()) != null)
+				sample.add(line);
+			br.close();
+			return sample;
+		}
+		catch (Exception e)
+		{
+			System.out.println(e.toString());
+		}
+
+		return null;
+	}
+
+	private static class KeyedRow implements Comparable<KeyedRow>
+	{
+		final double key;
+		final String line;
+
+		KeyedRow(double key, String line)
+		{
+			this.key = key;
+			this.line = line;
+		}
+
+		public int compareTo(KeyedRow other)
+		{
+			return Double.compare(key, other.key);
+		}
+	}
 }
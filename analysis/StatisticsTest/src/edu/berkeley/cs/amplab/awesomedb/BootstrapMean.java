@@ -32,6 +32,28 @@ public class BootstrapMean {
     public BootstrapMean(double[] sample, int bootstraps) {
         this(sample, bootstraps, sample.length);
     }
+
+    private BootstrapMean(PoissonBootstrap bootstrap, long time) {
+        int bootstraps = bootstrap.getBootstraps();
+        sampleMeans = bootstrap.getMeans(new double[bootstraps]);
+        // the replicas are built together, so each gets an equal share
+        cummulativeTime = new long[bootstraps];
+        java.util.Arrays.fill(cummulativeTime, time / bootstraps);
+        meanTime = (double) time / bootstraps;
+        meanMean = StatisticalMean.Mean(sampleMeans);
+        stdev = bootstrap.MeanStDev();
+    }
+
+    /**
+     * Bootstrap the mean with Poisson(1) weights in a single pass over the
+     * sample instead of materialising every resample.
+     */
+    public static BootstrapMean Poissonized(double[] sample, int bootstraps) {
+        long start = System.nanoTime();
+        PoissonBootstrap bootstrap = new PoissonBootstrap(bootstraps);
+        bootstrap.add(sample);
+        return new BootstrapMean(bootstrap, Math.max(System.nanoTime() - start, 0));
+    }
     
     public double getMeanTime() {
         return meanTime;
@@ -5,6 +5,38 @@ import org.apache.commons.math.random.MersenneTwister;
 
 public class BootstrapSample {
     static MersenneTwister rng = new MersenneTwister();
+
+    // CDF of Poisson(1); the mass above the last entry is below 1e-10, so
+    // weights are capped there
+    static final double[] POISSON_ONE_CDF = new double[14];
+    static {
+        double p = Math.exp(-1.0);
+        double cdf = 0.0;
+        for (int k = 0; k < POISSON_ONE_CDF.length; k++) {
+            cdf += p;
+            POISSON_ONE_CDF[k] = cdf;
+            p /= (k + 1);
+        }
+    }
+
+    /**
+     * Draw a Poisson(1) weight: how many times a row appears in a
+     * Poissonized bootstrap resample. Summed over n rows the weights follow
+     * the multinomial resampling closely for large n, but each row draws its
+     * own, so a resample needs neither the whole sample nor any allocation.
+     */
+    public static int PoissonOneWeight() {
+        return PoissonOneWeight(rng.nextDouble());
+    }
+
+    static int PoissonOneWeight(double u) {
+        int k = 0;
+        while (k < POISSON_ONE_CDF.length - 1 && u > POISSON_ONE_CDF[k]) {
+            k++;
+        }
+        return k;
+    }
+
     public static double[] GenerateSampleWithReplacement(double[] population) {
         /*double[] sample = new double[population.length];
         for (int i = 0; i < population.length; i++) {
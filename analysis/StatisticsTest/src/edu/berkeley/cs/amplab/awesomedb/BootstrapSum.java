@@ -32,6 +32,28 @@ public class BootstrapSum {
     public BootstrapSum(double[] sample, double samplingRate, int bootstraps) {
         this(sample, samplingRate, bootstraps, sample.length);
     }
+
+    private BootstrapSum(PoissonBootstrap bootstrap, double samplingRate, long time) {
+        int bootstraps = bootstrap.getBootstraps();
+        sampleSums = bootstrap.getSums(new double[bootstraps], samplingRate);
+        // the replicas are built together, so each gets an equal share
+        cummulativeTime = new long[bootstraps];
+        java.util.Arrays.fill(cummulativeTime, time / bootstraps);
+        meanTime = (double) time / bootstraps;
+        meanSum = StatisticalMean.Mean(sampleSums);
+        stdev = bootstrap.SumStDev(samplingRate);
+    }
+
+    /**
+     * Bootstrap the sum with Poisson(1) weights in a single pass over the
+     * sample instead of materialising every resample.
+     */
+    public static BootstrapSum Poissonized(double[] sample, double samplingRate, int bootstraps) {
+        long start = System.nanoTime();
+        PoissonBootstrap bootstrap = new PoissonBootstrap(bootstraps);
+        bootstrap.add(sample);
+        return new BootstrapSum(bootstrap, samplingRate, Math.max(System.nanoTime() - start, 0));
+    }
     
     public double getMeanTime() {
         return meanTime;
@@ -0,0 +1,130 @@
+package edu.berkeley.cs.amplab.awesomedb;
+
+/**
+ * Streaming Poissonized bootstrap. Every row added draws a Poisson(1)
+ * weight for each of the bootstrap replicas and updates the replicas'
+ * weighted count, sum and sum of squares, so the bootstrap runs in a single
+ * pass over the rows, in constant memory and without allocating per row or
+ * per replica.
+ */
+public class PoissonBootstrap {
+    // Poisson(1) weight of every 16 bit uniform value, so that one random
+    // long gives the weights of four replicas
+    static final byte[] WEIGHTS = new byte[1 << 16];
+    static {
+        for (int i = 0; i < WEIGHTS.length; i++) {
+            WEIGHTS[i] = (byte) BootstrapSample.PoissonOneWeight((i + 0.5) / WEIGHTS.length);
+        }
+    }
+
+    final long[] counts;
+    final double[] sums;
+    final double[] squares;
+    long seed;
+
+    public PoissonBootstrap(int bootstraps) {
+        this(bootstraps, BootstrapSample.rng.nextLong());
+    }
+
+    public PoissonBootstrap(int bootstraps, long seed) {
+        counts = new long[bootstraps];
+        sums = new double[bootstraps];
+        squares = new double[bootstraps];
+        this.seed = seed == 0 ? 1 : seed;
+    }
+
+    public void add(double value) {
+        long bits = 0;
+        for (int b = 0; b < counts.length; b++) {
+            if ((b & 3) == 0) {
+                // xorshift64, much cheaper than MersenneTwister per draw
+                seed ^= seed << 13;
+                seed ^= seed >>> 7;
+                seed ^= seed << 17;
+                bits = seed;
+            }
+            int weight = WEIGHTS[(int) (bits & 0xFFFF)];
+            bits >>>= 16;
+            if (weight != 0) {
+                counts[b] += weight;
+                sums[b] += weight * value;
+                squares[b] += weight * value * value;
+            }
+        }
+    }
+
+    public void add(double[] values) {
+        for (double value : values) {
+            add(value);
+        }
+    }
+
+    public int getBootstraps() {
+        return counts.length;
+    }
+
+    public double getMean(int bootstrap) {
+        return counts[bootstrap] == 0 ? 0.0 : sums[bootstrap] / counts[bootstrap];
+    }
+
+    public double getSum(int bootstrap, double samplingRate) {
+        return sums[bootstrap] * (1.0d / samplingRate);
+    }
+
+    public double getVariance(int bootstrap) {
+        if (counts[bootstrap] == 0) {
+            return 0.0;
+        }
+        double mean = getMean(bootstrap);
+        return squares[bootstrap] / counts[bootstrap] - mean * mean;
+    }
+
+    public double[] getMeans(double[] out) {
+        for (int b = 0; b < counts.length; b++) {
+            out[b] = getMean(b);
+        }
+        return out;
+    }
+
+    public double[] getSums(double[] out, double samplingRate) {
+        for (int b = 0; b < counts.length; b++) {
+            out[b] = getSum(b, samplingRate);
+        }
+        return out;
+    }
+
+    /**
+     * @return the standard deviation of the replica means, the bootstrap
+     *         estimate of the standard error of the mean
+     */
+    public double MeanStDev() {
+        double mean = 0.0;
+        for (int b = 0; b < counts.length; b++) {
+            mean += getMean(b);
+        }
+        mean /= counts.length;
+        double m2 = 0.0;
+        for (int b = 0; b < counts.length; b++) {
+            double d = getMean(b) - mean;
+            m2 += d * d;
+        }
+        return Math.sqrt(m2 / counts.length);
+    }
+
+    /**
+     * @return the standard deviation of the replica sums
+     */
+    public double SumStDev(double samplingRate) {
+        double mean = 0.0;
+        for (int b = 0; b < counts.length; b++) {
+            mean += getSum(b, samplingRate);
+        }
+        mean /= counts.length;
+        double m2 = 0.0;
+        for (int b = 0; b < counts.length; b++) {
+            double d = getSum(b, samplingRate) - mean;
+            m2 += d * d;
+        }
+        return Math.sqrt(m2 / counts.length);
+    }
+}
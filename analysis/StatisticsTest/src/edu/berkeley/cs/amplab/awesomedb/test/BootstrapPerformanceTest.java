@@ -32,12 +32,16 @@ public class BootstrapPerformanceTest {
         final long TESTS = 500;
         final int SMOOTHING = 1000;
         final int SampleSize = 10000000;
+        // "poisson" bootstraps with Poisson(1) weights in one pass
+        final boolean poissonized = args.length > 0 && args[0].equals("poisson");
         double[] samples = GenerateNormalSample(SampleSize);
         double closedFormError = StatisticalMean.StandardError(samples);
         System.out.println("Start computing bootstraps");
         BootstrapMean bootstraps[] = new BootstrapMean[SMOOTHING];
         for(int i = 0; i < bootstraps.length; i++) {
-            bootstraps[i] = new BootstrapMean(samples, (int)(TESTS*100));
+            bootstraps[i] = poissonized
+                    ? BootstrapMean.Poissonized(samples, (int)(TESTS*100))
+                    : new BootstrapMean(samples, (int)(TESTS*100));
         }
         System.out.println("Done computing bootstraps");
         FileWriter file = new FileWriter(String.format("bootstrap.dat"));
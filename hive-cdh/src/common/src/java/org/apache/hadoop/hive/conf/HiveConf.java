@@ -261,6 +261,8 @@ public class HiveConf extends Configuration {
     HIVEGROUPBYSKEW("hive.groupby.skewindata", "false"),
     HIVEJOINEMITINTERVAL("hive.join.emit.interval", 1000),
     HIVEJOINCACHESIZE("hive.join.cache.size", 25000),
+    HIVEJOINSPILLBLOCKS("hive.join.spill.blocks", false),
+    HIVEJOINSPILLCODEC("hive.join.spill.codec", ""),
     HIVEMAPJOINBUCKETCACHESIZE("hive.mapjoin.bucket.cache.size", 100),
     HIVEMAPJOINROWSIZE("hive.mapjoin.size.key", 10000),
     HIVEMAPJOINCACHEROWS("hive.mapjoin.cache.numrows", 25000),
@@ -269,6 +271,10 @@ public class HiveConf extends Configuration {
     HIVEMAPJOINFOLLOWEDBYMAPAGGRHASHMEMORY("hive.mapjoin.followby.map.aggr.hash.percentmemory", (float) 0.3),
     HIVEMAPAGGRMEMORYTHRESHOLD("hive.map.aggr.hash.force.flush.memory.threshold", (float) 0.9),
     HIVEMAPAGGRHASHMINREDUCTION("hive.map.aggr.hash.min.reduction", (float) 0.5),
+    HIVEMAPAGGRHASHOFFHEAP("hive.map.aggr.hash.offheap", false),
+    HIVEMAPAGGRHASHSPILL("hive.map.aggr.hash.spill", false),
+    HIVEMAPAGGRHASHSPILLPARTITIONS("hive.map.aggr.hash.spill.partitions", 16),
+    HIVEVECTORIZEDEXECUTION("hive.vectorized.execution.enabled", false),
 
     // for hive udtf operator
     HIVEUDTFAUTOPROGRESS("hive.udtf.auto.progress", false),
@@ -328,6 +334,7 @@ public class HiveConf extends Configuration {
     HIVEHASHTABLEFOLLOWBYGBYMAXMEMORYUSAGE("hive.mapjoin.followby.gby.localtask.max.memory.usage", (float) 0.55),
     HIVEHASHTABLEMAXMEMORYUSAGE("hive.mapjoin.localtask.max.memory.usage", (float) 0.90),
     HIVEHASHTABLESCALE("hive.mapjoin.check.memory.rows", (long)100000),
+    HIVEHASHTABLEMMAP("hive.mapjoin.hashtable.mmap", false),
 
     HIVEDEBUGLOCALTASK("hive.debug.localtask",false),
 
@@ -343,11 +350,16 @@ public class HiveConf extends Configuration {
 
     HIVE_COMBINE_INPUT_FORMAT_SUPPORTS_SPLITTABLE("hive.hadoop.supports.splittable.combineinputformat", false),
 
+    HIVERCFILECOLUMNSTATS("hive.io.rcfile.column.stats", false),
+    HIVERCFILECOLUMNENCODING("hive.io.rcfile.column.encoding", false),
+
     // Optimizer
     HIVEOPTCP("hive.optimize.cp", true), // column pruner
     HIVEOPTPPD("hive.optimize.ppd", true), // predicate pushdown
     // push predicates down to storage handlers
     HIVEOPTPPD_STORAGE("hive.optimize.ppd.storage", true),
+    // skip RCFile row groups by their column stats
+    HIVEOPTPPD_RCFILE("hive.optimize.ppd.rcfile", false),
     HIVEOPTGROUPBY("hive.optimize.groupby", true), // optimize group by
     HIVEOPTBUCKETMAPJOIN("hive.optimize.bucketmapjoin", false), // optimize bucket map join
     HIVEOPTSORTMERGEBUCKETMAPJOIN("hive.optimize.bucketmapjoin.sortedmerge", false), // try to use sorted merge bucket map join
@@ -428,6 +440,16 @@ public class HiveConf extends Configuration {
     SAMPLE_SIZE_LEVEL_3("quicksilver.sample.level.size.3", 8),
     SAMPLE_SIZE_LEVEL_4("quicksilver.sample.level.size.4", 16),
     SAMPLE_SIZE_LEVEL_5("quicksilver.sample.level.size.5", 32),
+    // sample catalog and cost model
+    QUICKSILVER_CONFIDENCE_Z("quicksilver.costmodel.confidence.z", (float) 1.96),
+    QUICKSILVER_COSTMODEL_CV("quicksilver.costmodel.cv", (float) 1.0),
+    QUICKSILVER_SCAN_RATE("quicksilver.costmodel.scan.rate", 64L * 1024 * 1024),
+    QUICKSILVER_JOB_COST("quicksilver.costmodel.job.cost", (float) 10.0),
+    QUICKSILVER_PROFILE_ENABLED("quicksilver.profile.enable", false),
+    // online aggregation
+    QUICKSILVER_ONLINE_ENABLED("quicksilver.online.enable", false),
+    QUICKSILVER_ONLINE_WAVE_SPLITS("quicksilver.online.wave.splits", 4),
+    QUICKSILVER_ONLINE_REPORT_ROWS("quicksilver.online.report.rows", 10),
     ;
 
 
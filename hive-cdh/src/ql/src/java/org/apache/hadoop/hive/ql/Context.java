@@ -54,6 +54,10 @@ public class Context {
 
   //sameerag: Adding Execution Flag for Sample Table Creation
   public int executionFlag;
+
+  // sample table to read for a base table, decided before compilation by the
+  // error-latency profile; overrides the static sample selection
+  private Map<String, String> sampleOverrides = new HashMap<String, String>();
   
   private Path resFile;
   private Path resDir;
@@ -447,6 +451,14 @@ public class Context {
     return tokenRewriteStream;
   }
 
+  public Map<String, String> getSampleOverrides() {
+    return sampleOverrides;
+  }
+
+  public void setSampleOverrides(Map<String, String> sampleOverrides) {
+    this.sampleOverrides = sampleOverrides;
+  }
+
   /**
    * Generate a unique executionId.  An executionId, together with user name and
    * the configuration, will determine the temporary locations of all intermediate
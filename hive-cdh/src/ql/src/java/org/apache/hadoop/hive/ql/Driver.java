@@ -46,6 +46,7 @@ import org.apache.hadoop.hive.conf.HiveConf;
 import org.apache.hadoop.hive.metastore.MetaStoreUtils;
 import org.apache.hadoop.hive.metastore.api.FieldSchema;
 import org.apache.hadoop.hive.metastore.api.Schema;
+import org.apache.hadoop.hive.ql.costmodel.SampleInfo;
 import org.apache.hadoop.hive.ql.exec.ConditionalTask;
 import org.apache.hadoop.hive.ql.exec.ExecDriver;
 import org.apache.hadoop.hive.ql.exec.FetchTask;
@@ -126,6 +127,10 @@ public class Driver implements CommandProcessor {
   private String errorMessage;
   private String SQLState;
 
+  // sample table overrides handed to the next compiled query, set by the
+  // error-latency profile
+  private Map<String, String> sampleOverrides = new HashMap<String, String>();
+
   // A limit on the number of threads that can be launched
   private int maxthreads;
   private final int sleeptime = 2000;
@@ -332,6 +337,7 @@ public class Driver implements CommandProcessor {
       command = new VariableSubstitution().substitute(conf,command);
       ctx = new Context(conf);
       ctx.executionFlag = executionFlag;
+      ctx.setSampleOverrides(sampleOverrides);
 
       ParseDriver pd = new ParseDriver();
       ASTNode tree = pd.parse(command, ctx);
@@ -779,6 +785,10 @@ public class Driver implements CommandProcessor {
 			LOG.info(e.toString());
 		  }
 	  }	  */
+	  else if (HiveConf.getBoolVar(conf, HiveConf.ConfVars.QUICKSILVER_PROFILE_ENABLED))
+	  {
+		  ret = runWithErrorLatencyProfile(command);
+	  }
 	  else
 	  {
 		  ret = run(command, -1);
@@ -787,6 +797,67 @@ public class Driver implements CommandProcessor {
 	  return ret;
   }
 
+  /**
+   * Run a bounded query in two stages: a probe on the smallest sample of its
+   * table builds the error-latency profile of the query, and the profile then
+   * selects the sample the query is run on. Commands without a WITHMAXERROR
+   * or INTIME clause, and queries that cannot be profiled or whose probe
+   * fails, run with the static sample selection.
+   */
+  protected CommandProcessorResponse runWithErrorLatencyProfile(String command) {
+    ErrorLatencyProfiler profiler = new ErrorLatencyProfiler(conf);
+    String probeQuery = null;
+    try {
+      probeQuery = profiler.prepare(
+          new VariableSubstitution().substitute(conf, command), Hive.get(conf));
+    } catch (Exception e) {
+      LOG.warn("Unable to profile query, using static sample selection: "
+          + org.apache.hadoop.util.StringUtils.stringifyException(e));
+    }
+    if (probeQuery == null) {
+      return run(command, -1);
+    }
+
+    console.printInfo("Profiling query on sample " + profiler.getProbe().getSampleTable());
+    long start = System.currentTimeMillis();
+    CommandProcessorResponse probeRet = run(probeQuery, -1);
+    ArrayList<String> probeRows = new ArrayList<String>();
+    if (probeRet.getResponseCode() == 0) {
+      try {
+        ArrayList<String> res = new ArrayList<String>();
+        while (getResults(res)) {
+          probeRows.addAll(res);
+          res.clear();
+        }
+      } catch (IOException e) {
+        probeRet = new CommandProcessorResponse(1);
+      }
+    }
+    double probeSeconds = (System.currentTimeMillis() - start) / 1000.0;
+    close();
+    if (probeRet.getResponseCode() != 0) {
+      LOG.warn("Probe query failed, using static sample selection: " + probeQuery);
+      return run(command, -1);
+    }
+
+    SampleInfo sample = profiler.selectSample(profiler.buildProfile(probeRows, probeSeconds));
+    String baseTable = profiler.getBaseTable();
+    sampleOverrides.put(baseTable, sample == null ? baseTable : sample.getSampleTable());
+    try {
+      return run(command, -1);
+    } finally {
+      sampleOverrides.clear();
+    }
+  }
+
+  /**
+   * @return the sample tables the next compiled query reads instead of its
+   *         base tables
+   */
+  protected Map<String, String> getSampleOverrides() {
+    return sampleOverrides;
+  }
+
   public CommandProcessorResponse run(String command, int executionFlag) {
 	  errorMessage = null;
 	  SQLState = null;
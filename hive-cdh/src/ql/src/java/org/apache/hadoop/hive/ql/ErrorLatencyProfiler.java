@@ -0,0 +1,275 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.antlr.runtime.TokenRewriteStream;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.ql.costmodel.Bounds;
+import org.apache.hadoop.hive.ql.costmodel.CostModel;
+import org.apache.hadoop.hive.ql.costmodel.ErrorLatencyProfile;
+import org.apache.hadoop.hive.ql.costmodel.SampleCatalog;
+import org.apache.hadoop.hive.ql.costmodel.SampleInfo;
+import org.apache.hadoop.hive.ql.metadata.Hive;
+import org.apache.hadoop.hive.ql.parse.ASTNode;
+import org.apache.hadoop.hive.ql.parse.BaseSemanticAnalyzer;
+import org.apache.hadoop.hive.ql.parse.HiveParser;
+import org.apache.hadoop.hive.ql.parse.ParseDriver;
+import org.apache.hadoop.hive.ql.parse.ParseException;
+import org.apache.hadoop.hive.ql.parse.ParseUtils;
+
+/**
+ * ErrorLatencyProfiler.
+ *
+ * Builds the error-latency profile of a bounded query. The query is first
+ * run on the smallest uniform sample of its table as a probe that measures,
+ * for every group, the row count and the mean and variance of the aggregated
+ * columns. The profile extrapolated from the probe then picks the sample the
+ * query is re-run on. Only single-table SELECT queries are profiled; anything
+ * else keeps the static sample selection of the {@link CostModel}.
+ */
+public class ErrorLatencyProfiler {
+
+  static final private Log LOG = LogFactory.getLog(ErrorLatencyProfiler.class.getName());
+
+  /**
+   * Aggregates whose error the profile knows how to extrapolate.
+   */
+  private static enum AggregateKind {
+    COUNT, SUM, AVG
+  };
+
+  private final HiveConf conf;
+  private final Bounds bounds = new Bounds();
+  private final List<AggregateKind> aggregates = new ArrayList<AggregateKind>();
+  private final List<String> aggregateArgs = new ArrayList<String>();
+
+  private String baseTable;
+  private String alias;
+  private String whereText;
+  private String groupByText;
+  private final Set<String> queryColumns = new HashSet<String>();
+  private SampleInfo probe;
+  private List<SampleInfo> samples;
+
+  public ErrorLatencyProfiler(HiveConf conf) {
+    this.conf = conf;
+  }
+
+  public String getBaseTable() {
+    return baseTable;
+  }
+
+  public SampleInfo getProbe() {
+    return probe;
+  }
+
+  /**
+   * Analyze the command and build its probe query. Only a query with a
+   * WITHMAXERROR or INTIME clause is profiled.
+   *
+   * @return the probe query, or null if the command cannot be profiled
+   */
+  public String prepare(String command, Hive db) throws Exception {
+    Context ctx = new Context(conf);
+    try {
+      ASTNode tree;
+      try {
+        tree = ParseUtils.findRootNonNullToken(new ParseDriver().parse(command, ctx));
+      } catch (ParseException e) {
+        // left to the compilation of the command to report
+        return null;
+      }
+      if (!analyze(tree, ctx.getTokenRewriteStream()) || !bounds.isInitialized()) {
+        return null;
+      }
+    } finally {
+      ctx.clear();
+    }
+
+    samples = new SampleCatalog(db).getSamples(baseTable);
+    for (SampleInfo sample : samples) {
+      // the probe statistics are unweighted, so only a uniform sample is probed
+      if (sample.getRowCount() > 0 && !sample.isStratified()
+          && (probe == null || sample.getRowCount() < probe.getRowCount())) {
+        probe = sample;
+      }
+    }
+    if (probe == null) {
+      return null;
+    }
+
+    StringBuilder query = new StringBuilder("SELECT count(1)");
+    for (String arg : aggregateArgs) {
+      if (arg != null) {
+        query.append(", avg(").append(arg).append("), var_samp(").append(arg).append(")");
+      }
+    }
+    query.append(" FROM ").append(probe.getSampleTable()).append(" ").append(alias);
+    if (whereText != null) {
+      query.append(" WHERE ").append(whereText);
+    }
+    if (groupByText != null) {
+      query.append(" GROUP BY ").append(groupByText);
+    }
+    return query.toString();
+  }
+
+  private boolean analyze(ASTNode tree, TokenRewriteStream tokens) {
+    if (tree.getToken().getType() != HiveParser.TOK_QUERY) {
+      return false;
+    }
+    ASTNode from = (ASTNode) tree.getFirstChildWithType(HiveParser.TOK_FROM);
+    ASTNode insert = (ASTNode) tree.getFirstChildWithType(HiveParser.TOK_INSERT);
+    if (from == null || insert == null
+        || ((ASTNode) from.getChild(0)).getToken().getType() != HiveParser.TOK_TABREF) {
+      return false;
+    }
+
+    ASTNode tabRef = (ASTNode) from.getChild(0);
+    ASTNode tabName = (ASTNode) tabRef.getChild(0);
+    if (tabName.getChildCount() != 1) {
+      // db-qualified names are not looked up in the catalog
+      return false;
+    }
+    baseTable = BaseSemanticAnalyzer.unescapeIdentifier(tabName.getChild(0).getText());
+    alias = baseTable;
+    for (int i = 1; i < tabRef.getChildCount(); i++) {
+      if (tabRef.getChild(i).getType() == HiveParser.Identifier) {
+        alias = tabRef.getChild(i).getText();
+      }
+    }
+
+    for (int i = 0; i < insert.getChildCount(); i++) {
+      ASTNode child = (ASTNode) insert.getChild(i);
+      switch (child.getToken().getType()) {
+      case HiveParser.TOK_SELECT:
+        collectAggregates(child, tokens);
+        break;
+      case HiveParser.TOK_WHERE:
+        whereText = text((ASTNode) child.getChild(0), tokens);
+        ParseUtils.getColumnReferences((ASTNode) child.getChild(0), alias, queryColumns);
+        break;
+      case HiveParser.TOK_GROUPBY:
+        StringBuilder groupBy = new StringBuilder();
+        for (int j = 0; j < child.getChildCount(); j++) {
+          if (j > 0) {
+            groupBy.append(", ");
+          }
+          groupBy.append(text((ASTNode) child.getChild(j), tokens));
+          ParseUtils.getColumnReferences((ASTNode) child.getChild(j), alias, queryColumns);
+        }
+        groupByText = groupBy.toString();
+        break;
+      case HiveParser.TOK_WITHMAXERROR:
+        bounds.errorBound = Double.parseDouble(child.getChild(0).getText());
+        break;
+      case HiveParser.TOK_INTIME:
+        bounds.timeBound = Double.parseDouble(child.getChild(0).getText());
+        break;
+      default:
+        break;
+      }
+    }
+    return true;
+  }
+
+  private void collectAggregates(ASTNode node, TokenRewriteStream tokens) {
+    int type = node.getToken().getType();
+    if (type == HiveParser.TOK_FUNCTIONSTAR || type == HiveParser.TOK_FUNCTION) {
+      String name = node.getChild(0).getText().toLowerCase();
+      if (name.equals("count")) {
+        aggregates.add(AggregateKind.COUNT);
+        aggregateArgs.add(null);
+        return;
+      } else if (type == HiveParser.TOK_FUNCTION && node.getChildCount() == 2
+          && (name.equals("sum") || name.equals("avg"))) {
+        aggregates.add(name.equals("sum") ? AggregateKind.SUM : AggregateKind.AVG);
+        aggregateArgs.add(text((ASTNode) node.getChild(1), tokens));
+        return;
+      }
+    }
+    for (int i = 0; i < node.getChildCount(); i++) {
+      collectAggregates((ASTNode) node.getChild(i), tokens);
+    }
+  }
+
+  private static String text(ASTNode node, TokenRewriteStream tokens) {
+    return tokens.toString(node.getTokenStartIndex(), node.getTokenStopIndex());
+  }
+
+  /**
+   * Build the profile from the rows returned by the probe query. The profile
+   * lives for the query only: nothing is written to the metastore.
+   */
+  public ErrorLatencyProfile buildProfile(List<String> probeRows, double probeSeconds) {
+    double cv = HiveConf.getFloatVar(conf, HiveConf.ConfVars.QUICKSILVER_COSTMODEL_CV);
+    double jobSeconds = HiveConf.getFloatVar(conf, HiveConf.ConfVars.QUICKSILVER_JOB_COST);
+    ErrorLatencyProfile profile = new ErrorLatencyProfile(probe, probeSeconds, jobSeconds, cv);
+    for (String row : probeRows) {
+      String[] fields = row.split("\t", -1);
+      long groupRows = (long) parse(fields[0]);
+      int col = 1;
+      for (int i = 0; i < aggregates.size(); i++) {
+        if (aggregates.get(i) == AggregateKind.COUNT) {
+          profile.addCount(groupRows);
+          continue;
+        }
+        double mean = parse(fields[col]);
+        double variance = parse(fields[col + 1]);
+        col += 2;
+        if (aggregates.get(i) == AggregateKind.SUM) {
+          profile.addSum(groupRows, mean, variance);
+        } else {
+          profile.addAvg(groupRows, mean, variance);
+        }
+      }
+      if (aggregates.isEmpty()) {
+        profile.addCount(groupRows);
+      }
+    }
+    return profile;
+  }
+
+  private static double parse(String field) {
+    try {
+      return Double.parseDouble(field);
+    } catch (NumberFormatException e) {
+      // NULL, e.g. the variance of a single-row group
+      return Double.NaN;
+    }
+  }
+
+  /**
+   * @return the sample to re-run the query on, or null for the base table
+   */
+  public SampleInfo selectSample(ErrorLatencyProfile profile) {
+    SampleInfo sample = CostModel.getInstance().selectSample(samples, profile, bounds, conf,
+        queryColumns);
+    LOG.info("Error-latency " + profile + " selected "
+        + (sample == null ? baseTable : sample.getSampleTable()));
+    return sample;
+  }
+}
@@ -16,4 +16,12 @@ public class Bounds {
 		}
 		return false;
 	}
+
+	public boolean hasErrorBound() {
+		return this.errorBound > 0.0;
+	}
+
+	public boolean hasTimeBound() {
+		return this.timeBound > 0.0;
+	}
 }
\ No newline at end of file
@@ -1,90 +1,243 @@
 package org.apache.hadoop.hive.ql.costmodel;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.Map;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.StringTokenizer;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
 
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+
+/**
+ * Picks the sample a query runs on. Samples come from the {@link SampleCatalog};
+ * the model predicts the relative error and the scan latency of each one and
+ * returns the cheapest sample that satisfies the query bounds.
+ *
+ * A stratified sample only serves the queries whose columns, the columns of
+ * their WHERE and GROUP BY clauses, are all among its strata columns: every
+ * group of such a query keeps at least cap rows, or all of its rows, so the
+ * error of the query is the one of cap rows. Other queries may lose groups
+ * on it, and run on a uniform sample or the base table.
+ */
 public class CostModel {
-	
-  HashMap<Double, HashMap<Double, String>> CostModelHashMap = null;
 
   private static final CostModel _instance = new CostModel();
-  
+
   public static CostModel getInstance() {
 	  return _instance;
   }
-  
+
   private CostModel() {
-    CostModelHashMap = new HashMap<Double, HashMap<Double, String>>();
-    Map<String, String> envMap = System.getenv();
-    String filePath = envMap.get("HIVE_HOME") + "/lib/dummy.csv";
-    try { 
-    	populateCostModelHashMap(filePath);
-    } catch (Exception ex) {
-    	System.out.println("populateCostModelHashMap returned exception");
+  }
+
+  /**
+   * Predicted relative error of a mean-like aggregate over the sample:
+   * z * cv * sqrt((1 - f) / n), with f the sampling rate when it is known.
+   */
+  public double predictError(SampleInfo sample, double cv, double z) {
+    if (getErrorRows(sample) <= 0) {
+      return Double.MAX_VALUE;
+    }
+    double fpc = 1.0;
+    double rate = sample.getSamplingRate();
+    if (rate > 0 && rate < 1) {
+      fpc = 1.0 - rate;
+    }
+    return z * cv * Math.sqrt(fpc / getErrorRows(sample));
+  }
+
+  /**
+   * @return the rows the error of a query on the sample is predicted from:
+   *         the cap of a stratified sample, the rows of a uniform one
+   */
+  public long getErrorRows(SampleInfo sample) {
+    if (sample.isStratified() && sample.getStrataCap() > 0) {
+      return Math.min(sample.getStrataCap(), sample.getRowCount());
     }
+    return sample.getRowCount();
   }
 
   /**
-   * Populate the cost model HashMap from the file.
-   * @param fileName
+   * @param queryColumns
+   *          the lower case columns of the query on the base table, or null
+   *          if they are unknown
+   * @return true if the sample can answer a query on these columns: it is
+   *         uniform, or stratified on all of them
    */
-  private void populateCostModelHashMap(String fileName) throws IOException {
-
-    String lineRead = "";
-    StringTokenizer strToken = null;
-    Double errorBound, timeBound;
-    String sampleDataset;
-
-    // This file has data in the form:
-    // <errorBound, timeBound, sampleDataset>
-    InputStream inStream = null;
-    try {
-    	//inStream = getClass().getResourceAsStream(fileName);
-    	inStream = new FileInputStream(new File(fileName));
-    } catch (Exception ex) {
-    	System.out.println("Cannot load " + fileName + "!");
-    	return;
+  public boolean covers(SampleInfo sample, Set<String> queryColumns) {
+    if (!sample.isStratified()) {
+      return true;
     }
-    
-    BufferedReader bufReader = new BufferedReader(new InputStreamReader(inStream));
-    while ((lineRead = bufReader.readLine()) != null) {
-
-      strToken = new StringTokenizer(lineRead, ",");
-
-      errorBound = timeBound = 0.0;
-      sampleDataset = "";
-      errorBound = Double.parseDouble(strToken.nextToken());
-      timeBound = Double.parseDouble(strToken.nextToken());
-      sampleDataset = strToken.nextToken();
-
-      HashMap<Double, String> innerHashMap;
-      if (!CostModelHashMap.containsKey(errorBound)) {
-        innerHashMap = new HashMap<Double, String>();
-        CostModelHashMap.put(errorBound, innerHashMap);
-      } else {
-        innerHashMap = CostModelHashMap.get(errorBound);
+    return queryColumns != null && sample.getStrataColumns().containsAll(queryColumns);
+  }
+
+  /**
+   * Number of rows a uniform sample needs so that the predicted relative
+   * error stays within errorBound. This ignores the finite population
+   * correction, so it never underestimates.
+   */
+  public long requiredRows(double errorBound, double cv, double z) {
+    double n = (z * cv / errorBound) * (z * cv / errorBound);
+    return (long) Math.ceil(n);
+  }
+
+  /**
+   * Predicted time in seconds to run a query on the sample: the fixed job
+   * cost, plus the measured scan cost if there is one, otherwise the size
+   * divided by the configured scan rate.
+   */
+  public double predictLatency(SampleInfo sample, long scanRate, double jobSeconds) {
+    if (sample.getScanCost() >= 0) {
+      return jobSeconds + sample.getScanCost();
+    }
+    return jobSeconds + ((double) sample.getSampleSize()) / scanRate;
+  }
+
+  /**
+   * Select the sample to run on.
+   *
+   * With an error bound, this is the cheapest sample predicted to meet it (and
+   * the time bound, if any). If no sample meets both, a time bound wins and
+   * the most accurate sample that fits in time is returned. With only a time
+   * bound, it is the most accurate sample that fits in time.
+   *
+   * @return the selected sample, or null if the query should scan the base
+   *         table
+   */
+  public SampleInfo selectSample(List<SampleInfo> samples, Bounds bounds,
+      HiveConf conf) {
+    return selectSample(samples, bounds, conf, null);
+  }
+
+  /**
+   * Select the sample to run a query on the given columns on, like
+   * {@link #selectSample(List, Bounds, HiveConf)}, among the samples that
+   * cover the columns.
+   */
+  public SampleInfo selectSample(List<SampleInfo> samples, Bounds bounds,
+      HiveConf conf, Set<String> queryColumns) {
+    double z = HiveConf.getFloatVar(conf, HiveConf.ConfVars.QUICKSILVER_CONFIDENCE_Z);
+    double cv = HiveConf.getFloatVar(conf, HiveConf.ConfVars.QUICKSILVER_COSTMODEL_CV);
+    long scanRate = HiveConf.getLongVar(conf, HiveConf.ConfVars.QUICKSILVER_SCAN_RATE);
+    double jobSeconds = HiveConf.getFloatVar(conf, HiveConf.ConfVars.QUICKSILVER_JOB_COST);
+
+    long minRows = bounds.hasErrorBound() ? requiredRows(bounds.errorBound, cv, z) : 0;
+    Map<SampleInfo, Double> latencies = new HashMap<SampleInfo, Double>();
+    for (SampleInfo sample : samples) {
+      latencies.put(sample, predictLatency(sample, scanRate, jobSeconds));
+    }
+    return selectSample(samples, minRows, latencies, bounds, queryColumns);
+  }
+
+  /**
+   * Select the sample to run on, like {@link #selectSample(List, Bounds,
+   * HiveConf)}, but with the error and latency extrapolated from a probe run
+   * of the query instead of the static predictions.
+   */
+  public SampleInfo selectSample(List<SampleInfo> samples,
+      ErrorLatencyProfile profile, Bounds bounds, HiveConf conf) {
+    return selectSample(samples, profile, bounds, conf, null);
+  }
+
+  /**
+   * Select the sample to run a query on the given columns on, like
+   * {@link #selectSample(List, ErrorLatencyProfile, Bounds, HiveConf)}, among
+   * the samples that cover the columns.
+   */
+  public SampleInfo selectSample(List<SampleInfo> samples,
+      ErrorLatencyProfile profile, Bounds bounds, HiveConf conf,
+      Set<String> queryColumns) {
+    double z = HiveConf.getFloatVar(conf, HiveConf.ConfVars.QUICKSILVER_CONFIDENCE_Z);
+
+    long minRows = bounds.hasErrorBound() ? profile.requiredRows(bounds.errorBound, z) : 0;
+    Map<SampleInfo, Double> latencies = new HashMap<SampleInfo, Double>();
+    for (SampleInfo sample : samples) {
+      latencies.put(sample, profile.predictLatency(sample.getRowCount()));
+    }
+    return selectSample(samples, minRows, latencies, bounds, queryColumns);
+  }
+
+  private SampleInfo selectSample(List<SampleInfo> samples, long minRows,
+      Map<SampleInfo, Double> latencies, Bounds bounds, Set<String> queryColumns) {
+    // Index the samples that cover the query by the rows their error is
+    // predicted from; the error bound then turns into a range query over it.
+    TreeMap<Long, List<SampleInfo>> byRows = new TreeMap<Long, List<SampleInfo>>();
+    for (SampleInfo sample : samples) {
+      long rows = getErrorRows(sample);
+      if (rows <= 0 || !covers(sample, queryColumns)) {
+        continue;
+      }
+      List<SampleInfo> sameRows = byRows.get(rows);
+      if (sameRows == null) {
+        sameRows = new ArrayList<SampleInfo>();
+        byRows.put(rows, sameRows);
+      }
+      sameRows.add(sample);
+    }
+
+    if (bounds.hasErrorBound()) {
+      SampleInfo best = null;
+      double bestLatency = Double.MAX_VALUE;
+      for (List<SampleInfo> sameRows : byRows.tailMap(minRows, true).values()) {
+        for (SampleInfo sample : sameRows) {
+          double latency = latencies.get(sample);
+          if (bounds.hasTimeBound() && latency > bounds.timeBound) {
+            continue;
+          }
+          if (latency < bestLatency) {
+            best = sample;
+            bestLatency = latency;
+          }
+        }
+      }
+      if (best != null || !bounds.hasTimeBound()) {
+        return best;
+      }
+    }
+
+    // Most accurate sample that fits in the time bound.
+    NavigableMap<Long, List<SampleInfo>> smaller = bounds.hasErrorBound()
+        ? byRows.headMap(minRows, false) : byRows;
+    for (Map.Entry<Long, List<SampleInfo>> entry : smaller.descendingMap().entrySet()) {
+      for (SampleInfo sample : entry.getValue()) {
+        if (latencies.get(sample) <= bounds.timeBound) {
+          return sample;
+        }
       }
-      innerHashMap.put(timeBound, sampleDataset);
     }
+    return null;
   }
 
   /**
-   * Find the sampled dataset table corresponding to the given error and time bounds.
-   * @param errorBound
-   * @param timeBound
-   * @return
+   * Find the sample table a query on baseTable should read under the given
+   * bounds.
+   *
+   * @return the sample table name, or null to keep the base table
    */
-  public String getSampledTableName(Double errorBound, Double timeBound) {
-	  if (CostModelHashMap.get(errorBound) != null)
-		  return (CostModelHashMap.get(errorBound)).get(timeBound);
-	  else
-		  return null;
+  public String getSampledTableName(SampleCatalog catalog, String baseTable,
+      Bounds bounds, HiveConf conf) throws HiveException {
+    return getSampledTableName(catalog, baseTable, bounds, conf, null);
+  }
+
+  /**
+   * Find the sample table a query on the given columns of baseTable should
+   * read under the given bounds.
+   *
+   * @param queryColumns
+   *          the lower case columns of the query on the base table, or null
+   *          if they are unknown, in which case no stratified sample is used
+   * @return the sample table name, or null to keep the base table
+   */
+  public String getSampledTableName(SampleCatalog catalog, String baseTable,
+      Bounds bounds, HiveConf conf, Set<String> queryColumns) throws HiveException {
+    if (!bounds.isInitialized()) {
+      return null;
+    }
+    SampleInfo sample = selectSample(catalog.getSamples(baseTable), bounds, conf,
+        queryColumns);
+    return sample == null ? null : sample.getSampleTable();
   }
-}
\ No newline at end of file
+}
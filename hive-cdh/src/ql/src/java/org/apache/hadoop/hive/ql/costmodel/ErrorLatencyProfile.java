@@ -0,0 +1,152 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.costmodel;
+
+/**
+ * ErrorLatencyProfile.
+ *
+ * What a probe run of a query on a small sample tells about the query: how
+ * the error of its answer and its latency grow with the sample size. The
+ * relative error of every group shrinks as 1/sqrt(rows), and the latency is
+ * a fixed cost to launch the job plus a cost per row read, so both can be
+ * extrapolated from the probe.
+ */
+public class ErrorLatencyProfile {
+
+  private final SampleInfo probe;
+  private final double probeSeconds;
+  private final double jobSeconds;
+  // seconds per row read, measured by the probe past the fixed job cost
+  private final double rowSeconds;
+  // relative variance assumed when the probe cannot measure one, e.g. for a
+  // group with a single row
+  private final double defaultRelVariance;
+
+  // max over groups and aggregates of (relative variance / group rows) at the
+  // probe size; the squared relative error of the answer is z^2 times this
+  private double worstUnitVariance;
+  private int numGroups;
+
+  /**
+   * @param probeSeconds
+   *          the time the probe query took
+   * @param jobSeconds
+   *          the fixed cost of a query, whatever the rows it reads
+   * @param defaultCv
+   *          the coefficient of variation assumed where the probe measures none
+   */
+  public ErrorLatencyProfile(SampleInfo probe, double probeSeconds,
+      double jobSeconds, double defaultCv) {
+    this.probe = probe;
+    this.probeSeconds = probeSeconds;
+    this.jobSeconds = jobSeconds;
+    rowSeconds = probe.getRowCount() > 0
+        ? Math.max(0.0, probeSeconds - jobSeconds) / probe.getRowCount() : 0.0;
+    defaultRelVariance = defaultCv * defaultCv;
+  }
+
+  public SampleInfo getProbe() {
+    return probe;
+  }
+
+  public double getProbeSeconds() {
+    return probeSeconds;
+  }
+
+  public int getNumGroups() {
+    return numGroups;
+  }
+
+  /**
+   * Account for a COUNT over a group with groupRows rows in the probe.
+   */
+  public void addCount(long groupRows) {
+    addGroup(groupRows, 1.0);
+  }
+
+  /**
+   * Account for an AVG over a group, given the mean and variance of the
+   * aggregated column in the probe.
+   */
+  public void addAvg(long groupRows, double mean, double variance) {
+    addGroup(groupRows, relativeVariance(mean, variance));
+  }
+
+  /**
+   * Account for a SUM over a group. The estimate scales the mean by the
+   * estimated count, so both errors add up.
+   */
+  public void addSum(long groupRows, double mean, double variance) {
+    addGroup(groupRows, relativeVariance(mean, variance) + 1.0);
+  }
+
+  private double relativeVariance(double mean, double variance) {
+    if (mean == 0.0 || Double.isNaN(mean) || Double.isNaN(variance)) {
+      return defaultRelVariance;
+    }
+    return variance / (mean * mean);
+  }
+
+  private void addGroup(long groupRows, double relVariance) {
+    numGroups++;
+    if (groupRows <= 0) {
+      return;
+    }
+    worstUnitVariance = Math.max(worstUnitVariance, relVariance / groupRows);
+  }
+
+  /**
+   * @return the predicted relative error of the answer on a sample with the
+   *         given number of rows
+   */
+  public double predictError(long rows, double z) {
+    if (rows <= 0) {
+      return Double.MAX_VALUE;
+    }
+    double scale = ((double) probe.getRowCount()) / rows;
+    return z * Math.sqrt(worstUnitVariance * scale);
+  }
+
+  /**
+   * @return the number of rows needed for the answer to be within errorBound
+   */
+  public long requiredRows(double errorBound, double z) {
+    double scale = z * z * worstUnitVariance / (errorBound * errorBound);
+    return (long) Math.ceil(scale * probe.getRowCount());
+  }
+
+  /**
+   * @return the predicted seconds to run the query on a sample with the given
+   *         number of rows: the fixed job cost, plus the rows at the cost per
+   *         row observed in the probe
+   */
+  public double predictLatency(long rows) {
+    if (probe.getRowCount() <= 0) {
+      return probeSeconds;
+    }
+    return jobSeconds + rowSeconds * rows;
+  }
+
+  @Override
+  public String toString() {
+    return "profile[probe=" + probe.getSampleTable() + ", seconds="
+        + probeSeconds + ", rowSeconds=" + rowSeconds + ", groups=" + numGroups + ", unitVariance="
+        + worstUnitVariance + "]";
+  }
+}
@@ -0,0 +1,163 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.costmodel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.ql.metadata.Hive;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.metadata.Table;
+import org.apache.hadoop.hive.ql.stats.StatsSetupConst;
+
+/**
+ * SampleCatalog.
+ *
+ * Metastore-backed registry of the samples built for each base table. A
+ * sample is any table named <base>_sample_<n>; its catalog entry is kept in
+ * the sample table parameters (see {@link SampleInfo}). Samples created
+ * before the catalog existed carry no entry and are described from the
+ * table statistics instead.
+ */
+public class SampleCatalog {
+
+  private static final Log LOG = LogFactory.getLog(SampleCatalog.class.getName());
+
+  public static final String SAMPLE_TABLE_INFIX = "_sample_";
+
+  private final Hive db;
+
+  public SampleCatalog(Hive db) {
+    this.db = db;
+  }
+
+  /**
+   * Register a sample, or update its entry if it is already registered.
+   */
+  public void registerSample(SampleInfo info) throws HiveException {
+    Table sampleTbl = db.getTable(info.getSampleTable());
+    info.toParameters(sampleTbl.getParameters());
+    try {
+      db.alterTable(info.getSampleTable(), sampleTbl);
+    } catch (Exception e) {
+      throw new HiveException("Unable to register sample "
+          + info.getSampleTable(), e);
+    }
+    LOG.info("Registered sample " + info);
+  }
+
+  /**
+   * @return the catalog entry of the given sample table, or null if the table
+   *         does not exist or is not a sample
+   */
+  public SampleInfo getSample(String sampleTable) throws HiveException {
+    Table tbl = db.getTable(sampleTable, false);
+    if (tbl == null) {
+      return null;
+    }
+    return describe(tbl);
+  }
+
+  /**
+   * The fraction of the base table rows the sample holds: the registered
+   * sampling rate, or else the ratio of the sample and base table row counts.
+   * A stratified sample has no single rate, each stratum has its own (see
+   * {@link SampleInfo#getStrataTable()}).
+   *
+   * @return the sampling rate, or -1 if it is unknown
+   */
+  public double getSamplingRate(SampleInfo info) throws HiveException {
+    if (info.isStratified()) {
+      return -1;
+    }
+    if (info.getSamplingRate() > 0) {
+      return info.getSamplingRate();
+    }
+    Table baseTbl = db.getTable(info.getBaseTable(), false);
+    if (baseTbl == null || info.getRowCount() <= 0) {
+      return -1;
+    }
+    long baseRows = SampleInfo.parseLong(baseTbl.getParameters().get(StatsSetupConst.ROW_COUNT), 0);
+    if (baseRows <= 0) {
+      return -1;
+    }
+    return Math.min(1.0, ((double) info.getRowCount()) / baseRows);
+  }
+
+  /**
+   * @return all samples of the given base table, in no particular order
+   */
+  public List<SampleInfo> getSamples(String baseTable) throws HiveException {
+    List<SampleInfo> samples = new ArrayList<SampleInfo>();
+    List<String> names = db.getTablesByPattern(baseTable + SAMPLE_TABLE_INFIX + "*");
+    for (String name : names) {
+      Table tbl = db.getTable(name, false);
+      if (tbl == null) {
+        continue;
+      }
+      SampleInfo info = describe(tbl);
+      if (info != null && info.getBaseTable().equalsIgnoreCase(baseTable)) {
+        samples.add(info);
+      }
+    }
+    return samples;
+  }
+
+  /**
+   * @return the name the next sample of the given base table gets:
+   *         <base>_sample_<n> with n one more than the highest sample number
+   *         in use
+   */
+  public String nextSampleTable(String baseTable) throws HiveException {
+    int next = 0;
+    for (SampleInfo info : getSamples(baseTable)) {
+      String name = info.getSampleTable();
+      String suffix = name.substring(name.lastIndexOf(SAMPLE_TABLE_INFIX)
+          + SAMPLE_TABLE_INFIX.length());
+      try {
+        next = Math.max(next, Integer.parseInt(suffix) + 1);
+      } catch (NumberFormatException e) {
+        // not a numbered sample
+      }
+    }
+    return baseTable + SAMPLE_TABLE_INFIX + next;
+  }
+
+  private SampleInfo describe(Table tbl) {
+    Map<String, String> params = tbl.getParameters();
+    SampleInfo info = SampleInfo.fromParameters(tbl.getTableName(), params);
+    if (info != null) {
+      return info;
+    }
+
+    // Unregistered sample: fall back to the name and the table statistics.
+    String name = tbl.getTableName();
+    int idx = name.lastIndexOf(SAMPLE_TABLE_INFIX);
+    if (idx <= 0) {
+      return null;
+    }
+    info = new SampleInfo(name.substring(0, idx), name);
+    info.setRowCount(SampleInfo.parseLong(params.get(StatsSetupConst.ROW_COUNT), 0));
+    info.setSampleSize(SampleInfo.parseLong(params.get(StatsSetupConst.TOTAL_SIZE), 0));
+    return info;
+  }
+}
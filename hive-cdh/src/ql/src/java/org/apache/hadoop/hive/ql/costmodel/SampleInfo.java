@@ -0,0 +1,228 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.costmodel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * SampleInfo.
+ *
+ * Catalog entry for one sample table. The entry is persisted as parameters of
+ * the sample table in the metastore, so it survives across sessions and is
+ * visible to every client sharing the metastore.
+ */
+public class SampleInfo {
+
+  public static final String BASE_TABLE = "quicksilver.sample.base";
+  public static final String SAMPLE_SIZE = "quicksilver.sample.size";
+  public static final String STRATA_COLUMNS = "quicksilver.sample.strata";
+  public static final String STRATA_CAP = "quicksilver.sample.strata.cap";
+  public static final String STRATA_TABLE = "quicksilver.sample.strata.table";
+  public static final String ROW_COUNT = "quicksilver.sample.rows";
+  public static final String SAMPLING_RATE = "quicksilver.sample.rate";
+  public static final String SCAN_COST = "quicksilver.sample.scancost";
+
+  private String baseTable;
+  private String sampleTable;
+  private long sampleSize;
+  private List<String> strataColumns;
+  private long strataCap;
+  private String strataTable;
+  private long rowCount;
+  private double samplingRate;
+  private double scanCost;
+
+  public SampleInfo(String baseTable, String sampleTable) {
+    this.baseTable = baseTable;
+    this.sampleTable = sampleTable;
+    strataColumns = new ArrayList<String>();
+    samplingRate = -1.0;
+    scanCost = -1.0;
+  }
+
+  public String getBaseTable() {
+    return baseTable;
+  }
+
+  public String getSampleTable() {
+    return sampleTable;
+  }
+
+  /**
+   * @return size of the sample on disk, in bytes
+   */
+  public long getSampleSize() {
+    return sampleSize;
+  }
+
+  public void setSampleSize(long sampleSize) {
+    this.sampleSize = sampleSize;
+  }
+
+  /**
+   * @return the columns the sample is stratified on; empty for a uniform
+   *         sample
+   */
+  public List<String> getStrataColumns() {
+    return strataColumns;
+  }
+
+  public void setStrataColumns(List<String> strataColumns) {
+    this.strataColumns = strataColumns;
+  }
+
+  public boolean isStratified() {
+    return !strataColumns.isEmpty();
+  }
+
+  /**
+   * @return the most rows the sample keeps per stratum, or 0 for a uniform
+   *         sample
+   */
+  public long getStrataCap() {
+    return strataCap;
+  }
+
+  public void setStrataCap(long strataCap) {
+    this.strataCap = strataCap;
+  }
+
+  /**
+   * @return the table holding the base table row count and the sampling rate
+   *         of every stratum, or null for a uniform sample
+   */
+  public String getStrataTable() {
+    return strataTable;
+  }
+
+  public void setStrataTable(String strataTable) {
+    this.strataTable = strataTable;
+  }
+
+  public long getRowCount() {
+    return rowCount;
+  }
+
+  public void setRowCount(long rowCount) {
+    this.rowCount = rowCount;
+  }
+
+  /**
+   * @return fraction of the base table rows kept in the sample, or -1 if
+   *         unknown
+   */
+  public double getSamplingRate() {
+    return samplingRate;
+  }
+
+  public void setSamplingRate(double samplingRate) {
+    this.samplingRate = samplingRate;
+  }
+
+  /**
+   * @return measured time in seconds to scan the whole sample, past the fixed
+   *         cost of the job, or -1 if it has not been measured. Queries do not
+   *         record it: it is set with the table property SCAN_COST, e.g. by
+   *         ALTER TABLE ... SET TBLPROPERTIES after benchmarking the sample.
+   */
+  public double getScanCost() {
+    return scanCost;
+  }
+
+  public void setScanCost(double scanCost) {
+    this.scanCost = scanCost;
+  }
+
+  /**
+   * Write this entry into the parameters of the sample table.
+   */
+  public void toParameters(Map<String, String> params) {
+    params.put(BASE_TABLE, baseTable);
+    params.put(SAMPLE_SIZE, String.valueOf(sampleSize));
+    params.put(STRATA_COLUMNS, StringUtils.join(strataColumns, ","));
+    params.put(STRATA_CAP, String.valueOf(strataCap));
+    if (strataTable != null) {
+      params.put(STRATA_TABLE, strataTable);
+    }
+    params.put(ROW_COUNT, String.valueOf(rowCount));
+    params.put(SAMPLING_RATE, String.valueOf(samplingRate));
+    params.put(SCAN_COST, String.valueOf(scanCost));
+  }
+
+  /**
+   * Read a catalog entry back from the parameters of a table.
+   *
+   * @return the entry, or null if the table is not a registered sample
+   */
+  public static SampleInfo fromParameters(String sampleTable,
+      Map<String, String> params) {
+    if (params == null || params.get(BASE_TABLE) == null) {
+      return null;
+    }
+    SampleInfo info = new SampleInfo(params.get(BASE_TABLE), sampleTable);
+    info.setSampleSize(parseLong(params.get(SAMPLE_SIZE), 0));
+    info.setRowCount(parseLong(params.get(ROW_COUNT), 0));
+    info.setSamplingRate(parseDouble(params.get(SAMPLING_RATE), -1.0));
+    info.setScanCost(parseDouble(params.get(SCAN_COST), -1.0));
+    info.setStrataCap(parseLong(params.get(STRATA_CAP), 0));
+    info.setStrataTable(params.get(STRATA_TABLE));
+    String strata = params.get(STRATA_COLUMNS);
+    if (strata != null) {
+      for (String col : strata.split(",")) {
+        if (!col.trim().isEmpty()) {
+          info.getStrataColumns().add(col.trim().toLowerCase());
+        }
+      }
+    }
+    return info;
+  }
+
+  static long parseLong(String value, long defaultValue) {
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      return defaultValue;
+    }
+  }
+
+  static double parseDouble(String value, double defaultValue) {
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Double.parseDouble(value.trim());
+    } catch (NumberFormatException e) {
+      return defaultValue;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return sampleTable + "[base=" + baseTable + ", rows=" + rowCount
+        + ", bytes=" + sampleSize + ", rate=" + samplingRate + ", strata="
+        + strataColumns + ", cap=" + strataCap + ", scanCost=" + scanCost + "]";
+  }
+}
@@ -21,6 +21,7 @@ package org.apache.hadoop.hive.ql.exec;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
+import java.io.IOException;
 import java.io.Serializable;
 
 import org.apache.hadoop.fs.FileStatus;
@@ -30,10 +31,13 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hive.conf.HiveConf;
 import org.apache.hadoop.hive.ql.Context;
 import org.apache.hadoop.hive.ql.DriverContext;
+import org.apache.hadoop.hive.ql.costmodel.SampleCatalog;
+import org.apache.hadoop.hive.ql.costmodel.SampleInfo;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.parse.LoadSemanticAnalyzer;
 import org.apache.hadoop.hive.ql.plan.CopyWork;
 import org.apache.hadoop.hive.ql.plan.api.StageType;
-import org.apache.hadoop.hive.ql.sampling.Sample;
+import org.apache.hadoop.hive.ql.sampling.ReservoirSamplingJob;
 import org.apache.hadoop.util.StringUtils;
 import org.apache.hadoop.conf.Configuration;
 
@@ -77,36 +81,24 @@ public class CopyTask extends Task<CopyWork> implements Serializable {
         return 2;
       }
 
+      //@sameerag: Checking to see if sampling has been enabled.
+      if (HiveConf.getBoolVar(conf, HiveConf.ConfVars.QUICKSILVER_SAMPLING_ENABLED)
+          && driverContext.getCtx().executionFlag > 0) {
+        return sample(driverContext, srcFs, srcs, dstFs, toPath);
+      }
+
       for (FileStatus oneSrc : srcs) {
         System.out.println("Copying file: " + oneSrc.getPath().toString());
         LOG.debug("Copying file: " + oneSrc.getPath().toString());
 
-        //@sameerag: Checking to see if sampling has been enabled.
-        if (HiveConf.getBoolVar(conf, HiveConf.ConfVars.QUICKSILVER_SAMPLING_ENABLED) &&  (driverContext.getCtx().executionFlag > 0))
-        {
-            Sample _s = new Sample();
-            if (!_s.sample(srcFs, oneSrc.getPath(), dstFs, toPath, false, // delete
-                // source
-                true, // overwrite destination
-                conf,
-                driverContext.getCtx().executionFlag)) {
-              console.printError("Failed to copy: '" + oneSrc.getPath().toString()
-                  + "to: '" + toPath.toString() + "'");
-              return 1;
-            }
-        } 
-        else 
-        {
-        	if (!FileUtil.copy(srcFs, oneSrc.getPath(), dstFs, toPath, false, // delete
-        	    // source
-                true, // overwrite destination
-                conf)) {
-            console.printError("Failed to copy: '" + oneSrc.getPath().toString()
-                + "to: '" + toPath.toString() + "'");
-            return 1;
-          }
+        if (!FileUtil.copy(srcFs, oneSrc.getPath(), dstFs, toPath, false, // delete
+            // source
+            true, // overwrite destination
+            conf)) {
+          console.printError("Failed to copy: '" + oneSrc.getPath().toString()
+              + "to: '" + toPath.toString() + "'");
+          return 1;
         }
-        
       }
       return 0;
 
@@ -117,6 +109,67 @@ public class CopyTask extends Task<CopyWork> implements Serializable {
     }
   }
   
+  /**
+   * Sample the source files into the destination directory with a sampling
+   * job, and record the real row counts of the sample in the catalog. Local
+   * files are staged on the destination file system first, so that the map
+   * tasks can read them.
+   */
+  private int sample(DriverContext driverContext, FileSystem srcFs, FileStatus[] srcs,
+      FileSystem dstFs, Path toPath) throws IOException, HiveException {
+    Path staging = null;
+    Path[] inputs = new Path[srcs.length];
+    if (!isLocalJobTracker() && srcFs.getUri().getScheme().equals("file")
+        && !dstFs.getUri().getScheme().equals("file")) {
+      staging = new Path(driverContext.getCtx().getMRTmpFileURI());
+      console.printInfo("Staging data for sampling in " + staging);
+      dstFs.mkdirs(staging);
+      for (FileStatus oneSrc : srcs) {
+        if (!FileUtil.copy(srcFs, oneSrc.getPath(), dstFs, staging, false, true, conf)) {
+          console.printError("Failed to copy: '" + oneSrc.getPath().toString()
+              + "to: '" + staging.toString() + "'");
+          return 1;
+        }
+      }
+      inputs = new Path[] {staging};
+    } else {
+      for (int i = 0; i < srcs.length; i++) {
+        inputs[i] = srcs[i].getPath();
+      }
+    }
+
+    // the sampling job creates the directory
+    dstFs.delete(toPath, true);
+    long sampleBytes = ReservoirSamplingJob.getSampleBytes(conf,
+        driverContext.getCtx().executionFlag);
+    ReservoirSamplingJob.Result result;
+    try {
+      result = ReservoirSamplingJob.run(conf, inputs, toPath, Long.MAX_VALUE, sampleBytes);
+    } finally {
+      if (staging != null) {
+        dstFs.delete(staging, true);
+      }
+    }
+    console.printInfo("Sampled " + result.getSampleRows() + " of "
+        + result.getInputRows() + " rows (" + result.getSampleBytes() + " bytes)");
+
+    String sampleTable = work.getSampleTable();
+    if (sampleTable != null) {
+      int idx = sampleTable.lastIndexOf(SampleCatalog.SAMPLE_TABLE_INFIX);
+      SampleInfo info = new SampleInfo(idx > 0 ? sampleTable.substring(0, idx)
+          : sampleTable, sampleTable);
+      info.setRowCount(result.getSampleRows());
+      info.setSampleSize(result.getSampleBytes());
+      info.setSamplingRate(result.getSamplingRate());
+      new SampleCatalog(db).registerSample(info);
+    }
+    return 0;
+  }
+
+  private boolean isLocalJobTracker() {
+    return "local".equals(conf.get("mapred.job.tracker", "local"));
+  }
+
   @Override
   public StageType getType() {
     return StageType.COPY;
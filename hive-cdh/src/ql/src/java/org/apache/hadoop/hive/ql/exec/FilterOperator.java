@@ -22,6 +22,9 @@ import java.io.Serializable;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizationContext;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.VectorFilterExpression;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.plan.FilterDesc;
 import org.apache.hadoop.hive.ql.plan.api.OperatorType;
@@ -49,6 +52,9 @@ public class FilterOperator extends Operator<FilterDesc> implements
   private transient ExprNodeEvaluator conditionEvaluator;
   private transient PrimitiveObjectInspector conditionInspector;
   private transient int consecutiveFails;
+  // compiled on the first batch, null if the predicate cannot be vectorized
+  private transient VectorFilterExpression vectorPredicate;
+  private transient boolean vectorPredicateCompiled;
   transient int heartbeatInterval;
 
   public FilterOperator() {
@@ -67,6 +73,8 @@ public class FilterOperator extends Operator<FilterDesc> implements
       statsMap.put(Counter.FILTERED, filtered_count);
       statsMap.put(Counter.PASSED, passed_count);
       conditionInspector = null;
+      vectorPredicate = null;
+      vectorPredicateCompiled = false;
     } catch (Throwable e) {
       throw new HiveException(e);
     }
@@ -100,6 +108,31 @@ public class FilterOperator extends Operator<FilterDesc> implements
     }
   }
 
+  @Override
+  protected void processBatchOp(VectorizedRowBatch batch, int tag) throws HiveException {
+    if (!vectorPredicateCompiled) {
+      vectorPredicate = new VectorizationContext(batch).getVectorFilter(conf.getPredicate());
+      vectorPredicateCompiled = true;
+      LOG.info(vectorPredicate == null ? "Filtering batches row by row"
+          : "Filtering batches with vector expressions");
+    }
+    if (vectorPredicate == null) {
+      super.processBatchOp(batch, tag);
+      return;
+    }
+
+    int before = batch.size;
+    vectorPredicate.filter(batch);
+    passed_count.set(passed_count.get() + batch.size);
+    filtered_count.set(filtered_count.get() + before - batch.size);
+    if (batch.size > 0) {
+      forwardBatch(batch);
+    } else if (reporter != null) {
+      // a batch filtered out entirely is like many consecutive failures
+      reporter.progress();
+    }
+  }
+
   /**
    * @return the name of the operator
    */
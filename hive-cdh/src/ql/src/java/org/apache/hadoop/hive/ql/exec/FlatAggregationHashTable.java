@@ -0,0 +1,952 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.hive.ql.exec.vector.BytesColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.ColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.DoubleColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.LongColumnVector;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.plan.AggregationDesc;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFAverage;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFCount;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFMax;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFMin;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFSum;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
+import org.apache.hadoop.hive.serde2.io.ByteWritable;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.io.ShortWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BooleanObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * FlatAggregationHashTable.
+ *
+ * Hash table of map-side hash aggregation that keeps its entries off the Java
+ * heap. An entry is the serialized grouping key and the fixed-width state of
+ * every aggregate that can be flattened: SUM, COUNT, MIN, MAX and AVG over
+ * numeric input. Entries are appended to direct buffer slabs and found through
+ * an open addressing index of primitive arrays, so aggregating a row neither
+ * allocates nor leaves garbage behind, and the size of the table is known to
+ * the byte. Aggregates that cannot be flattened keep an AggregationBuffer on
+ * the heap next to their entry.
+ */
+public class FlatAggregationHashTable {
+
+  static final int SLAB_SIZE = 1 << 20;
+  private static final int INITIAL_CAPACITY = 1024;
+
+  // Entry layout: key length, aggregate states, key
+  private static final int KEY_LENGTH_SIZE = 4;
+
+  private final PrimitiveObjectInspector[] keyOIs;
+  private final PrimitiveCategory[] keyCategories;
+  private final Object[] keys;
+  private final Object[] keyWritables;
+
+  private final GenericUDAFEvaluator[] evaluators;
+  private final FlatAggregation[] flat;
+  private final int[] stateOffsets;
+  private final int stateWidth;
+  private final int[] boxedPositions;
+  private final int numBoxed;
+
+  private final List<ByteBuffer> slabs = new ArrayList<ByteBuffer>();
+  private int slab = -1;
+  private int slabPosition;
+
+  // Index: entry + 1 of every slot, 0 for a free one, and the hash of its key
+  private int[] slots;
+  private int[] slotHashes;
+  // Slab and offset of every entry, in the order they were added
+  private long[] addresses;
+  private AggregationBuffer[][] boxed;
+  private int size;
+  private boolean added;
+
+  private byte[] keyBytes = new byte[64];
+  private int keyLength;
+  private final Text text = new Text();
+
+  /**
+   * @return whether the keys can be serialized into the table: primitive
+   *         keys other than void
+   */
+  public static boolean supportsKeys(ObjectInspector[] keyOIs) {
+    for (ObjectInspector oi : keyOIs) {
+      if (oi.getCategory() != ObjectInspector.Category.PRIMITIVE) {
+        return false;
+      }
+      switch (((PrimitiveObjectInspector) oi).getPrimitiveCategory()) {
+      case BOOLEAN:
+      case BYTE:
+      case SHORT:
+      case INT:
+      case LONG:
+      case FLOAT:
+      case DOUBLE:
+      case STRING:
+        break;
+      default:
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @param keyOIs
+   *          the inspectors of the grouping keys, see supportsKeys
+   * @param evaluators
+   *          the initialized evaluators of the aggregates
+   * @param aggrs
+   *          the aggregates
+   * @param parameterOIs
+   *          the inspectors of the parameters of every aggregate
+   */
+  public FlatAggregationHashTable(ObjectInspector[] keyOIs,
+      GenericUDAFEvaluator[] evaluators, List<AggregationDesc> aggrs,
+      ObjectInspector[][] parameterOIs) {
+    this.keyOIs = new PrimitiveObjectInspector[keyOIs.length];
+    keyCategories = new PrimitiveCategory[keyOIs.length];
+    keys = new Object[keyOIs.length];
+    keyWritables = new Object[keyOIs.length];
+    for (int i = 0; i < keyOIs.length; i++) {
+      this.keyOIs[i] = (PrimitiveObjectInspector) keyOIs[i];
+      keyCategories[i] = this.keyOIs[i].getPrimitiveCategory();
+      keyWritables[i] = newWritable(keyCategories[i]);
+    }
+
+    this.evaluators = evaluators;
+    flat = new FlatAggregation[evaluators.length];
+    stateOffsets = new int[evaluators.length];
+    boxedPositions = new int[evaluators.length];
+    int width = 0;
+    int boxedCount = 0;
+    for (int i = 0; i < evaluators.length; i++) {
+      flat[i] = flatten(evaluators[i], aggrs.get(i), parameterOIs[i]);
+      if (flat[i] != null) {
+        stateOffsets[i] = width;
+        width += flat[i].width();
+        boxedPositions[i] = -1;
+      } else {
+        boxedPositions[i] = boxedCount++;
+      }
+    }
+    stateWidth = width;
+    numBoxed = boxedCount;
+
+    slots = new int[INITIAL_CAPACITY];
+    slotHashes = new int[INITIAL_CAPACITY];
+    addresses = new long[INITIAL_CAPACITY / 2];
+    if (numBoxed > 0) {
+      boxed = new AggregationBuffer[INITIAL_CAPACITY / 2][];
+    }
+  }
+
+  /**
+   * @return the number of entries
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return whether some aggregates keep their state on the heap
+   */
+  public boolean hasBoxedAggregations() {
+    return numBoxed > 0;
+  }
+
+  /**
+   * @return whether the aggregate keeps its state off the heap
+   */
+  public boolean isFlat(int aggr) {
+    return flat[aggr] != null;
+  }
+
+  /**
+   * @return the bytes the entries of the table take: the slabs filled so far
+   *         and the index entries in use. Space kept for reuse after clear
+   *         is not counted, so the usage drops when the table is flushed.
+   */
+  public long getMemoryUsage() {
+    long bytes = 0;
+    for (int i = 0; i < slab; i++) {
+      bytes += slabs.get(i).capacity();
+    }
+    if (slab >= 0) {
+      bytes += slabPosition;
+    }
+    // two slots, with their hashes, and an address for each entry, as the
+    // index is rehashed at half load
+    long entryIndexBytes = 2 * 8 + 8;
+    if (boxed != null) {
+      entryIndexBytes += 8;
+    }
+    return bytes + entryIndexBytes * size;
+  }
+
+  /**
+   * Find the entry of the keys, adding one if there is none yet.
+   *
+   * @return the entry
+   */
+  public int findOrAdd(Object[] newKeys) throws HiveException {
+    encodeKeys(newKeys);
+    return findOrAddEncoded();
+  }
+
+  /**
+   * Find the entry of the keys of a row of a batch, adding one if there is
+   * none yet. The vectors hold the keys as the values of their types.
+   *
+   * @return the entry
+   */
+  public int findOrAdd(ColumnVector[] keyVectors, int row) throws HiveException {
+    encodeKeys(keyVectors, row);
+    return findOrAddEncoded();
+  }
+
+  private int findOrAddEncoded() throws HiveException {
+    int hash = hashKey();
+    int mask = slots.length - 1;
+    int s = hash & mask;
+    while (slots[s] != 0) {
+      int entry = slots[s] - 1;
+      if (slotHashes[s] == hash && keyEquals(entry)) {
+        added = false;
+        return entry;
+      }
+      s = (s + 1) & mask;
+    }
+    int entry = append();
+    slots[s] = entry + 1;
+    slotHashes[s] = hash;
+    added = true;
+    if (2 * size > slots.length) {
+      rehash();
+    }
+    return entry;
+  }
+
+  /**
+   * @return whether the last findOrAdd added its entry
+   */
+  public boolean isAdded() {
+    return added;
+  }
+
+  public void aggregate(int entry, int aggr, Object[] parameters)
+      throws HiveException {
+    if (flat[aggr] != null) {
+      long address = addresses[entry];
+      flat[aggr].iterate(slabs.get((int) (address >>> 32)),
+          (int) address + KEY_LENGTH_SIZE + stateOffsets[aggr], parameters);
+    } else {
+      evaluators[aggr].aggregate(boxed[entry][boxedPositions[aggr]], parameters);
+    }
+  }
+
+  /**
+   * Aggregate the parameters of a row of a batch. Only for tables without
+   * boxed aggregates.
+   */
+  public void aggregate(int entry, int aggr, ColumnVector[] parameters, int row) {
+    long address = addresses[entry];
+    flat[aggr].iterate(slabs.get((int) (address >>> 32)),
+        (int) address + KEY_LENGTH_SIZE + stateOffsets[aggr], parameters, row);
+  }
+
+  /**
+   * @return the keys of the entry as standard writable objects, valid until
+   *         the next call
+   */
+  public Object[] getKeys(int entry) {
+    long address = addresses[entry];
+    ByteBuffer buf = slabs.get((int) (address >>> 32));
+    int position = (int) address + KEY_LENGTH_SIZE + stateWidth;
+    for (int i = 0; i < keys.length; i++) {
+      if (buf.get(position++) == 0) {
+        keys[i] = null;
+        continue;
+      }
+      Object key = keyWritables[i];
+      switch (keyCategories[i]) {
+      case BOOLEAN:
+        ((BooleanWritable) key).set(buf.get(position++) != 0);
+        break;
+      case BYTE:
+        ((ByteWritable) key).set((byte) buf.getLong(position));
+        position += 8;
+        break;
+      case SHORT:
+        ((ShortWritable) key).set((short) buf.getLong(position));
+        position += 8;
+        break;
+      case INT:
+        ((IntWritable) key).set((int) buf.getLong(position));
+        position += 8;
+        break;
+      case LONG:
+        ((LongWritable) key).set(buf.getLong(position));
+        position += 8;
+        break;
+      case FLOAT:
+        ((FloatWritable) key).set((float) Double.longBitsToDouble(buf.getLong(position)));
+        position += 8;
+        break;
+      case DOUBLE:
+        ((DoubleWritable) key).set(Double.longBitsToDouble(buf.getLong(position)));
+        position += 8;
+        break;
+      case STRING:
+        int length = buf.getInt(position);
+        position += 4;
+        ensureKeyCapacity(length);
+        buf.position(position);
+        buf.get(keyBytes, 0, length);
+        ((Text) key).set(keyBytes, 0, length);
+        position += length;
+        break;
+      default:
+        throw new RuntimeException("Unsupported key " + keyCategories[i]);
+      }
+      keys[i] = key;
+    }
+    return keys;
+  }
+
+  /**
+   * @return the partial result of the aggregate of the entry
+   */
+  public Object evaluate(int entry, int aggr) throws HiveException {
+    if (flat[aggr] != null) {
+      long address = addresses[entry];
+      return flat[aggr].terminate(slabs.get((int) (address >>> 32)),
+          (int) address + KEY_LENGTH_SIZE + stateOffsets[aggr]);
+    }
+    return evaluators[aggr].evaluate(boxed[entry][boxedPositions[aggr]]);
+  }
+
+  /**
+   * Remove all entries. The slabs are kept for the next ones.
+   */
+  public void clear() {
+    Arrays.fill(slots, 0);
+    if (boxed != null) {
+      Arrays.fill(boxed, 0, size, null);
+    }
+    size = 0;
+    slab = -1;
+    slabPosition = 0;
+  }
+
+  private static Object newWritable(PrimitiveCategory category) {
+    switch (category) {
+    case BOOLEAN:
+      return new BooleanWritable();
+    case BYTE:
+      return new ByteWritable();
+    case SHORT:
+      return new ShortWritable();
+    case INT:
+      return new IntWritable();
+    case LONG:
+      return new LongWritable();
+    case FLOAT:
+      return new FloatWritable();
+    case DOUBLE:
+      return new DoubleWritable();
+    case STRING:
+      return new Text();
+    default:
+      throw new RuntimeException("Unsupported key " + category);
+    }
+  }
+
+  private void encodeKeys(Object[] newKeys) {
+    keyLength = 0;
+    for (int i = 0; i < newKeys.length; i++) {
+      Object o = newKeys[i];
+      ensureKeyCapacity(9);
+      if (o == null) {
+        keyBytes[keyLength++] = 0;
+        continue;
+      }
+      keyBytes[keyLength++] = 1;
+      switch (keyCategories[i]) {
+      case BOOLEAN:
+        keyBytes[keyLength++] = (byte) (((BooleanObjectInspector) keyOIs[i]).get(o) ? 1 : 0);
+        break;
+      case BYTE:
+      case SHORT:
+      case INT:
+      case LONG:
+        writeLong(PrimitiveObjectInspectorUtils.getLong(o, keyOIs[i]));
+        break;
+      case FLOAT:
+      case DOUBLE:
+        writeLong(Double.doubleToLongBits(PrimitiveObjectInspectorUtils.getDouble(o, keyOIs[i])));
+        break;
+      case STRING:
+        StringObjectInspector soi = (StringObjectInspector) keyOIs[i];
+        Text t;
+        if (soi.preferWritable()) {
+          t = soi.getPrimitiveWritableObject(o);
+        } else {
+          text.set(soi.getPrimitiveJavaObject(o));
+          t = text;
+        }
+        ensureKeyCapacity(4 + t.getLength());
+        writeInt(t.getLength());
+        System.arraycopy(t.getBytes(), 0, keyBytes, keyLength, t.getLength());
+        keyLength += t.getLength();
+        break;
+      default:
+        throw new RuntimeException("Unsupported key " + keyCategories[i]);
+      }
+    }
+  }
+
+  // the same bytes as encodeKeys for the same values
+  private void encodeKeys(ColumnVector[] keyVectors, int row) {
+    keyLength = 0;
+    for (int i = 0; i < keyVectors.length; i++) {
+      ColumnVector col = keyVectors[i];
+      int k = col.isRepeating ? 0 : row;
+      ensureKeyCapacity(9);
+      if (!col.noNulls && col.isNull[k]) {
+        keyBytes[keyLength++] = 0;
+        continue;
+      }
+      keyBytes[keyLength++] = 1;
+      switch (keyCategories[i]) {
+      case BOOLEAN:
+        keyBytes[keyLength++] = (byte) (((LongColumnVector) col).vector[k] != 0 ? 1 : 0);
+        break;
+      case BYTE:
+      case SHORT:
+      case INT:
+      case LONG:
+        writeLong(((LongColumnVector) col).vector[k]);
+        break;
+      case FLOAT:
+      case DOUBLE:
+        writeLong(Double.doubleToLongBits(((DoubleColumnVector) col).vector[k]));
+        break;
+      case STRING:
+        BytesColumnVector bytes = (BytesColumnVector) col;
+        int length = bytes.length[k];
+        ensureKeyCapacity(4 + length);
+        writeInt(length);
+        System.arraycopy(bytes.vector[k], bytes.start[k], keyBytes, keyLength, length);
+        keyLength += length;
+        break;
+      default:
+        throw new RuntimeException("Unsupported key " + keyCategories[i]);
+      }
+    }
+  }
+
+  private void ensureKeyCapacity(int more) {
+    if (keyLength + more > keyBytes.length) {
+      keyBytes = Arrays.copyOf(keyBytes, Math.max(2 * keyBytes.length, keyLength + more));
+    }
+  }
+
+  private void writeInt(int v) {
+    keyBytes[keyLength++] = (byte) (v >>> 24);
+    keyBytes[keyLength++] = (byte) (v >>> 16);
+    keyBytes[keyLength++] = (byte) (v >>> 8);
+    keyBytes[keyLength++] = (byte) v;
+  }
+
+  private void writeLong(long v) {
+    writeInt((int) (v >>> 32));
+    writeInt((int) v);
+  }
+
+  private int hashKey() {
+    int h = 0;
+    for (int i = 0; i < keyLength; i++) {
+      h = 31 * h + keyBytes[i];
+    }
+    // spread the bits, the index only looks at the low ones
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+
+  private boolean keyEquals(int entry) {
+    long address = addresses[entry];
+    ByteBuffer buf = slabs.get((int) (address >>> 32));
+    int offset = (int) address;
+    if (buf.getInt(offset) != keyLength) {
+      return false;
+    }
+    int position = offset + KEY_LENGTH_SIZE + stateWidth;
+    for (int i = 0; i < keyLength; i++) {
+      if (buf.get(position + i) != keyBytes[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int append() throws HiveException {
+    int entrySize = KEY_LENGTH_SIZE + stateWidth + keyLength;
+    if (slab < 0 || slabPosition + entrySize > slabs.get(slab).capacity()) {
+      nextSlab(entrySize);
+    }
+    ByteBuffer buf = slabs.get(slab);
+    int offset = slabPosition;
+    buf.putInt(offset, keyLength);
+    for (int i = 0; i < flat.length; i++) {
+      if (flat[i] != null) {
+        flat[i].reset(buf, offset + KEY_LENGTH_SIZE + stateOffsets[i]);
+      }
+    }
+    buf.position(offset + KEY_LENGTH_SIZE + stateWidth);
+    buf.put(keyBytes, 0, keyLength);
+    slabPosition += entrySize;
+
+    int entry = size++;
+    if (entry == addresses.length) {
+      addresses = Arrays.copyOf(addresses, 2 * addresses.length);
+      if (boxed != null) {
+        boxed = Arrays.copyOf(boxed, 2 * boxed.length);
+      }
+    }
+    addresses[entry] = ((long) slab << 32) | offset;
+    if (boxed != null) {
+      AggregationBuffer[] aggs = new AggregationBuffer[numBoxed];
+      for (int i = 0; i < flat.length; i++) {
+        if (flat[i] == null) {
+          aggs[boxedPositions[i]] = evaluators[i].getNewAggregationBuffer();
+        }
+      }
+      boxed[entry] = aggs;
+    }
+    return entry;
+  }
+
+  private void nextSlab(int entrySize) {
+    slab++;
+    slabPosition = 0;
+    if (slab < slabs.size() && slabs.get(slab).capacity() >= entrySize) {
+      return;
+    }
+    slabs.add(slab, ByteBuffer.allocateDirect(Math.max(SLAB_SIZE, entrySize)));
+  }
+
+  private void rehash() {
+    int[] newSlots = new int[2 * slots.length];
+    int[] newHashes = new int[newSlots.length];
+    int mask = newSlots.length - 1;
+    for (int i = 0; i < slots.length; i++) {
+      if (slots[i] != 0) {
+        int s = slotHashes[i] & mask;
+        while (newSlots[s] != 0) {
+          s = (s + 1) & mask;
+        }
+        newSlots[s] = slots[i];
+        newHashes[s] = slotHashes[i];
+      }
+    }
+    slots = newSlots;
+    slotHashes = newHashes;
+  }
+
+  /**
+   * @return the flat form of the aggregate, or null if it keeps an
+   *         AggregationBuffer
+   */
+  static FlatAggregation flatten(GenericUDAFEvaluator evaluator,
+      AggregationDesc aggr, ObjectInspector[] parameterOIs) {
+    if (aggr.getDistinct() || aggr.getMode() != GenericUDAFEvaluator.Mode.PARTIAL1) {
+      return null;
+    }
+    Class<?> c = evaluator.getClass();
+    if (c == GenericUDAFCount.GenericUDAFCountEvaluator.class) {
+      // count(*) has no parameters
+      return new FlatCount(parameterOIs.length == 0);
+    }
+    if (parameterOIs.length != 1 || !isNumeric(parameterOIs[0])) {
+      return null;
+    }
+    PrimitiveObjectInspector oi = (PrimitiveObjectInspector) parameterOIs[0];
+    if (c == GenericUDAFSum.GenericUDAFSumLong.class) {
+      return new FlatSum(oi, true);
+    } else if (c == GenericUDAFSum.GenericUDAFSumDouble.class) {
+      return new FlatSum(oi, false);
+    } else if (c == GenericUDAFMin.GenericUDAFMinEvaluator.class) {
+      return new FlatMinMax(oi, false);
+    } else if (c == GenericUDAFMax.GenericUDAFMaxEvaluator.class) {
+      return new FlatMinMax(oi, true);
+    } else if (c == GenericUDAFAverage.GenericUDAFAverageEvaluator.class) {
+      return new FlatAverage(oi);
+    }
+    return null;
+  }
+
+  private static boolean isNumeric(ObjectInspector oi) {
+    if (oi.getCategory() != ObjectInspector.Category.PRIMITIVE) {
+      return false;
+    }
+    switch (((PrimitiveObjectInspector) oi).getPrimitiveCategory()) {
+    case BYTE:
+    case SHORT:
+    case INT:
+    case LONG:
+    case FLOAT:
+    case DOUBLE:
+      return true;
+    default:
+      return false;
+    }
+  }
+
+  private static boolean isIntegral(PrimitiveObjectInspector oi) {
+    switch (oi.getPrimitiveCategory()) {
+    case BYTE:
+    case SHORT:
+    case INT:
+    case LONG:
+      return true;
+    default:
+      return false;
+    }
+  }
+
+  private static long getLong(ColumnVector p, int row) {
+    return ((LongColumnVector) p).vector[p.isRepeating ? 0 : row];
+  }
+
+  private static double getDouble(ColumnVector p, int row) {
+    int k = p.isRepeating ? 0 : row;
+    if (p instanceof LongColumnVector) {
+      return ((LongColumnVector) p).vector[k];
+    }
+    return ((DoubleColumnVector) p).vector[k];
+  }
+
+  /**
+   * The fixed-width state of an aggregate, with the same partial result as its
+   * evaluator in PARTIAL1 mode.
+   */
+  abstract static class FlatAggregation {
+
+    abstract int width();
+
+    abstract void reset(ByteBuffer buf, int offset);
+
+    abstract void iterate(ByteBuffer buf, int offset, Object[] parameters);
+
+    /**
+     * Iterate over the parameters of a row of a batch: long vectors for
+     * integral input, double vectors for floating point input.
+     */
+    abstract void iterate(ByteBuffer buf, int offset, ColumnVector[] parameters, int row);
+
+    abstract Object terminate(ByteBuffer buf, int offset);
+  }
+
+  static class FlatCount extends FlatAggregation {
+    private final boolean countAllColumns;
+    private final LongWritable result = new LongWritable();
+
+    FlatCount(boolean countAllColumns) {
+      this.countAllColumns = countAllColumns;
+    }
+
+    @Override
+    int width() {
+      return 8;
+    }
+
+    @Override
+    void reset(ByteBuffer buf, int offset) {
+      buf.putLong(offset, 0);
+    }
+
+    @Override
+    void iterate(ByteBuffer buf, int offset, Object[] parameters) {
+      if (!countAllColumns) {
+        for (Object p : parameters) {
+          if (p == null) {
+            return;
+          }
+        }
+      }
+      buf.putLong(offset, buf.getLong(offset) + 1);
+    }
+
+    @Override
+    void iterate(ByteBuffer buf, int offset, ColumnVector[] parameters, int row) {
+      if (!countAllColumns) {
+        for (ColumnVector p : parameters) {
+          if (p.isNull(row)) {
+            return;
+          }
+        }
+      }
+      buf.putLong(offset, buf.getLong(offset) + 1);
+    }
+
+    @Override
+    Object terminate(ByteBuffer buf, int offset) {
+      result.set(buf.getLong(offset));
+      return result;
+    }
+  }
+
+  /**
+   * A flag whether a value was seen and a long or double sum.
+   */
+  static class FlatSum extends FlatAggregation {
+    private final PrimitiveObjectInspector inputOI;
+    private final boolean isLong;
+    private final LongWritable longResult = new LongWritable();
+    private final DoubleWritable doubleResult = new DoubleWritable();
+
+    FlatSum(PrimitiveObjectInspector inputOI, boolean isLong) {
+      this.inputOI = inputOI;
+      this.isLong = isLong;
+    }
+
+    @Override
+    int width() {
+      return 9;
+    }
+
+    @Override
+    void reset(ByteBuffer buf, int offset) {
+      buf.put(offset, (byte) 0);
+      buf.putLong(offset + 1, 0);
+    }
+
+    @Override
+    void iterate(ByteBuffer buf, int offset, Object[] parameters) {
+      Object p = parameters[0];
+      if (p == null) {
+        return;
+      }
+      buf.put(offset, (byte) 1);
+      if (isLong) {
+        buf.putLong(offset + 1, buf.getLong(offset + 1)
+            + PrimitiveObjectInspectorUtils.getLong(p, inputOI));
+      } else {
+        buf.putDouble(offset + 1, buf.getDouble(offset + 1)
+            + PrimitiveObjectInspectorUtils.getDouble(p, inputOI));
+      }
+    }
+
+    @Override
+    void iterate(ByteBuffer buf, int offset, ColumnVector[] parameters, int row) {
+      ColumnVector p = parameters[0];
+      if (p.isNull(row)) {
+        return;
+      }
+      buf.put(offset, (byte) 1);
+      if (isLong) {
+        buf.putLong(offset + 1, buf.getLong(offset + 1) + getLong(p, row));
+      } else {
+        buf.putDouble(offset + 1, buf.getDouble(offset + 1) + getDouble(p, row));
+      }
+    }
+
+    @Override
+    Object terminate(ByteBuffer buf, int offset) {
+      if (buf.get(offset) == 0) {
+        return null;
+      }
+      if (isLong) {
+        longResult.set(buf.getLong(offset + 1));
+        return longResult;
+      }
+      doubleResult.set(buf.getDouble(offset + 1));
+      return doubleResult;
+    }
+  }
+
+  /**
+   * A flag whether a value was seen and the smallest or largest one, as a
+   * long or a double. The result is a Java object of the input type.
+   */
+  static class FlatMinMax extends FlatAggregation {
+    private final PrimitiveObjectInspector inputOI;
+    private final boolean max;
+    private final boolean integral;
+
+    FlatMinMax(PrimitiveObjectInspector inputOI, boolean max) {
+      this.inputOI = inputOI;
+      this.max = max;
+      integral = isIntegral(inputOI);
+    }
+
+    @Override
+    int width() {
+      return 9;
+    }
+
+    @Override
+    void reset(ByteBuffer buf, int offset) {
+      buf.put(offset, (byte) 0);
+      buf.putLong(offset + 1, 0);
+    }
+
+    @Override
+    void iterate(ByteBuffer buf, int offset, Object[] parameters) {
+      Object p = parameters[0];
+      if (p == null) {
+        return;
+      }
+      boolean empty = buf.get(offset) == 0;
+      buf.put(offset, (byte) 1);
+      if (integral) {
+        long v = PrimitiveObjectInspectorUtils.getLong(p, inputOI);
+        long current = buf.getLong(offset + 1);
+        if (empty || (max ? v > current : v < current)) {
+          buf.putLong(offset + 1, v);
+        }
+      } else {
+        double v = PrimitiveObjectInspectorUtils.getDouble(p, inputOI);
+        double current = buf.getDouble(offset + 1);
+        if (empty || (max ? Double.compare(v, current) > 0 : Double.compare(v, current) < 0)) {
+          buf.putDouble(offset + 1, v);
+        }
+      }
+    }
+
+    @Override
+    void iterate(ByteBuffer buf, int offset, ColumnVector[] parameters, int row) {
+      ColumnVector p = parameters[0];
+      if (p.isNull(row)) {
+        return;
+      }
+      boolean empty = buf.get(offset) == 0;
+      buf.put(offset, (byte) 1);
+      if (integral) {
+        long v = getLong(p, row);
+        long current = buf.getLong(offset + 1);
+        if (empty || (max ? v > current : v < current)) {
+          buf.putLong(offset + 1, v);
+        }
+      } else {
+        double v = getDouble(p, row);
+        double current = buf.getDouble(offset + 1);
+        if (empty || (max ? Double.compare(v, current) > 0 : Double.compare(v, current) < 0)) {
+          buf.putDouble(offset + 1, v);
+        }
+      }
+    }
+
+    @Override
+    Object terminate(ByteBuffer buf, int offset) {
+      if (buf.get(offset) == 0) {
+        return null;
+      }
+      switch (inputOI.getPrimitiveCategory()) {
+      case BYTE:
+        return Byte.valueOf((byte) buf.getLong(offset + 1));
+      case SHORT:
+        return Short.valueOf((short) buf.getLong(offset + 1));
+      case INT:
+        return Integer.valueOf((int) buf.getLong(offset + 1));
+      case LONG:
+        return Long.valueOf(buf.getLong(offset + 1));
+      case FLOAT:
+        return Float.valueOf((float) buf.getDouble(offset + 1));
+      default:
+        return Double.valueOf(buf.getDouble(offset + 1));
+      }
+    }
+  }
+
+  /**
+   * A count and a double sum, returned as the struct of the average partial.
+   */
+  static class FlatAverage extends FlatAggregation {
+    private final PrimitiveObjectInspector inputOI;
+    private final Object[] partialResult = {new LongWritable(), new DoubleWritable()};
+
+    FlatAverage(PrimitiveObjectInspector inputOI) {
+      this.inputOI = inputOI;
+    }
+
+    @Override
+    int width() {
+      return 16;
+    }
+
+    @Override
+    void reset(ByteBuffer buf, int offset) {
+      buf.putLong(offset, 0);
+      buf.putDouble(offset + 8, 0);
+    }
+
+    @Override
+    void iterate(ByteBuffer buf, int offset, Object[] parameters) {
+      Object p = parameters[0];
+      if (p == null) {
+        return;
+      }
+      buf.putLong(offset, buf.getLong(offset) + 1);
+      buf.putDouble(offset + 8, buf.getDouble(offset + 8)
+          + PrimitiveObjectInspectorUtils.getDouble(p, inputOI));
+    }
+
+    @Override
+    void iterate(ByteBuffer buf, int offset, ColumnVector[] parameters, int row) {
+      ColumnVector p = parameters[0];
+      if (p.isNull(row)) {
+        return;
+      }
+      buf.putLong(offset, buf.getLong(offset) + 1);
+      buf.putDouble(offset + 8, buf.getDouble(offset + 8) + getDouble(p, row));
+    }
+
+    @Override
+    Object terminate(ByteBuffer buf, int offset) {
+      ((LongWritable) partialResult[0]).set(buf.getLong(offset));
+      ((DoubleWritable) partialResult[1]).set(buf.getDouble(offset + 8));
+      return partialResult;
+    }
+  }
+}
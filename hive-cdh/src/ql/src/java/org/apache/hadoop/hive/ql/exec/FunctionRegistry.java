@@ -122,6 +122,7 @@ import org.apache.hadoop.hive.ql.udf.UDFUpper;
 import org.apache.hadoop.hive.ql.udf.UDFWeekOfYear;
 import org.apache.hadoop.hive.ql.udf.UDFYear;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFAverage;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFBlbError;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFBridge;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFCollectSet;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFContextNGrams;
@@ -135,6 +136,7 @@ import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFMax;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFMin;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFParameterInfo;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFPercentileApprox;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFPercentileSketch;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFResolver;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFResolver2;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFStd;
@@ -142,6 +144,7 @@ import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFStdSample;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFSum;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFVariance;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFVarianceSample;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFWithErrorEvaluator;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFnGrams;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDF;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDFArray;
@@ -176,6 +179,7 @@ import org.apache.hadoop.hive.ql.udf.generic.GenericUDFReflect;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDFSentences;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDFSize;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDFSplit;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFStratumRate;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDFStringToMap;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDFStruct;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDFUnion;
@@ -381,7 +385,23 @@ public final class FunctionRegistry {
     registerGenericUDAF("corr", new GenericUDAFCorrelation());
     registerGenericUDAF("histogram_numeric", new GenericUDAFHistogramNumeric());
     registerGenericUDAF("percentile_approx", new GenericUDAFPercentileApprox());
+    registerGenericUDAF("percentile_sketch", new GenericUDAFPercentileSketch());
     registerGenericUDAF("collect_set", new GenericUDAFCollectSet());
+    registerGenericUDAF("blb_error", new GenericUDAFBlbError());
+
+    // The aggregates with error the semantic analyzer calls on samples
+    registerGenericUDAF(GenericUDAFWithErrorEvaluator.getWithErrorName("sum"),
+        new GenericUDAFSum(true));
+    registerGenericUDAF(GenericUDAFWithErrorEvaluator.getWithErrorName("count"),
+        new GenericUDAFCount(true));
+    registerGenericUDAF(GenericUDAFWithErrorEvaluator.getWithErrorName("avg"),
+        new GenericUDAFAverage(true));
+    registerGenericUDAF(GenericUDAFWithErrorEvaluator.getWithErrorName("variance"),
+        new GenericUDAFVariance(true));
+    registerGenericUDAF(GenericUDAFWithErrorEvaluator.getWithErrorName("var_pop"),
+        new GenericUDAFVariance(true));
+    registerGenericUDAF(GenericUDAFWithErrorEvaluator.getWithErrorName("percentile_sketch"),
+        new GenericUDAFPercentileSketch(true));
 
     registerGenericUDAF("ngrams", new GenericUDAFnGrams());
     registerGenericUDAF("context_ngrams", new GenericUDAFContextNGrams());
@@ -410,6 +430,7 @@ public final class FunctionRegistry {
     registerGenericUDF("sentences", GenericUDFSentences.class);
     registerGenericUDF("map_keys", GenericUDFMapKeys.class);
     registerGenericUDF("map_values", GenericUDFMapValues.class);
+    registerGenericUDF("stratum_rate", GenericUDFStratumRate.class);
 
     // Generic UDTF's
     registerGenericUDTF("explode", GenericUDTFExplode.class);
@@ -19,11 +19,14 @@
 package org.apache.hadoop.hive.ql.exec;
 
 import java.io.Serializable;
+import java.util.AbstractMap;
 import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryMXBean;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -35,6 +38,10 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.ql.exec.vector.ColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizationContext;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.VectorExpression;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.parse.OpParseContext;
 import org.apache.hadoop.hive.ql.plan.AggregationDesc;
@@ -49,6 +56,7 @@ import org.apache.hadoop.hive.serde2.lazy.objectinspector.primitive.LazyStringOb
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.StandardStructObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.StructField;
 import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
@@ -109,6 +117,20 @@ public class GroupByOperator extends Operator<GroupByDesc> implements
 
   // Used by hash-based GroupBy: Mode = HASH, PARTIALS
   protected transient HashMap<KeyWrapper, AggregationBuffer[]> hashAggregations;
+  // Used instead of hashAggregations when hive.map.aggr.hash.offheap is set
+  protected transient FlatAggregationHashTable flatAggregations;
+  // Runs of the partitions of hashAggregations spilled to local disk, when
+  // hive.map.aggr.hash.spill is set
+  protected transient HashAggregationSpill spill;
+  transient long[] partitionRows;
+  transient int[] partitionEntries;
+  // The keys and parameters of batches, when the aggregation of batches goes
+  // to flatAggregations; set up on the first batch
+  private transient VectorExpression[] vectorKeys;
+  private transient VectorExpression[][] vectorParameters;
+  private transient ColumnVector[] keyVectors;
+  private transient ColumnVector[][] parameterVectors;
+  private transient boolean vectorAggregationCompiled;
 
   // Used by hash distinct aggregations when hashGrpKeyNotRedKey is true
   protected transient HashSet<KeyWrapper> keysCurrentGroup;
@@ -328,7 +350,6 @@ public class GroupByOperator extends Operator<GroupByDesc> implements
       aggregations = newAggregations();
       hashAggr = false;
     } else {
-      hashAggregations = new HashMap<KeyWrapper, AggregationBuffer[]>(256);
       aggregations = newAggregations();
       hashAggr = true;
       keyPositionsSize = new ArrayList<Integer>();
@@ -344,6 +365,15 @@ public class GroupByOperator extends Operator<GroupByDesc> implements
       if (groupKeyIsNotReduceKey) {
         keysCurrentGroup = new HashSet<KeyWrapper>();
       }
+      if (HiveConf.getBoolVar(hconf, HiveConf.ConfVars.HIVEMAPAGGRHASHOFFHEAP)
+          && hasPlainAggregations()
+          && FlatAggregationHashTable.supportsKeys(keyObjectInspectors)) {
+        flatAggregations = new FlatAggregationHashTable(keyObjectInspectors,
+            aggregationEvaluators, aggrs, aggregationParameterObjectInspectors);
+        LOG.info("Using an off-heap hash table for map aggregation");
+      } else {
+        hashAggregations = new HashMap<KeyWrapper, AggregationBuffer[]>(256);
+      }
     }
 
     fieldNames = conf.getOutputColumnNames();
@@ -372,18 +402,50 @@ public class GroupByOperator extends Operator<GroupByDesc> implements
     newKeys = keyWrapperFactory.getKeyWrapper();
 
     firstRow = true;
+    vectorKeys = null;
+    vectorAggregationCompiled = false;
     // estimate the number of hash table entries based on the size of each
     // entry. Since the size of a entry
     // is not known, estimate that based on the number of entries
     if (hashAggr) {
       computeMaxEntriesHashAggr(hconf);
     }
+    if (hashAggregations != null
+        && HiveConf.getBoolVar(hconf, HiveConf.ConfVars.HIVEMAPAGGRHASHSPILL)
+        && hasPlainAggregations()) {
+      try {
+        spill = new HashAggregationSpill((StructObjectInspector) outputObjInspector,
+            currentKeyObjectInspectors, aggregationEvaluators, aggrs,
+            HiveConf.getIntVar(hconf, HiveConf.ConfVars.HIVEMAPAGGRHASHSPILLPARTITIONS));
+        partitionRows = new long[spill.getNumPartitions()];
+        partitionEntries = new int[spill.getNumPartitions()];
+      } catch (HiveException e) {
+        LOG.warn("Map aggregation will not spill: " + e.getMessage());
+      }
+    }
     memoryMXBean = ManagementFactory.getMemoryMXBean();
     maxMemory = memoryMXBean.getHeapMemoryUsage().getMax();
     memoryThreshold = this.getConf().getMemoryThreshold();
     initializeChildren(hconf);
   }
 
+  /**
+   * The off-heap hash table and the spilling of the hash table take the plain
+   * case only: no distinct aggregates and the grouping key the same as the
+   * reduction key.
+   */
+  private boolean hasPlainAggregations() {
+    if (unionExprEval != null || groupKeyIsNotReduceKey) {
+      return false;
+    }
+    for (boolean distinct : aggregationIsDistinct) {
+      if (distinct) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   /**
    * Estimate the number of entries in map-side hash table. The user can specify
    * the total amount of memory to be used by the map-side hash. By default, all
@@ -690,6 +752,40 @@ public class GroupByOperator extends Operator<GroupByDesc> implements
   public void processOp(Object row, int tag) throws HiveException {
     firstRow = false;
     ObjectInspector rowInspector = inputObjInspectors[tag];
+    countHashAggrInput();
+
+    try {
+      countAfterReport++;
+
+      newKeys.getNewKey(row, rowInspector);
+      if (hashAggr && flatAggregations != null) {
+        processFlatHashAggr(row);
+      } else if (hashAggr) {
+        newKeys.setHashKey();
+        processHashAggr(row, rowInspector, newKeys);
+      } else {
+        processAggr(row, rowInspector, newKeys);
+      }
+
+      firstRowInGroup = false;
+
+      if (countAfterReport != 0 && (countAfterReport % heartbeatInterval) == 0
+          && (reporter != null)) {
+        reporter.progress();
+        countAfterReport = 0;
+      }
+    } catch (HiveException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new HiveException(e);
+    }
+  }
+
+  /**
+   * Count an input row, and turn hash aggregation off if it does not reduce
+   * the rows enough.
+   */
+  private void countHashAggrInput() throws HiveException {
     // Total number of input rows is needed for hash aggregation only
     if (hashAggr && !groupKeyIsNotReduceKey) {
       numRowsInput++;
@@ -697,7 +793,8 @@ public class GroupByOperator extends Operator<GroupByDesc> implements
       if (numRowsInput == numRowsCompareHashAggr) {
         numRowsCompareHashAggr += groupbyMapAggrInterval;
         // map-side aggregation should reduce the entries by at-least half
-        if (numRowsHashTbl > numRowsInput * minReductionHashAggr) {
+        // with spilling the hash table keeps whatever reduction there is
+        if (spill == null && numRowsHashTbl > numRowsInput * minReductionHashAggr) {
           LOG.warn("Disable Hash Aggr: #hash table = " + numRowsHashTbl
               + " #total = " + numRowsInput + " reduction = " + 1.0
               * (numRowsHashTbl / numRowsInput) + " minReduction = "
@@ -712,32 +809,108 @@ public class GroupByOperator extends Operator<GroupByDesc> implements
         }
       }
     }
+  }
 
-    try {
-      countAfterReport++;
+  /**
+   * Batches go straight to the off-heap hash table when all its aggregates
+   * are flat and the keys and parameters vectorize. Otherwise, and once hash
+   * aggregation is turned off, their rows are processed one by one.
+   */
+  @Override
+  protected void processBatchOp(VectorizedRowBatch batch, int tag) throws HiveException {
+    if (!vectorAggregationCompiled) {
+      compileVectorAggregation(batch);
+      vectorAggregationCompiled = true;
+    }
+    if (vectorKeys == null || flatAggregations == null) {
+      super.processBatchOp(batch, tag);
+      return;
+    }
 
-      newKeys.getNewKey(row, rowInspector);
-      if (hashAggr) {
-        newKeys.setHashKey();
-        processHashAggr(row, rowInspector, newKeys);
-      } else {
-        processAggr(row, rowInspector, newKeys);
+    firstRow = false;
+    for (int k = 0; k < vectorKeys.length; k++) {
+      keyVectors[k] = vectorKeys[k].evaluate(batch);
+    }
+    for (int ai = 0; ai < vectorParameters.length; ai++) {
+      for (int pi = 0; pi < vectorParameters[ai].length; pi++) {
+        parameterVectors[ai][pi] = vectorParameters[ai][pi].evaluate(batch);
       }
+    }
 
-      firstRowInGroup = false;
+    int[] selected = batch.selected;
+    for (int j = 0; j < batch.size; j++) {
+      int i = batch.selectedInUse ? selected[j] : j;
+      countHashAggrInput();
+      if (!hashAggr || flatAggregations == null) {
+        processOp(batch.getRow(i), tag);
+        continue;
+      }
+      countAfterReport++;
+
+      int entry = flatAggregations.findOrAdd(keyVectors, i);
+      if (flatAggregations.isAdded()) {
+        numRowsHashTbl++; // new entry in the hash table
+      }
+      for (int ai = 0; ai < parameterVectors.length; ai++) {
+        flatAggregations.aggregate(entry, ai, parameterVectors[ai], i);
+      }
+      if (flatAggregations.getMemoryUsage() >= maxHashTblMemory) {
+        flushFlat();
+      }
 
       if (countAfterReport != 0 && (countAfterReport % heartbeatInterval) == 0
           && (reporter != null)) {
         reporter.progress();
         countAfterReport = 0;
       }
-    } catch (HiveException e) {
-      throw e;
-    } catch (Exception e) {
-      throw new HiveException(e);
     }
   }
 
+  private void compileVectorAggregation(VectorizedRowBatch batch) {
+    if (!hashAggr || flatAggregations == null || flatAggregations.hasBoxedAggregations()) {
+      LOG.info("Aggregating batches row by row: no flat hash table");
+      return;
+    }
+    VectorizationContext vContext = new VectorizationContext(batch);
+    ArrayList<ExprNodeDesc> keys = conf.getKeys();
+    VectorExpression[] vKeys = new VectorExpression[keys.size()];
+    for (int k = 0; k < vKeys.length; k++) {
+      vKeys[k] = vContext.getVectorExpression(keys.get(k));
+      if (vKeys[k] == null || vKeys[k].getOutputType()
+          != ((PrimitiveObjectInspector) keyObjectInspectors[k]).getPrimitiveCategory()) {
+        LOG.info("Aggregating batches row by row: cannot vectorize key "
+            + keys.get(k).getExprString());
+        return;
+      }
+    }
+    ArrayList<AggregationDesc> aggrs = conf.getAggregators();
+    VectorExpression[][] vParameters = new VectorExpression[aggrs.size()][];
+    for (int ai = 0; ai < vParameters.length; ai++) {
+      ArrayList<ExprNodeDesc> parameters = aggrs.get(ai).getParameters();
+      vParameters[ai] = new VectorExpression[parameters.size()];
+      for (int pi = 0; pi < parameters.size(); pi++) {
+        vParameters[ai][pi] = vContext.getVectorExpression(parameters.get(pi));
+        ObjectInspector oi = aggregationParameterObjectInspectors[ai][pi];
+        if (vParameters[ai][pi] == null
+            || oi.getCategory() != ObjectInspector.Category.PRIMITIVE
+            || vParameters[ai][pi].getOutputType()
+            != ((PrimitiveObjectInspector) oi).getPrimitiveCategory()) {
+          LOG.info("Aggregating batches row by row: cannot vectorize parameter "
+              + parameters.get(pi).getExprString());
+          return;
+        }
+      }
+    }
+    vectorKeys = vKeys;
+    vectorParameters = vParameters;
+    keyVectors = new ColumnVector[vKeys.length];
+    parameterVectors = new ColumnVector[vParameters.length][];
+    for (int ai = 0; ai < vParameters.length; ai++) {
+      parameterVectors[ai] = new ColumnVector[vParameters[ai].length];
+    }
+    LOG.info("Aggregating batches with vector expressions");
+  }
+
   private void processHashAggr(Object row, ObjectInspector rowInspector,
       KeyWrapper newKeys) throws HiveException {
     // Prepare aggs for updating
@@ -763,6 +936,14 @@ public class GroupByOperator extends Operator<GroupByDesc> implements
       newEntryForHashAggr = keysCurrentGroup.add(newKeys.copyKey());
     }
 
+    if (spill != null) {
+      int partition = spill.getPartition(newKeys);
+      partitionRows[partition]++;
+      if (newEntryForHashAggr) {
+        partitionEntries[partition]++;
+      }
+    }
+
     // Update the aggs
     updateAggregations(aggs, row, rowInspector, true, newEntryForHashAggr, null);
 
@@ -780,6 +961,63 @@ public class GroupByOperator extends Operator<GroupByDesc> implements
     }
   }
 
+  private void processFlatHashAggr(Object row) throws HiveException {
+    int entry = flatAggregations.findOrAdd(newKeys.getKeyArray());
+    if (flatAggregations.isAdded()) {
+      numRowsHashTbl++; // new entry in the hash table
+    }
+
+    // The parameters are only read during the call, so the arrays are reused
+    for (int ai = 0; ai < aggregationEvaluators.length; ai++) {
+      Object[] o = aggregationParameterObjects[ai];
+      for (int pi = 0; pi < o.length; pi++) {
+        o[pi] = aggregationParameterFields[ai][pi].evaluate(row);
+      }
+      flatAggregations.aggregate(entry, ai, o);
+    }
+
+    // The size of the flat entries is exact, the heap is only watched for the
+    // aggregates that cannot be flattened
+    boolean flush = flatAggregations.getMemoryUsage() >= maxHashTblMemory;
+    if (!flush && flatAggregations.hasBoxedAggregations()
+        && flatAggregations.size() % NUMROWSESTIMATESIZE == 0) {
+      float rate = (float) memoryMXBean.getHeapMemoryUsage().getUsed()
+          / (float) maxMemory;
+      flush = rate > memoryThreshold;
+    }
+    if (flush) {
+      flushFlat();
+    }
+  }
+
+  /**
+   * Forward all the entries of the off-heap hash table and empty it. The
+   * entries are packed in their slabs, so unlike the heap table it is never
+   * flushed in part.
+   */
+  private void flushFlat() throws HiveException {
+    countAfterReport = 0;
+    LOG.warn("Off-heap hash table flush: #hash table = "
+        + flatAggregations.size() + " bytes = "
+        + flatAggregations.getMemoryUsage());
+    int numKeys = keyFields.length;
+    int numAggrs = aggregationEvaluators.length;
+    if (forwardCache == null) {
+      forwardCache = new Object[numKeys + numAggrs];
+    }
+    for (int entry = 0; entry < flatAggregations.size(); entry++) {
+      Object[] keys = flatAggregations.getKeys(entry);
+      for (int i = 0; i < numKeys; i++) {
+        forwardCache[i] = keys[i];
+      }
+      for (int i = 0; i < numAggrs; i++) {
+        forwardCache[numKeys + i] = flatAggregations.evaluate(entry, i);
+      }
+      forward(forwardCache, outputObjInspector);
+    }
+    flatAggregations.clear();
+  }
+
   // Non-hash aggregation
   private void processAggr(Object row, ObjectInspector rowInspector,
       KeyWrapper newKeys) throws HiveException {
@@ -901,7 +1139,23 @@ public class GroupByOperator extends Operator<GroupByDesc> implements
     countAfterReport = 0;
 
     // Currently, the algorithm flushes 10% of the entries - this can be
-    // changed in the future
+    // changed in the future. With spilling, a partition is written to disk
+    // instead, to be merged at close.
+    if (!complete && spill != null) {
+      int partition = coldestPartition();
+      if (partition >= 0) {
+        spillPartition(partition);
+      }
+      return;
+    }
+
+    if (flatAggregations != null) {
+      flushFlat();
+      if (complete) {
+        flatAggregations = null;
+      }
+      return;
+    }
 
     if (complete) {
       Iterator<Map.Entry<KeyWrapper, AggregationBuffer[]>> iter = hashAggregations
@@ -933,6 +1187,73 @@ public class GroupByOperator extends Operator<GroupByDesc> implements
     }
   }
 
+  /**
+   * @return the partition whose spilling frees the most memory for the least
+   *         loss of reduction: the most entries, each weighed by how few rows
+   *         it aggregated since the partition was last spilled
+   */
+  private int coldestPartition() {
+    int coldest = -1;
+    double maxScore = 0;
+    for (int p = 0; p < partitionEntries.length; p++) {
+      double score = (double) partitionEntries[p] * partitionEntries[p]
+          / Math.max(1, partitionRows[p]);
+      if (partitionEntries[p] > 0 && score > maxScore) {
+        coldest = p;
+        maxScore = score;
+      }
+    }
+    return coldest;
+  }
+
+  /**
+   * Write the entries of the partition to a new run sorted by key, and remove
+   * them from the hash table.
+   */
+  private void spillPartition(int partition) throws HiveException {
+    // Some key wrappers share the array of getKeyArray, so it is copied
+    List<Map.Entry<Object[], AggregationBuffer[]>> entries =
+        new ArrayList<Map.Entry<Object[], AggregationBuffer[]>>(partitionEntries[partition]);
+    Iterator<Map.Entry<KeyWrapper, AggregationBuffer[]>> iter = hashAggregations
+        .entrySet().iterator();
+    while (iter.hasNext()) {
+      Map.Entry<KeyWrapper, AggregationBuffer[]> m = iter.next();
+      if (spill.getPartition(m.getKey()) == partition) {
+        entries.add(new AbstractMap.SimpleEntry<Object[], AggregationBuffer[]>(
+            m.getKey().getKeyArray().clone(), m.getValue()));
+        iter.remove();
+      }
+    }
+    Collections.sort(entries, new Comparator<Map.Entry<Object[], AggregationBuffer[]>>() {
+      @Override
+      public int compare(Map.Entry<Object[], AggregationBuffer[]> m1,
+          Map.Entry<Object[], AggregationBuffer[]> m2) {
+        return spill.compareKeys(m1.getKey(), m2.getKey());
+      }
+    });
+
+    countAfterReport = 0;
+    int numKeys = keyFields.length;
+    Object[] row = new Object[numKeys + aggregationEvaluators.length];
+    spill.startRun(partition);
+    for (Map.Entry<Object[], AggregationBuffer[]> m : entries) {
+      System.arraycopy(m.getKey(), 0, row, 0, numKeys);
+      AggregationBuffer[] aggs = m.getValue();
+      for (int i = 0; i < aggs.length; i++) {
+        row[numKeys + i] = aggregationEvaluators[i].evaluate(aggs[i]);
+      }
+      spill.write(row);
+    }
+    spill.endRun();
+    if (spill.getNumRuns(partition) > HashAggregationSpill.MAX_RUNS) {
+      spill.compactRuns(partition);
+    }
+    LOG.warn("Hash Tbl spill: partition = " + partition + " #spilled = "
+        + entries.size() + " new size = " + hashAggregations.size());
+    partitionEntries[partition] = 0;
+    partitionRows[partition] = 0;
+  }
+
   transient Object[] forwardCache;
 
   /**
@@ -994,7 +1315,19 @@ public class GroupByOperator extends Operator<GroupByDesc> implements
           // create dummy keys - size 0
           forward(new Object[0], aggregations);
         } else {
-          if (hashAggregations != null) {
+          if (flatAggregations != null) {
+            LOG.warn("Begin off-heap hash table flush at close: size = "
+                + flatAggregations.size());
+            flushFlat();
+          } else if (hashAggregations != null) {
+            // The spilled partitions are merged with their last entries
+            if (spill != null) {
+              for (int p = 0; p < partitionEntries.length; p++) {
+                if (spill.isSpilled(p) && partitionEntries[p] > 0) {
+                  spillPartition(p);
+                }
+              }
+            }
             LOG.warn("Begin Hash Table flush at close: size = "
                 + hashAggregations.size());
             Iterator iter = hashAggregations.entrySet().iterator();
@@ -1006,6 +1339,18 @@ public class GroupByOperator extends Operator<GroupByDesc> implements
               iter.remove();
             }
             hashAggregations.clear();
+            if (spill != null) {
+              LOG.warn("Merging " + spill.getSpilledRows() + " spilled rows");
+              for (int p = 0; p < partitionEntries.length; p++) {
+                if (spill.isSpilled(p)) {
+                  spill.mergeRuns(p);
+                  Object[] row;
+                  while ((row = spill.nextRow()) != null) {
+                    forward(row, outputObjInspector);
+                  }
+                }
+              }
+            }
           } else if (aggregations != null) {
             // sort-based aggregations
             if (currentKeys != null) {
@@ -1022,7 +1367,13 @@ public class GroupByOperator extends Operator<GroupByDesc> implements
       } catch (Exception e) {
         e.printStackTrace();
         throw new HiveException(e);
+      } finally {
+        if (spill != null) {
+          spill.close();
+        }
       }
+    } else if (spill != null) {
+      spill.close();
     }
   }
 
@@ -0,0 +1,419 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.plan.AggregationDesc;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.hive.serde2.lazy.ByteArrayRef;
+import org.apache.hadoop.hive.serde2.lazybinary.LazyBinaryFactory;
+import org.apache.hadoop.hive.serde2.lazybinary.LazyBinarySerDe;
+import org.apache.hadoop.hive.serde2.lazybinary.LazyBinaryStruct;
+import org.apache.hadoop.hive.serde2.lazybinary.LazyBinaryUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorConverters;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorConverters.Converter;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * HashAggregationSpill.
+ *
+ * Local disk runs of the map-side hash aggregation. The key space is split in
+ * partitions by the hash of the keys. When the hash table is full, the entries
+ * of one partition are written out as a run of partial aggregates sorted by
+ * key, and the partition keeps aggregating in memory. At close every
+ * partition that was spilled is merged back: its runs are read in key order
+ * and the partial aggregates of equal keys are merged by a second evaluator
+ * of each aggregate in PARTIAL2 mode, so a key is forwarded once however many
+ * times it was spilled.
+ */
+public class HashAggregationSpill {
+
+  private static final Log LOG = LogFactory.getLog(HashAggregationSpill.class.getName());
+
+  // Runs of a partition beyond which they are merged into one, so that the
+  // merge at close does not open too many files
+  static final int MAX_RUNS = 32;
+
+  private final int numKeys;
+  private final ObjectInspector[] keyOIs;
+  private final StructObjectInspector rowOI;
+  private final StructObjectInspector spillOI;
+  private final List<? extends StructField> spillFields;
+  private final GenericUDAFEvaluator[] mergeEvaluators;
+  private final Converter[] converters;
+  private final LazyBinarySerDe serde;
+
+  private final List<List<File>> runs;
+  private File spillDir;
+  private DataOutputStream out;
+  private long spilledRows;
+
+  // State of the merge of a partition
+  private PriorityQueue<RunReader> queue;
+  private AggregationBuffer[] buffers;
+  private Object[] mergedKeys;
+
+  /**
+   * @param rowOI
+   *          the inspector of the rows of the hash table: the keys, then the
+   *          partial aggregates
+   * @param keyOIs
+   *          the standard writable inspectors of the keys
+   * @param evaluators
+   *          the evaluators of the aggregates
+   * @param aggrs
+   *          the aggregates, in PARTIAL1 or PARTIAL2 mode
+   * @param numPartitions
+   *          the number of partitions of the key space
+   * @throws HiveException
+   *           if the partial aggregates cannot be merged
+   */
+  public HashAggregationSpill(StructObjectInspector rowOI, ObjectInspector[] keyOIs,
+      GenericUDAFEvaluator[] evaluators, List<AggregationDesc> aggrs,
+      int numPartitions) throws HiveException {
+    this.rowOI = rowOI;
+    this.keyOIs = keyOIs;
+    numKeys = keyOIs.length;
+    spillOI = (StructObjectInspector) LazyBinaryUtils.getLazyBinaryObjectInspectorFromTypeInfo(
+        TypeInfoUtils.getTypeInfoFromObjectInspector(rowOI));
+    spillFields = spillOI.getAllStructFieldRefs();
+    List<? extends StructField> rowFields = rowOI.getAllStructFieldRefs();
+
+    mergeEvaluators = new GenericUDAFEvaluator[evaluators.length];
+    converters = new Converter[evaluators.length];
+    for (int i = 0; i < evaluators.length; i++) {
+      GenericUDAFEvaluator.Mode mode = aggrs.get(i).getMode();
+      if (aggrs.get(i).getDistinct() || (mode != GenericUDAFEvaluator.Mode.PARTIAL1
+          && mode != GenericUDAFEvaluator.Mode.PARTIAL2)) {
+        throw new HiveException("Cannot merge the results of "
+            + aggrs.get(i).getExprString());
+      }
+      try {
+        mergeEvaluators[i] = ReflectionUtils.newInstance(evaluators[i].getClass(), null);
+      } catch (RuntimeException e) {
+        throw new HiveException("Cannot merge the results of "
+            + aggrs.get(i).getExprString(), e);
+      }
+      ObjectInspector mergedOI = mergeEvaluators[i].init(GenericUDAFEvaluator.Mode.PARTIAL2,
+          new ObjectInspector[] {spillFields.get(numKeys + i).getFieldObjectInspector()});
+      converters[i] = ObjectInspectorConverters.getConverter(mergedOI,
+          rowFields.get(numKeys + i).getFieldObjectInspector());
+    }
+
+    try {
+      serde = new LazyBinarySerDe();
+    } catch (SerDeException e) {
+      throw new HiveException(e);
+    }
+    runs = new ArrayList<List<File>>(numPartitions);
+    for (int i = 0; i < numPartitions; i++) {
+      runs.add(new ArrayList<File>());
+    }
+  }
+
+  public int getNumPartitions() {
+    return runs.size();
+  }
+
+  /**
+   * @return the partition of the keys
+   */
+  public int getPartition(KeyWrapper keys) {
+    return (keys.hashCode() & Integer.MAX_VALUE) % runs.size();
+  }
+
+  /**
+   * @return the number of runs of the partition on disk
+   */
+  public int getNumRuns(int partition) {
+    return runs.get(partition).size();
+  }
+
+  /**
+   * @return whether the partition has runs on disk
+   */
+  public boolean isSpilled(int partition) {
+    return !runs.get(partition).isEmpty();
+  }
+
+  /**
+   * @return the number of rows written to disk so far
+   */
+  public long getSpilledRows() {
+    return spilledRows;
+  }
+
+  /**
+   * Compare keys in the order of the runs.
+   */
+  public int compareKeys(Object[] keys1, Object[] keys2) {
+    return ObjectInspectorUtils.compare(keys1, keyOIs, keys2, keyOIs);
+  }
+
+  /**
+   * Start a new run of the partition. Its rows must be written in key order.
+   */
+  public void startRun(int partition) throws HiveException {
+    try {
+      if (spillDir == null) {
+        spillDir = File.createTempFile("hive-groupby", "");
+        if (!spillDir.delete() || !spillDir.mkdir()) {
+          throw new HiveException("Cannot create the spill directory " + spillDir);
+        }
+        spillDir.deleteOnExit();
+      }
+      File run = File.createTempFile("run-" + partition + "-", ".tmp", spillDir);
+      run.deleteOnExit();
+      runs.get(partition).add(run);
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 64 * 1024));
+    } catch (IOException e) {
+      throw new HiveException(e);
+    }
+  }
+
+  /**
+   * Write a row of the hash table to the current run.
+   */
+  public void write(Object[] row) throws HiveException {
+    try {
+      BytesWritable bytes = (BytesWritable) serde.serialize(row, rowOI);
+      out.writeInt(bytes.getLength());
+      out.write(bytes.getBytes(), 0, bytes.getLength());
+      spilledRows++;
+    } catch (SerDeException e) {
+      throw new HiveException(e);
+    } catch (IOException e) {
+      throw new HiveException(e);
+    }
+  }
+
+  public void endRun() throws HiveException {
+    try {
+      out.close();
+      out = null;
+    } catch (IOException e) {
+      throw new HiveException(e);
+    }
+  }
+
+  /**
+   * Merge the runs of the partition into a single run.
+   */
+  public void compactRuns(int partition) throws HiveException {
+    List<File> partitionRuns = new ArrayList<File>(runs.get(partition));
+    mergeRuns(partition, partitionRuns);
+    runs.get(partition).clear();
+    startRun(partition);
+    Object[] row;
+    while ((row = nextRow()) != null) {
+      write(row);
+    }
+    endRun();
+  }
+
+  /**
+   * Start merging the runs of the partition. The merged rows are then read
+   * with nextRow.
+   */
+  public void mergeRuns(int partition) throws HiveException {
+    mergeRuns(partition, runs.get(partition));
+  }
+
+  private void mergeRuns(int partition, List<File> partitionRuns) throws HiveException {
+    LOG.info("Merging " + partitionRuns.size() + " runs of partition " + partition);
+    queue = new PriorityQueue<RunReader>(Math.max(1, partitionRuns.size()),
+        new Comparator<RunReader>() {
+          @Override
+          public int compare(RunReader r1, RunReader r2) {
+            return compareKeys(r1.keys, r2.keys);
+          }
+        });
+    for (File run : partitionRuns) {
+      RunReader reader = new RunReader(run);
+      if (reader.next()) {
+        queue.add(reader);
+      } else {
+        reader.close();
+      }
+    }
+    if (buffers == null) {
+      buffers = new AggregationBuffer[mergeEvaluators.length];
+      for (int i = 0; i < buffers.length; i++) {
+        buffers[i] = mergeEvaluators[i].getNewAggregationBuffer();
+      }
+    }
+    mergedKeys = null;
+  }
+
+  /**
+   * @return the next merged row of the partition: the keys, then the partial
+   *         aggregates as the rows of the hash table, valid until the next
+   *         call; or null once all runs are read. The runs are then deleted.
+   */
+  public Object[] nextRow() throws HiveException {
+    while (!queue.isEmpty()) {
+      RunReader reader = queue.peek();
+      if (mergedKeys != null && compareKeys(mergedKeys, reader.keys) != 0) {
+        return terminate();
+      }
+      queue.poll();
+      if (mergedKeys == null) {
+        // the reader makes a new array for every row, so the keys can be kept
+        mergedKeys = reader.keys;
+      }
+      for (int i = 0; i < mergeEvaluators.length; i++) {
+        mergeEvaluators[i].merge(buffers[i], spillOI.getStructFieldData(reader.row,
+            spillFields.get(numKeys + i)));
+      }
+      if (reader.next()) {
+        queue.add(reader);
+      } else {
+        reader.close();
+      }
+    }
+    return mergedKeys == null ? null : terminate();
+  }
+
+  private Object[] terminate() throws HiveException {
+    Object[] row = new Object[numKeys + mergeEvaluators.length];
+    System.arraycopy(mergedKeys, 0, row, 0, numKeys);
+    for (int i = 0; i < mergeEvaluators.length; i++) {
+      row[numKeys + i] = converters[i].convert(mergeEvaluators[i].terminatePartial(buffers[i]));
+      mergeEvaluators[i].reset(buffers[i]);
+    }
+    mergedKeys = null;
+    return row;
+  }
+
+  /**
+   * Delete all runs.
+   */
+  public void close() {
+    if (out != null) {
+      try {
+        out.close();
+      } catch (IOException e) {
+        // being deleted anyway
+      }
+      out = null;
+    }
+    if (queue != null) {
+      for (RunReader reader : queue) {
+        reader.close();
+      }
+      queue = null;
+    }
+    for (List<File> partitionRuns : runs) {
+      partitionRuns.clear();
+    }
+    if (spillDir != null) {
+      try {
+        FileUtil.fullyDelete(spillDir);
+      } catch (IOException e) {
+        LOG.warn("Cannot delete the spill directory " + spillDir, e);
+      }
+      spillDir = null;
+    }
+  }
+
+  /**
+   * Sequential reader of a run.
+   */
+  private class RunReader {
+    private final File file;
+    private final DataInputStream in;
+    private final ByteArrayRef bytes = new ByteArrayRef();
+    private final LazyBinaryStruct row;
+    private Object[] keys;
+
+    RunReader(File file) throws HiveException {
+      this.file = file;
+      try {
+        in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+      } catch (IOException e) {
+        throw new HiveException(e);
+      }
+      bytes.setData(new byte[256]);
+      row = (LazyBinaryStruct) LazyBinaryFactory.createLazyBinaryObject(spillOI);
+    }
+
+    boolean next() throws HiveException {
+      try {
+        int length;
+        try {
+          length = in.readInt();
+        } catch (EOFException e) {
+          return false;
+        }
+        if (length > bytes.getData().length) {
+          bytes.setData(new byte[Math.max(length, 2 * bytes.getData().length)]);
+        }
+        in.readFully(bytes.getData(), 0, length);
+        row.init(bytes, 0, length);
+      } catch (IOException e) {
+        throw new HiveException(e);
+      }
+      keys = new Object[numKeys];
+      for (int i = 0; i < numKeys; i++) {
+        StructField field = spillFields.get(i);
+        keys[i] = ObjectInspectorUtils.copyToStandardObject(
+            spillOI.getStructFieldData(row, field), field.getFieldObjectInspector(),
+            ObjectInspectorCopyOption.WRITABLE);
+      }
+      return true;
+    }
+
+    void close() {
+      try {
+        in.close();
+      } catch (IOException e) {
+        // the run is deleted anyway
+      }
+      if (!file.delete()) {
+        LOG.warn("Cannot delete run " + file);
+      }
+    }
+  }
+}
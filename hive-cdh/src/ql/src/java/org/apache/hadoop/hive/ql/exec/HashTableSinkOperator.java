@@ -35,6 +35,7 @@ import org.apache.hadoop.hive.ql.exec.persistence.AbstractMapJoinKey;
 import org.apache.hadoop.hive.ql.exec.persistence.HashMapWrapper;
 import org.apache.hadoop.hive.ql.exec.persistence.MapJoinObjectValue;
 import org.apache.hadoop.hive.ql.exec.persistence.MapJoinRowContainer;
+import org.apache.hadoop.hive.ql.exec.persistence.MappedMapJoinHashTable;
 import org.apache.hadoop.hive.ql.exec.persistence.RowContainer;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.plan.HashTableSinkDesc;
@@ -261,8 +262,8 @@ public class HashTableSinkOperator extends TerminalOperator<HashTableSinkDesc> i
         continue;
       }
 
-      HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> hashTable = new HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue>(
-          hashTableThreshold, hashTableLoadFactor, hashTableMaxMemoryUsage);
+      HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> hashTable = MappedMapJoinHashTable.create(
+          hconf, hashTableThreshold, hashTableLoadFactor, hashTableMaxMemoryUsage);
 
       mapJoinTables.put(pos, hashTable);
     }
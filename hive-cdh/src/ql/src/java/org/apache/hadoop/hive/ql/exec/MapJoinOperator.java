@@ -35,6 +35,7 @@ import org.apache.hadoop.hive.ql.exec.persistence.AbstractMapJoinKey;
 import org.apache.hadoop.hive.ql.exec.persistence.HashMapWrapper;
 import org.apache.hadoop.hive.ql.exec.persistence.MapJoinObjectValue;
 import org.apache.hadoop.hive.ql.exec.persistence.MapJoinRowContainer;
+import org.apache.hadoop.hive.ql.exec.persistence.MappedMapJoinHashTable;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.plan.MapJoinDesc;
 import org.apache.hadoop.hive.ql.plan.TableDesc;
@@ -96,7 +97,7 @@ public class MapJoinOperator extends AbstractMapJoinOperator<MapJoinDesc> implem
         continue;
       }
 
-      HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> hashTable = new HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue>();
+      HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> hashTable = MappedMapJoinHashTable.create(hconf);
 
       mapJoinTables.put(Byte.valueOf((byte) pos), hashTable);
       MapJoinRowContainer<ArrayList<Object>> rowContainer = new MapJoinRowContainer<ArrayList<Object>>();
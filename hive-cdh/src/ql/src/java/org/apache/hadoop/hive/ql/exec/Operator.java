@@ -29,6 +29,7 @@ import java.util.Map;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
 import org.apache.hadoop.hive.ql.lib.Node;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.parse.SemanticException;
@@ -472,6 +473,35 @@ public abstract class Operator<T extends Serializable> implements Serializable,
     postProcessCounter();
   }
 
+  /**
+   * Process a batch of rows.
+   *
+   * @param batch
+   *          The rows, as column vectors. The operator may narrow the
+   *          selection of the batch but does not change its values.
+   * @param tag
+   *          The tag of the rows, see process.
+   */
+  public void processBatch(VectorizedRowBatch batch, int tag) throws HiveException {
+    if (fatalError) {
+      return;
+    }
+    inputRows += batch.size;
+    processBatchOp(batch, tag);
+  }
+
+  /**
+   * Operator specific processing of a batch of rows. Operators without a
+   * vectorized implementation process the rows one by one, as the standard
+   * writable objects of the row inspector of the batch.
+   */
+  protected void processBatchOp(VectorizedRowBatch batch, int tag) throws HiveException {
+    int[] selected = batch.selected;
+    for (int j = 0; j < batch.size; j++) {
+      processOp(batch.getRow(batch.selectedInUse ? selected[j] : j), tag);
+    }
+  }
+
   // If a operator wants to do some work at the beginning of a group
   public void startGroup() throws HiveException {
     LOG.debug("Starting group");
@@ -751,6 +781,56 @@ public abstract class Operator<T extends Serializable> implements Serializable,
     }
   }
 
+  // the selection of a batch, for the children after the first one
+  private transient int[] forwardSelected;
+
+  /**
+   * Forward a batch of rows to the children, which must have been initialized
+   * with the row inspector of the batch. Each child gets the selection the
+   * batch has now, whatever the ones before it did to it.
+   */
+  protected void forwardBatch(VectorizedRowBatch batch) throws HiveException {
+    outputRows += batch.size;
+
+    if (childOperatorsArray == null && childOperators != null) {
+      throw new HiveException(
+          "Internal Hive error during operator initialization.");
+    }
+
+    if ((childOperatorsArray == null) || (getDone())) {
+      return;
+    }
+
+    int size = batch.size;
+    boolean selectedInUse = batch.selectedInUse;
+    if (childOperatorsArray.length > 1) {
+      if (forwardSelected == null) {
+        forwardSelected = new int[VectorizedRowBatch.DEFAULT_SIZE];
+      }
+      System.arraycopy(batch.selected, 0, forwardSelected, 0, size);
+    }
+
+    int childrenDone = 0;
+    for (int i = 0; i < childOperatorsArray.length; i++) {
+      Operator<? extends Serializable> o = childOperatorsArray[i];
+      if (o.getDone()) {
+        childrenDone++;
+      } else {
+        if (i > 0) {
+          batch.size = size;
+          batch.selectedInUse = selectedInUse;
+          System.arraycopy(forwardSelected, 0, batch.selected, 0, size);
+        }
+        o.processBatch(batch, childOperatorsTag[i]);
+      }
+    }
+
+    // if all children are done, this operator is also done
+    if (childrenDone == childOperatorsArray.length) {
+      setDone(true);
+    }
+  }
+
   public void resetStats() {
     for (Enum<?> e : statsMap.keySet()) {
       statsMap.get(e).set(0L);
@@ -0,0 +1,83 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.ql.Context;
+import org.apache.hadoop.hive.ql.DriverContext;
+import org.apache.hadoop.hive.ql.costmodel.SampleInfo;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.plan.CreateSampleDesc;
+import org.apache.hadoop.hive.ql.plan.SampleWork;
+import org.apache.hadoop.hive.ql.plan.api.StageType;
+import org.apache.hadoop.hive.ql.sampling.StratifiedSampleBuilder;
+import org.apache.hadoop.util.StringUtils;
+
+/**
+ * SampleTask.
+ *
+ * Builds a sample of a table and registers it in the sample catalog.
+ */
+public class SampleTask extends Task<SampleWork> {
+  private static final long serialVersionUID = 1L;
+
+  public SampleTask() {
+    super();
+  }
+
+  @Override
+  public int execute(DriverContext driverContext) {
+    CreateSampleDesc createSampleDesc = work.getCreateSampleDesc();
+    if (createSampleDesc != null) {
+      return createSample(driverContext, createSampleDesc);
+    }
+    return 0;
+  }
+
+  private int createSample(DriverContext driverContext, CreateSampleDesc desc) {
+    try {
+      SampleInfo sample = new StratifiedSampleBuilder(conf, db).build(
+          desc.getBaseTable(), desc.getStrataColumns(), desc.getCap(),
+          new Path(driverContext.getCtx().getMRTmpFileURI()));
+      console.printInfo("Created sample " + sample.getSampleTable() + " with "
+          + sample.getRowCount() + " rows, stratum sampling rates in "
+          + sample.getStrataTable());
+      return 0;
+    } catch (HiveException e) {
+      console.printError("Failed to create a sample of " + desc.getBaseTable()
+          + ": " + e.getMessage(), "\n" + StringUtils.stringifyException(e));
+      return 1;
+    }
+  }
+
+  @Override
+  public StageType getType() {
+    return StageType.DDL;
+  }
+
+  @Override
+  public String getName() {
+    return "SAMPLE";
+  }
+
+  @Override
+  protected void localizeMRTmpFilesImpl(Context ctx) {
+    throw new RuntimeException("Unexpected call");
+  }
+}
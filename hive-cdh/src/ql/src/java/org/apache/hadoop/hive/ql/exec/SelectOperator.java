@@ -20,13 +20,21 @@ package org.apache.hadoop.hive.ql.exec;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.ql.exec.vector.ColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizationContext;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.VectorExpression;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
 import org.apache.hadoop.hive.ql.plan.SelectDesc;
 import org.apache.hadoop.hive.ql.plan.api.OperatorType;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
 import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
 
 /**
  * Select operator implementation.
@@ -39,6 +47,12 @@ public class SelectOperator extends Operator<SelectDesc> implements
 
   transient Object[] output;
 
+  // the batch of the selected columns, null if some column cannot be
+  // vectorized; set up on the first batch
+  private transient VectorExpression[] vectorColumns;
+  private transient VectorizedRowBatch projection;
+  private transient boolean projectionCompiled;
+
   @Override
   protected void initializeOp(Configuration hconf) throws HiveException {
     // Just forward the row as is
@@ -55,6 +69,9 @@ public class SelectOperator extends Operator<SelectDesc> implements
     }
 
     output = new Object[eval.length];
+    vectorColumns = null;
+    projection = null;
+    projectionCompiled = false;
     LOG.info("SELECT "
         + ((StructObjectInspector) inputObjInspectors[0]).getTypeName());
     outputObjInspector = initEvaluatorsAndReturnStruct(eval, conf
@@ -84,6 +101,61 @@ public class SelectOperator extends Operator<SelectDesc> implements
     forward(output, outputObjInspector);
   }
 
+  @Override
+  protected void processBatchOp(VectorizedRowBatch batch, int tag) throws HiveException {
+    if (conf.isSelStarNoCompute()) {
+      forwardBatch(batch);
+      return;
+    }
+    if (!projectionCompiled) {
+      compileProjection(batch);
+      projectionCompiled = true;
+    }
+    if (projection == null) {
+      super.processBatchOp(batch, tag);
+      return;
+    }
+
+    for (int i = 0; i < vectorColumns.length; i++) {
+      projection.cols[i] = vectorColumns[i].evaluate(batch);
+    }
+    projection.size = batch.size;
+    projection.selected = batch.selected;
+    projection.selectedInUse = batch.selectedInUse;
+    forwardBatch(projection);
+  }
+
+  /**
+   * The selected columns are forwarded as a batch if they all vectorize to
+   * values of the writable types the children were initialized with.
+   */
+  private void compileProjection(VectorizedRowBatch batch) {
+    VectorizationContext vContext = new VectorizationContext(batch);
+    List<? extends StructField> fields = ((StructObjectInspector) outputObjInspector)
+        .getAllStructFieldRefs();
+    VectorExpression[] columns = new VectorExpression[eval.length];
+    PrimitiveCategory[] types = new PrimitiveCategory[eval.length];
+    for (int i = 0; i < columns.length; i++) {
+      columns[i] = vContext.getVectorExpression(conf.getColList().get(i));
+      if (columns[i] == null) {
+        LOG.info("Selecting batches row by row: cannot vectorize "
+            + conf.getColList().get(i).getExprString());
+        return;
+      }
+      types[i] = columns[i].getOutputType();
+      if (fields.get(i).getFieldObjectInspector()
+          != PrimitiveObjectInspectorFactory.getPrimitiveWritableObjectInspector(types[i])) {
+        LOG.info("Selecting batches row by row: "
+            + conf.getColList().get(i).getExprString() + " is not a writable " + types[i]);
+        return;
+      }
+    }
+    vectorColumns = columns;
+    projection = new VectorizedRowBatch(conf.getOutputColumnNames().toArray(
+        new String[columns.length]), types, new ColumnVector[columns.length], batch.selected);
+    LOG.info("Selecting batches with vector expressions");
+  }
+
   /**
    * @return the name of the operator
    */
@@ -25,6 +25,9 @@ import java.util.List;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hive.common.FileUtils;
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatchCtx;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.plan.TableDesc;
 import org.apache.hadoop.hive.ql.plan.TableScanDesc;
@@ -53,6 +56,8 @@ public class TableScanOperator extends Operator<TableScanDesc> implements
   private transient String partitionSpecs;
   private transient boolean inputFileChanged = false;
   private TableDesc tableDesc;
+  // set when the rows are forwarded in batches
+  private transient VectorizedRowBatchCtx batchCtx;
 
 
   public TableDesc getTableDesc() {
@@ -75,9 +80,53 @@ public class TableScanOperator extends Operator<TableScanDesc> implements
     if (conf != null && conf.isGatherStats()) {
       gatherStats(row);
     }
+    if (batchCtx != null) {
+      if (batchCtx.addRow(row)) {
+        flushBatch();
+      }
+      return;
+    }
     forward(row, inputObjInspectors[tag]);
   }
 
+  private void flushBatch() throws HiveException {
+    VectorizedRowBatch batch = batchCtx.getBatch();
+    forwardBatch(batch);
+    batch.reset();
+  }
+
+  /**
+   * The rows are forwarded in batches when the scan is a plain one and every
+   * operator below it is one of the operators that take batches, or can
+   * safely be given rows later than they were read. Operators that look at
+   * the current input file, such as the map join ones, cannot.
+   */
+  private boolean canVectorize() {
+    if (getClass() != TableScanOperator.class || (conf != null && conf.isGatherStats())
+        || !(inputObjInspectors[0] instanceof StructObjectInspector)) {
+      return false;
+    }
+    return canVectorize(getChildOperators());
+  }
+
+  private static boolean canVectorize(List<Operator<? extends Serializable>> ops) {
+    if (ops == null) {
+      return true;
+    }
+    for (Operator<? extends Serializable> op : ops) {
+      Class<?> c = op.getClass();
+      if (c != FilterOperator.class && c != SelectOperator.class
+          && c != GroupByOperator.class && c != ReduceSinkOperator.class
+          && c != FileSinkOperator.class && c != LimitOperator.class) {
+        return false;
+      }
+      if (!canVectorize(op.getChildOperators())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   // Change the table partition for collecting stats
   @Override
   public void cleanUpInputFileChangedOp() throws HiveException {
@@ -130,6 +179,17 @@ public class TableScanOperator extends Operator<TableScanDesc> implements
 
   @Override
   protected void initializeOp(Configuration hconf) throws HiveException {
+    batchCtx = null;
+    if (HiveConf.getBoolVar(hconf, HiveConf.ConfVars.HIVEVECTORIZEDEXECUTION)
+        && canVectorize()) {
+      batchCtx = VectorizedRowBatchCtx.create(
+          (StructObjectInspector) inputObjInspectors[0], neededColumnIDs);
+      if (batchCtx != null) {
+        // the children read the batches, or their rows, with its inspector
+        outputObjInspector = batchCtx.getBatch().getRowObjectInspector();
+        LOG.info("Forwarding rows in batches of " + VectorizedRowBatch.DEFAULT_SIZE);
+      }
+    }
     initializeChildren(hconf);
     inputFileChanged = false;
 
@@ -159,6 +219,9 @@ public class TableScanOperator extends Operator<TableScanDesc> implements
 
   @Override
   public void closeOp(boolean abort) throws HiveException {
+    if (batchCtx != null && !abort && batchCtx.getBatch().size > 0) {
+      flushBatch();
+    }
     if (conf != null) {
       if (conf.isGatherStats() && stat != null) {
         publishStats();
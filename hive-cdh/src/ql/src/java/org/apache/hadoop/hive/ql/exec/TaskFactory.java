@@ -32,6 +32,7 @@ import org.apache.hadoop.hive.ql.plan.FunctionWork;
 import org.apache.hadoop.hive.ql.plan.MapredLocalWork;
 import org.apache.hadoop.hive.ql.plan.MapredWork;
 import org.apache.hadoop.hive.ql.plan.MoveWork;
+import org.apache.hadoop.hive.ql.plan.SampleWork;
 import org.apache.hadoop.hive.ql.plan.StatsWork;
 
 /**
@@ -74,6 +75,8 @@ public final class TaskFactory {
         MapredLocalTask.class));
     taskvec.add(new taskTuple<StatsWork>(StatsWork.class,
         StatsTask.class));
+    taskvec.add(new taskTuple<SampleWork>(SampleWork.class,
+        SampleTask.class));
 
 
   }
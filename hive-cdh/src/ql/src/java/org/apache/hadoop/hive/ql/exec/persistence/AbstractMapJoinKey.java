@@ -23,6 +23,9 @@ import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
 
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.io.Writable;
+
 /**
  * Map Join Object used for both key.
  */
@@ -43,6 +46,12 @@ public abstract class AbstractMapJoinKey implements Externalizable {
 
   public abstract void writeExternal(ObjectOutput out) throws IOException;
 
+  /**
+   * @return the key serialized by the key SerDe of the map join, as written
+   *         by writeExternal
+   */
+  public abstract Writable serialize() throws SerDeException;
+
   public abstract boolean hasAnyNulls();
 
 }
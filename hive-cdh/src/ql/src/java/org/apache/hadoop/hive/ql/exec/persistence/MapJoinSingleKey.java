@@ -105,22 +105,24 @@ public class MapJoinSingleKey extends AbstractMapJoinKey {
   @Override
   public void writeExternal(ObjectOutput out) throws IOException {
     try {
-      // out.writeInt(metadataTag);
-      // get the tableDesc from the map stored in the mapjoin operator
-      HashTableSinkObjectCtx ctx = MapJoinMetaData.get(Integer.valueOf(metadataTag));
-
-      ArrayList<Object> list = MapJoinMetaData.getList();
-      list.add(obj);
-
-      // Different processing for key and value
-      Writable outVal = ctx.getSerDe().serialize(list, ctx.getStandardOI());
-      outVal.write(out);
-
+      serialize().write(out);
     } catch (SerDeException e) {
       throw new IOException(e);
     }
   }
 
+  @Override
+  public Writable serialize() throws SerDeException {
+    // get the tableDesc from the map stored in the mapjoin operator
+    HashTableSinkObjectCtx ctx = MapJoinMetaData.get(Integer.valueOf(metadataTag));
+
+    ArrayList<Object> list = MapJoinMetaData.getList();
+    list.add(obj);
+
+    // Different processing for key and value
+    return ctx.getSerDe().serialize(list, ctx.getStandardOI());
+  }
+
 
 
   /**
@@ -0,0 +1,351 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec.persistence;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.ql.exec.MapJoinMetaData;
+import org.apache.hadoop.hive.ql.exec.HashTableSinkOperator.HashTableSinkObjectCtx;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.serde2.SerDe;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ * Map join hash table whose persistent form is a flat file of serialized keys
+ * and rows. The local task builds the table in memory as usual and dumps it
+ * bucketed by the hash of the serialized key. The mappers map the file
+ * read-only and probe it in place: a probe serializes the key of the big
+ * table row and compares bytes, so the keys of the small table are never
+ * deserialized and only the rows of the matching key are. Mappers on the same
+ * node share the file through the page cache instead of each holding a
+ * deserialized copy on its heap.
+ *
+ * File layout: the entries, bucket after bucket, then the offset of the first
+ * entry of every bucket and the end of the last one, then a trailer. An entry
+ * is its key hash, its length, the serialized key, the number of rows and of
+ * columns, and the rows serialized by the value SerDe.
+ */
+public class MappedMapJoinHashTable extends HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final int MAGIC = 0x4d4a4854;
+  // Trailer: number of buckets, number of entries, value metadata tag, magic
+  private static final int TRAILER_SIZE = 16;
+
+  private transient ByteBuffer mapped;
+  private transient int numBuckets;
+  private transient int numEntries;
+  private transient int directory;
+  private transient int valueTag;
+
+  private transient DataOutputBuffer keyBuffer;
+  private transient DataInputBuffer rowBuffer;
+  private transient byte[] rowBytes;
+  private transient Writable rowWritable;
+
+  // The last key found and its rows: big table rows often come clustered by
+  // key
+  private transient byte[] lastKey;
+  private transient MapJoinObjectValue lastValue;
+
+  public MappedMapJoinHashTable(int threshold, float loadFactor, float memoryUsage) {
+    super(threshold, loadFactor, memoryUsage);
+  }
+
+  public MappedMapJoinHashTable() {
+    super();
+  }
+
+  /**
+   * @return a hash table of the map join in the format hive.mapjoin.hashtable.mmap
+   *         selects
+   */
+  public static HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> create(
+      Configuration conf, int threshold, float loadFactor, float memoryUsage) {
+    if (HiveConf.getBoolVar(conf, HiveConf.ConfVars.HIVEHASHTABLEMMAP)) {
+      return new MappedMapJoinHashTable(threshold, loadFactor, memoryUsage);
+    }
+    return new HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue>(threshold, loadFactor,
+        memoryUsage);
+  }
+
+  public static HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue> create(Configuration conf) {
+    if (HiveConf.getBoolVar(conf, HiveConf.ConfVars.HIVEHASHTABLEMMAP)) {
+      return new MappedMapJoinHashTable();
+    }
+    return new HashMapWrapper<AbstractMapJoinKey, MapJoinObjectValue>();
+  }
+
+  /**
+   * Dump the in-memory table in the flat format.
+   */
+  @Override
+  public long flushMemoryCacheToPersistent(File file) throws IOException {
+    Map<AbstractMapJoinKey, MapJoinObjectValue> hash = getMHash();
+    int n = hash.size();
+    int buckets = Math.max(1, n);
+
+    // Serialize the keys and sort the entries by bucket
+    byte[][] keys = new byte[n][];
+    int[] hashes = new int[n];
+    MapJoinObjectValue[] values = new MapJoinObjectValue[n];
+    int[] bucketStarts = new int[buckets + 1];
+    int tag = -1;
+    int i = 0;
+    for (Map.Entry<AbstractMapJoinKey, MapJoinObjectValue> e : hash.entrySet()) {
+      keys[i] = serializeKey(e.getKey());
+      hashes[i] = WritableComparator.hashBytes(keys[i], keys[i].length);
+      values[i] = e.getValue();
+      tag = values[i].getMetadataTag();
+      bucketStarts[bucket(hashes[i], buckets) + 1]++;
+      i++;
+    }
+    for (int b = 0; b < buckets; b++) {
+      bucketStarts[b + 1] += bucketStarts[b];
+    }
+    int[] order = new int[n];
+    int[] next = bucketStarts.clone();
+    for (i = 0; i < n; i++) {
+      order[next[bucket(hashes[i], buckets)]++] = i;
+    }
+
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(file), 64 * 1024));
+    try {
+      int[] offsets = new int[buckets + 1];
+      DataOutputBuffer entry = new DataOutputBuffer();
+      int b = 0;
+      for (int k = 0; k < n; k++) {
+        int e = order[k];
+        while (b < buckets && bucketStarts[b] == k) {
+          offsets[b++] = out.size();
+        }
+        entry.reset();
+        entry.write(keys[e]);
+        writeRows(entry, values[e]);
+        out.writeInt(hashes[e]);
+        out.writeInt(entry.getLength());
+        out.writeInt(keys[e].length);
+        out.write(entry.getData(), 0, entry.getLength());
+        if (out.size() == Integer.MAX_VALUE) {
+          throw new IOException("Map join hash table too large to be mapped: " + file);
+        }
+      }
+      while (b <= buckets) {
+        offsets[b++] = out.size();
+      }
+      for (int offset : offsets) {
+        out.writeInt(offset);
+      }
+      out.writeInt(buckets);
+      out.writeInt(n);
+      out.writeInt(tag);
+      out.writeInt(MAGIC);
+    } finally {
+      out.close();
+    }
+    return file.length();
+  }
+
+  private void writeRows(DataOutputBuffer out, MapJoinObjectValue value) throws IOException {
+    try {
+      HashTableSinkObjectCtx ctx = MapJoinMetaData.get(Integer.valueOf(value.getMetadataTag()));
+      MapJoinRowContainer<Object[]> rows = value.getObj();
+      out.writeInt(rows.size());
+      Object[] row = rows.first();
+      out.writeInt(row == null ? 0 : row.length);
+      if (row != null && row.length > 0) {
+        for (; row != null; row = rows.next()) {
+          ctx.getSerDe().serialize(row, ctx.getStandardOI()).write(out);
+        }
+      }
+    } catch (Exception e) {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Map the flat file dumped by flushMemoryCacheToPersistent.
+   */
+  @Override
+  public void initilizePersistentHash(String fileName) throws IOException, ClassNotFoundException {
+    RandomAccessFile file = new RandomAccessFile(fileName, "r");
+    try {
+      FileChannel channel = file.getChannel();
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE || size < TRAILER_SIZE) {
+        throw new IOException("Not a map join hash table: " + fileName);
+      }
+      // the mapping stays valid once the file is closed
+      mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    } finally {
+      file.close();
+    }
+    int trailer = mapped.capacity() - TRAILER_SIZE;
+    if (mapped.getInt(trailer + 12) != MAGIC) {
+      mapped = null;
+      throw new IOException("Not a map join hash table: " + fileName);
+    }
+    numBuckets = mapped.getInt(trailer);
+    numEntries = mapped.getInt(trailer + 4);
+    valueTag = mapped.getInt(trailer + 8);
+    directory = trailer - 4 * (numBuckets + 1);
+    keyBuffer = new DataOutputBuffer();
+    rowBuffer = new DataInputBuffer();
+    rowBytes = new byte[256];
+    rowWritable = null;
+    lastKey = null;
+    lastValue = null;
+    LOG.info("Mapped " + numEntries + " keys of map join hash table " + fileName);
+  }
+
+  @Override
+  public MapJoinObjectValue get(AbstractMapJoinKey key) {
+    if (mapped == null) {
+      return super.get(key);
+    }
+    try {
+      keyBuffer.reset();
+      key.serialize().write(keyBuffer);
+      byte[] bytes = keyBuffer.getData();
+      int length = keyBuffer.getLength();
+      if (lastKey != null && WritableComparator.compareBytes(bytes, 0, length,
+          lastKey, 0, lastKey.length) == 0) {
+        return lastValue;
+      }
+
+      int hash = WritableComparator.hashBytes(bytes, length);
+      int b = bucket(hash, numBuckets);
+      int position = mapped.getInt(directory + 4 * b);
+      int end = mapped.getInt(directory + 4 * (b + 1));
+      MapJoinObjectValue value = null;
+      while (position < end) {
+        int entryLength = mapped.getInt(position + 4);
+        if (mapped.getInt(position) == hash && mapped.getInt(position + 8) == length
+            && keyEquals(position + 12, bytes, length)) {
+          value = readRows(position + 12 + length, entryLength - length);
+          break;
+        }
+        position += 12 + entryLength;
+      }
+      lastKey = new byte[length];
+      System.arraycopy(bytes, 0, lastKey, 0, length);
+      lastValue = value;
+      return value;
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private boolean keyEquals(int position, byte[] bytes, int length) {
+    for (int i = 0; i < length; i++) {
+      if (mapped.get(position + i) != bytes[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private MapJoinObjectValue readRows(int position, int length) throws Exception {
+    int numRows = mapped.getInt(position);
+    int numCols = mapped.getInt(position + 4);
+    MapJoinRowContainer<Object[]> res = new MapJoinRowContainer<Object[]>();
+    if (numCols == 0) {
+      for (int i = 0; i < numRows; i++) {
+        res.add(new Object[0]);
+      }
+      return new MapJoinObjectValue(valueTag, res);
+    }
+
+    if (length - 8 > rowBytes.length) {
+      rowBytes = new byte[Math.max(length - 8, 2 * rowBytes.length)];
+    }
+    // the rows are read through a copy, the buffer is shared
+    ByteBuffer rows = mapped.duplicate();
+    rows.position(position + 8);
+    rows.get(rowBytes, 0, length - 8);
+    rowBuffer.reset(rowBytes, length - 8);
+
+    HashTableSinkObjectCtx ctx = MapJoinMetaData.get(Integer.valueOf(valueTag));
+    SerDe serde = ctx.getSerDe();
+    if (rowWritable == null) {
+      rowWritable = serde.getSerializedClass().newInstance();
+    }
+    for (int i = 0; i < numRows; i++) {
+      rowWritable.readFields(rowBuffer);
+      List<?> row = (List<?>) ObjectInspectorUtils.copyToStandardObject(
+          serde.deserialize(rowWritable), serde.getObjectInspector(),
+          ObjectInspectorCopyOption.WRITABLE);
+      res.add(row == null ? new Object[0] : row.toArray());
+    }
+    return new MapJoinObjectValue(valueTag, res);
+  }
+
+  private static byte[] serializeKey(AbstractMapJoinKey key) throws IOException {
+    DataOutputBuffer buffer = new DataOutputBuffer();
+    try {
+      key.serialize().write(buffer);
+    } catch (Exception e) {
+      throw new IOException(e);
+    }
+    byte[] bytes = new byte[buffer.getLength()];
+    System.arraycopy(buffer.getData(), 0, bytes, 0, bytes.length);
+    return bytes;
+  }
+
+  private static int bucket(int hash, int buckets) {
+    return (hash & Integer.MAX_VALUE) % buckets;
+  }
+
+  @Override
+  public int size() {
+    return mapped == null ? super.size() : numEntries;
+  }
+
+  @Override
+  public int getKeySize() {
+    return size();
+  }
+
+  @Override
+  public void close() throws HiveException {
+    // the mapping is released once it is garbage collected
+    mapped = null;
+    lastKey = null;
+    lastValue = null;
+    super.close();
+  }
+}
@@ -22,6 +22,8 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -42,6 +44,7 @@ import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.mapred.InputFormat;
 import org.apache.hadoop.mapred.InputSplit;
 import org.apache.hadoop.mapred.JobConf;
@@ -70,6 +73,10 @@ import org.apache.hadoop.util.ReflectionUtils;
  * after read. It can be read multiple times, but it does not support multiple reader interleaving
  * reading.
  *
+ * Blocks are spilled through the table format of the container. With hive.join.spill.blocks set,
+ * the blocks of a container that has no key object (that is, whose spill file is not copied to
+ * the skew join directories) are spilled to a {@link RowContainerSpillFile} instead, and read back
+ * by a thread that deserializes the next block while the current one is iterated.
  */
 public class RowContainer<Row extends List<Object>> extends AbstractRowContainer<Row> {
 
@@ -116,6 +123,15 @@ public class RowContainer<Row extends List<Object>> extends AbstractRowContainer
   JobConf jobCloneUsingLocalFs = null;
   private LocalFileSystem localFs;
 
+  // whether the blocks are spilled to a RowContainerSpillFile, and its
+  // writer and reader
+  private boolean blockSpill = false;
+  private CompressionCodec spillCodec = null;
+  private RowContainerSpillFile.Writer spillWriter = null;
+  private BlockPrefetcher prefetcher = null;
+  // the blocks the prefetcher reads into, kept for the following iterations
+  private Row[][] prefetchBlocks = null;
+
   public RowContainer() {
 
   }
@@ -206,6 +222,13 @@ public class RowContainer<Row extends List<Object>> extends AbstractRowContainer
       if (this.numFlushedBlocks == 0) {
         this.readBlockSize = this.addCursor;
         this.currentReadBlock = this.currentWriteBlock;
+      } else if (blockSpill) {
+        if (prefetchBlocks == null) {
+          prefetchBlocks = (Row[][]) new ArrayList[2][blockSize];
+        }
+        prefetcher = new BlockPrefetcher(new RowContainerSpillFile.Reader(tmpFile, spillCodec));
+        prefetcher.start();
+        nextBlock();
       } else {
         JobConf localJc = getLocalFSJobConfClone(jc);
         if (inputSplits == null) {
@@ -313,13 +336,22 @@ public class RowContainer<Row extends List<Object>> extends AbstractRowContainer
         parentFile.deleteOnExit();
         tmpFile.deleteOnExit();
 
-        // rFile = new RandomAccessFile(tmpFile, "rw");
-        HiveOutputFormat<?, ?> hiveOutputFormat = tblDesc.getOutputFileFormatClass().newInstance();
-        tempOutPath = new Path(tmpFile.toString());
-        JobConf localJc = getLocalFSJobConfClone(jc);
-        rw = HiveFileFormatUtils.getRecordWriter(this.jobCloneUsingLocalFs, hiveOutputFormat, serde
-            .getSerializedClass(), false, tblDesc.getProperties(), tempOutPath);
-      } else if (rw == null) {
+        // the skew join copies the spill files of the containers with a key
+        // object as tables, so they keep the table format
+        blockSpill = jc != null && this.keyObject == null
+            && HiveConf.getBoolVar(jc, HiveConf.ConfVars.HIVEJOINSPILLBLOCKS);
+        if (blockSpill) {
+          spillCodec = getSpillCodec();
+          spillWriter = new RowContainerSpillFile.Writer(tmpFile, spillCodec);
+        } else {
+          // rFile = new RandomAccessFile(tmpFile, "rw");
+          HiveOutputFormat<?, ?> hiveOutputFormat = tblDesc.getOutputFileFormatClass().newInstance();
+          tempOutPath = new Path(tmpFile.toString());
+          JobConf localJc = getLocalFSJobConfClone(jc);
+          rw = HiveFileFormatUtils.getRecordWriter(this.jobCloneUsingLocalFs, hiveOutputFormat, serde
+              .getSerializedClass(), false, tblDesc.getProperties(), tempOutPath);
+        }
+      } else if (rw == null && spillWriter == null) {
         throw new HiveException("RowContainer has already been closed for writing.");
       }
 
@@ -333,15 +365,18 @@ public class RowContainer<Row extends List<Object>> extends AbstractRowContainer
           Row currentValRow = block[i];
           row.set(0, currentValRow);
           Writable outVal = serde.serialize(row, standardOI);
-          rw.write(outVal);
+          writeRow(outVal);
         }
       } else {
         for (int i = 0; i < length; ++i) {
           Row currentValRow = block[i];
           Writable outVal = serde.serialize(currentValRow, standardOI);
-          rw.write(outVal);
+          writeRow(outVal);
         }
       }
+      if (spillWriter != null) {
+        spillWriter.endBlock();
+      }
 
       if (block == this.currentWriteBlock) {
         this.addCursor = 0;
@@ -355,6 +390,22 @@ public class RowContainer<Row extends List<Object>> extends AbstractRowContainer
     }
   }
 
+  private void writeRow(Writable outVal) throws IOException {
+    if (spillWriter != null) {
+      spillWriter.append(outVal);
+    } else {
+      rw.write(outVal);
+    }
+  }
+
+  private CompressionCodec getSpillCodec() throws ClassNotFoundException {
+    String codecClass = HiveConf.getVar(jc, HiveConf.ConfVars.HIVEJOINSPILLCODEC);
+    if (codecClass == null || codecClass.length() == 0) {
+      return null;
+    }
+    return (CompressionCodec) ReflectionUtils.newInstance(jc.getClassByName(codecClass), jc);
+  }
+
   /**
    * Get the number of elements in the RowContainer.
    *
@@ -372,6 +423,25 @@ public class RowContainer<Row extends List<Object>> extends AbstractRowContainer
       return false;
     }
 
+    if (prefetcher != null) {
+      try {
+        Row[] block = prefetcher.nextBlock();
+        if (block != null) {
+          this.currentReadBlock = block;
+          this.readBlockSize = prefetcher.getBlockRows();
+        }
+        return this.readBlockSize > 0;
+      } catch (Exception e) {
+        LOG.error(e.getMessage(), e);
+        try {
+          this.clear();
+        } catch (HiveException e1) {
+          LOG.error(e.getMessage(), e);
+        }
+        throw new HiveException(e);
+      }
+    }
+
     try {
       if (val == null) {
         val = serde.getSerializedClass().newInstance();
@@ -414,6 +484,10 @@ public class RowContainer<Row extends List<Object>> extends AbstractRowContainer
     if (addCursor > 0) {
       this.spillBlock(this.currentWriteBlock, addCursor);
     }
+    if (blockSpill) {
+      throw new HiveException("RowContainer spilled to " + tmpFile
+          + " which is not in its table format and cannot be copied");
+    }
     if (tempOutPath == null || tempOutPath.toString().trim().equals("")) {
       return;
     }
@@ -449,12 +523,21 @@ public class RowContainer<Row extends List<Object>> extends AbstractRowContainer
       if (rr != null) {
         rr.close();
       }
+      if (spillWriter != null) {
+        spillWriter.close();
+      }
+      if (prefetcher != null) {
+        prefetcher.close();
+      }
     } catch (Exception e) {
       LOG.error(e.toString());
       throw new HiveException(e);
     } finally {
       rw = null;
       rr = null;
+      spillWriter = null;
+      prefetcher = null;
+      blockSpill = false;
       tmpFile = null;
       deleteLocalFile(parentFile, true);
       parentFile = null;
@@ -488,6 +571,10 @@ public class RowContainer<Row extends List<Object>> extends AbstractRowContainer
       this.rw.close(false);
       this.rw = null;
     }
+    if (this.spillWriter != null) {
+      this.spillWriter.close();
+      this.spillWriter = null;
+    }
   }
 
   private void closeReader() throws IOException {
@@ -495,6 +582,10 @@ public class RowContainer<Row extends List<Object>> extends AbstractRowContainer
       this.rr.close();
       this.rr = null;
     }
+    if (this.prefetcher != null) {
+      this.prefetcher.close();
+      this.prefetcher = null;
+    }
   }
 
   public void setKeyObject(List<Object> dummyKey) {
@@ -505,4 +596,101 @@ public class RowContainer<Row extends List<Object>> extends AbstractRowContainer
     this.tblDesc = tblDesc;
   }
 
+  /**
+   * Reads and deserializes the blocks of the spill file in a thread of its
+   * own, one block ahead of the iteration. The blocks are read into the two
+   * prefetch blocks in turn: one is iterated while the other is read.
+   */
+  private class BlockPrefetcher extends Thread {
+
+    private final RowContainerSpillFile.Reader reader;
+    // the blocks to read into, and the blocks read with their number of
+    // rows, no rows at the end of the file
+    private final BlockingQueue<Row[]> free = new ArrayBlockingQueue<Row[]>(2);
+    private final BlockingQueue<Object[]> ready = new ArrayBlockingQueue<Object[]>(2);
+    private Row[] currentBlock = null;
+    private int blockRows = 0;
+    private boolean done = false;
+    private volatile boolean closed = false;
+
+    BlockPrefetcher(RowContainerSpillFile.Reader reader) {
+      super("RowContainer prefetcher");
+      setDaemon(true);
+      this.reader = reader;
+      free.add(prefetchBlocks[0]);
+      free.add(prefetchBlocks[1]);
+    }
+
+    @Override
+    public void run() {
+      try {
+        Writable val = serde.getSerializedClass().newInstance();
+        while (!closed) {
+          Row[] block = free.take();
+          int rows = 0;
+          if (reader.nextBlock()) {
+            if (reader.getBlockRows() > block.length) {
+              throw new IOException("Spilled block of " + reader.getBlockRows()
+                  + " rows is larger than the block size " + block.length);
+            }
+            while (reader.next(val)) {
+              block[rows++] = (Row) ObjectInspectorUtils.copyToStandardObject(serde
+                  .deserialize(val), serde.getObjectInspector(), ObjectInspectorCopyOption.WRITABLE);
+            }
+          }
+          ready.put(new Object[] {block, Integer.valueOf(rows)});
+          if (rows == 0) {
+            return;
+          }
+        }
+      } catch (InterruptedException e) {
+        // closed
+      } catch (Throwable t) {
+        ready.offer(new Object[] {t});
+      }
+    }
+
+    /**
+     * Returns the next block, and gives the current one back to be read
+     * into.
+     *
+     * @return the block, or null at the end of the spill file
+     */
+    Row[] nextBlock() throws HiveException, InterruptedException {
+      if (currentBlock != null) {
+        free.add(currentBlock);
+        currentBlock = null;
+      }
+      blockRows = 0;
+      if (done) {
+        return null;
+      }
+      Object[] next = ready.take();
+      if (next.length == 1) {
+        throw new HiveException((Throwable) next[0]);
+      }
+      blockRows = ((Integer) next[1]).intValue();
+      if (blockRows == 0) {
+        done = true;
+        return null;
+      }
+      currentBlock = (Row[]) next[0];
+      return currentBlock;
+    }
+
+    int getBlockRows() {
+      return blockRows;
+    }
+
+    void close() throws IOException {
+      closed = true;
+      interrupt();
+      try {
+        join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      reader.close();
+    }
+  }
 }
@@ -0,0 +1,231 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec.persistence;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.apache.hadoop.hive.ql.io.NonSyncDataInputBuffer;
+import org.apache.hadoop.hive.ql.io.NonSyncDataOutputBuffer;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionInputStream;
+import org.apache.hadoop.io.compress.CompressionOutputStream;
+import org.apache.hadoop.io.compress.Compressor;
+import org.apache.hadoop.io.compress.Decompressor;
+
+/**
+ * The local file the blocks of a {@link RowContainer} are spilled to when
+ * hive.join.spill.blocks is set. Each block of rows is framed as
+ *
+ * <ul>
+ * <li>the number of rows of the block (int)</li>
+ * <li>the length of the serialized rows (int)</li>
+ * <li>the length of the serialized rows on disk (int)</li>
+ * <li>the serialized rows, compressed if the file has a codec</li>
+ * </ul>
+ *
+ * and the file ends with a number of rows of -1. A row is serialized as the
+ * Writable its serde serializes it to.
+ */
+public class RowContainerSpillFile {
+
+  private static final int END_OF_FILE = -1;
+
+  /**
+   * Write rows to a spill file, a block at a time.
+   */
+  public static class Writer {
+
+    private final DataOutputStream out;
+    private final CompressionCodec codec;
+    private Compressor compressor;
+    private NonSyncDataOutputBuffer compressedBuffer;
+    private CompressionOutputStream deflateFilter;
+    private DataOutputStream deflateOut;
+
+    // the serialized rows of the current block
+    private final NonSyncDataOutputBuffer blockBuffer = new NonSyncDataOutputBuffer();
+    private int blockRows = 0;
+
+    public Writer(File file, CompressionCodec codec) throws IOException {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+      this.codec = codec;
+      if (codec != null) {
+        compressor = CodecPool.getCompressor(codec);
+        compressedBuffer = new NonSyncDataOutputBuffer();
+        deflateFilter = codec.createOutputStream(compressedBuffer, compressor);
+        deflateOut = new DataOutputStream(new BufferedOutputStream(deflateFilter));
+      }
+    }
+
+    /**
+     * Append a row to the current block.
+     */
+    public void append(Writable row) throws IOException {
+      row.write(blockBuffer);
+      blockRows++;
+    }
+
+    /**
+     * Write the current block out, if it has rows.
+     */
+    public void endBlock() throws IOException {
+      if (blockRows == 0) {
+        return;
+      }
+      out.writeInt(blockRows);
+      out.writeInt(blockBuffer.getLength());
+      if (codec != null) {
+        compressedBuffer.reset();
+        deflateFilter.resetState();
+        deflateOut.write(blockBuffer.getData(), 0, blockBuffer.getLength());
+        deflateOut.flush();
+        deflateFilter.finish();
+        out.writeInt(compressedBuffer.getLength());
+        out.write(compressedBuffer.getData(), 0, compressedBuffer.getLength());
+      } else {
+        out.writeInt(blockBuffer.getLength());
+        out.write(blockBuffer.getData(), 0, blockBuffer.getLength());
+      }
+      blockBuffer.reset();
+      blockRows = 0;
+    }
+
+    public void close() throws IOException {
+      try {
+        endBlock();
+        out.writeInt(END_OF_FILE);
+      } finally {
+        IOUtils.closeStream(out);
+        if (codec != null) {
+          IOUtils.closeStream(deflateOut);
+          CodecPool.returnCompressor(compressor);
+          compressor = null;
+        }
+      }
+    }
+  }
+
+  /**
+   * Read the rows of a spill file, a block at a time.
+   */
+  public static class Reader {
+
+    private final DataInputStream in;
+    private final CompressionCodec codec;
+    private Decompressor decompressor;
+    private NonSyncDataInputBuffer decompressBuffer;
+    private CompressionInputStream inflateFilter;
+    private DataInputStream inflateIn;
+
+    // the block as it is on disk, and uncompressed
+    private final NonSyncDataOutputBuffer storedBuffer = new NonSyncDataOutputBuffer();
+    private final NonSyncDataOutputBuffer blockBuffer = new NonSyncDataOutputBuffer();
+    private final NonSyncDataInputBuffer blockIn = new NonSyncDataInputBuffer();
+    private int blockRows = 0;
+    private int readRows = 0;
+    private boolean ended = false;
+
+    public Reader(File file, CompressionCodec codec) throws IOException {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      this.codec = codec;
+      if (codec != null) {
+        decompressor = CodecPool.getDecompressor(codec);
+        decompressBuffer = new NonSyncDataInputBuffer();
+        inflateFilter = codec.createInputStream(decompressBuffer, decompressor);
+        inflateIn = new DataInputStream(inflateFilter);
+      }
+    }
+
+    /**
+     * Load the next block.
+     *
+     * @return false if there is none
+     */
+    public boolean nextBlock() throws IOException {
+      if (ended) {
+        return false;
+      }
+      blockRows = in.readInt();
+      if (blockRows == END_OF_FILE) {
+        ended = true;
+        blockRows = 0;
+        readRows = 0;
+        return false;
+      }
+      int length = in.readInt();
+      int storedLength = in.readInt();
+      if (codec != null) {
+        storedBuffer.reset();
+        storedBuffer.write(in, storedLength);
+        decompressBuffer.reset(storedBuffer.getData(), storedLength);
+        inflateFilter.resetState();
+        blockBuffer.reset();
+        blockBuffer.write(inflateIn, length);
+      } else {
+        blockBuffer.reset();
+        blockBuffer.write(in, length);
+      }
+      blockIn.reset(blockBuffer.getData(), length);
+      readRows = 0;
+      return true;
+    }
+
+    /** Returns the number of rows of the current block. */
+    public int getBlockRows() {
+      return blockRows;
+    }
+
+    /**
+     * Read the next row of the current block.
+     *
+     * @return false if the block has no more rows
+     */
+    public boolean next(Writable row) throws IOException {
+      if (readRows == blockRows) {
+        return false;
+      }
+      row.readFields(blockIn);
+      readRows++;
+      return true;
+    }
+
+    public void close() {
+      IOUtils.closeStream(in);
+      if (codec != null) {
+        IOUtils.closeStream(inflateIn);
+        CodecPool.returnDecompressor(decompressor);
+        decompressor = null;
+      }
+    }
+  }
+
+  private RowContainerSpillFile() {
+    // prevent instantiation
+  }
+}
@@ -0,0 +1,76 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec.vector;
+
+/**
+ * BytesColumnVector.
+ *
+ * Column of the string type. The value of a row is a range of a byte array:
+ * either a copy the vector keeps in its own buffer, or a reference to bytes
+ * that stay unchanged while the batch is processed.
+ */
+public class BytesColumnVector extends ColumnVector {
+
+  private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+
+  public byte[][] vector;
+  public int[] start;
+  public int[] length;
+
+  private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+  private int nextFree;
+
+  public BytesColumnVector(int size) {
+    super(size);
+    vector = new byte[size][];
+    start = new int[size];
+    length = new int[size];
+  }
+
+  /**
+   * Set the value of the row to a copy of the bytes.
+   */
+  public void setVal(int row, byte[] bytes, int offset, int len) {
+    if (nextFree + len > buffer.length) {
+      // the values copied so far keep the old buffer
+      buffer = new byte[Math.max(2 * buffer.length, len)];
+      nextFree = 0;
+    }
+    System.arraycopy(bytes, offset, buffer, nextFree, len);
+    vector[row] = buffer;
+    start[row] = nextFree;
+    length[row] = len;
+    nextFree += len;
+  }
+
+  /**
+   * Set the value of the row to the bytes, without copying them.
+   */
+  public void setRef(int row, byte[] bytes, int offset, int len) {
+    vector[row] = bytes;
+    start[row] = offset;
+    length[row] = len;
+  }
+
+  @Override
+  public void reset() {
+    super.reset();
+    nextFree = 0;
+  }
+}
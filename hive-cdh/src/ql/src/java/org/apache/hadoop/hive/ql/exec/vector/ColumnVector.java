@@ -0,0 +1,67 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec.vector;
+
+import java.util.Arrays;
+
+/**
+ * ColumnVector.
+ *
+ * The values of one column for the rows of a batch. Only the rows the batch
+ * selects hold meaningful values. A repeating vector holds a single value,
+ * the one of its first element, for every row. The null flags are only
+ * meaningful when noNulls is false.
+ */
+public abstract class ColumnVector {
+
+  public boolean[] isNull;
+  public boolean noNulls;
+  public boolean isRepeating;
+
+  public ColumnVector(int size) {
+    isNull = new boolean[size];
+    noNulls = true;
+  }
+
+  /**
+   * Make the element of the row null.
+   */
+  public void setNull(int row) {
+    isNull[row] = true;
+    noNulls = false;
+  }
+
+  /**
+   * @return whether the value of the row is null
+   */
+  public boolean isNull(int row) {
+    return !noNulls && isNull[isRepeating ? 0 : row];
+  }
+
+  /**
+   * Empty the vector before it is filled with the rows of the next batch.
+   */
+  public void reset() {
+    if (!noNulls) {
+      Arrays.fill(isNull, false);
+    }
+    noNulls = true;
+    isRepeating = false;
+  }
+}
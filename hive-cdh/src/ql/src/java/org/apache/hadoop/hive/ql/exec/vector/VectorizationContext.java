@@ -0,0 +1,309 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec.vector;
+
+import java.util.List;
+
+import org.apache.hadoop.hive.ql.exec.UDF;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.Cast;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.ColumnReference;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.ConstantVectorExpression;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.DoubleArithmetic;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.FilterAnd;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.FilterComparison;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.FilterIsNull;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.FilterOr;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.LongArithmetic;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.UnaryArithmetic;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.VectorExpression;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.VectorFilterExpression;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.FilterComparison.Comparison;
+import org.apache.hadoop.hive.ql.plan.ExprNodeColumnDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeConstantDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeGenericFuncDesc;
+import org.apache.hadoop.hive.ql.udf.UDFAbs;
+import org.apache.hadoop.hive.ql.udf.UDFOPDivide;
+import org.apache.hadoop.hive.ql.udf.UDFOPMinus;
+import org.apache.hadoop.hive.ql.udf.UDFOPMultiply;
+import org.apache.hadoop.hive.ql.udf.UDFOPNegative;
+import org.apache.hadoop.hive.ql.udf.UDFOPPlus;
+import org.apache.hadoop.hive.ql.udf.UDFOPPositive;
+import org.apache.hadoop.hive.ql.udf.UDFToByte;
+import org.apache.hadoop.hive.ql.udf.UDFToDouble;
+import org.apache.hadoop.hive.ql.udf.UDFToFloat;
+import org.apache.hadoop.hive.ql.udf.UDFToInteger;
+import org.apache.hadoop.hive.ql.udf.UDFToLong;
+import org.apache.hadoop.hive.ql.udf.UDFToShort;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFBridge;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPAnd;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPEqual;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPEqualOrGreaterThan;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPEqualOrLessThan;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPGreaterThan;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPLessThan;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPNot;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPNotEqual;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPNotNull;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPNull;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPOr;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+
+/**
+ * VectorizationContext.
+ *
+ * Compiles the expressions of a plan into vector expressions over the columns
+ * of a batch. It covers column references, constants, comparisons, AND, OR,
+ * NOT, IS [NOT] NULL, arithmetic, ABS and the numeric casts over primitive
+ * columns. An expression with any other part does not compile, and the
+ * operator that evaluates it processes the batch row by row instead.
+ */
+public class VectorizationContext {
+
+  private final VectorizedRowBatch batch;
+
+  /**
+   * @param batch
+   *          the batch the expressions will be evaluated on, or one with the
+   *          same columns
+   */
+  public VectorizationContext(VectorizedRowBatch batch) {
+    this.batch = batch;
+  }
+
+  /**
+   * @return the vector expression of the value of the expression, or null if
+   *         it cannot be vectorized
+   */
+  public VectorExpression getVectorExpression(ExprNodeDesc expr) {
+    PrimitiveCategory type = getType(expr.getTypeInfo());
+    if (type == null) {
+      return null;
+    }
+    if (expr instanceof ExprNodeColumnDesc) {
+      int column = batch.findColumn(((ExprNodeColumnDesc) expr).getColumn());
+      if (column < 0 || batch.getColumnType(column) != type) {
+        return null;
+      }
+      return new ColumnReference(column, type);
+    }
+    if (expr instanceof ExprNodeConstantDesc) {
+      Object value = ((ExprNodeConstantDesc) expr).getValue();
+      if (value == null) {
+        return null;
+      }
+      return new ConstantVectorExpression(type, value);
+    }
+    if (!(expr instanceof ExprNodeGenericFuncDesc)
+        || !(((ExprNodeGenericFuncDesc) expr).getGenericUDF() instanceof GenericUDFBridge)) {
+      return null;
+    }
+
+    Class<? extends UDF> udfClass = ((GenericUDFBridge) ((ExprNodeGenericFuncDesc) expr)
+        .getGenericUDF()).getUdfClass();
+    List<ExprNodeDesc> children = expr.getChildren();
+    if (type == PrimitiveCategory.STRING || type == PrimitiveCategory.BOOLEAN) {
+      return null;
+    }
+    if (children.size() == 2) {
+      VectorExpression left = getNumericOperand(children.get(0), type);
+      VectorExpression right = getNumericOperand(children.get(1), type);
+      if (left == null || right == null) {
+        return null;
+      }
+      if (VectorizedRowBatch.isLongType(type)) {
+        LongArithmetic.Operator op = getLongOperator(udfClass);
+        return op == null ? null : new LongArithmetic(op, left, right, type);
+      }
+      DoubleArithmetic.Operator op = getDoubleOperator(udfClass);
+      return op == null ? null : new DoubleArithmetic(op, left, right, type);
+    }
+    if (children.size() != 1) {
+      return null;
+    }
+    if (udfClass == UDFToByte.class || udfClass == UDFToShort.class
+        || udfClass == UDFToInteger.class || udfClass == UDFToLong.class
+        || udfClass == UDFToFloat.class || udfClass == UDFToDouble.class) {
+      VectorExpression child = getVectorExpression(children.get(0));
+      if (child == null || !isNumeric(child.getOutputType())) {
+        return null;
+      }
+      return child.getOutputType() == type ? child : new Cast(child, type);
+    }
+    VectorExpression child = getNumericOperand(children.get(0), type);
+    if (child == null) {
+      return null;
+    }
+    if (udfClass == UDFOPPositive.class) {
+      return child;
+    } else if (udfClass == UDFOPNegative.class) {
+      return new UnaryArithmetic(UnaryArithmetic.Function.NEGATE, child);
+    } else if (udfClass == UDFAbs.class) {
+      return new UnaryArithmetic(UnaryArithmetic.Function.ABS, child);
+    }
+    return null;
+  }
+
+  /**
+   * @return the vector filter of the predicate, or null if it cannot be
+   *         vectorized
+   */
+  public VectorFilterExpression getVectorFilter(ExprNodeDesc expr) {
+    return getVectorFilter(expr, false);
+  }
+
+  private VectorFilterExpression getVectorFilter(ExprNodeDesc expr, boolean negate) {
+    if (getType(expr.getTypeInfo()) != PrimitiveCategory.BOOLEAN) {
+      return null;
+    }
+    if (expr instanceof ExprNodeColumnDesc) {
+      // a boolean column is true where it equals true
+      VectorExpression column = getVectorExpression(expr);
+      if (column == null) {
+        return null;
+      }
+      return new FilterComparison(negate ? Comparison.NE : Comparison.EQ, column,
+          new ConstantVectorExpression(PrimitiveCategory.BOOLEAN, Boolean.TRUE));
+    }
+    if (!(expr instanceof ExprNodeGenericFuncDesc)) {
+      return null;
+    }
+
+    GenericUDF udf = ((ExprNodeGenericFuncDesc) expr).getGenericUDF();
+    List<ExprNodeDesc> children = expr.getChildren();
+    if (udf instanceof GenericUDFOPNot) {
+      return getVectorFilter(children.get(0), !negate);
+    }
+    if (udf instanceof GenericUDFOPAnd || udf instanceof GenericUDFOPOr) {
+      // NOT (a AND b) is NOT a OR NOT b, in three valued logic too
+      VectorFilterExpression[] filters = new VectorFilterExpression[children.size()];
+      for (int i = 0; i < filters.length; i++) {
+        filters[i] = getVectorFilter(children.get(i), negate);
+        if (filters[i] == null) {
+          return null;
+        }
+      }
+      boolean and = (udf instanceof GenericUDFOPAnd) != negate;
+      return and ? new FilterAnd(filters) : new FilterOr(filters);
+    }
+    if (udf instanceof GenericUDFOPNull || udf instanceof GenericUDFOPNotNull) {
+      VectorExpression child = getVectorExpression(children.get(0));
+      if (child == null) {
+        return null;
+      }
+      return new FilterIsNull(child, (udf instanceof GenericUDFOPNull) != negate);
+    }
+
+    Comparison comparison = getComparison(udf);
+    if (comparison == null) {
+      return null;
+    }
+    VectorExpression left = getVectorExpression(children.get(0));
+    VectorExpression right = getVectorExpression(children.get(1));
+    if (left == null || right == null) {
+      return null;
+    }
+    // NOT of a comparison is the opposite comparison: both drop the nulls
+    if (negate) {
+      comparison = comparison.negate();
+    }
+    PrimitiveCategory leftType = left.getOutputType();
+    PrimitiveCategory rightType = right.getOutputType();
+    if (leftType == PrimitiveCategory.STRING || rightType == PrimitiveCategory.STRING) {
+      // a string and a number compare as doubles in row mode
+      if (leftType != rightType) {
+        return null;
+      }
+    } else if (leftType != rightType || !VectorizedRowBatch.isLongType(leftType)) {
+      // different types compare as doubles in row mode
+      left = castTo(left, PrimitiveCategory.DOUBLE);
+      right = castTo(right, PrimitiveCategory.DOUBLE);
+    }
+    return new FilterComparison(comparison, left, right);
+  }
+
+  private VectorExpression getNumericOperand(ExprNodeDesc expr, PrimitiveCategory type) {
+    VectorExpression operand = getVectorExpression(expr);
+    if (operand == null || !isNumeric(operand.getOutputType())) {
+      return null;
+    }
+    return castTo(operand, type);
+  }
+
+  private static VectorExpression castTo(VectorExpression expr, PrimitiveCategory type) {
+    return expr.getOutputType() == type ? expr : new Cast(expr, type);
+  }
+
+  private static PrimitiveCategory getType(TypeInfo typeInfo) {
+    if (typeInfo.getCategory() != ObjectInspector.Category.PRIMITIVE) {
+      return null;
+    }
+    PrimitiveCategory type = ((PrimitiveTypeInfo) typeInfo).getPrimitiveCategory();
+    return VectorizedRowBatch.isSupported(type) ? type : null;
+  }
+
+  private static boolean isNumeric(PrimitiveCategory type) {
+    return type != PrimitiveCategory.BOOLEAN && type != PrimitiveCategory.STRING;
+  }
+
+  private static LongArithmetic.Operator getLongOperator(Class<? extends UDF> udfClass) {
+    if (udfClass == UDFOPPlus.class) {
+      return LongArithmetic.Operator.PLUS;
+    } else if (udfClass == UDFOPMinus.class) {
+      return LongArithmetic.Operator.MINUS;
+    } else if (udfClass == UDFOPMultiply.class) {
+      return LongArithmetic.Operator.MULTIPLY;
+    }
+    return null;
+  }
+
+  private static DoubleArithmetic.Operator getDoubleOperator(Class<? extends UDF> udfClass) {
+    if (udfClass == UDFOPPlus.class) {
+      return DoubleArithmetic.Operator.PLUS;
+    } else if (udfClass == UDFOPMinus.class) {
+      return DoubleArithmetic.Operator.MINUS;
+    } else if (udfClass == UDFOPMultiply.class) {
+      return DoubleArithmetic.Operator.MULTIPLY;
+    } else if (udfClass == UDFOPDivide.class) {
+      return DoubleArithmetic.Operator.DIVIDE;
+    }
+    return null;
+  }
+
+  private static Comparison getComparison(GenericUDF udf) {
+    if (udf instanceof GenericUDFOPEqual) {
+      return Comparison.EQ;
+    } else if (udf instanceof GenericUDFOPNotEqual) {
+      return Comparison.NE;
+    } else if (udf instanceof GenericUDFOPLessThan) {
+      return Comparison.LT;
+    } else if (udf instanceof GenericUDFOPEqualOrLessThan) {
+      return Comparison.LE;
+    } else if (udf instanceof GenericUDFOPGreaterThan) {
+      return Comparison.GT;
+    } else if (udf instanceof GenericUDFOPEqualOrGreaterThan) {
+      return Comparison.GE;
+    }
+    return null;
+  }
+}
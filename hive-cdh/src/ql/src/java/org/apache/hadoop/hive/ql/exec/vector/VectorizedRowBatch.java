@@ -0,0 +1,271 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec.vector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.hive.serde2.io.ByteWritable;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.io.ShortWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * VectorizedRowBatch.
+ *
+ * A batch of up to DEFAULT_SIZE rows stored as one vector per column, which
+ * the operators of a vectorized pipeline pass to each other instead of single
+ * rows. The rows of the batch are the first size ones or, if selectedInUse,
+ * the first size ones listed in selected, in increasing order. Filters narrow
+ * the selection instead of moving values.
+ *
+ * An operator that cannot process batches reads them back as rows of standard
+ * writable objects, see getRow.
+ */
+public class VectorizedRowBatch {
+
+  public static final int DEFAULT_SIZE = 1024;
+
+  public ColumnVector[] cols;
+  public int size;
+  public int[] selected;
+  public boolean selectedInUse;
+
+  private final String[] columnNames;
+  private final PrimitiveCategory[] columnTypes;
+  private final Object[] writables;
+  private final Object[] row;
+  private StructObjectInspector rowObjectInspector;
+
+  /**
+   * A batch of new vectors for the columns.
+   */
+  public VectorizedRowBatch(String[] columnNames, PrimitiveCategory[] columnTypes) {
+    this(columnNames, columnTypes, newColumnVectors(columnTypes), new int[DEFAULT_SIZE]);
+  }
+
+  /**
+   * A batch over the given vectors and selection, which it shares with the
+   * batch they come from.
+   */
+  public VectorizedRowBatch(String[] columnNames, PrimitiveCategory[] columnTypes,
+      ColumnVector[] cols, int[] selected) {
+    this.columnNames = columnNames;
+    this.columnTypes = columnTypes;
+    this.cols = cols;
+    this.selected = selected;
+    writables = new Object[cols.length];
+    row = new Object[cols.length];
+    for (int c = 0; c < cols.length; c++) {
+      writables[c] = newWritable(columnTypes[c]);
+    }
+  }
+
+  /**
+   * @return whether a column of the type can be vectorized
+   */
+  public static boolean isSupported(PrimitiveCategory type) {
+    switch (type) {
+    case BOOLEAN:
+    case BYTE:
+    case SHORT:
+    case INT:
+    case LONG:
+    case FLOAT:
+    case DOUBLE:
+    case STRING:
+      return true;
+    default:
+      return false;
+    }
+  }
+
+  /**
+   * @return whether values of the type are stored in a LongColumnVector
+   */
+  public static boolean isLongType(PrimitiveCategory type) {
+    switch (type) {
+    case BOOLEAN:
+    case BYTE:
+    case SHORT:
+    case INT:
+    case LONG:
+      return true;
+    default:
+      return false;
+    }
+  }
+
+  /**
+   * @return whether values of the type are stored in a DoubleColumnVector
+   */
+  public static boolean isDoubleType(PrimitiveCategory type) {
+    return type == PrimitiveCategory.FLOAT || type == PrimitiveCategory.DOUBLE;
+  }
+
+  /**
+   * @return a new vector for values of the type
+   */
+  public static ColumnVector newColumnVector(PrimitiveCategory type) {
+    if (isLongType(type)) {
+      return new LongColumnVector(DEFAULT_SIZE);
+    } else if (isDoubleType(type)) {
+      return new DoubleColumnVector(DEFAULT_SIZE);
+    } else if (type == PrimitiveCategory.STRING) {
+      return new BytesColumnVector(DEFAULT_SIZE);
+    }
+    throw new RuntimeException("Cannot vectorize " + type);
+  }
+
+  private static ColumnVector[] newColumnVectors(PrimitiveCategory[] types) {
+    ColumnVector[] cols = new ColumnVector[types.length];
+    for (int c = 0; c < types.length; c++) {
+      cols[c] = newColumnVector(types[c]);
+    }
+    return cols;
+  }
+
+  public int getNumColumns() {
+    return cols.length;
+  }
+
+  public String getColumnName(int column) {
+    return columnNames[column];
+  }
+
+  public PrimitiveCategory getColumnType(int column) {
+    return columnTypes[column];
+  }
+
+  /**
+   * @return the position of the column of the given name, or -1 if the batch
+   *         has no such column
+   */
+  public int findColumn(String name) {
+    for (int c = 0; c < columnNames.length; c++) {
+      if (columnNames[c].equalsIgnoreCase(name)) {
+        return c;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return the inspector of the rows getRow returns: a struct of the
+   *         standard writable inspectors of the columns
+   */
+  public StructObjectInspector getRowObjectInspector() {
+    if (rowObjectInspector == null) {
+      List<ObjectInspector> ois = new ArrayList<ObjectInspector>(columnTypes.length);
+      for (PrimitiveCategory type : columnTypes) {
+        ois.add(PrimitiveObjectInspectorFactory.getPrimitiveWritableObjectInspector(type));
+      }
+      rowObjectInspector = ObjectInspectorFactory.getStandardStructObjectInspector(
+          Arrays.asList(columnNames), ois);
+    }
+    return rowObjectInspector;
+  }
+
+  /**
+   * @return the row as standard writable objects, valid until the next call
+   */
+  public Object[] getRow(int i) {
+    for (int c = 0; c < cols.length; c++) {
+      ColumnVector col = cols[c];
+      int k = col.isRepeating ? 0 : i;
+      if (!col.noNulls && col.isNull[k]) {
+        row[c] = null;
+        continue;
+      }
+      Object w = writables[c];
+      switch (columnTypes[c]) {
+      case BOOLEAN:
+        ((BooleanWritable) w).set(((LongColumnVector) col).vector[k] != 0);
+        break;
+      case BYTE:
+        ((ByteWritable) w).set((byte) ((LongColumnVector) col).vector[k]);
+        break;
+      case SHORT:
+        ((ShortWritable) w).set((short) ((LongColumnVector) col).vector[k]);
+        break;
+      case INT:
+        ((IntWritable) w).set((int) ((LongColumnVector) col).vector[k]);
+        break;
+      case LONG:
+        ((LongWritable) w).set(((LongColumnVector) col).vector[k]);
+        break;
+      case FLOAT:
+        ((FloatWritable) w).set((float) ((DoubleColumnVector) col).vector[k]);
+        break;
+      case DOUBLE:
+        ((DoubleWritable) w).set(((DoubleColumnVector) col).vector[k]);
+        break;
+      default:
+        BytesColumnVector bytes = (BytesColumnVector) col;
+        ((Text) w).set(bytes.vector[k], bytes.start[k], bytes.length[k]);
+      }
+      row[c] = w;
+    }
+    return row;
+  }
+
+  /**
+   * Empty the batch before it is filled with the next rows.
+   */
+  public void reset() {
+    size = 0;
+    selectedInUse = false;
+    for (ColumnVector col : cols) {
+      col.reset();
+    }
+  }
+
+  private static Object newWritable(PrimitiveCategory type) {
+    switch (type) {
+    case BOOLEAN:
+      return new BooleanWritable();
+    case BYTE:
+      return new ByteWritable();
+    case SHORT:
+      return new ShortWritable();
+    case INT:
+      return new IntWritable();
+    case LONG:
+      return new LongWritable();
+    case FLOAT:
+      return new FloatWritable();
+    case DOUBLE:
+      return new DoubleWritable();
+    case STRING:
+      return new Text();
+    default:
+      throw new RuntimeException("Cannot vectorize " + type);
+    }
+  }
+}
@@ -0,0 +1,157 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec.vector;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.UnionStructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BooleanObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.ByteObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.DoubleObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.FloatObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.IntObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.LongObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.ShortObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
+import org.apache.hadoop.io.Text;
+
+/**
+ * VectorizedRowBatchCtx.
+ *
+ * Assembles the rows a table scan reads into batches. The batch has a column
+ * for every table column the query needs, and for every partition and
+ * virtual column. Only these fields of a row are read, so a lazy row
+ * deserializes nothing else.
+ */
+public class VectorizedRowBatchCtx {
+
+  private final StructObjectInspector rowOI;
+  private final StructField[] fields;
+  private final PrimitiveObjectInspector[] fieldOIs;
+  private final VectorizedRowBatch batch;
+  private final Text text = new Text();
+
+  private VectorizedRowBatchCtx(StructObjectInspector rowOI, List<StructField> fields) {
+    this.rowOI = rowOI;
+    this.fields = fields.toArray(new StructField[fields.size()]);
+    fieldOIs = new PrimitiveObjectInspector[this.fields.length];
+    String[] names = new String[this.fields.length];
+    PrimitiveCategory[] types = new PrimitiveCategory[this.fields.length];
+    for (int c = 0; c < this.fields.length; c++) {
+      fieldOIs[c] = (PrimitiveObjectInspector) this.fields[c].getFieldObjectInspector();
+      names[c] = this.fields[c].getFieldName();
+      types[c] = fieldOIs[c].getPrimitiveCategory();
+    }
+    batch = new VectorizedRowBatch(names, types);
+  }
+
+  /**
+   * @param rowOI
+   *          the inspector of the rows of the scan
+   * @param neededColumnIDs
+   *          the positions of the table columns the query reads, or null for
+   *          all of them
+   * @return the context, or null if a column the batch needs is not of a
+   *         type that can be vectorized
+   */
+  public static VectorizedRowBatchCtx create(StructObjectInspector rowOI,
+      List<Integer> neededColumnIDs) {
+    List<StructField> fields = new ArrayList<StructField>();
+    List<? extends StructField> allFields = rowOI.getAllStructFieldRefs();
+    for (int i = 0; i < allFields.size(); i++) {
+      StructField field = allFields.get(i);
+      // the partition and virtual columns follow the table columns
+      boolean tableColumn = !(field instanceof UnionStructObjectInspector.MyField)
+          || ((UnionStructObjectInspector.MyField) field).structID == 0;
+      if (tableColumn && neededColumnIDs != null && !neededColumnIDs.contains(i)) {
+        continue;
+      }
+      ObjectInspector oi = field.getFieldObjectInspector();
+      if (oi.getCategory() != ObjectInspector.Category.PRIMITIVE
+          || !VectorizedRowBatch.isSupported(
+          ((PrimitiveObjectInspector) oi).getPrimitiveCategory())) {
+        return null;
+      }
+      fields.add(field);
+    }
+    return new VectorizedRowBatchCtx(rowOI, fields);
+  }
+
+  public VectorizedRowBatch getBatch() {
+    return batch;
+  }
+
+  /**
+   * Copy the row into the next row of the batch.
+   *
+   * @return whether the batch is full
+   */
+  public boolean addRow(Object row) {
+    int r = batch.size++;
+    for (int c = 0; c < fields.length; c++) {
+      Object o = rowOI.getStructFieldData(row, fields[c]);
+      ColumnVector col = batch.cols[c];
+      if (o == null) {
+        col.setNull(r);
+        continue;
+      }
+      PrimitiveObjectInspector oi = fieldOIs[c];
+      switch (oi.getPrimitiveCategory()) {
+      case BOOLEAN:
+        ((LongColumnVector) col).vector[r] = ((BooleanObjectInspector) oi).get(o) ? 1 : 0;
+        break;
+      case BYTE:
+        ((LongColumnVector) col).vector[r] = ((ByteObjectInspector) oi).get(o);
+        break;
+      case SHORT:
+        ((LongColumnVector) col).vector[r] = ((ShortObjectInspector) oi).get(o);
+        break;
+      case INT:
+        ((LongColumnVector) col).vector[r] = ((IntObjectInspector) oi).get(o);
+        break;
+      case LONG:
+        ((LongColumnVector) col).vector[r] = ((LongObjectInspector) oi).get(o);
+        break;
+      case FLOAT:
+        ((DoubleColumnVector) col).vector[r] = ((FloatObjectInspector) oi).get(o);
+        break;
+      case DOUBLE:
+        ((DoubleColumnVector) col).vector[r] = ((DoubleObjectInspector) oi).get(o);
+        break;
+      default:
+        StringObjectInspector soi = (StringObjectInspector) oi;
+        Text t;
+        if (soi.preferWritable()) {
+          t = soi.getPrimitiveWritableObject(o);
+        } else {
+          text.set(soi.getPrimitiveJavaObject(o));
+          t = text;
+        }
+        ((BytesColumnVector) col).setVal(r, t.getBytes(), 0, t.getLength());
+      }
+    }
+    return batch.size == VectorizedRowBatch.DEFAULT_SIZE;
+  }
+}
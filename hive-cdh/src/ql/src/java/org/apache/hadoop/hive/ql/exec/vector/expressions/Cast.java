@@ -0,0 +1,115 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec.vector.expressions;
+
+import org.apache.hadoop.hive.ql.exec.vector.ColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.DoubleColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.LongColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+
+/**
+ * Cast.
+ *
+ * Conversion between the numeric types, with the Java semantics of the row
+ * mode UDFs: integral values wrap around and floating point values are
+ * truncated towards zero.
+ */
+public class Cast extends VectorExpression {
+
+  private final VectorExpression child;
+  private final PrimitiveCategory type;
+  private final ColumnVector output;
+
+  public Cast(VectorExpression child, PrimitiveCategory type) {
+    this.child = child;
+    this.type = type;
+    output = VectorizedRowBatch.newColumnVector(type);
+  }
+
+  /**
+   * @return the value wrapped around to the width of the integral type
+   */
+  public static long narrow(long v, PrimitiveCategory type) {
+    switch (type) {
+    case BYTE:
+      return (byte) v;
+    case SHORT:
+      return (short) v;
+    case INT:
+      return (int) v;
+    default:
+      return v;
+    }
+  }
+
+  /**
+   * @return the value rounded to a float for the float type
+   */
+  public static double narrow(double v, PrimitiveCategory type) {
+    return type == PrimitiveCategory.FLOAT ? (float) v : v;
+  }
+
+  @Override
+  public ColumnVector evaluate(VectorizedRowBatch batch) {
+    ColumnVector input = child.evaluate(batch);
+    NullPropagation.propagate(input, null, output, batch);
+    int n = output.isRepeating ? 1 : batch.size;
+    int[] sel = batch.selected;
+    boolean selectedInUse = batch.selectedInUse && !output.isRepeating;
+    if (input instanceof LongColumnVector) {
+      long[] in = ((LongColumnVector) input).vector;
+      if (output instanceof LongColumnVector) {
+        long[] out = ((LongColumnVector) output).vector;
+        for (int j = 0; j < n; j++) {
+          int i = selectedInUse ? sel[j] : j;
+          out[i] = narrow(in[i], type);
+        }
+      } else {
+        double[] out = ((DoubleColumnVector) output).vector;
+        for (int j = 0; j < n; j++) {
+          int i = selectedInUse ? sel[j] : j;
+          out[i] = narrow((double) in[i], type);
+        }
+      }
+    } else {
+      double[] in = ((DoubleColumnVector) input).vector;
+      if (output instanceof LongColumnVector) {
+        long[] out = ((LongColumnVector) output).vector;
+        boolean toLong = type == PrimitiveCategory.LONG;
+        for (int j = 0; j < n; j++) {
+          int i = selectedInUse ? sel[j] : j;
+          out[i] = toLong ? (long) in[i] : narrow((int) in[i], type);
+        }
+      } else {
+        double[] out = ((DoubleColumnVector) output).vector;
+        for (int j = 0; j < n; j++) {
+          int i = selectedInUse ? sel[j] : j;
+          out[i] = narrow(in[i], type);
+        }
+      }
+    }
+    return output;
+  }
+
+  @Override
+  public PrimitiveCategory getOutputType() {
+    return type;
+  }
+}
@@ -0,0 +1,53 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec.vector.expressions;
+
+import org.apache.hadoop.hive.ql.exec.vector.ColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+
+/**
+ * ColumnReference.
+ *
+ * A column of the batch, evaluated by returning its vector.
+ */
+public class ColumnReference extends VectorExpression {
+
+  private final int column;
+  private final PrimitiveCategory type;
+
+  public ColumnReference(int column, PrimitiveCategory type) {
+    this.column = column;
+    this.type = type;
+  }
+
+  public int getColumn() {
+    return column;
+  }
+
+  @Override
+  public ColumnVector evaluate(VectorizedRowBatch batch) {
+    return batch.cols[column];
+  }
+
+  @Override
+  public PrimitiveCategory getOutputType() {
+    return type;
+  }
+}
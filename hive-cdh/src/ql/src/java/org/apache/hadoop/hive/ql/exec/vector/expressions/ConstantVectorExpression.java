@@ -0,0 +1,69 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec.vector.expressions;
+
+import org.apache.hadoop.hive.ql.exec.vector.BytesColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.ColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.DoubleColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.LongColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.io.Text;
+
+/**
+ * ConstantVectorExpression.
+ *
+ * A constant, evaluated as a repeating vector. The vector is filled once, so
+ * the operands of the other expressions are always columns.
+ */
+public class ConstantVectorExpression extends VectorExpression {
+
+  private final PrimitiveCategory type;
+  private final ColumnVector output;
+
+  /**
+   * @param value
+   *          the constant as a Java object of the type, not null
+   */
+  public ConstantVectorExpression(PrimitiveCategory type, Object value) {
+    this.type = type;
+    output = VectorizedRowBatch.newColumnVector(type);
+    output.isRepeating = true;
+    if (VectorizedRowBatch.isLongType(type)) {
+      ((LongColumnVector) output).vector[0] = value instanceof Boolean
+          ? (((Boolean) value).booleanValue() ? 1 : 0)
+          : ((Number) value).longValue();
+    } else if (VectorizedRowBatch.isDoubleType(type)) {
+      ((DoubleColumnVector) output).vector[0] = ((Number) value).doubleValue();
+    } else {
+      Text t = new Text(value.toString());
+      ((BytesColumnVector) output).setRef(0, t.getBytes(), 0, t.getLength());
+    }
+  }
+
+  @Override
+  public ColumnVector evaluate(VectorizedRowBatch batch) {
+    return output;
+  }
+
+  @Override
+  public PrimitiveCategory getOutputType() {
+    return type;
+  }
+}
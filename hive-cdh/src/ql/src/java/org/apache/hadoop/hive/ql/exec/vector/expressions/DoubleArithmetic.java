@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec.vector.expressions;
+
+import org.apache.hadoop.hive.ql.exec.vector.ColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.DoubleColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+
+/**
+ * DoubleArithmetic.
+ *
+ * Addition, subtraction, multiplication or division of floating point
+ * operands. A float result is rounded to a float, like the one of the row
+ * mode operator.
+ */
+public class DoubleArithmetic extends VectorExpression {
+
+  /**
+   * The operators.
+   */
+  public static enum Operator {
+    PLUS, MINUS, MULTIPLY, DIVIDE
+  }
+
+  private final Operator op;
+  private final VectorExpression left;
+  private final VectorExpression right;
+  private final PrimitiveCategory type;
+  private final DoubleColumnVector output = new DoubleColumnVector(VectorizedRowBatch.DEFAULT_SIZE);
+
+  public DoubleArithmetic(Operator op, VectorExpression left, VectorExpression right,
+      PrimitiveCategory type) {
+    this.op = op;
+    this.left = left;
+    this.right = right;
+    this.type = type;
+  }
+
+  @Override
+  public ColumnVector evaluate(VectorizedRowBatch batch) {
+    DoubleColumnVector a = (DoubleColumnVector) left.evaluate(batch);
+    DoubleColumnVector b = (DoubleColumnVector) right.evaluate(batch);
+    double[] av = a.vector;
+    double[] bv = b.vector;
+    double[] out = output.vector;
+    int n = batch.size;
+    int[] sel = batch.selected;
+
+    NullPropagation.propagate(a, b, output, batch);
+    if (output.isRepeating) {
+      out[0] = Cast.narrow(apply(av[0], bv[0]), type);
+      return output;
+    }
+    int aStep = a.isRepeating ? 0 : 1;
+    int bStep = b.isRepeating ? 0 : 1;
+    if (batch.selectedInUse) {
+      for (int j = 0; j < n; j++) {
+        int i = sel[j];
+        out[i] = Cast.narrow(apply(av[i * aStep], bv[i * bStep]), type);
+      }
+    } else {
+      for (int i = 0; i < n; i++) {
+        out[i] = Cast.narrow(apply(av[i * aStep], bv[i * bStep]), type);
+      }
+    }
+    return output;
+  }
+
+  private double apply(double x, double y) {
+    switch (op) {
+    case PLUS:
+      return x + y;
+    case MINUS:
+      return x - y;
+    case MULTIPLY:
+      return x * y;
+    default:
+      return x / y;
+    }
+  }
+
+  @Override
+  public PrimitiveCategory getOutputType() {
+    return type;
+  }
+}
@@ -0,0 +1,43 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec.vector.expressions;
+
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+
+/**
+ * FilterAnd.
+ *
+ * Keeps the rows every child keeps, each child only looking at the rows the
+ * ones before it kept.
+ */
+public class FilterAnd extends VectorFilterExpression {
+
+  private final VectorFilterExpression[] children;
+
+  public FilterAnd(VectorFilterExpression[] children) {
+    this.children = children;
+  }
+
+  @Override
+  public void filter(VectorizedRowBatch batch) {
+    for (int c = 0; c < children.length && batch.size > 0; c++) {
+      children[c].filter(batch);
+    }
+  }
+}
@@ -0,0 +1,149 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec.vector.expressions;
+
+import org.apache.hadoop.hive.ql.exec.vector.BytesColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.ColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.DoubleColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.LongColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ * FilterComparison.
+ *
+ * Keeps the rows where the comparison of two operands of the same vector
+ * class is true. Longs compare by value, doubles like Double.compare and
+ * strings by their unsigned bytes, the orders of the row mode comparisons.
+ */
+public class FilterComparison extends VectorFilterExpression {
+
+  // The comparison as the set of outcomes it accepts
+  private static final int LESS = 1;
+  private static final int EQUAL = 2;
+  private static final int GREATER = 4;
+
+  /**
+   * The comparisons.
+   */
+  public static enum Comparison {
+    EQ(EQUAL), NE(LESS | GREATER), LT(LESS), LE(LESS | EQUAL),
+    GT(GREATER), GE(GREATER | EQUAL);
+
+    private final int accepted;
+
+    private Comparison(int accepted) {
+      this.accepted = accepted;
+    }
+
+    /**
+     * @return the comparison true exactly when this one is false
+     */
+    public Comparison negate() {
+      switch (this) {
+      case EQ:
+        return NE;
+      case NE:
+        return EQ;
+      case LT:
+        return GE;
+      case LE:
+        return GT;
+      case GT:
+        return LE;
+      default:
+        return LT;
+      }
+    }
+  }
+
+  private final VectorExpression left;
+  private final VectorExpression right;
+  private final int accepted;
+
+  public FilterComparison(Comparison comparison, VectorExpression left,
+      VectorExpression right) {
+    this.left = left;
+    this.right = right;
+    accepted = comparison.accepted;
+  }
+
+  private static int outcome(int cmp) {
+    return cmp < 0 ? LESS : (cmp == 0 ? EQUAL : GREATER);
+  }
+
+  @Override
+  public void filter(VectorizedRowBatch batch) {
+    ColumnVector a = left.evaluate(batch);
+    ColumnVector b = right.evaluate(batch);
+    int n = batch.size;
+    int[] sel = batch.selected;
+    boolean selectedInUse = batch.selectedInUse;
+    boolean hasNulls = !a.noNulls || !b.noNulls;
+    int aStep = a.isRepeating ? 0 : 1;
+    int bStep = b.isRepeating ? 0 : 1;
+    int newSize = 0;
+
+    if (a instanceof LongColumnVector) {
+      long[] av = ((LongColumnVector) a).vector;
+      long[] bv = ((LongColumnVector) b).vector;
+      for (int j = 0; j < n; j++) {
+        int i = selectedInUse ? sel[j] : j;
+        if (hasNulls && (a.isNull(i) || b.isNull(i))) {
+          continue;
+        }
+        long x = av[i * aStep];
+        long y = bv[i * bStep];
+        if ((accepted & (x < y ? LESS : (x == y ? EQUAL : GREATER))) != 0) {
+          sel[newSize++] = i;
+        }
+      }
+    } else if (a instanceof DoubleColumnVector) {
+      double[] av = ((DoubleColumnVector) a).vector;
+      double[] bv = ((DoubleColumnVector) b).vector;
+      for (int j = 0; j < n; j++) {
+        int i = selectedInUse ? sel[j] : j;
+        if (hasNulls && (a.isNull(i) || b.isNull(i))) {
+          continue;
+        }
+        if ((accepted & outcome(Double.compare(av[i * aStep], bv[i * bStep]))) != 0) {
+          sel[newSize++] = i;
+        }
+      }
+    } else {
+      BytesColumnVector as = (BytesColumnVector) a;
+      BytesColumnVector bs = (BytesColumnVector) b;
+      for (int j = 0; j < n; j++) {
+        int i = selectedInUse ? sel[j] : j;
+        if (hasNulls && (a.isNull(i) || b.isNull(i))) {
+          continue;
+        }
+        int ai = i * aStep;
+        int bi = i * bStep;
+        int cmp = WritableComparator.compareBytes(as.vector[ai], as.start[ai], as.length[ai],
+            bs.vector[bi], bs.start[bi], bs.length[bi]);
+        if ((accepted & outcome(cmp)) != 0) {
+          sel[newSize++] = i;
+        }
+      }
+    }
+    batch.size = newSize;
+    batch.selectedInUse = true;
+  }
+}
@@ -0,0 +1,60 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec.vector.expressions;
+
+import org.apache.hadoop.hive.ql.exec.vector.ColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+
+/**
+ * FilterIsNull.
+ *
+ * Keeps the rows where the operand is null, or where it is not.
+ */
+public class FilterIsNull extends VectorFilterExpression {
+
+  private final VectorExpression child;
+  private final boolean keepNulls;
+
+  public FilterIsNull(VectorExpression child, boolean keepNulls) {
+    this.child = child;
+    this.keepNulls = keepNulls;
+  }
+
+  @Override
+  public void filter(VectorizedRowBatch batch) {
+    ColumnVector col = child.evaluate(batch);
+    if (col.noNulls) {
+      if (keepNulls) {
+        batch.size = 0;
+      }
+      return;
+    }
+    int n = batch.size;
+    int[] sel = batch.selected;
+    int newSize = 0;
+    for (int j = 0; j < n; j++) {
+      int i = batch.selectedInUse ? sel[j] : j;
+      if (col.isNull(i) == keepNulls) {
+        sel[newSize++] = i;
+      }
+    }
+    batch.size = newSize;
+    batch.selectedInUse = true;
+  }
+}
@@ -0,0 +1,83 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec.vector.expressions;
+
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+
+/**
+ * FilterOr.
+ *
+ * Keeps the rows some child keeps. Every child only looks at the rows the
+ * children before it dropped.
+ */
+public class FilterOr extends VectorFilterExpression {
+
+  private final VectorFilterExpression[] children;
+  private final int[] initial = new int[VectorizedRowBatch.DEFAULT_SIZE];
+  private final int[] remaining = new int[VectorizedRowBatch.DEFAULT_SIZE];
+  private final boolean[] kept = new boolean[VectorizedRowBatch.DEFAULT_SIZE];
+
+  public FilterOr(VectorFilterExpression[] children) {
+    this.children = children;
+  }
+
+  @Override
+  public void filter(VectorizedRowBatch batch) {
+    int n = batch.size;
+    int[] sel = batch.selected;
+    for (int j = 0; j < n; j++) {
+      initial[j] = batch.selectedInUse ? sel[j] : j;
+    }
+
+    int numRemaining = n;
+    System.arraycopy(initial, 0, remaining, 0, n);
+    for (int c = 0; c < children.length && numRemaining > 0; c++) {
+      System.arraycopy(remaining, 0, sel, 0, numRemaining);
+      batch.size = numRemaining;
+      batch.selectedInUse = true;
+      children[c].filter(batch);
+      for (int j = 0; j < batch.size; j++) {
+        kept[sel[j]] = true;
+      }
+      // both lists are in row order, so the dropped rows are a merge away
+      int k = 0;
+      int newRemaining = 0;
+      for (int j = 0; j < numRemaining; j++) {
+        int i = remaining[j];
+        if (k < batch.size && sel[k] == i) {
+          k++;
+        } else {
+          remaining[newRemaining++] = i;
+        }
+      }
+      numRemaining = newRemaining;
+    }
+
+    int newSize = 0;
+    for (int j = 0; j < n; j++) {
+      int i = initial[j];
+      if (kept[i]) {
+        sel[newSize++] = i;
+        kept[i] = false;
+      }
+    }
+    batch.size = newSize;
+    batch.selectedInUse = true;
+  }
+}
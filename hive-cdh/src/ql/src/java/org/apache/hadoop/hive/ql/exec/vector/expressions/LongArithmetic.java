@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec.vector.expressions;
+
+import org.apache.hadoop.hive.ql.exec.vector.ColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.LongColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+
+/**
+ * LongArithmetic.
+ *
+ * Addition, subtraction or multiplication of integral operands. The result
+ * wraps around like the one of the row mode operator, in the width of its
+ * type.
+ */
+public class LongArithmetic extends VectorExpression {
+
+  /**
+   * The operators.
+   */
+  public static enum Operator {
+    PLUS, MINUS, MULTIPLY
+  }
+
+  private final Operator op;
+  private final VectorExpression left;
+  private final VectorExpression right;
+  private final PrimitiveCategory type;
+  private final LongColumnVector output = new LongColumnVector(VectorizedRowBatch.DEFAULT_SIZE);
+
+  public LongArithmetic(Operator op, VectorExpression left, VectorExpression right,
+      PrimitiveCategory type) {
+    this.op = op;
+    this.left = left;
+    this.right = right;
+    this.type = type;
+  }
+
+  @Override
+  public ColumnVector evaluate(VectorizedRowBatch batch) {
+    LongColumnVector a = (LongColumnVector) left.evaluate(batch);
+    LongColumnVector b = (LongColumnVector) right.evaluate(batch);
+    long[] av = a.vector;
+    long[] bv = b.vector;
+    long[] out = output.vector;
+    int n = batch.size;
+    int[] sel = batch.selected;
+
+    NullPropagation.propagate(a, b, output, batch);
+    if (output.isRepeating) {
+      out[0] = Cast.narrow(apply(av[0], bv[0]), type);
+      return output;
+    }
+    // the same loop for every shape of the operands, the repeating one reads
+    // its first element
+    int aStep = a.isRepeating ? 0 : 1;
+    int bStep = b.isRepeating ? 0 : 1;
+    if (batch.selectedInUse) {
+      for (int j = 0; j < n; j++) {
+        int i = sel[j];
+        out[i] = Cast.narrow(apply(av[i * aStep], bv[i * bStep]), type);
+      }
+    } else {
+      for (int i = 0; i < n; i++) {
+        out[i] = Cast.narrow(apply(av[i * aStep], bv[i * bStep]), type);
+      }
+    }
+    return output;
+  }
+
+  private long apply(long x, long y) {
+    switch (op) {
+    case PLUS:
+      return x + y;
+    case MINUS:
+      return x - y;
+    default:
+      return x * y;
+    }
+  }
+
+  @Override
+  public PrimitiveCategory getOutputType() {
+    return type;
+  }
+}
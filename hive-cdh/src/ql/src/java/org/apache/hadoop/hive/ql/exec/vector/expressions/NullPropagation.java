@@ -0,0 +1,56 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec.vector.expressions;
+
+import org.apache.hadoop.hive.ql.exec.vector.ColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+
+/**
+ * NullPropagation.
+ *
+ * The nulls of an expression that is null exactly when one of its operands
+ * is.
+ */
+final class NullPropagation {
+
+  private NullPropagation() {
+  }
+
+  /**
+   * Set the repeating flag and the nulls of the output from the operands.
+   */
+  static void propagate(ColumnVector a, ColumnVector b, ColumnVector output,
+      VectorizedRowBatch batch) {
+    output.isRepeating = a.isRepeating && (b == null || b.isRepeating);
+    output.noNulls = a.noNulls && (b == null || b.noNulls);
+    if (output.noNulls) {
+      return;
+    }
+    if (output.isRepeating) {
+      output.isNull[0] = a.isNull(0) || (b != null && b.isNull(0));
+      return;
+    }
+    int n = batch.size;
+    int[] sel = batch.selected;
+    for (int j = 0; j < n; j++) {
+      int i = batch.selectedInUse ? sel[j] : j;
+      output.isNull[i] = a.isNull(i) || (b != null && b.isNull(i));
+    }
+  }
+}
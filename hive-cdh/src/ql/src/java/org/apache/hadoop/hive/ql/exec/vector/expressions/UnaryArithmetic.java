@@ -0,0 +1,84 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec.vector.expressions;
+
+import org.apache.hadoop.hive.ql.exec.vector.ColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.DoubleColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.LongColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+
+/**
+ * UnaryArithmetic.
+ *
+ * Negation or absolute value of a numeric operand, of the type of the
+ * operand.
+ */
+public class UnaryArithmetic extends VectorExpression {
+
+  /**
+   * The functions.
+   */
+  public static enum Function {
+    NEGATE, ABS
+  }
+
+  private final Function function;
+  private final VectorExpression child;
+  private final PrimitiveCategory type;
+  private final ColumnVector output;
+
+  public UnaryArithmetic(Function function, VectorExpression child) {
+    this.function = function;
+    this.child = child;
+    type = child.getOutputType();
+    output = VectorizedRowBatch.newColumnVector(type);
+  }
+
+  @Override
+  public ColumnVector evaluate(VectorizedRowBatch batch) {
+    ColumnVector input = child.evaluate(batch);
+    NullPropagation.propagate(input, null, output, batch);
+    int n = output.isRepeating ? 1 : batch.size;
+    int[] sel = batch.selected;
+    boolean selectedInUse = batch.selectedInUse && !output.isRepeating;
+    boolean negate = function == Function.NEGATE;
+    if (output instanceof LongColumnVector) {
+      long[] in = ((LongColumnVector) input).vector;
+      long[] out = ((LongColumnVector) output).vector;
+      for (int j = 0; j < n; j++) {
+        int i = selectedInUse ? sel[j] : j;
+        out[i] = Cast.narrow(negate ? -in[i] : Math.abs(in[i]), type);
+      }
+    } else {
+      double[] in = ((DoubleColumnVector) input).vector;
+      double[] out = ((DoubleColumnVector) output).vector;
+      for (int j = 0; j < n; j++) {
+        int i = selectedInUse ? sel[j] : j;
+        out[i] = negate ? -in[i] : Math.abs(in[i]);
+      }
+    }
+    return output;
+  }
+
+  @Override
+  public PrimitiveCategory getOutputType() {
+    return type;
+  }
+}
@@ -0,0 +1,43 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec.vector.expressions;
+
+import org.apache.hadoop.hive.ql.exec.vector.ColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+
+/**
+ * VectorExpression.
+ *
+ * Evaluates an expression over the selected rows of a batch at once. The
+ * result is a column vector the expression owns and reuses for every batch,
+ * or a column of the batch itself; it is valid until the next batch.
+ */
+public abstract class VectorExpression {
+
+  /**
+   * @return the values of the expression for the selected rows of the batch
+   */
+  public abstract ColumnVector evaluate(VectorizedRowBatch batch);
+
+  /**
+   * @return the type of the values, which decides the class of the vector
+   */
+  public abstract PrimitiveCategory getOutputType();
+}
@@ -405,6 +405,12 @@ public class HiveInputFormat<K extends WritableComparable, V extends Writable>
       }
     }
 
+    if (!nonNative) {
+      // Native readers may skip the rows the filter rejects, which is only
+      // right when the split is read by that one table scan.
+      jobConf.set(TableScanDesc.FILTER_TEXT_CONF_STR, "");
+      jobConf.set(TableScanDesc.FILTER_EXPR_CONF_STR, "");
+    }
     for (String alias : aliases) {
       Operator<? extends Serializable> op = this.mrwork.getAliasToWork().get(
           alias);
@@ -419,7 +425,9 @@ public class HiveInputFormat<K extends WritableComparable, V extends Writable>
           ColumnProjectionUtils.setFullyReadColumns(jobConf);
         }
 
-        pushFilters(jobConf, tableScan);
+        if (nonNative || aliases.size() == 1) {
+          pushFilters(jobConf, tableScan);
+        }
       }
     }
   }
@@ -28,6 +28,7 @@ import java.io.IOException;
 import java.rmi.server.UID;
 import java.security.MessageDigest;
 import java.util.Arrays;
+import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -37,15 +38,22 @@ import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.conf.HiveConf;
 import org.apache.hadoop.hive.serde2.ColumnProjectionUtils;
 import org.apache.hadoop.hive.serde2.columnar.BytesRefArrayWritable;
 import org.apache.hadoop.hive.serde2.columnar.BytesRefWritable;
 import org.apache.hadoop.hive.serde2.columnar.LazyDecompressionCallback;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.VersionMismatchException;
 import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparator;
 import org.apache.hadoop.io.WritableUtils;
 import org.apache.hadoop.io.SequenceFile.Metadata;
 import org.apache.hadoop.io.compress.CompressionCodec;
@@ -112,6 +120,18 @@ import org.apache.hadoop.util.ReflectionUtils;
  * <li>metadata - {@link Metadata} for this file.</li>
  * <li>sync - A sync marker to denote end of the header.</li>
  * </ul>
+ *
+ * <p>
+ * Files of version 7 carry column statistics (see {@link RCFileColumnStats}):
+ * the key part of every record ends with the statistics of each column over
+ * the rows of the record, and the records are followed by a trailer with the
+ * statistics of each column over the whole file:
+ * </p>
+ * <ul>
+ * <li>-2 (int)</li>
+ * <li>Column_1_stats ... Column_n_stats</li>
+ * <li>Position of the trailer (long)</li>
+ * </ul>
  * 
  * <h5>RCFile Format</h5>
  * <ul>
@@ -154,11 +174,25 @@ public class RCFile {
 
   public static final String COLUMN_NUMBER_CONF_STR = "hive.io.rcfile.column.number.conf";
 
+  /**
+   * The types of the columns, in the type string format of the columns.types
+   * table property. The writer records column statistics when it is set.
+   */
+  public static final String COLUMN_TYPES_CONF_STR = "hive.io.rcfile.column.types";
+
+  /** The cell of a null value, for the column statistics. */
+  public static final String NULL_SEQUENCE_CONF_STR = "hive.io.rcfile.null.sequence";
+
+  /** Set in the metadata of the files with column encodings and stats. */
+  public static final String COLUMN_STATS_METADATA_STR = "hive.io.rcfile.has.column.stats";
+
   /*
    * these header and Sync are kept from SequenceFile, for compatible of
    * SequenceFile's format.
    */
   private static final byte VERSION_WITH_METADATA = (byte) 6;
+  private static final byte VERSION_WITH_STATS = (byte) 7;
+  private static final byte VERSION_WITH_ENCODINGS = (byte) 8;
   private static final byte[] VERSION = new byte[] {
       (byte) 'S', (byte) 'E', (byte) 'Q', VERSION_WITH_METADATA
       };
@@ -167,6 +201,8 @@ public class RCFile {
   private static final int SYNC_HASH_SIZE = 16; // number of bytes in hash
   private static final int SYNC_SIZE = 4 + SYNC_HASH_SIZE; // escape + hash
 
+  private static final int STATS_ESCAPE = -2; // "length" of the file stats
+
   /** The number of bytes between sync points. */
   public static final int SYNC_INTERVAL = 100 * SYNC_SIZE;
 
@@ -179,14 +215,19 @@ public class RCFile {
    * part and the value part.</li>
    * <li>Key length in bytes, it is how many bytes used by the key part.</li>
    * <li>number_of_rows_in_this_record(vint),</li>
+   * <li>column_1_encoding(byte), in files with column encodings,</li>
    * <li>column_1_ondisk_length(vint),</li>
    * <li>column_1_row_1_value_plain_length,</li>
    * <li>column_1_row_2_value_plain_length,</li>
    * <li>....</li>
+   * <li>column_2_encoding(byte), in files with column encodings,</li>
    * <li>column_2_ondisk_length(vint),</li>
    * <li>column_2_row_1_value_plain_length,</li>
    * <li>column_2_row_2_value_plain_length,</li>
    * <li>.... .</li>
+   * <li>The cells of a DICTIONARY or DELTA encoded column (see
+   * {@link RCFileColumnEncoder}) have no value lengths.</li>
+   * <li>column_1_stats ... column_n_stats, in files with column stats</li>
    * <li>{the end of the key part}</li>
    * </ul>
    */
@@ -200,6 +241,10 @@ public class RCFile {
     private int numberRows = 0;
     // how many columns
     private int columnNumber = 0;
+    // each column's stats in a split, if the file has them
+    private RCFileColumnStats[] columnStats = null;
+    // each column's encoding in a split, if the file has them
+    private byte[] columnEncodings = null;
 
     KeyBuffer(int columnNumber) {
       this(0, columnNumber);
@@ -229,6 +274,19 @@ public class RCFile {
       allCellValLenBuffer[columnIndex] = colValLenBuffer;
     }
 
+    void setColumnStats(RCFileColumnStats[] columnStats) {
+      this.columnStats = columnStats;
+    }
+
+    void setColumnEncodings(byte[] columnEncodings) {
+      this.columnEncodings = columnEncodings;
+    }
+
+    byte getColumnEncoding(int columnIndex) {
+      return columnEncodings == null ? RCFileColumnEncoder.PLAIN
+          : columnEncodings[columnIndex];
+    }
+
     @Override
     public void readFields(DataInput in) throws IOException {
       eachColumnValueLen = new int[columnNumber];
@@ -237,6 +295,9 @@ public class RCFile {
 
       numberRows = WritableUtils.readVInt(in);
       for (int i = 0; i < columnNumber; i++) {
+        if (columnEncodings != null) {
+          columnEncodings[i] = in.readByte();
+        }
         eachColumnValueLen[i] = WritableUtils.readVInt(in);
         eachColumnUncompressedValueLen[i] = WritableUtils.readVInt(in);
         int bufLen = WritableUtils.readVInt(in);
@@ -247,6 +308,11 @@ public class RCFile {
         }
         allCellValLenBuffer[i].write(in, bufLen);
       }
+      if (columnStats != null) {
+        for (RCFileColumnStats stats : columnStats) {
+          stats.readFields(in);
+        }
+      }
     }
 
     @Override
@@ -254,6 +320,9 @@ public class RCFile {
       // out.writeInt(numberRows);
       WritableUtils.writeVLong(out, numberRows);
       for (int i = 0; i < eachColumnValueLen.length; i++) {
+        if (columnEncodings != null) {
+          out.writeByte(columnEncodings[i]);
+        }
         WritableUtils.writeVLong(out, eachColumnValueLen[i]);
         WritableUtils.writeVLong(out, eachColumnUncompressedValueLen[i]);
         NonSyncDataOutputBuffer colRowsLenBuf = allCellValLenBuffer[i];
@@ -261,6 +330,11 @@ public class RCFile {
         WritableUtils.writeVLong(out, bufLen);
         out.write(colRowsLenBuf.getData(), 0, bufLen);
       }
+      if (columnStats != null) {
+        for (RCFileColumnStats stats : columnStats) {
+          stats.write(out);
+        }
+      }
     }
 
     /**
@@ -272,12 +346,20 @@ public class RCFile {
     public int getSize() throws IOException {
       int ret = 0;
       ret += WritableUtils.getVIntSize(numberRows);
+      if (columnEncodings != null) {
+        ret += columnEncodings.length;
+      }
       for (int i = 0; i < eachColumnValueLen.length; i++) {
         ret += WritableUtils.getVIntSize(eachColumnValueLen[i]);
         ret += WritableUtils.getVIntSize(eachColumnUncompressedValueLen[i]);
         ret += WritableUtils.getVIntSize(allCellValLenBuffer[i].getLength());
         ret += allCellValLenBuffer[i].getLength();
       }
+      if (columnStats != null) {
+        for (RCFileColumnStats stats : columnStats) {
+          ret += stats.getSize();
+        }
+      }
 
       return ret;
     }
@@ -408,6 +490,17 @@ public class RCFile {
       }
     }
 
+    /**
+     * Returns the uncompressed data of a loaded column, decompressing it if
+     * it is not yet.
+     */
+    byte[] getColumnData(int addIndex) throws IOException {
+      if (!decompressedFlag[addIndex]) {
+        return lazyDecompressCallbackObjs[addIndex].decompress();
+      }
+      return loadedColumnsValueBuffer[addIndex].getData();
+    }
+
     public void setColumnValueBuffer(NonSyncDataOutputBuffer valBuffer,
         int addIndex) {
       loadedColumnsValueBuffer[addIndex] = valBuffer;
@@ -520,6 +613,15 @@ public class RCFile {
 
     private final int[] columnValuePlainLength;
 
+    // each column's stats over the buffered records and over the file, if
+    // the writer records them
+    private final RCFileColumnStats[] columnStats;
+    private final RCFileColumnStats[] fileColumnStats;
+
+    // each column's encoding over the buffered records, if the writer
+    // encodes columns
+    private byte[] columnEncodings = null;
+
     KeyBuffer key = null;
     ValueBuffer value = null;
 
@@ -542,14 +644,26 @@ public class RCFile {
       int runLength = 0;
       int prevValueLength = -1;
 
-      ColumnBuffer() throws IOException {
+      // chooses the encoding of the column, if the writer encodes columns
+      RCFileColumnEncoder encoder;
+      // used to buffer a column's encoded values
+      NonSyncDataOutputBuffer encodedValBuffer;
+
+      ColumnBuffer(boolean encode) throws IOException {
         columnValBuffer = new NonSyncDataOutputBuffer();
         valLenBuffer = new NonSyncDataOutputBuffer();
+        if (encode) {
+          encoder = new RCFileColumnEncoder();
+          encodedValBuffer = new NonSyncDataOutputBuffer();
+        }
       }
 
       public void append(BytesRefWritable data) throws IOException {
         data.writeDataTo(columnValBuffer);
         int currentLen = data.getLength();
+        if (encoder != null) {
+          encoder.add(data.getData(), data.getStart(), currentLen);
+        }
 
         if (prevValueLength < 0) {
           startNewGroup(currentLen);
@@ -575,6 +689,29 @@ public class RCFile {
         columnValBuffer.reset();
         prevValueLength = -1;
         runLength = 0;
+        if (encoder != null) {
+          encoder.reset();
+          encodedValBuffer.reset();
+        }
+      }
+
+      /**
+       * Encode the buffered values if an encoding is smaller than the plain
+       * values and their lengths.
+       *
+       * @return the encoding of the values
+       */
+      public byte encode(int plainLength) throws IOException {
+        if (encoder == null) {
+          return RCFileColumnEncoder.PLAIN;
+        }
+        byte encoding = encoder.chooseEncoding(plainLength
+            + valLenBuffer.getLength());
+        if (encoding != RCFileColumnEncoder.PLAIN) {
+          encoder.write(encoding, encodedValBuffer);
+          valLenBuffer.reset();
+        }
+        return encoding;
       }
 
       public void flushGroup() throws IOException {
@@ -668,9 +805,19 @@ public class RCFile {
 
       columnValuePlainLength = new int[columnNumber];
 
+      boolean encode = HiveConf.getBoolVar(conf,
+          HiveConf.ConfVars.HIVERCFILECOLUMNENCODING);
       columnBuffers = new ColumnBuffer[columnNumber];
       for (int i = 0; i < columnNumber; i++) {
-        columnBuffers[i] = new ColumnBuffer();
+        columnBuffers[i] = new ColumnBuffer(encode);
+      }
+
+      columnStats = createColumnStats(conf, columnNumber);
+      fileColumnStats = createColumnStats(conf, columnNumber);
+      if (encode) {
+        columnEncodings = new byte[columnNumber];
+        metadata.set(new Text(COLUMN_STATS_METADATA_STR), new Text(""
+            + (columnStats != null)));
       }
 
       init(name, conf, fs.create(name, true, bufferSize, replication,
@@ -679,12 +826,45 @@ public class RCFile {
       writeFileHeader();
       finalizeFileHeader();
       key = new KeyBuffer(columnNumber);
+      key.setColumnStats(columnStats);
+      key.setColumnEncodings(columnEncodings);
       value = new ValueBuffer(key);
     }
 
+    private static RCFileColumnStats[] createColumnStats(Configuration conf,
+        int columnNumber) {
+      String types = conf.get(COLUMN_TYPES_CONF_STR);
+      if (types == null || types.length() == 0) {
+        return null;
+      }
+      List<TypeInfo> typeInfos = TypeInfoUtils.getTypeInfosFromTypeString(types);
+      if (typeInfos.size() != columnNumber) {
+        LOG.warn("Not recording column stats: " + typeInfos.size()
+            + " column types for " + columnNumber + " columns");
+        return null;
+      }
+      Text nullText = new Text(conf.get(NULL_SEQUENCE_CONF_STR, "\\N"));
+      byte[] nullSequence = Arrays.copyOf(nullText.getBytes(), nullText.getLength());
+      RCFileColumnStats[] stats = new RCFileColumnStats[columnNumber];
+      for (int i = 0; i < columnNumber; i++) {
+        TypeInfo typeInfo = typeInfos.get(i);
+        PrimitiveCategory category = null;
+        if (typeInfo.getCategory() == ObjectInspector.Category.PRIMITIVE) {
+          category = ((PrimitiveTypeInfo) typeInfo).getPrimitiveCategory();
+        }
+        stats[i] = RCFileColumnStats.forType(category, nullSequence);
+      }
+      return stats;
+    }
+
     /** Write the initial part of file header. */
     void initializeFileHeader() throws IOException {
-      out.write(VERSION);
+      out.write(VERSION, 0, VERSION.length - 1);
+      if (columnEncodings != null) {
+        out.write(VERSION_WITH_ENCODINGS);
+      } else {
+        out.write(columnStats != null ? VERSION_WITH_STATS : VERSION_WITH_METADATA);
+      }
     }
 
     /** Write the final part of file header. */
@@ -792,11 +972,17 @@ public class RCFile {
         columnBufferSize += plainLen;
         columnValuePlainLength[i] += plainLen;
         columnBuffers[i].append(cu);
+        if (columnStats != null) {
+          columnStats[i].add(cu.getData(), cu.getStart(), plainLen);
+        }
       }
 
       if (size < columnNumber) {
         for (int i = columns.size(); i < columnNumber; i++) {
           columnBuffers[i].append(BytesRefWritable.ZeroBytesRefWritable);
+          if (columnStats != null) {
+            columnStats[i].add(BytesRefWritable.ZeroBytesRefWritable.getData(), 0, 0);
+          }
         }
       }
 
@@ -818,6 +1004,14 @@ public class RCFile {
         currentBuf.flushGroup();
 
         NonSyncDataOutputBuffer columnValue = currentBuf.columnValBuffer;
+        byte encoding = currentBuf.encode(columnValuePlainLength[columnIndex]);
+        if (encoding != RCFileColumnEncoder.PLAIN) {
+          columnValue = currentBuf.encodedValBuffer;
+          columnValuePlainLength[columnIndex] = columnValue.getLength();
+        }
+        if (columnEncodings != null) {
+          columnEncodings[columnIndex] = encoding;
+        }
 
         if (isCompressed()) {
           compressionBuffer[columnIndex].reset();
@@ -866,6 +1060,13 @@ public class RCFile {
       }
       value.write(out); // value
 
+      if (columnStats != null) {
+        for (int i = 0; i < columnNumber; i++) {
+          fileColumnStats[i].merge(columnStats[i]);
+          columnStats[i].reset();
+        }
+      }
+
       // clear the columnBuffers
       clearColumnBuffers();
 
@@ -885,6 +1086,15 @@ public class RCFile {
       }
       clearColumnBuffers();
 
+      if (fileColumnStats != null && out != null) {
+        long trailerPos = out.getPos();
+        out.writeInt(STATS_ESCAPE);
+        for (RCFileColumnStats stats : fileColumnStats) {
+          stats.write(out);
+        }
+        out.writeLong(trailerPos);
+      }
+
       if (isCompressed()) {
         for (int i = 0; i < columnNumber; i++) {
           deflateFilter[i].close();
@@ -957,6 +1167,22 @@ public class RCFile {
     private Decompressor keyDecompressor;
     NonSyncDataOutputBuffer keyDecompressedData = new NonSyncDataOutputBuffer();
 
+    private RCFileColumnStats[] fileColumnStats = null;
+    private RCFileRowGroupFilter rowGroupFilter = null;
+    private long rowGroupFilterEnd;
+    private int skippedRowGroups = 0;
+
+    // decodes the encoded columns of the current record, each on first use
+    private final RCFileColumnDecoder[] columnDecoders;
+    private final boolean[] columnDecoded;
+
+    // the rows of the current record whose DICTIONARY encoded cells pass the
+    // equality conditions of the row group filter, if rowsSelected
+    private boolean[] selectedRows = new boolean[0];
+    private boolean rowsSelected = false;
+    private int skippedRows = 0;
+    private final BytesRefArrayWritable dictionary = new BytesRefArrayWritable();
+
     int[] prjColIDs = null; // selected column IDs
 
     /** Create a new RCFile reader. */
@@ -1042,10 +1268,15 @@ public class RCFile {
       columnRunLength = new int[columnNumber];
       columnPrvLength = new int[columnNumber];
       columnRowReadIndex = new int[columnNumber];
+      columnDecoders = new RCFileColumnDecoder[columnNumber];
+      columnDecoded = new boolean[columnNumber];
       for (int i = 0; i < columnNumber; i++) {
         columnRowReadIndex[i] = 0;
         if (!skippedColIDs[i]) {
           colValLenBufferReadIn[i] = new NonSyncDataInputBuffer();
+          if (version >= VERSION_WITH_ENCODINGS) {
+            columnDecoders[i] = new RCFileColumnDecoder();
+          }
         }
         columnRunLength[i] = 0;
         columnPrvLength[i] = -1;
@@ -1075,8 +1306,8 @@ public class RCFile {
 
       // Set 'version'
       version = versionBlock[3];
-      if (version > VERSION[3]) {
-        throw new VersionMismatchException(VERSION[3], version);
+      if (version > VERSION_WITH_ENCODINGS) {
+        throw new VersionMismatchException(VERSION_WITH_ENCODINGS, version);
       }
 
       try {
@@ -1196,7 +1427,90 @@ public class RCFile {
     }
 
     private KeyBuffer createKeyBuffer() {
-      return new KeyBuffer(columnNumber);
+      KeyBuffer key = new KeyBuffer(columnNumber);
+      if (hasColumnStats()) {
+        key.setColumnStats(newColumnStats());
+      }
+      if (version >= VERSION_WITH_ENCODINGS) {
+        key.setColumnEncodings(new byte[columnNumber]);
+      }
+      return key;
+    }
+
+    private RCFileColumnStats[] newColumnStats() {
+      RCFileColumnStats[] stats = new RCFileColumnStats[columnNumber];
+      for (int i = 0; i < columnNumber; i++) {
+        stats[i] = new RCFileColumnStats();
+      }
+      return stats;
+    }
+
+    /** Returns true iff the file has column stats. */
+    public boolean hasColumnStats() {
+      if (version >= VERSION_WITH_ENCODINGS) {
+        Text hasStats = metadata.get(new Text(COLUMN_STATS_METADATA_STR));
+        return hasStats != null && Boolean.parseBoolean(hasStats.toString());
+      }
+      return version == VERSION_WITH_STATS;
+    }
+
+    /**
+     * Returns the stats of each column over the whole file, or null if the
+     * file has none.
+     */
+    public synchronized RCFileColumnStats[] getFileColumnStats() throws IOException {
+      if (!hasColumnStats()) {
+        return null;
+      }
+      if (fileColumnStats == null) {
+        long pos = in.getPos();
+        long length = file.getFileSystem(conf).getFileStatus(file).getLen();
+        in.seek(length - 8);
+        in.seek(in.readLong());
+        if (in.readInt() != STATS_ESCAPE) {
+          throw new IOException(file + " has no column stats trailer");
+        }
+        RCFileColumnStats[] stats = newColumnStats();
+        for (RCFileColumnStats s : stats) {
+          s.readFields(in);
+        }
+        in.seek(pos);
+        fileColumnStats = stats;
+      }
+      return fileColumnStats;
+    }
+
+    /**
+     * Returns the stats of each column over the current record, or null if
+     * the file has none.
+     */
+    public RCFileColumnStats[] getColumnStats() {
+      return currentKey.columnStats;
+    }
+
+    /**
+     * Skip the records whose column stats show that none of their rows
+     * passes the filter, and the rows whose DICTIONARY encoded cells fail
+     * its equality conditions. Records are not skipped once a sync mark at
+     * or past the given position is seen: they belong to the next split, and
+     * the caller has to see one of them to know that its split ended.
+     */
+    public synchronized void setRowGroupFilter(RCFileRowGroupFilter filter, long end) {
+      rowGroupFilter = filter;
+      rowGroupFilterEnd = end;
+    }
+
+    /** Returns the number of records skipped by the row group filter. */
+    public int getSkippedRowGroups() {
+      return skippedRowGroups;
+    }
+
+    /**
+     * Returns the number of rows {@link #next(LongWritable)} skipped in the
+     * records the row group filter read.
+     */
+    public int getSkippedRows() {
+      return skippedRows;
     }
 
     @SuppressWarnings("unused")
@@ -1216,6 +1530,10 @@ public class RCFile {
         return -1;
       }
       int length = in.readInt();
+      if (length == STATS_ESCAPE && hasColumnStats()) {
+        // the trailer follows the last record
+        return -1;
+      }
       if (version > 1 && sync != null && length == SYNC_ESCAPE) { // process
         // a
         // sync entry
@@ -1253,6 +1571,18 @@ public class RCFile {
     boolean keyInit = false;
 
     protected int nextKeyBuffer() throws IOException {
+      int ret = readKeyBuffer();
+      while (ret > 0 && rowGroupFilter != null && lastSeenSyncPos < rowGroupFilterEnd
+          && (!rowGroupFilter.mayMatch(currentKey.columnStats) || !selectRows())) {
+        passedRowsNum += currentKey.numberRows;
+        skippedRowGroups++;
+        // skips the value of the record
+        ret = readKeyBuffer();
+      }
+      return ret;
+    }
+
+    private int readKeyBuffer() throws IOException {
       seekToNextKeyBuffer();
       currentRecordLength = readRecordLength();
       if (currentRecordLength == -1) {
@@ -1279,6 +1609,7 @@ public class RCFile {
 
       keyInit = true;
       currentValue.inited = false;
+      rowsSelected = false;
 
       readRowsIndexInBuffer = 0;
       recordsNumInValBuffer = currentKey.numberRows;
@@ -1303,6 +1634,121 @@ public class RCFile {
       currentValue.clearColumnBuffer();
       currentValue.readFields(in);
       currentValue.inited = true;
+      Arrays.fill(columnDecoded, false);
+    }
+
+    /**
+     * Returns the decoder of an encoded column of the current record, which
+     * decompresses and decodes the column the first time it is used.
+     */
+    private RCFileColumnDecoder getColumnDecoder(int columnID) throws IOException {
+      RCFileColumnDecoder decoder = columnDecoders[columnID];
+      if (!columnDecoded[columnID]) {
+        decoder.decode(currentKey.getColumnEncoding(columnID),
+            currentValue.getColumnData(Arrays.binarySearch(prjColIDs, columnID)),
+            currentKey.eachColumnUncompressedValueLen[columnID], currentKey.numberRows);
+        columnDecoded[columnID] = true;
+      }
+      return decoder;
+    }
+
+    /**
+     * Select the rows of the current record whose DICTIONARY encoded cells
+     * pass the equality conditions of the row group filter: the dictionary
+     * is searched once for the constant, then the rows are matched by the
+     * ids of their cells.
+     *
+     * @return false if no row of the record passes the conditions
+     */
+    private boolean selectRows() throws IOException {
+      for (int i : prjColIDs) {
+        List<Text> values = rowGroupFilter.getEqualStrings(i);
+        if (values.isEmpty() || !isDictionaryEncoded(i)) {
+          continue;
+        }
+        getDictionary(i, dictionary);
+        int match = -1;
+        for (int k = 0; k < dictionary.size() && match < 0; k++) {
+          BytesRefWritable entry = dictionary.get(k);
+          match = k;
+          for (Text value : values) {
+            if (WritableComparator.compareBytes(entry.getData(), entry.getStart(),
+                entry.getLength(), value.getBytes(), 0, value.getLength()) != 0) {
+              match = -1;
+              break;
+            }
+          }
+        }
+        if (match < 0) {
+          return false;
+        }
+        int[] ids = getDictionaryIds(i);
+        int rows = currentKey.numberRows;
+        if (!rowsSelected) {
+          if (selectedRows.length < rows) {
+            selectedRows = new boolean[rows];
+          }
+          Arrays.fill(selectedRows, 0, rows, true);
+          rowsSelected = true;
+        }
+        for (int row = 0; row < rows; row++) {
+          selectedRows[row] &= ids[row] == match;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Returns true iff the given column of the current record is DICTIONARY
+     * encoded. Such a column can be grouped or compared for equality by the
+     * ids of its cells, see {@link #getDictionaryIds(int)}.
+     */
+    public boolean isDictionaryEncoded(int columnID) {
+      return keyInit && !skippedColIDs[columnID]
+          && currentKey.getColumnEncoding(columnID) == RCFileColumnEncoder.DICTIONARY;
+    }
+
+    /**
+     * Fetch the dictionary of a DICTIONARY encoded column of the current
+     * record: the distinct cells of the column, in the order of their ids.
+     *
+     * @return the dictionary, or null if the column is not DICTIONARY encoded
+     */
+    public BytesRefArrayWritable getDictionary(int columnID,
+        BytesRefArrayWritable rest) throws IOException {
+      if (!isDictionaryEncoded(columnID)) {
+        return null;
+      }
+      if (!currentValue.inited) {
+        currentValueBuffer();
+      }
+      if (rest == null) {
+        rest = new BytesRefArrayWritable();
+      }
+      getColumnDecoder(columnID).getDictionary(rest);
+      return rest;
+    }
+
+    /**
+     * Fetch the dictionary ids of the cells of a DICTIONARY encoded column of
+     * the current record. Only the first {@link #getCurrentRecordRows()} ids
+     * are valid; the array is reused for the next record.
+     *
+     * @return the ids, or null if the column is not DICTIONARY encoded
+     */
+    public int[] getDictionaryIds(int columnID) throws IOException {
+      if (!isDictionaryEncoded(columnID)) {
+        return null;
+      }
+      if (!currentValue.inited) {
+        currentValueBuffer();
+      }
+      return getColumnDecoder(columnID).getDictionaryIds();
+    }
+
+    /** Returns the number of rows of the current record. */
+    public int getCurrentRecordRows() {
+      return recordsNumInValBuffer;
     }
 
     private boolean rowFetched = false;
@@ -1339,6 +1785,15 @@ public class RCFile {
         currentValueBuffer();
       }
 
+      if (currentKey.getColumnEncoding(columnID) != RCFileColumnEncoder.PLAIN) {
+        RCFileColumnDecoder decoder = getColumnDecoder(columnID);
+        for (int i = 0; i < recordsNumInValBuffer; i++) {
+          rest.get(i).set(decoder.getData(), decoder.getStart(i),
+              decoder.getLength(i));
+        }
+        return rest;
+      }
+
       int columnNextRowStart = 0;
       fetchColumnTempBuf.reset(currentKey.allCellValLenBuffer[columnID]
           .getData(), currentKey.allCellValLenBuffer[columnID].getLength());
@@ -1383,15 +1838,18 @@ public class RCFile {
      * @throws IOException
      */
     public synchronized boolean next(LongWritable readRows) throws IOException {
-      if (hasRecordsInBuffer()) {
+      while (hasRecordsInBuffer()) {
+        if (rowsSelected && !selectedRows[readRowsIndexInBuffer]) {
+          skipRow();
+          continue;
+        }
         readRows.set(passedRowsNum);
         readRowsIndexInBuffer++;
         passedRowsNum++;
         rowFetched = false;
         return true;
-      } else {
-        keyInit = false;
       }
+      keyInit = false;
 
       int ret = -1;
       try {
@@ -1405,6 +1863,18 @@ public class RCFile {
       return false;
     }
 
+    // moves past a row that was not selected, whose cells are never fetched
+    private void skipRow() throws IOException {
+      for (int i : prjColIDs) {
+        if (currentKey.getColumnEncoding(i) == RCFileColumnEncoder.PLAIN) {
+          columnRowReadIndex[i] += getColumnNextValueLength(i);
+        }
+      }
+      readRowsIndexInBuffer++;
+      passedRowsNum++;
+      skippedRows++;
+    }
+
     public boolean hasRecordsInBuffer() {
       return readRowsIndexInBuffer < recordsNumInValBuffer;
     }
@@ -1426,6 +1896,9 @@ public class RCFile {
         // do this only when not initialized, but we may need to find a way to
         // tell the caller how to initialize the valid size
         ret.resetValid(columnNumber);
+      } else if (ret.size() < columnNumber) {
+        // the row group filter read the record
+        ret.resetValid(columnNumber);
       }
 
       // we do not use BytesWritable here to avoid the byte-copy from
@@ -1436,6 +1909,13 @@ public class RCFile {
 
         BytesRefWritable ref = ret.unCheckedGet(i);
 
+        if (currentKey.getColumnEncoding(i) != RCFileColumnEncoder.PLAIN) {
+          RCFileColumnDecoder decoder = getColumnDecoder(i);
+          int row = readRowsIndexInBuffer - 1;
+          ref.set(decoder.getData(), decoder.getStart(row), decoder.getLength(row));
+          continue;
+        }
+
         int columnCurrentRowStart = columnRowReadIndex[i];
         int length = getColumnNextValueLength(i);
         columnRowReadIndex[i] = columnCurrentRowStart + length;
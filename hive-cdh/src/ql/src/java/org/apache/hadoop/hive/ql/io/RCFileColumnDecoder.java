@@ -0,0 +1,180 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.io;
+
+import java.io.IOException;
+
+import org.apache.hadoop.hive.serde2.columnar.BytesRefArrayWritable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * RCFileColumnDecoder.
+ *
+ * Decodes the cells of a column of a record written by
+ * {@link RCFileColumnEncoder}. The cells of a DICTIONARY column refer to the
+ * dictionary entries in the value buffer of the column, the cells of a DELTA
+ * column to the decimal text of their values in a buffer of the decoder.
+ */
+public class RCFileColumnDecoder {
+
+  private final NonSyncDataInputBuffer in = new NonSyncDataInputBuffer();
+  // the decimal text of the values of a DELTA column
+  private final NonSyncDataOutputBuffer text = new NonSyncDataOutputBuffer();
+  private final byte[] digits = new byte[20];
+
+  private byte encoding = RCFileColumnEncoder.PLAIN;
+  private byte[] data;
+  private int rows;
+  private int[] starts = new int[0];
+  private int[] lengths = new int[0];
+
+  private int dictionarySize;
+  private int[] ids = new int[0];
+  private int[] entryStarts = new int[0];
+  private int[] entryLengths = new int[0];
+
+  /**
+   * Decode the cells of a column.
+   *
+   * @param encoding
+   *          the encoding of the column, DICTIONARY or DELTA
+   * @param columnData
+   *          the uncompressed value buffer of the column
+   * @param length
+   *          the length of the value buffer
+   * @param numberRows
+   *          the number of cells
+   */
+  public void decode(byte encoding, byte[] columnData, int length,
+      int numberRows) throws IOException {
+    this.encoding = encoding;
+    rows = numberRows;
+    if (starts.length < rows) {
+      starts = new int[rows];
+      lengths = new int[rows];
+    }
+    in.reset(columnData, 0, length);
+    if (encoding == RCFileColumnEncoder.DICTIONARY) {
+      decodeDictionary(columnData);
+    } else if (encoding == RCFileColumnEncoder.DELTA) {
+      decodeDelta();
+    } else {
+      throw new IOException("Unknown column encoding " + encoding);
+    }
+  }
+
+  private void decodeDictionary(byte[] columnData) throws IOException {
+    data = columnData;
+    dictionarySize = WritableUtils.readVInt(in);
+    if (entryStarts.length < dictionarySize) {
+      entryStarts = new int[dictionarySize];
+      entryLengths = new int[dictionarySize];
+    }
+    for (int k = 0; k < dictionarySize; k++) {
+      entryLengths[k] = WritableUtils.readVInt(in);
+      entryStarts[k] = in.getPosition();
+      in.skipBytes(entryLengths[k]);
+    }
+    if (ids.length < rows) {
+      ids = new int[rows];
+    }
+    int row = 0;
+    while (row < rows) {
+      int id = WritableUtils.readVInt(in);
+      int runEnd = row + WritableUtils.readVInt(in) + 1;
+      if (id >= dictionarySize || runEnd > rows) {
+        throw new IOException("Corrupt dictionary encoded column");
+      }
+      for (; row < runEnd; row++) {
+        ids[row] = id;
+        starts[row] = entryStarts[id];
+        lengths[row] = entryLengths[id];
+      }
+    }
+  }
+
+  private void decodeDelta() throws IOException {
+    text.reset();
+    long value = 0;
+    for (int row = 0; row < rows; row++) {
+      value += WritableUtils.readVLong(in);
+      starts[row] = text.getLength();
+      lengths[row] = writeDigits(value);
+    }
+    // the buffer may have grown while the values were written
+    data = text.getData();
+  }
+
+  private int writeDigits(long value) throws IOException {
+    int pos = digits.length;
+    long v = value < 0 ? -value : value;
+    do {
+      digits[--pos] = (byte) ('0' + (v % 10));
+      v /= 10;
+    } while (v != 0);
+    if (value < 0) {
+      digits[--pos] = '-';
+    }
+    text.write(digits, pos, digits.length - pos);
+    return digits.length - pos;
+  }
+
+  public byte getEncoding() {
+    return encoding;
+  }
+
+  /** Returns the bytes the cells refer to. */
+  public byte[] getData() {
+    return data;
+  }
+
+  public int getStart(int row) {
+    return starts[row];
+  }
+
+  public int getLength(int row) {
+    return lengths[row];
+  }
+
+  /**
+   * Returns the dictionary ids of the cells, valid for the first
+   * numberRows of them, or null if the column is not DICTIONARY encoded.
+   */
+  public int[] getDictionaryIds() {
+    return encoding == RCFileColumnEncoder.DICTIONARY ? ids : null;
+  }
+
+  /**
+   * Set the dictionary entries, in the order of their ids, to the given
+   * array.
+   *
+   * @return the number of entries, or -1 if the column is not DICTIONARY
+   *         encoded
+   */
+  public int getDictionary(BytesRefArrayWritable entries) {
+    if (encoding != RCFileColumnEncoder.DICTIONARY) {
+      return -1;
+    }
+    entries.resetValid(dictionarySize);
+    for (int k = 0; k < dictionarySize; k++) {
+      entries.get(k).set(data, entryStarts[k], entryLengths[k]);
+    }
+    return dictionarySize;
+  }
+}
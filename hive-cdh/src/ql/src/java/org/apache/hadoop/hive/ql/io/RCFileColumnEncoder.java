@@ -0,0 +1,223 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.io;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * RCFileColumnEncoder.
+ *
+ * Follows the cells of a column of a record as they are appended and picks
+ * the smallest of the encodings of the column:
+ *
+ * <ul>
+ * <li>PLAIN - the cells one after the other, their lengths in the key</li>
+ * <li>DICTIONARY - the distinct cells, each as its length (vint) and its
+ * bytes, preceded by their number (vint), followed by the runs of equal
+ * cells, each as the dictionary id of the cell (vint) and the length of the
+ * run minus one (vint)</li>
+ * <li>DELTA - when every cell is the canonical decimal text of a long: the
+ * first value followed by the difference of each value from the one before
+ * it, all as vlongs</li>
+ * </ul>
+ *
+ * The encoded cells are decoded by {@link RCFileColumnDecoder}.
+ */
+public class RCFileColumnEncoder {
+
+  public static final byte PLAIN = 0;
+  public static final byte DICTIONARY = 1;
+  public static final byte DELTA = 2;
+
+  // the largest number of distinct cells of a dictionary
+  static final int MAX_DICTIONARY_SIZE = 4096;
+
+  private int rows;
+
+  // the dictionary while it is small enough
+  private boolean dictionaryUsable;
+  private final HashMap<Text, Integer> dictionary = new HashMap<Text, Integer>();
+  private final Text probe = new Text();
+  private final NonSyncDataOutputBuffer dictionaryEntries = new NonSyncDataOutputBuffer();
+  private int[] runIds = new int[64];
+  private int[] runLengths = new int[64];
+  private int runs;
+  private int runBytes;
+
+  // the values while the cells are canonical longs
+  private boolean deltaUsable;
+  private long[] values = new long[1024];
+  private int deltaBytes;
+
+  public RCFileColumnEncoder() {
+    reset();
+  }
+
+  public void reset() {
+    rows = 0;
+    dictionaryUsable = true;
+    dictionary.clear();
+    dictionaryEntries.reset();
+    runs = 0;
+    runBytes = 0;
+    deltaUsable = true;
+    deltaBytes = 0;
+  }
+
+  /**
+   * Add the next cell of the column.
+   */
+  public void add(byte[] bytes, int start, int length) {
+    if (dictionaryUsable) {
+      addToDictionary(bytes, start, length);
+    }
+    if (deltaUsable) {
+      addValue(bytes, start, length);
+    }
+    rows++;
+  }
+
+  private void addToDictionary(byte[] bytes, int start, int length) {
+    probe.set(bytes, start, length);
+    Integer id = dictionary.get(probe);
+    if (id == null) {
+      if (dictionary.size() == MAX_DICTIONARY_SIZE) {
+        dictionaryUsable = false;
+        dictionary.clear();
+        return;
+      }
+      id = Integer.valueOf(dictionary.size());
+      dictionary.put(new Text(probe), id);
+      try {
+        WritableUtils.writeVInt(dictionaryEntries, length);
+        dictionaryEntries.write(bytes, start, length);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    int i = id.intValue();
+    if (runs > 0 && runIds[runs - 1] == i) {
+      runLengths[runs - 1]++;
+      return;
+    }
+    if (runs > 0) {
+      runBytes += WritableUtils.getVIntSize(runLengths[runs - 1] - 1);
+    }
+    if (runs == runIds.length) {
+      int[] newIds = new int[runs * 2];
+      int[] newLengths = new int[runs * 2];
+      System.arraycopy(runIds, 0, newIds, 0, runs);
+      System.arraycopy(runLengths, 0, newLengths, 0, runs);
+      runIds = newIds;
+      runLengths = newLengths;
+    }
+    runIds[runs] = i;
+    runLengths[runs] = 1;
+    runs++;
+    runBytes += WritableUtils.getVIntSize(i);
+  }
+
+  private void addValue(byte[] bytes, int start, int length) {
+    long value = parseCanonicalLong(bytes, start, length);
+    if (value == Long.MIN_VALUE) {
+      deltaUsable = false;
+      return;
+    }
+    if (rows == values.length) {
+      long[] newValues = new long[rows * 2];
+      System.arraycopy(values, 0, newValues, 0, rows);
+      values = newValues;
+    }
+    values[rows] = value;
+    deltaBytes += WritableUtils.getVIntSize(rows == 0 ? value : value - values[rows - 1]);
+  }
+
+  /**
+   * @return the value of a cell that is the text Long.toString gives for it,
+   *         or Long.MIN_VALUE if it is not one
+   */
+  static long parseCanonicalLong(byte[] bytes, int start, int length) {
+    int end = start + length;
+    boolean negative = length > 0 && bytes[start] == '-';
+    int i = negative ? start + 1 : start;
+    // at most 18 digits, which cannot overflow, and no leading zero
+    if (i == end || end - i > 18 || (bytes[i] == '0' && (end - i > 1 || negative))) {
+      return Long.MIN_VALUE;
+    }
+    long value = 0;
+    for (; i < end; i++) {
+      int digit = bytes[i] - '0';
+      if (digit < 0 || digit > 9) {
+        return Long.MIN_VALUE;
+      }
+      value = value * 10 + digit;
+    }
+    return negative ? -value : value;
+  }
+
+  /**
+   * @param plainLength
+   *          the bytes the cells take with the PLAIN encoding, their lengths
+   *          included
+   * @return the encoding that takes the fewest bytes
+   */
+  public byte chooseEncoding(int plainLength) {
+    byte encoding = PLAIN;
+    int length = plainLength;
+    if (rows > 0 && dictionaryUsable && getLength(DICTIONARY) < length) {
+      encoding = DICTIONARY;
+      length = getLength(DICTIONARY);
+    }
+    if (rows > 0 && deltaUsable && getLength(DELTA) < length) {
+      encoding = DELTA;
+    }
+    return encoding;
+  }
+
+  private int getLength(byte encoding) {
+    if (encoding == DICTIONARY) {
+      return WritableUtils.getVIntSize(dictionary.size()) + dictionaryEntries.getLength()
+          + runBytes + WritableUtils.getVIntSize(runLengths[runs - 1] - 1);
+    }
+    return deltaBytes;
+  }
+
+  /**
+   * Write the cells in the given encoding, DICTIONARY or DELTA.
+   */
+  public void write(byte encoding, DataOutput out) throws IOException {
+    if (encoding == DICTIONARY) {
+      WritableUtils.writeVInt(out, dictionary.size());
+      out.write(dictionaryEntries.getData(), 0, dictionaryEntries.getLength());
+      for (int r = 0; r < runs; r++) {
+        WritableUtils.writeVInt(out, runIds[r]);
+        WritableUtils.writeVInt(out, runLengths[r] - 1);
+      }
+    } else {
+      for (int r = 0; r < rows; r++) {
+        WritableUtils.writeVLong(out, r == 0 ? values[0] : values[r] - values[r - 1]);
+      }
+    }
+  }
+}
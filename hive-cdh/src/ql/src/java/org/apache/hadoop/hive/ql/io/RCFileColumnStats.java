@@ -0,0 +1,412 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.io;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.CharacterCodingException;
+
+import org.apache.hadoop.hive.serde2.lazy.LazyByte;
+import org.apache.hadoop.hive.serde2.lazy.LazyInteger;
+import org.apache.hadoop.hive.serde2.lazy.LazyLong;
+import org.apache.hadoop.hive.serde2.lazy.LazyShort;
+import org.apache.hadoop.hive.serde2.lazy.LazyUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * RCFileColumnStats.
+ *
+ * The null count and the minimum and maximum values of a column, over a row
+ * group or over a whole RCFile. The values are the text encoded cells written
+ * by ColumnarSerDe, parsed the way its lazy objects parse them, so that a cell
+ * the SerDe reads as null is counted as a null here too.
+ */
+public class RCFileColumnStats implements Writable {
+
+  /**
+   * How the values of a column are compared.
+   */
+  public static enum Kind {
+    NONE, LONG, FLOAT, DOUBLE, STRING
+  }
+
+  private Kind kind;
+  // the exact type, when collecting
+  private PrimitiveCategory category;
+  private byte[] nullSequence;
+
+  private long nullCount;
+  private long valueCount;
+  private long minLong;
+  private long maxLong;
+  private double minDouble;
+  private double maxDouble;
+  private final Text minText = new Text();
+  private final Text maxText = new Text();
+
+  public RCFileColumnStats() {
+    this(Kind.NONE);
+  }
+
+  public RCFileColumnStats(Kind kind) {
+    this.kind = kind;
+  }
+
+  /**
+   * Stats that collect the cells of a column of the given type.
+   *
+   * @param category
+   *          the type of the column, or null if it is not a primitive
+   * @param nullSequence
+   *          the cell of a null value
+   */
+  public static RCFileColumnStats forType(PrimitiveCategory category,
+      byte[] nullSequence) {
+    RCFileColumnStats stats = new RCFileColumnStats(getKind(category));
+    stats.category = category;
+    stats.nullSequence = nullSequence;
+    return stats;
+  }
+
+  public static Kind getKind(PrimitiveCategory category) {
+    if (category == null) {
+      return Kind.NONE;
+    }
+    switch (category) {
+    case BYTE:
+    case SHORT:
+    case INT:
+    case LONG:
+      return Kind.LONG;
+    case FLOAT:
+      return Kind.FLOAT;
+    case DOUBLE:
+      return Kind.DOUBLE;
+    case STRING:
+      return Kind.STRING;
+    default:
+      return Kind.NONE;
+    }
+  }
+
+  public Kind getKind() {
+    return kind;
+  }
+
+  public long getNullCount() {
+    return nullCount;
+  }
+
+  public long getValueCount() {
+    return valueCount;
+  }
+
+  public long getMinLong() {
+    return minLong;
+  }
+
+  public long getMaxLong() {
+    return maxLong;
+  }
+
+  /**
+   * @return the minimum of a FLOAT or DOUBLE column, or of a LONG column
+   *         widened to a double
+   */
+  public double getMinDouble() {
+    return kind == Kind.LONG ? minLong : minDouble;
+  }
+
+  public double getMaxDouble() {
+    return kind == Kind.LONG ? maxLong : maxDouble;
+  }
+
+  public Text getMinText() {
+    return minText;
+  }
+
+  public Text getMaxText() {
+    return maxText;
+  }
+
+  public void reset() {
+    nullCount = 0;
+    valueCount = 0;
+  }
+
+  /**
+   * Add a cell of the column.
+   */
+  public void add(byte[] bytes, int start, int length) {
+    if (kind == Kind.NONE) {
+      return;
+    }
+    if (length == nullSequence.length
+        && LazyUtils.compare(bytes, start, length, nullSequence, 0, length) == 0) {
+      nullCount++;
+      return;
+    }
+    try {
+      switch (kind) {
+      case LONG:
+        addLong(parseLong(bytes, start, length));
+        break;
+      case FLOAT:
+        addDouble(Float.parseFloat(Text.decode(bytes, start, length)));
+        break;
+      case DOUBLE:
+        addDouble(Double.parseDouble(Text.decode(bytes, start, length)));
+        break;
+      case STRING:
+        addText(bytes, start, length);
+        break;
+      }
+    } catch (NumberFormatException e) {
+      nullCount++;
+    } catch (CharacterCodingException e) {
+      nullCount++;
+    }
+  }
+
+  private long parseLong(byte[] bytes, int start, int length) {
+    switch (category) {
+    case BYTE:
+      return LazyByte.parseByte(bytes, start, length);
+    case SHORT:
+      return LazyShort.parseShort(bytes, start, length);
+    case INT:
+      return LazyInteger.parseInt(bytes, start, length);
+    default:
+      return LazyLong.parseLong(bytes, start, length);
+    }
+  }
+
+  private static int compare(byte[] bytes, int start, int length, Text text) {
+    return WritableComparator.compareBytes(bytes, start, length,
+        text.getBytes(), 0, text.getLength());
+  }
+
+  /**
+   * Add a null value of the column.
+   */
+  public void addNull() {
+    nullCount++;
+  }
+
+  /**
+   * Add a value of a LONG column.
+   */
+  public void addLong(long value) {
+    if (valueCount == 0 || value < minLong) {
+      minLong = value;
+    }
+    if (valueCount == 0 || value > maxLong) {
+      maxLong = value;
+    }
+    valueCount++;
+  }
+
+  /**
+   * Add a value of a FLOAT or DOUBLE column.
+   */
+  public void addDouble(double value) {
+    // NaN sorts last, as it does in Double.compare
+    if (valueCount == 0 || Double.compare(value, minDouble) < 0) {
+      minDouble = value;
+    }
+    if (valueCount == 0 || Double.compare(value, maxDouble) > 0) {
+      maxDouble = value;
+    }
+    valueCount++;
+  }
+
+  /**
+   * Add the UTF-8 bytes of a value of a STRING column.
+   */
+  public void addText(byte[] bytes, int start, int length) {
+    if (valueCount == 0 || compare(bytes, start, length, minText) < 0) {
+      minText.set(bytes, start, length);
+    }
+    if (valueCount == 0 || compare(bytes, start, length, maxText) > 0) {
+      maxText.set(bytes, start, length);
+    }
+    valueCount++;
+  }
+
+  /**
+   * Add the values counted by other stats of the same column.
+   */
+  public void merge(RCFileColumnStats other) {
+    if (kind != other.kind) {
+      kind = Kind.NONE;
+      return;
+    }
+    nullCount += other.nullCount;
+    if (other.valueCount == 0) {
+      return;
+    }
+    boolean first = valueCount == 0;
+    switch (kind) {
+    case LONG:
+      if (first || other.minLong < minLong) {
+        minLong = other.minLong;
+      }
+      if (first || other.maxLong > maxLong) {
+        maxLong = other.maxLong;
+      }
+      break;
+    case FLOAT:
+    case DOUBLE:
+      if (first || Double.compare(other.minDouble, minDouble) < 0) {
+        minDouble = other.minDouble;
+      }
+      if (first || Double.compare(other.maxDouble, maxDouble) > 0) {
+        maxDouble = other.maxDouble;
+      }
+      break;
+    case STRING:
+      if (first || other.minText.compareTo(minText) < 0) {
+        minText.set(other.minText);
+      }
+      if (first || other.maxText.compareTo(maxText) > 0) {
+        maxText.set(other.maxText);
+      }
+      break;
+    }
+    valueCount += other.valueCount;
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    out.writeByte(kind.ordinal());
+    if (kind == Kind.NONE) {
+      return;
+    }
+    WritableUtils.writeVLong(out, nullCount);
+    WritableUtils.writeVLong(out, valueCount);
+    if (valueCount == 0) {
+      return;
+    }
+    switch (kind) {
+    case LONG:
+      WritableUtils.writeVLong(out, minLong);
+      WritableUtils.writeVLong(out, maxLong);
+      break;
+    case FLOAT:
+    case DOUBLE:
+      out.writeDouble(minDouble);
+      out.writeDouble(maxDouble);
+      break;
+    case STRING:
+      minText.write(out);
+      maxText.write(out);
+      break;
+    }
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    int k = in.readByte();
+    if (k < 0 || k >= Kind.values().length) {
+      throw new IOException("Unknown column stats kind " + k);
+    }
+    kind = Kind.values()[k];
+    nullCount = 0;
+    valueCount = 0;
+    if (kind == Kind.NONE) {
+      return;
+    }
+    nullCount = WritableUtils.readVLong(in);
+    valueCount = WritableUtils.readVLong(in);
+    if (valueCount == 0) {
+      return;
+    }
+    switch (kind) {
+    case LONG:
+      minLong = WritableUtils.readVLong(in);
+      maxLong = WritableUtils.readVLong(in);
+      break;
+    case FLOAT:
+    case DOUBLE:
+      minDouble = in.readDouble();
+      maxDouble = in.readDouble();
+      break;
+    case STRING:
+      minText.readFields(in);
+      maxText.readFields(in);
+      break;
+    }
+  }
+
+  /**
+   * @return the number of bytes write() writes
+   */
+  public int getSize() {
+    int size = 1;
+    if (kind == Kind.NONE) {
+      return size;
+    }
+    size += WritableUtils.getVIntSize(nullCount) + WritableUtils.getVIntSize(valueCount);
+    if (valueCount == 0) {
+      return size;
+    }
+    switch (kind) {
+    case LONG:
+      size += WritableUtils.getVIntSize(minLong) + WritableUtils.getVIntSize(maxLong);
+      break;
+    case FLOAT:
+    case DOUBLE:
+      size += 16;
+      break;
+    case STRING:
+      size += WritableUtils.getVIntSize(minText.getLength()) + minText.getLength()
+          + WritableUtils.getVIntSize(maxText.getLength()) + maxText.getLength();
+      break;
+    }
+    return size;
+  }
+
+  @Override
+  public String toString() {
+    if (kind == Kind.NONE) {
+      return "none";
+    }
+    StringBuilder sb = new StringBuilder();
+    sb.append("nulls=").append(nullCount).append(" values=").append(valueCount);
+    if (valueCount > 0) {
+      switch (kind) {
+      case LONG:
+        sb.append(" min=").append(minLong).append(" max=").append(maxLong);
+        break;
+      case STRING:
+        sb.append(" min=").append(minText).append(" max=").append(maxText);
+        break;
+      default:
+        sb.append(" min=").append(minDouble).append(" max=").append(maxDouble);
+        break;
+      }
+    }
+    return sb.toString();
+  }
+}
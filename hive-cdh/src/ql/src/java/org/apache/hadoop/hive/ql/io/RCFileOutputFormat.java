@@ -25,8 +25,11 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.conf.HiveConf;
 import org.apache.hadoop.hive.ql.exec.Utilities;
+import org.apache.hadoop.hive.serde.Constants;
 import org.apache.hadoop.hive.serde2.columnar.BytesRefArrayWritable;
+import org.apache.hadoop.hive.serde2.columnar.ColumnarSerDe;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
 import org.apache.hadoop.io.compress.CompressionCodec;
@@ -60,6 +63,25 @@ public class RCFileOutputFormat extends
     conf.setInt(RCFile.COLUMN_NUMBER_CONF_STR, columnNum);
   }
 
+  /**
+   * Set the column types into the configuration if the writers should record
+   * column stats, which they only can when the cells are written unescaped by
+   * ColumnarSerDe.
+   */
+  private static void setColumnStatsTypes(JobConf jc, Properties tableProperties) {
+    String types = tableProperties.getProperty(Constants.LIST_COLUMN_TYPES);
+    boolean stats = HiveConf.getBoolVar(jc, HiveConf.ConfVars.HIVERCFILECOLUMNSTATS)
+        && types != null
+        && ColumnarSerDe.class.getName().equals(
+        tableProperties.getProperty(Constants.SERIALIZATION_LIB))
+        && tableProperties.getProperty(Constants.ESCAPE_CHAR) == null;
+    jc.set(RCFile.COLUMN_TYPES_CONF_STR, stats ? types : "");
+    if (stats) {
+      jc.set(RCFile.NULL_SEQUENCE_CONF_STR, tableProperties.getProperty(
+          Constants.SERIALIZATION_NULL_FORMAT, "\\N"));
+    }
+  }
+
   /**
    * Returns the number of columns set in the conf for writers.
    * 
@@ -134,6 +156,7 @@ public class RCFileOutputFormat extends
     }
 
     RCFileOutputFormat.setColumnNumber(jc, cols.length);
+    setColumnStatsTypes(jc, tableProperties);
     final RCFile.Writer outWriter = Utilities.createRCFileWriter
       (jc, finalOutPath.getFileSystem(jc),
        finalOutPath, isCompressed);
@@ -59,6 +59,19 @@ public class RCFileRecordReader<K extends LongWritable, V extends BytesRefArrayW
 
     this.start = in.getPosition();
     more = start < end;
+
+    if (more) {
+      RCFileRowGroupFilter filter = RCFileRowGroupFilter.create(conf);
+      if (filter == null) {
+        return;
+      }
+      if (!in.hasColumnStats() || filter.mayMatch(in.getFileColumnStats())) {
+        in.setRowGroupFilter(filter, end);
+      } else {
+        // no row of the file passes the filter
+        more = false;
+      }
+    }
   }
 
   public Class<?> getKeyClass() {
@@ -0,0 +1,288 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.io;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.ql.exec.Utilities;
+import org.apache.hadoop.hive.ql.index.IndexPredicateAnalyzer;
+import org.apache.hadoop.hive.ql.index.IndexSearchCondition;
+import org.apache.hadoop.hive.ql.plan.ExprNodeConstantDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.ql.plan.TableScanDesc;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPEqual;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPEqualOrGreaterThan;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPEqualOrLessThan;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPGreaterThan;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPLessThan;
+import org.apache.hadoop.hive.serde.Constants;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.Text;
+
+/**
+ * RCFileRowGroupFilter.
+ *
+ * Decides from the column statistics of a row group, or of a whole RCFile,
+ * whether any of its rows can satisfy the filter pushed down to the table
+ * scan. Only the conjuncts that compare a column with a constant are used;
+ * the rest of the filter is left to the operators, which still evaluate all
+ * of it on the rows that are read. The equality conditions on string columns
+ * also select the rows of DICTIONARY encoded columns by the ids of their
+ * cells, see {@link #getEqualStrings(int)}.
+ */
+public class RCFileRowGroupFilter {
+
+  private static final Log LOG = LogFactory.getLog(RCFileRowGroupFilter.class);
+
+  private static enum Op {
+    EQ, LT, LE, GT, GE;
+
+    Op flip() {
+      switch (this) {
+      case LT:
+        return GT;
+      case LE:
+        return GE;
+      case GT:
+        return LT;
+      case GE:
+        return LE;
+      default:
+        return this;
+      }
+    }
+  }
+
+  private static class Condition {
+    final int column;
+    final Op op;
+    final Object constant;
+    // the constant an equality condition compares a string column with
+    final Text equalString;
+
+    Condition(int column, Op op, Object constant, boolean stringColumn) {
+      this.column = column;
+      this.op = op;
+      this.constant = constant;
+      equalString = op == Op.EQ && stringColumn && constant instanceof String
+          ? new Text((String) constant) : null;
+    }
+
+    @Override
+    public String toString() {
+      return "col" + column + " " + op + " " + constant;
+    }
+  }
+
+  private final List<Condition> conditions = new ArrayList<Condition>();
+
+  /**
+   * @param predicate
+   *          the filter of the table scan
+   * @param columnNames
+   *          the names of the columns of the table scan, the columns of the
+   *          file first
+   */
+  public RCFileRowGroupFilter(ExprNodeDesc predicate, List<String> columnNames) {
+    IndexPredicateAnalyzer analyzer = new IndexPredicateAnalyzer();
+    analyzer.addComparisonOp(GenericUDFOPEqual.class.getName());
+    analyzer.addComparisonOp(GenericUDFOPLessThan.class.getName());
+    analyzer.addComparisonOp(GenericUDFOPEqualOrLessThan.class.getName());
+    analyzer.addComparisonOp(GenericUDFOPGreaterThan.class.getName());
+    analyzer.addComparisonOp(GenericUDFOPEqualOrGreaterThan.class.getName());
+    List<IndexSearchCondition> searchConditions = new ArrayList<IndexSearchCondition>();
+    analyzer.analyzePredicate(predicate, searchConditions);
+
+    for (IndexSearchCondition sc : searchConditions) {
+      int column = columnNames.indexOf(sc.getColumnDesc().getColumn());
+      Object constant = sc.getConstantDesc().getValue();
+      if (column < 0 || constant == null) {
+        continue;
+      }
+      Op op = getOp(sc.getComparisonOp());
+      // the analyzer drops the side the column is on
+      if (sc.getComparisonExpr().getChildren().get(0) instanceof ExprNodeConstantDesc) {
+        op = op.flip();
+      }
+      conditions.add(new Condition(column, op, constant,
+          TypeInfoFactory.stringTypeInfo.equals(sc.getColumnDesc().getTypeInfo())));
+    }
+  }
+
+  private static Op getOp(String udfName) {
+    if (udfName.equals(GenericUDFOPLessThan.class.getName())) {
+      return Op.LT;
+    } else if (udfName.equals(GenericUDFOPEqualOrLessThan.class.getName())) {
+      return Op.LE;
+    } else if (udfName.equals(GenericUDFOPGreaterThan.class.getName())) {
+      return Op.GT;
+    } else if (udfName.equals(GenericUDFOPEqualOrGreaterThan.class.getName())) {
+      return Op.GE;
+    }
+    return Op.EQ;
+  }
+
+  /**
+   * @return the filter pushed down to the table scan in the configuration, or
+   *         null if there is none or no part of it can use the statistics
+   */
+  public static RCFileRowGroupFilter create(Configuration conf) {
+    String filterExpr = conf.get(TableScanDesc.FILTER_EXPR_CONF_STR);
+    String columns = conf.get(Constants.LIST_COLUMNS);
+    if (filterExpr == null || filterExpr.length() == 0 || columns == null) {
+      return null;
+    }
+    ExprNodeDesc predicate = Utilities.deserializeExpression(filterExpr, conf);
+    RCFileRowGroupFilter filter = new RCFileRowGroupFilter(predicate,
+        Arrays.asList(columns.split(",")));
+    if (filter.conditions.isEmpty()) {
+      return null;
+    }
+    LOG.info("Skipping RCFile row groups by " + filter.conditions);
+    return filter;
+  }
+
+  /**
+   * @param stats
+   *          the statistics of the columns of the file, or null if it has
+   *          none
+   * @return false if no row the statistics describe satisfies the filter
+   */
+  public boolean mayMatch(RCFileColumnStats[] stats) {
+    if (stats == null) {
+      return true;
+    }
+    for (Condition c : conditions) {
+      if (c.column < stats.length && !mayMatch(stats[c.column], c)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the strings the equality conditions compare the given string
+   *         column with; a row passes the filter only if its cell equals
+   *         all of them
+   */
+  public List<Text> getEqualStrings(int column) {
+    List<Text> strings = null;
+    for (Condition c : conditions) {
+      if (c.column == column && c.equalString != null) {
+        if (strings == null) {
+          strings = new ArrayList<Text>(1);
+        }
+        strings.add(c.equalString);
+      }
+    }
+    return strings == null ? Collections.<Text>emptyList() : strings;
+  }
+
+  private static boolean mayMatch(RCFileColumnStats stats, Condition c) {
+    if (stats.getKind() == RCFileColumnStats.Kind.NONE) {
+      return true;
+    }
+    if (stats.getValueCount() == 0) {
+      // a comparison with null is never true
+      return false;
+    }
+    int minCmp;
+    int maxCmp;
+    Object constant = c.constant;
+    switch (stats.getKind()) {
+    case STRING:
+      if (!(constant instanceof String) || !isBelowSurrogates((String) constant)) {
+        return true;
+      }
+      Text value = new Text((String) constant);
+      minCmp = stats.getMinText().compareTo(value);
+      maxCmp = stats.getMaxText().compareTo(value);
+      break;
+    case LONG:
+      if (constant instanceof Long || constant instanceof Integer
+          || constant instanceof Short || constant instanceof Byte) {
+        long v = ((Number) constant).longValue();
+        minCmp = compare(stats.getMinLong(), v);
+        maxCmp = compare(stats.getMaxLong(), v);
+        break;
+      }
+      // fall through: compared as doubles
+    default:
+      double v;
+      if (constant instanceof Number) {
+        // a float column is compared with a constant other than a double as
+        // a float
+        v = stats.getKind() == RCFileColumnStats.Kind.FLOAT && !(constant instanceof Double)
+            ? ((Number) constant).floatValue() : ((Number) constant).doubleValue();
+      } else if (constant instanceof String) {
+        try {
+          v = Double.parseDouble((String) constant);
+        } catch (NumberFormatException e) {
+          return true;
+        }
+      } else {
+        return true;
+      }
+      if (Double.isNaN(v)) {
+        return true;
+      }
+      minCmp = Double.compare(stats.getMinDouble(), v);
+      maxCmp = Double.compare(stats.getMaxDouble(), v);
+      break;
+    }
+
+    switch (c.op) {
+    case EQ:
+      return minCmp <= 0 && maxCmp >= 0;
+    case LT:
+      return minCmp < 0;
+    case LE:
+      return minCmp <= 0;
+    case GT:
+      return maxCmp > 0;
+    default:
+      return maxCmp >= 0;
+    }
+  }
+
+  /**
+   * The statistics order strings by their UTF-8 bytes, while a comparison
+   * with a Java string constant may order them by their UTF-16 chars. Both
+   * orders agree on which side of the constant a string falls as long as the
+   * constant has no char from the surrogates up.
+   */
+  private static boolean isBelowSurrogates(String s) {
+    for (int i = 0; i < s.length(); i++) {
+      if (s.charAt(i) >= Character.MIN_SURROGATE) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int compare(long a, long b) {
+    return a < b ? -1 : (a == b ? 0 : 1);
+  }
+}
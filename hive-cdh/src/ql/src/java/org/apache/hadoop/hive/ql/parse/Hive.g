@@ -244,6 +244,7 @@ TOK_TABSRC;
 TOK_INTIME;
 TOK_WITHMAXERROR;
 TOK_SAMPLE_WITH;
+TOK_CREATESAMPLE;
 }
 // sameerag: Added Time and Error tokens
 
@@ -309,6 +310,7 @@ ddlStatement
     | createFunctionStatement
     | createIndexStatement
     | dropIndexStatement
+    | createSampleStatement
     | dropFunctionStatement
     | analyzeStatement
     | lockStatement
@@ -482,6 +484,25 @@ indexPropertiesList
       keyValueProperty (COMMA keyValueProperty)* -> ^(TOK_INDEXPROPLIST keyValueProperty+)
     ;
 
+createSampleStatement
+@init { msgs.push("create sample statement");}
+@after {msgs.pop();}
+    : KW_CREATE sampleKeyword KW_FROM tab=Identifier
+      KW_ON LPAREN strataCols=columnNameList RPAREN
+      capKeyword cap=Number
+    ->^(TOK_CREATESAMPLE $tab $strataCols $cap)
+    ;
+
+// SAMPLE and CAP are not reserved words: tables and columns may still be
+// named after them
+sampleKeyword
+    : {input.LT(1).getText().equalsIgnoreCase("sample")}? Identifier
+    ;
+
+capKeyword
+    : {input.LT(1).getText().equalsIgnoreCase("cap")}? Identifier
+    ;
+
 dropIndexStatement
 @init { msgs.push("drop index statement");}
 @after {msgs.pop();}
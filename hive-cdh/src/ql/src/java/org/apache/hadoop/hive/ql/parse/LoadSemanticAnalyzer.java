@@ -257,15 +257,21 @@ public class LoadSemanticAnalyzer extends BaseSemanticAnalyzer {
     Task<? extends Serializable> rTask = null;
 
     // create copy work
-    if (isLocal) {
+    boolean sampled = ctx.executionFlag > 0;
+    if (isLocal || sampled) {
       // if the local keyword is specified - we will always make a copy. this
       // might seem redundant in the case
       // that the hive warehouse is also located in the local file system - but
       // that's just a test case.
+      // A sample is always copied too: the copy task samples the data, and
+      // leaves the source in place for the base table.
       String copyURIStr = ctx.getExternalTmpFileURI(toURI);
       URI copyURI = URI.create(copyURIStr);
-      rTask = TaskFactory.get(new CopyWork(fromURI.toString(), copyURIStr),
-          conf);
+      CopyWork copyWork = new CopyWork(fromURI.toString(), copyURIStr);
+      if (sampled) {
+        copyWork.setSampleTable(ts.tableName);
+      }
+      rTask = TaskFactory.get(copyWork, conf);
       fromURI = copyURI;
     }
 
@@ -18,6 +18,7 @@
 
 package org.apache.hadoop.hive.ql.parse;
 
+import java.util.Set;
 
 /**
  * Library of utility functions used in the parse code.
@@ -60,6 +61,43 @@ public final class ParseUtils {
     return tree;
   }
 
+  /**
+   * Collects the lower case names of the columns an expression refers to,
+   * either unqualified or qualified by the given alias.
+   *
+   * @param expr
+   *          the expression
+   * @param alias
+   *          the alias of the table whose columns are collected
+   * @param columns
+   *          the set the column names are added to
+   */
+  public static void getColumnReferences(ASTNode expr, String alias,
+      Set<String> columns) {
+    switch (expr.getToken().getType()) {
+    case HiveParser.TOK_TABLE_OR_COL:
+      columns.add(BaseSemanticAnalyzer.unescapeIdentifier(
+          expr.getChild(0).getText()).toLowerCase());
+      return;
+    case HiveParser.DOT:
+      ASTNode qualifier = (ASTNode) expr.getChild(0);
+      if (qualifier.getToken().getType() == HiveParser.TOK_TABLE_OR_COL) {
+        if (BaseSemanticAnalyzer.unescapeIdentifier(qualifier.getChild(0).getText())
+            .equalsIgnoreCase(alias)) {
+          columns.add(BaseSemanticAnalyzer.unescapeIdentifier(
+              expr.getChild(1).getText()).toLowerCase());
+        }
+        return;
+      }
+      break;
+    default:
+      break;
+    }
+    for (int i = 0; i < expr.getChildCount(); i++) {
+      getColumnReferences((ASTNode) expr.getChild(i), alias, columns);
+    }
+  }
+
   private ParseUtils() {
     // prevent instantiation
   }
@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.parse;
+
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.metastore.api.FieldSchema;
+import org.apache.hadoop.hive.ql.exec.Task;
+import org.apache.hadoop.hive.ql.exec.TaskFactory;
+import org.apache.hadoop.hive.ql.hooks.ReadEntity;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.metadata.Table;
+import org.apache.hadoop.hive.ql.plan.CreateSampleDesc;
+import org.apache.hadoop.hive.ql.plan.SampleWork;
+
+/**
+ * SampleSemanticAnalyzer.
+ *
+ * Analyzes CREATE SAMPLE FROM table ON (col, ...) CAP k, which builds a
+ * sample of the table keeping at most k rows of every distinct value of the
+ * columns.
+ */
+public class SampleSemanticAnalyzer extends BaseSemanticAnalyzer {
+  private static final Log LOG = LogFactory
+      .getLog("hive.ql.parse.SampleSemanticAnalyzer");
+
+  public SampleSemanticAnalyzer(HiveConf conf) throws SemanticException {
+    super(conf);
+  }
+
+  @Override
+  public void analyzeInternal(ASTNode ast) throws SemanticException {
+    if (ast.getToken().getType() == HiveParser.TOK_CREATESAMPLE) {
+      analyzeCreateSample(ast);
+    }
+
+    LOG.info("analyze done");
+  }
+
+  private void analyzeCreateSample(ASTNode ast) throws SemanticException {
+    String tableName = unescapeIdentifier(ast.getChild(0).getText());
+    List<String> strataCols = getColumnNames((ASTNode) ast.getChild(1));
+    ASTNode capNode = (ASTNode) ast.getChild(2);
+    long cap;
+    try {
+      cap = Long.parseLong(capNode.getText());
+    } catch (NumberFormatException e) {
+      throw new SemanticException(ErrorMsg.INVALID_NUMERICAL_CONSTANT.getMsg(capNode));
+    }
+    if (cap <= 0) {
+      throw new SemanticException(ErrorMsg.INVALID_NUMERICAL_CONSTANT.getMsg(capNode,
+          "the cap must be a positive number of rows"));
+    }
+
+    Table tab;
+    try {
+      tab = db.getTable(db.getCurrentDatabase(), tableName, false);
+    } catch (HiveException e) {
+      throw new SemanticException(ErrorMsg.INVALID_TABLE.getMsg(tableName), e);
+    }
+    if (tab == null || tab.isView()) {
+      throw new SemanticException(ErrorMsg.INVALID_TABLE.getMsg(tableName));
+    }
+    for (String col : strataCols) {
+      boolean found = false;
+      for (FieldSchema field : tab.getAllCols()) {
+        if (field.getName().equalsIgnoreCase(col)) {
+          found = true;
+          break;
+        }
+      }
+      if (!found) {
+        throw new SemanticException(ErrorMsg.INVALID_COLUMN.getMsg(col));
+      }
+    }
+    inputs.add(new ReadEntity(tab));
+
+    CreateSampleDesc desc = new CreateSampleDesc(tableName, strataCols, cap);
+    // the overload without child tasks, which needs no generic varargs array
+    Task<SampleWork> task = TaskFactory.get(SampleWork.class, conf);
+    task.setWork(new SampleWork(desc));
+    rootTasks.add(task);
+  }
+}
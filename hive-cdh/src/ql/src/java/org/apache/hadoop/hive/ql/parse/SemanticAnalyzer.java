@@ -20,7 +20,9 @@ package org.apache.hadoop.hive.ql.parse;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -33,6 +35,8 @@ import java.util.Map.Entry;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
+import org.antlr.runtime.CommonToken;
+
 import org.apache.commons.lang.StringUtils;
 import org.apache.hadoop.fs.ContentSummary;
 import org.apache.hadoop.fs.Path;
@@ -48,6 +52,8 @@ import org.apache.hadoop.hive.metastore.api.Order;
 import org.apache.hadoop.hive.ql.Context;
 import org.apache.hadoop.hive.ql.costmodel.CostModel;
 import org.apache.hadoop.hive.ql.costmodel.Bounds;
+import org.apache.hadoop.hive.ql.costmodel.SampleCatalog;
+import org.apache.hadoop.hive.ql.costmodel.SampleInfo;
 import org.apache.hadoop.hive.ql.exec.AbstractMapJoinOperator;
 import org.apache.hadoop.hive.ql.exec.ColumnInfo;
 import org.apache.hadoop.hive.ql.exec.ConditionalTask;
@@ -150,7 +156,9 @@ import org.apache.hadoop.hive.ql.plan.UnionDesc;
 import org.apache.hadoop.hive.ql.plan.FilterDesc.sampleDesc;
 import org.apache.hadoop.hive.ql.session.SessionState;
 import org.apache.hadoop.hive.ql.session.SessionState.ResourceType;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFBlbError;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFWithErrorEvaluator;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDFHash;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDTF;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.Mode;
@@ -6661,19 +6669,416 @@ public class SemanticAnalyzer extends BaseSemanticAnalyzer {
 	  
 	  WalkAST(ast, tableNameList, timeErrorBound);
 	  if (timeErrorBound.isInitialized()) {
-		  CostModel costModel = CostModel.getInstance();
-		  Iterator<ASTNode> iterator = tableNameList.iterator();
-		  while (iterator.hasNext()) {
-			  ASTNode tableNameNode = iterator.next();
-			  String sampledTableName = costModel.getSampledTableName(timeErrorBound.errorBound, timeErrorBound.timeBound);
-			  if (sampledTableName != null) {
-				  LOG.info("Replacing table [" + tableNameNode.token.getText() + "] with [" + sampledTableName + "]");
-				  tableNameNode.token.setText(sampledTableName);
-			  }
-		  }
+		  replaceTablesWithSamples(ast, tableNameList, timeErrorBound);
 	  }
   }
-  
+
+  /**
+   * Replace the tables of a bounded query with the samples the cost model, or
+   * the sample overrides of the context, select for them, and make the
+   * aggregates of the blocks that read a sample return their error. A table
+   * keeps its name as its alias, so that the columns it qualifies still
+   * resolve on the sample.
+   */
+  protected void replaceTablesWithSamples(ASTNode ast, List<ASTNode> tableNameList,
+      Bounds bounds) {
+    CostModel costModel = CostModel.getInstance();
+    SampleCatalog catalog = new SampleCatalog(db);
+    Map<ASTNode, ASTNode> tabRefs = new HashMap<ASTNode, ASTNode>();
+    Map<ASTNode, Set<String>> queryColumns = new HashMap<ASTNode, Set<String>>();
+    getTableReads(ast, tabRefs, queryColumns);
+
+    Map<ASTNode, Double> samplingRates = new HashMap<ASTNode, Double>();
+    Map<ASTNode, ASTNode> stratumRates = new HashMap<ASTNode, ASTNode>();
+    for (ASTNode tableNameNode : tableNameList) {
+      String tableName = unescapeIdentifier(tableNameNode.getText());
+      String sampledTableName = null;
+      try {
+        if (ctx.getSampleOverrides().containsKey(tableName)) {
+          sampledTableName = ctx.getSampleOverrides().get(tableName);
+        } else {
+          sampledTableName = costModel.getSampledTableName(catalog, tableName, bounds,
+              conf, queryColumns.get(tableNameNode));
+        }
+      } catch (HiveException e) {
+        LOG.warn("Sample lookup failed for table [" + tableName + "], using the full table: "
+            + org.apache.hadoop.util.StringUtils.stringifyException(e));
+      }
+      if (sampledTableName == null || sampledTableName.equals(tableName)) {
+        continue;
+      }
+      LOG.info("Replacing table [" + tableNameNode.getText() + "] with [" + sampledTableName + "]");
+      ASTNode tabRef = tabRefs.get(tableNameNode);
+      if (tabRef != null && getTabRefAlias(tabRef) == null) {
+        tabRef.addChild(new ASTNode(new CommonToken(HiveParser.Identifier,
+            tableNameNode.getText())));
+      }
+      tableNameNode.getToken().setText(sampledTableName);
+
+      SampleInfo sample = getSample(catalog, sampledTableName);
+      if (sample != null && sample.isStratified() && tabRef != null) {
+        ASTNode stratumRate = getStratumRate(sample, getTabRefAlias(tabRef).getText());
+        if (stratumRate != null) {
+          stratumRates.put(tableNameNode, stratumRate);
+          samplingRates.put(tableNameNode, 1.0);
+          continue;
+        }
+      }
+      samplingRates.put(tableNameNode, getSamplingRate(catalog, sampledTableName));
+    }
+    addErrorEstimates(ast, samplingRates, stratumRates);
+  }
+
+  private SampleInfo getSample(SampleCatalog catalog, String sampleTable) {
+    try {
+      return catalog.getSample(sampleTable);
+    } catch (HiveException e) {
+      LOG.warn("Unable to look up the sample " + sampleTable + ": "
+          + org.apache.hadoop.util.StringUtils.stringifyException(e));
+      return null;
+    }
+  }
+
+  protected double getSamplingRate(SampleCatalog catalog, String sampleTable) {
+    try {
+      SampleInfo sample = catalog.getSample(sampleTable);
+      return sample == null ? -1 : catalog.getSamplingRate(sample);
+    } catch (HiveException e) {
+      LOG.warn("Unable to get the sampling rate of " + sampleTable + ": "
+          + org.apache.hadoop.util.StringUtils.stringifyException(e));
+      return -1;
+    }
+  }
+
+  /**
+   * Collect the TOK_TABREF and the query columns, the lower case columns of
+   * the WHERE and GROUP BY clauses, of every table a query block reads
+   * directly, by its table name node.
+   */
+  private void getTableReads(ASTNode ast, Map<ASTNode, ASTNode> tabRefs,
+      Map<ASTNode, Set<String>> queryColumns) {
+    if (ast.getToken() != null && ast.getToken().getType() == HiveParser.TOK_QUERY) {
+      ASTNode from = (ASTNode) ast.getFirstChildWithType(HiveParser.TOK_FROM);
+      List<ASTNode> refs = new ArrayList<ASTNode>();
+      if (from != null) {
+        getTabRefs(from, refs);
+      }
+      for (ASTNode tabRef : refs) {
+        ASTNode tableNameNode = (ASTNode) tabRef.getChild(0).getChild(0);
+        ASTNode aliasNode = getTabRefAlias(tabRef);
+        String alias = unescapeIdentifier(aliasNode == null ? tableNameNode.getText()
+            : aliasNode.getText());
+        Set<String> columns = new HashSet<String>();
+        for (int i = 0; i < ast.getChildCount(); i++) {
+          ASTNode insert = (ASTNode) ast.getChild(i);
+          if (insert.getToken().getType() != HiveParser.TOK_INSERT) {
+            continue;
+          }
+          for (int j = 0; j < insert.getChildCount(); j++) {
+            ASTNode clause = (ASTNode) insert.getChild(j);
+            int type = clause.getToken().getType();
+            if (type == HiveParser.TOK_WHERE || type == HiveParser.TOK_GROUPBY) {
+              ParseUtils.getColumnReferences(clause, alias, columns);
+            }
+          }
+        }
+        tabRefs.put(tableNameNode, tabRef);
+        queryColumns.put(tableNameNode, columns);
+      }
+    }
+    for (int i = 0; i < ast.getChildCount(); i++) {
+      getTableReads((ASTNode) ast.getChild(i), tabRefs, queryColumns);
+    }
+  }
+
+  /**
+   * Collect the TOK_TABREFs of a FROM clause, but not those of its subqueries.
+   */
+  private static void getTabRefs(ASTNode source, List<ASTNode> tabRefs) {
+    switch (source.getToken().getType()) {
+    case HiveParser.TOK_TABREF:
+      tabRefs.add(source);
+      return;
+    case HiveParser.TOK_SUBQUERY:
+      return;
+    default:
+      for (int i = 0; i < source.getChildCount(); i++) {
+        getTabRefs((ASTNode) source.getChild(i), tabRefs);
+      }
+    }
+  }
+
+  /**
+   * @return the alias node of a TOK_TABREF, or null if it has none
+   */
+  private static ASTNode getTabRefAlias(ASTNode tabRef) {
+    ASTNode last = (ASTNode) tabRef.getChild(tabRef.getChildCount() - 1);
+    if (tabRef.getChildCount() > 1 && last.getToken().getType() == HiveParser.Identifier) {
+      return last;
+    }
+    return null;
+  }
+
+  /**
+   * @return the sampling rate of the rows of a stratified sample read under
+   *         the given alias, stratum_rate(location, alias.col1, ...) with the
+   *         location of its strata table, or null if the strata table is
+   *         missing
+   */
+  private ASTNode getStratumRate(SampleInfo sample, String alias) {
+    String location;
+    try {
+      Table strata = db.getTable(db.getCurrentDatabase(), sample.getStrataTable(), false);
+      if (strata == null) {
+        LOG.warn("The strata table " + sample.getStrataTable() + " of "
+            + sample.getSampleTable() + " is missing");
+        return null;
+      }
+      location = strata.getPath().toString();
+    } catch (HiveException e) {
+      LOG.warn("Unable to look up the strata table of " + sample.getSampleTable() + ": "
+          + org.apache.hadoop.util.StringUtils.stringifyException(e));
+      return null;
+    }
+    ASTNode function = new ASTNode(new CommonToken(HiveParser.TOK_FUNCTION, "TOK_FUNCTION"));
+    function.addChild(new ASTNode(new CommonToken(HiveParser.Identifier, "stratum_rate")));
+    function.addChild(new ASTNode(new CommonToken(HiveParser.StringLiteral,
+        "'" + location.replace("\\", "\\\\").replace("'", "\\'") + "'")));
+    for (String column : sample.getStrataColumns()) {
+      ASTNode tableOrCol = new ASTNode(new CommonToken(HiveParser.TOK_TABLE_OR_COL,
+          "TOK_TABLE_OR_COL"));
+      tableOrCol.addChild(new ASTNode(new CommonToken(HiveParser.Identifier, alias)));
+      ASTNode dot = new ASTNode(new CommonToken(HiveParser.DOT, "."));
+      dot.addChild(tableOrCol);
+      dot.addChild(new ASTNode(new CommonToken(HiveParser.Identifier, column)));
+      function.addChild(dot);
+    }
+    return function;
+  }
+
+  // the aggregates with error, and the most arguments they take besides the
+  // sampling rate and z
+  private static final Map<String, Integer> AGGREGATES_WITH_ERROR = new HashMap<String, Integer>();
+  static {
+    for (String aggregate : Arrays.asList("count", "sum", "avg", "variance", "var_pop")) {
+      AGGREGATES_WITH_ERROR.put(aggregate, 1);
+    }
+    AGGREGATES_WITH_ERROR.put("percentile_sketch", 3);
+  }
+
+  // the aggregates with error that only take one sampling rate for all rows
+  private static final Set<String> UNIFORM_AGGREGATES_WITH_ERROR =
+      new HashSet<String>(Arrays.asList("percentile_sketch"));
+
+  /**
+   * Make the aggregates of every query block that reads a sample return
+   * their estimate over the base table with its confidence interval: COUNT,
+   * SUM, AVG, VARIANCE and PERCENTILE_SKETCH are replaced by their internal
+   * aggregates with error, which take the sampling rate and the confidence z,
+   * e.g. sum(x) becomes sum#error(x, 0.01, 1.96). The rate of a block that joins
+   * several samples is the product of their rates. On a stratified sample
+   * the rate is the one of the stratum of each row, see stratum_rate, and
+   * PERCENTILE_SKETCH, which takes one rate for all rows, keeps its plain
+   * value. Blocks whose sampling rate is unknown keep their plain aggregates.
+   *
+   * @param samplingRates
+   *          the sampling rate of each table name node replaced by a sample,
+   *          or -1 if it is unknown
+   * @param stratumRates
+   *          the per row sampling rate of each table name node replaced by a
+   *          stratified sample
+   */
+  protected void addErrorEstimates(ASTNode ast, Map<ASTNode, Double> samplingRates,
+      Map<ASTNode, ASTNode> stratumRates) {
+    if (samplingRates.isEmpty()) {
+      return;
+    }
+    if (ast.getToken().getType() == HiveParser.TOK_QUERY) {
+      ASTNode from = (ASTNode) ast.getFirstChildWithType(HiveParser.TOK_FROM);
+      double rate = from == null ? 1.0 : getSamplingRate(from, samplingRates);
+      List<ASTNode> rowRates = new ArrayList<ASTNode>();
+      if (from != null) {
+        getStratumRates(from, stratumRates, rowRates);
+      }
+      if (rate > 0 && (rate < 1 || !rowRates.isEmpty())) {
+        String z = new BigDecimal(Float.toString(HiveConf.getFloatVar(conf,
+            HiveConf.ConfVars.QUICKSILVER_CONFIDENCE_Z))).toPlainString();
+        ASTNode rateNode = null;
+        if (rate < 1) {
+          rateNode = new ASTNode(new CommonToken(HiveParser.Number,
+              BigDecimal.valueOf(rate).toPlainString()));
+        }
+        for (ASTNode rowRate : rowRates) {
+          if (rateNode == null) {
+            rateNode = rowRate;
+          } else {
+            ASTNode product = new ASTNode(new CommonToken(HiveParser.STAR, "*"));
+            product.addChild(rateNode);
+            product.addChild(rowRate);
+            rateNode = product;
+          }
+        }
+        for (int i = 0; i < ast.getChildCount(); i++) {
+          ASTNode child = (ASTNode) ast.getChild(i);
+          if (child.getToken().getType() == HiveParser.TOK_INSERT) {
+            addErrorEstimates(child, rateNode, z);
+          }
+        }
+      } else if (rate < 0) {
+        LOG.info("Unknown sampling rate, the aggregates will not carry their error");
+      }
+    }
+    for (int i = 0; i < ast.getChildCount(); i++) {
+      addErrorEstimates((ASTNode) ast.getChild(i), samplingRates, stratumRates);
+    }
+  }
+
+  /**
+   * @return the product of the sampling rates of the tables the source reads
+   *         directly, 1 if it reads no sample, or -1 if a rate is unknown
+   */
+  private double getSamplingRate(ASTNode source, Map<ASTNode, Double> samplingRates) {
+    switch (source.getToken().getType()) {
+    case HiveParser.TOK_SUBQUERY:
+      return 1.0;
+    case HiveParser.TOK_TABNAME:
+      Double rate = samplingRates.get((ASTNode) source.getChild(0));
+      return rate == null ? 1.0 : rate.doubleValue();
+    default:
+      double rates = 1.0;
+      for (int i = 0; i < source.getChildCount(); i++) {
+        double childRate = getSamplingRate((ASTNode) source.getChild(i), samplingRates);
+        if (childRate < 0) {
+          return -1;
+        }
+        rates *= childRate;
+      }
+      return rates;
+    }
+  }
+
+  /**
+   * Collect the per row sampling rates of the stratified samples the source
+   * reads directly.
+   */
+  private static void getStratumRates(ASTNode source, Map<ASTNode, ASTNode> stratumRates,
+      List<ASTNode> rowRates) {
+    switch (source.getToken().getType()) {
+    case HiveParser.TOK_SUBQUERY:
+      return;
+    case HiveParser.TOK_TABNAME:
+      ASTNode rowRate = stratumRates.get((ASTNode) source.getChild(0));
+      if (rowRate != null) {
+        rowRates.add(rowRate);
+      }
+      return;
+    default:
+      for (int i = 0; i < source.getChildCount(); i++) {
+        getStratumRates((ASTNode) source.getChild(i), stratumRates, rowRates);
+      }
+    }
+  }
+
+  /**
+   * Make the aggregates a TOK_INSERT selects return their estimate with its
+   * error at the given sampling rate, a number.
+   */
+  protected void addErrorEstimates(ASTNode insert, String rate, String z) {
+    addErrorEstimates(insert, new ASTNode(new CommonToken(HiveParser.Number, rate)), z);
+  }
+
+  /**
+   * Make the aggregates a TOK_INSERT selects return their estimate with its
+   * error: sum(x) becomes sum#error(x, rate, z), which returns a struct of
+   * the estimate, its error and the confidence level. Only an aggregate that
+   * is a whole select expression is rewritten; those nested in an expression,
+   * and those of WHERE, HAVING, ORDER BY and SORT BY, keep their plain value.
+   *
+   * @param rate
+   *          the sampling rate expression, copied into every aggregate
+   */
+  private void addErrorEstimates(ASTNode insert, ASTNode rate, String z) {
+    for (int i = 0; i < insert.getChildCount(); i++) {
+      ASTNode select = (ASTNode) insert.getChild(i);
+      int type = select.getToken().getType();
+      if (type != HiveParser.TOK_SELECT && type != HiveParser.TOK_SELECTDI) {
+        continue;
+      }
+      for (int j = 0; j < select.getChildCount(); j++) {
+        ASTNode selExpr = (ASTNode) select.getChild(j);
+        if (selExpr.getToken().getType() == HiveParser.TOK_SELEXPR) {
+          addErrorEstimate((ASTNode) selExpr.getChild(0), rate, z);
+        }
+      }
+    }
+  }
+
+  private void addErrorEstimate(ASTNode function, ASTNode rate, String z) {
+    int type = function.getToken().getType();
+    if (type != HiveParser.TOK_FUNCTION && type != HiveParser.TOK_FUNCTIONSTAR) {
+      return;
+    }
+    ASTNode nameNode = (ASTNode) function.getChild(0);
+    String name = unescapeIdentifier(nameNode.getText()).toLowerCase();
+    Integer maxArguments = AGGREGATES_WITH_ERROR.get(name);
+    if (maxArguments == null || function.getChildCount() - 1 > maxArguments.intValue()) {
+      return;
+    }
+    if (rate.getToken().getType() != HiveParser.Number
+        && UNIFORM_AGGREGATES_WITH_ERROR.contains(name)) {
+      return;
+    }
+    if (type == HiveParser.TOK_FUNCTIONSTAR) {
+      // count(*) counts the rows, as does count(1)
+      function.getToken().setType(HiveParser.TOK_FUNCTION);
+      function.addChild(new ASTNode(new CommonToken(HiveParser.Number, "1")));
+    }
+    nameNode.getToken().setText(GenericUDAFWithErrorEvaluator.getWithErrorName(name));
+    function.addChild(copyTree(rate));
+    function.addChild(new ASTNode(new CommonToken(HiveParser.Number, z)));
+  }
+
+  private static ASTNode copyTree(ASTNode node) {
+    ASTNode copy = new ASTNode(new CommonToken(node.getToken()));
+    for (int i = 0; i < node.getChildCount(); i++) {
+      copy.addChild(copyTree((ASTNode) node.getChild(i)));
+    }
+    return copy;
+  }
+
+  /**
+   * Flatten the aggregate an outer blb_error() estimates into its arguments:
+   * blb_error(percentile(x, 0.9)) becomes blb_error('percentile', z, x, 0.9),
+   * with z the configured confidence z, since an aggregate cannot take
+   * another one as its argument.
+   */
+  protected void flattenBlbAggregates(ASTNode ast) throws SemanticException {
+    for (int i = 0; i < ast.getChildCount(); i++) {
+      ASTNode child = (ASTNode) ast.getChild(i);
+      if (child.getToken().getType() == HiveParser.TOK_FUNCTION
+          && child.getChild(0).getText().equalsIgnoreCase("blb_error")
+          && child.getChildCount() == 2
+          && ((ASTNode) child.getChild(1)).getToken().getType() == HiveParser.TOK_FUNCTION) {
+        ASTNode inner = (ASTNode) child.getChild(1);
+        String aggName = inner.getChild(0).getText();
+        if (GenericUDAFBlbError.Statistic.forAggregate(aggName) == null) {
+          throw new SemanticException(ErrorMsg.INVALID_FUNCTION_SIGNATURE.getMsg(
+              (ASTNode) inner.getChild(0), "blb_error does not support " + aggName));
+        }
+        String z = new BigDecimal(Float.toString(HiveConf.getFloatVar(conf,
+            HiveConf.ConfVars.QUICKSILVER_CONFIDENCE_Z))).toPlainString();
+        child.deleteChild(1);
+        child.addChild(new ASTNode(new CommonToken(HiveParser.StringLiteral,
+            "'" + aggName.toLowerCase() + "'")));
+        child.addChild(new ASTNode(new CommonToken(HiveParser.Number, z)));
+        for (int j = 1; j < inner.getChildCount(); j++) {
+          child.addChild(inner.getChild(j));
+        }
+      }
+      flattenBlbAggregates(child);
+    }
+  }
+
   /**
    * @name modifyQueryToCreateSample
    * @author sameerag
@@ -6722,6 +7127,7 @@ public class SemanticAnalyzer extends BaseSemanticAnalyzer {
      * filename. But this requires a little effort (needs significant
      * changes to the metastore code.
      */
+     flattenBlbAggregates(ast);
      replaceTableNameWithSampleName(ast);
      String assnew = ast.toStringTree(); // If you just see the value of this tree, the table name should have been replaced.
 
@@ -70,6 +70,7 @@ public final class SemanticAnalyzerFactory {
     commandType.put(HiveParser.TOK_DROPVIEW, HiveOperation.DROPVIEW);
     commandType.put(HiveParser.TOK_CREATEINDEX, HiveOperation.CREATEINDEX);
     commandType.put(HiveParser.TOK_DROPINDEX, HiveOperation.DROPINDEX);
+    commandType.put(HiveParser.TOK_CREATESAMPLE, HiveOperation.CREATESAMPLE);
     commandType.put(HiveParser.TOK_ALTERINDEX_REBUILD, HiveOperation.ALTERINDEX_REBUILD);
     commandType.put(HiveParser.TOK_ALTERINDEX_PROPERTIES, HiveOperation.ALTERINDEX_PROPS);
     commandType.put(HiveParser.TOK_ALTERVIEW_PROPERTIES, HiveOperation.ALTERVIEW_PROPERTIES);
@@ -172,6 +173,8 @@ public final class SemanticAnalyzerFactory {
       case HiveParser.TOK_CREATEFUNCTION:
       case HiveParser.TOK_DROPFUNCTION:
         return new FunctionSemanticAnalyzer(conf);
+      case HiveParser.TOK_CREATESAMPLE:
+        return new SampleSemanticAnalyzer(conf);
       default:
         return new SemanticAnalyzer(conf);
       }
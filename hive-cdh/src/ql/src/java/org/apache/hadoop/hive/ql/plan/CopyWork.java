@@ -29,6 +29,7 @@ public class CopyWork implements Serializable {
   private static final long serialVersionUID = 1L;
   private String fromPath;
   private String toPath;
+  private String sampleTable;
 
   public CopyWork() {
   }
@@ -55,4 +56,16 @@ public class CopyWork implements Serializable {
   public void setToPath(final String toPath) {
     this.toPath = toPath;
   }
+
+  /**
+   * @return the sample table the copy is sampled for, or null
+   */
+  @Explain(displayName = "sample")
+  public String getSampleTable() {
+    return sampleTable;
+  }
+
+  public void setSampleTable(final String sampleTable) {
+    this.sampleTable = sampleTable;
+  }
 }
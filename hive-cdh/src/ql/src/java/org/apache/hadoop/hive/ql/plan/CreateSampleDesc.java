@@ -0,0 +1,75 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.plan;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * CreateSampleDesc.
+ *
+ */
+@Explain(displayName = "Create Sample")
+public class CreateSampleDesc implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private String baseTable;
+  private List<String> strataColumns;
+  private long cap;
+
+  /**
+   * For serialization only.
+   */
+  public CreateSampleDesc() {
+  }
+
+  public CreateSampleDesc(String baseTable, List<String> strataColumns, long cap) {
+    this.baseTable = baseTable;
+    this.strataColumns = strataColumns;
+    this.cap = cap;
+  }
+
+  @Explain(displayName = "base table")
+  public String getBaseTable() {
+    return baseTable;
+  }
+
+  public void setBaseTable(String baseTable) {
+    this.baseTable = baseTable;
+  }
+
+  @Explain(displayName = "strata columns")
+  public List<String> getStrataColumns() {
+    return strataColumns;
+  }
+
+  public void setStrataColumns(List<String> strataColumns) {
+    this.strataColumns = strataColumns;
+  }
+
+  @Explain(displayName = "cap")
+  public long getCap() {
+    return cap;
+  }
+
+  public void setCap(long cap) {
+    this.cap = cap;
+  }
+
+}
@@ -57,6 +57,7 @@ public enum HiveOperation {
   DROPVIEW("DROPVIEW", null, null),
   CREATEINDEX("CREATEINDEX", null, null),
   DROPINDEX("DROPINDEX", null, null),
+  CREATESAMPLE("CREATESAMPLE", new Privilege[]{Privilege.SELECT}, new Privilege[]{Privilege.CREATE}),
   ALTERINDEX_REBUILD("ALTERINDEX_REBUILD", null, null),
   ALTERVIEW_PROPERTIES("ALTERVIEW_PROPERTIES", null, null),
   LOCKTABLE("LOCKTABLE",  new Privilege[]{Privilege.LOCK}, null),
@@ -430,7 +430,8 @@ public final class OpProcFactory {
 
   /**
    * Attempts to push a predicate down into a storage handler.  For
-   * native tables, this is a no-op.
+   * native tables, the predicate is only pushed down for the RCFile
+   * readers to skip row groups by, if hive.optimize.ppd.rcfile is on.
    *
    * @param tableScanOp table scan against which predicate applies
    *
@@ -453,6 +454,11 @@ public final class OpProcFactory {
     TableScanDesc tableScanDesc = tableScanOp.getConf();
     Table tbl = owi.getParseContext().getTopToTable().get(tableScanOp);
     if (!tbl.isNonNative()) {
+      if (hiveConf.getBoolVar(HiveConf.ConfVars.HIVEOPTPPD_RCFILE)) {
+        // RCFile readers skip row groups by the predicate, all of which is
+        // still evaluated by Hive
+        tableScanDesc.setFilterExpr(originalPredicate);
+      }
       return originalPredicate;
     }
     HiveStorageHandler storageHandler = tbl.getStorageHandler();
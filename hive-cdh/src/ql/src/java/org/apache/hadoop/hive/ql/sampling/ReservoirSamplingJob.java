@@ -0,0 +1,287 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.sampling;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reducer;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.RunningJob;
+import org.apache.hadoop.mapred.TextInputFormat;
+import org.apache.hadoop.mapred.TextOutputFormat;
+
+/**
+ * ReservoirSamplingJob.
+ *
+ * Uniform sample of the lines of a set of files, built by one MapReduce job.
+ * Every line draws a random key and the sample is the prefix of the lines in
+ * key order that fits the row and byte limits. Each map task keeps the
+ * smallest keys of its split that may still be in that prefix, so the
+ * reservoirs of all splits fill in parallel, and a single reducer, which
+ * gets the lines in key order, keeps the prefix. The merge is exact: every
+ * line of the global prefix is in the prefix of its own split.
+ *
+ * The sample is written as text files in the output directory, and the
+ * counters give the real number of lines read and sampled.
+ */
+public class ReservoirSamplingJob {
+
+  private static final Log LOG = LogFactory.getLog(ReservoirSamplingJob.class.getName());
+
+  public static final String MAX_ROWS = "quicksilver.sample.job.rows";
+  public static final String MAX_BYTES = "quicksilver.sample.job.bytes";
+
+  /**
+   * Counters of the sampling job.
+   */
+  public static enum Counter {
+    INPUT_ROWS, SAMPLE_ROWS, SAMPLE_BYTES
+  }
+
+  /**
+   * Rows and bytes of the sample and of its input.
+   */
+  public static class Result {
+    private final long inputRows;
+    private final long sampleRows;
+    private final long sampleBytes;
+
+    public Result(long inputRows, long sampleRows, long sampleBytes) {
+      this.inputRows = inputRows;
+      this.sampleRows = sampleRows;
+      this.sampleBytes = sampleBytes;
+    }
+
+    public long getInputRows() {
+      return inputRows;
+    }
+
+    public long getSampleRows() {
+      return sampleRows;
+    }
+
+    public long getSampleBytes() {
+      return sampleBytes;
+    }
+
+    /**
+     * @return the fraction of the input rows in the sample
+     */
+    public double getSamplingRate() {
+      return inputRows == 0 ? 1.0 : ((double) sampleRows) / inputRows;
+    }
+  }
+
+  /**
+   * A line and its random key.
+   */
+  static class KeyedLine implements Comparable<KeyedLine> {
+    final long key;
+    final Text line;
+
+    KeyedLine(long key, Text line) {
+      this.key = key;
+      this.line = line;
+    }
+
+    public int compareTo(KeyedLine other) {
+      return key < other.key ? -1 : (key == other.key ? 0 : 1);
+    }
+  }
+
+  /**
+   * Keeps the lines of the split with the smallest keys until the lines
+   * before the largest kept key reach the row or the byte limit.
+   */
+  public static class SampleMapper extends MapReduceBase implements
+      Mapper<LongWritable, Text, LongWritable, Text> {
+
+    private final Random random = new Random();
+    private final PriorityQueue<KeyedLine> reservoir = new PriorityQueue<KeyedLine>(
+        16, Collections.reverseOrder());
+    private long maxRows;
+    private long maxBytes;
+    private long bytes;
+    private OutputCollector<LongWritable, Text> output;
+
+    @Override
+    public void configure(JobConf job) {
+      maxRows = job.getLong(MAX_ROWS, Long.MAX_VALUE);
+      maxBytes = job.getLong(MAX_BYTES, Long.MAX_VALUE);
+    }
+
+    public void map(LongWritable offset, Text line,
+        OutputCollector<LongWritable, Text> output, Reporter reporter)
+        throws IOException {
+      this.output = output;
+      reporter.incrCounter(Counter.INPUT_ROWS, 1);
+      // keys are non negative so that they sort as the raw comparator does
+      long key = random.nextLong() >>> 1;
+      if (isFull() && key >= reservoir.peek().key) {
+        return;
+      }
+      reservoir.add(new KeyedLine(key, new Text(line)));
+      bytes += line.getLength() + 1;
+      while (canDropLargest()) {
+        bytes -= reservoir.poll().line.getLength() + 1;
+      }
+    }
+
+    private boolean isFull() {
+      return !reservoir.isEmpty() && (reservoir.size() >= maxRows || bytes >= maxBytes);
+    }
+
+    private boolean canDropLargest() {
+      return !reservoir.isEmpty() && (reservoir.size() - 1 >= maxRows
+          || bytes - (reservoir.peek().line.getLength() + 1) >= maxBytes);
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (output == null) {
+        return;
+      }
+      LongWritable key = new LongWritable();
+      for (KeyedLine keyed : reservoir) {
+        key.set(keyed.key);
+        output.collect(key, keyed.line);
+      }
+      reservoir.clear();
+    }
+  }
+
+  /**
+   * Keeps the prefix of the lines in key order that fits the limits.
+   */
+  public static class SampleReducer extends MapReduceBase implements
+      Reducer<LongWritable, Text, NullWritable, Text> {
+
+    private long maxRows;
+    private long maxBytes;
+    private long rows;
+    private long bytes;
+
+    @Override
+    public void configure(JobConf job) {
+      maxRows = job.getLong(MAX_ROWS, Long.MAX_VALUE);
+      maxBytes = job.getLong(MAX_BYTES, Long.MAX_VALUE);
+    }
+
+    public void reduce(LongWritable key, Iterator<Text> lines,
+        OutputCollector<NullWritable, Text> output, Reporter reporter)
+        throws IOException {
+      while (lines.hasNext() && rows < maxRows && bytes < maxBytes) {
+        Text line = lines.next();
+        output.collect(NullWritable.get(), line);
+        rows++;
+        bytes += line.getLength() + 1;
+        reporter.incrCounter(Counter.SAMPLE_ROWS, 1);
+        reporter.incrCounter(Counter.SAMPLE_BYTES, line.getLength() + 1);
+      }
+    }
+  }
+
+  /**
+   * @return the sample size in bytes configured for the given sampling level
+   */
+  public static long getSampleBytes(Configuration conf, int samplingLevel) {
+    HiveConf.ConfVars var;
+    switch (samplingLevel) {
+    case 1:
+      var = HiveConf.ConfVars.SAMPLE_SIZE_LEVEL_1;
+      break;
+    case 2:
+      var = HiveConf.ConfVars.SAMPLE_SIZE_LEVEL_2;
+      break;
+    case 3:
+      var = HiveConf.ConfVars.SAMPLE_SIZE_LEVEL_3;
+      break;
+    case 4:
+      var = HiveConf.ConfVars.SAMPLE_SIZE_LEVEL_4;
+      break;
+    default:
+      var = HiveConf.ConfVars.SAMPLE_SIZE_LEVEL_5;
+      break;
+    }
+    return HiveConf.getIntVar(conf, var) * 1024L * 1024L;
+  }
+
+  /**
+   * Sample the lines of the input files into text files in the output
+   * directory, which must not exist yet.
+   *
+   * @param maxRows
+   *          the most rows in the sample
+   * @param maxBytes
+   *          the sample stops at the first row that reaches this size
+   */
+  public static Result run(Configuration conf, Path[] inputs, Path output,
+      long maxRows, long maxBytes) throws IOException {
+    JobConf job = new JobConf(conf, ReservoirSamplingJob.class);
+    job.setJobName("sample " + output.getName());
+    job.setLong(MAX_ROWS, maxRows);
+    job.setLong(MAX_BYTES, maxBytes);
+
+    job.setInputFormat(TextInputFormat.class);
+    FileInputFormat.setInputPaths(job, inputs);
+    job.setMapperClass(SampleMapper.class);
+    job.setMapOutputKeyClass(LongWritable.class);
+    job.setMapOutputValueClass(Text.class);
+    // the exact merge needs all the reservoirs in one reducer
+    job.setNumReduceTasks(1);
+    job.setReducerClass(SampleReducer.class);
+    job.setOutputKeyClass(NullWritable.class);
+    job.setOutputValueClass(Text.class);
+    job.setOutputFormat(TextOutputFormat.class);
+    FileOutputFormat.setOutputPath(job, output);
+    // the output directory becomes the table data: no history or marker
+    // files in it
+    job.set("hadoop.job.history.user.location", "none");
+    job.setBoolean("mapreduce.fileoutputcommitter.marksuccessfuljobs", false);
+
+    RunningJob rj = JobClient.runJob(job);
+    Counters counters = rj.getCounters();
+    Result result = new Result(counters.getCounter(Counter.INPUT_ROWS),
+        counters.getCounter(Counter.SAMPLE_ROWS),
+        counters.getCounter(Counter.SAMPLE_BYTES));
+    LOG.info("Sampled " + result.getSampleRows() + " of " + result.getInputRows()
+        + " rows into " + output);
+    return result;
+  }
+}
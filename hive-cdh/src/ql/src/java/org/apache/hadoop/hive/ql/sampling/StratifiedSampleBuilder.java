@@ -0,0 +1,237 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.sampling;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.metastore.TableType;
+import org.apache.hadoop.hive.metastore.api.FieldSchema;
+import org.apache.hadoop.hive.ql.costmodel.SampleCatalog;
+import org.apache.hadoop.hive.ql.costmodel.SampleInfo;
+import org.apache.hadoop.hive.ql.io.HiveIgnoreKeyTextOutputFormat;
+import org.apache.hadoop.hive.ql.metadata.Hive;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.metadata.Table;
+import org.apache.hadoop.hive.serde.Constants;
+import org.apache.hadoop.hive.serde2.lazy.LazySimpleSerDe;
+import org.apache.hadoop.mapred.TextInputFormat;
+import org.apache.hadoop.util.StringUtils;
+
+/**
+ * StratifiedSampleBuilder.
+ *
+ * Builds a stratified sample of a table: at most cap rows of every distinct
+ * value of the strata columns, picked uniformly at random within the
+ * stratum. Rare strata are kept whole, so the groups of a GROUP BY on the
+ * strata columns survive in the sample. The sample is built by one
+ * {@link StratifiedSamplingJob}, which writes two tables:
+ *
+ * <ul>
+ * <li>the sample table, with the definition of the base table;</li>
+ * <li>the strata table, with the base table row count and the sampling rate
+ * min(1, cap / rows) of every stratum, so that aggregates on the sample can
+ * be reweighted per stratum.</li>
+ * </ul>
+ *
+ * The sample is registered in the {@link SampleCatalog} as
+ * <base>_sample_<n>, and its strata table is <base>_strata_<n>. If any step
+ * fails, both tables are dropped again. Only unpartitioned text tables can
+ * be sampled.
+ */
+public class StratifiedSampleBuilder {
+
+  private static final Log LOG = LogFactory.getLog(StratifiedSampleBuilder.class.getName());
+
+  public static final String STRATA_TABLE_INFIX = "_strata_";
+  public static final String ROWS_COLUMN = "total_rows";
+  public static final String RATE_COLUMN = "rate";
+
+  private final HiveConf conf;
+  private final Hive db;
+
+  public StratifiedSampleBuilder(HiveConf conf, Hive db) {
+    this.conf = conf;
+    this.db = db;
+  }
+
+  /**
+   * Build a stratified sample of the base table and register it.
+   *
+   * @param tmpPath
+   *          a scratch directory for the output of the sampling job, which is
+   *          deleted afterwards
+   * @return the catalog entry of the new sample
+   */
+  public SampleInfo build(String baseTable, List<String> strataColumns,
+      long cap, Path tmpPath) throws HiveException {
+    Table base = db.getTable(baseTable);
+    checkSampleable(base);
+    Properties schema = base.getSchema();
+    char delim = (char) LazySimpleSerDe.getByte(schema.getProperty(Constants.FIELD_DELIM,
+        schema.getProperty(Constants.SERIALIZATION_FORMAT)),
+        LazySimpleSerDe.DefaultSeparators[0]);
+    String nullFormat = schema.getProperty(Constants.SERIALIZATION_NULL_FORMAT, "\\N");
+
+    List<Integer> positions = new ArrayList<Integer>();
+    List<FieldSchema> strataFields = new ArrayList<FieldSchema>();
+    List<FieldSchema> cols = base.getCols();
+    for (String col : strataColumns) {
+      int pos = getPosition(cols, col);
+      if (pos < 0) {
+        throw new HiveException("Unknown strata column " + col + " in " + baseTable);
+      }
+      positions.add(pos);
+      strataFields.add(new FieldSchema(cols.get(pos)));
+    }
+    List<String> strataTypes = new ArrayList<String>();
+    for (FieldSchema field : strataFields) {
+      strataTypes.add(field.getType());
+    }
+
+    SampleCatalog catalog = new SampleCatalog(db);
+    String sampleTable = catalog.nextSampleTable(baseTable);
+    String strataTable = baseTable + STRATA_TABLE_INFIX
+        + sampleTable.substring(sampleTable.lastIndexOf(SampleCatalog.SAMPLE_TABLE_INFIX)
+        + SampleCatalog.SAMPLE_TABLE_INFIX.length());
+
+    boolean built = false;
+    try {
+      Path samplePath = createSampleTable(base, sampleTable);
+      Path strataPath = createStrataTable(base.getDbName(), strataTable, strataFields);
+
+      LOG.info("Sampling " + baseTable + " by " + strataColumns + " into " + sampleTable);
+      StratifiedSamplingJob.Result result = StratifiedSamplingJob.run(conf,
+          new Path[] {base.getPath()}, tmpPath, positions, strataTypes, delim,
+          nullFormat, cap);
+      FileSystem fs = tmpPath.getFileSystem(conf);
+      moveFiles(fs, tmpPath, "part-", samplePath);
+      moveFiles(fs, tmpPath, StratifiedSamplingJob.STRATA_OUTPUT + "-", strataPath);
+
+      SampleInfo info = new SampleInfo(baseTable, sampleTable);
+      info.setStrataColumns(strataColumns);
+      info.setStrataCap(cap);
+      info.setStrataTable(strataTable);
+      info.setRowCount(result.getSampleRows());
+      info.setSampleSize(result.getSampleBytes());
+      catalog.registerSample(info);
+      LOG.info(sampleTable + ": " + result.getStrata() + " strata, "
+          + result.getSampleRows() + " of " + result.getInputRows() + " rows");
+      built = true;
+      return info;
+    } catch (IOException e) {
+      throw new HiveException("Failed to sample " + baseTable, e);
+    } finally {
+      if (!built) {
+        dropTable(base.getDbName(), sampleTable);
+        dropTable(base.getDbName(), strataTable);
+      }
+      deleteTmpPath(tmpPath);
+    }
+  }
+
+  private static void checkSampleable(Table base) throws HiveException {
+    if (base.isView() || base.isPartitioned()
+        || !TextInputFormat.class.equals(base.getInputFormatClass())
+        || !LazySimpleSerDe.class.getName().equals(base.getSerializationLib())) {
+      throw new HiveException("Only unpartitioned text tables can be sampled: "
+          + base.getTableName());
+    }
+  }
+
+  private static int getPosition(List<FieldSchema> cols, String col) {
+    for (int i = 0; i < cols.size(); i++) {
+      if (cols.get(i).getName().equalsIgnoreCase(col)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Create an empty managed table with the definition of the base table.
+   *
+   * @return the location of the new table
+   */
+  private Path createSampleTable(Table base, String sampleTable) throws HiveException {
+    Table tbl = base.copy();
+    tbl.setTableName(sampleTable);
+    tbl.unsetDataLocation();
+    tbl.setTableType(TableType.MANAGED_TABLE);
+    tbl.getParameters().clear();
+    db.createTable(tbl);
+    return db.getTable(base.getDbName(), sampleTable).getPath();
+  }
+
+  /**
+   * Create an empty text table of the strata values, row counts and sampling
+   * rates, in the format written by the sampling job.
+   *
+   * @return the location of the new table
+   */
+  private Path createStrataTable(String dbName, String strataTable,
+      List<FieldSchema> strataFields) throws HiveException {
+    Table tbl = db.newTable(dbName + "." + strataTable);
+    List<FieldSchema> fields = new ArrayList<FieldSchema>(strataFields);
+    fields.add(new FieldSchema(ROWS_COLUMN, Constants.BIGINT_TYPE_NAME, null));
+    fields.add(new FieldSchema(RATE_COLUMN, Constants.DOUBLE_TYPE_NAME, null));
+    tbl.setFields(fields);
+    tbl.setSerializationLib(LazySimpleSerDe.class.getName());
+    tbl.setInputFormatClass(TextInputFormat.class);
+    tbl.setOutputFormatClass(HiveIgnoreKeyTextOutputFormat.class);
+    db.createTable(tbl);
+    return db.getTable(dbName, strataTable).getPath();
+  }
+
+  private static void moveFiles(FileSystem fs, Path from, String prefix, Path to)
+      throws IOException {
+    fs.mkdirs(to);
+    for (FileStatus file : fs.listStatus(from)) {
+      String name = file.getPath().getName();
+      if (name.startsWith(prefix) && !fs.rename(file.getPath(), new Path(to, name))) {
+        throw new IOException("Unable to move " + file.getPath() + " to " + to);
+      }
+    }
+  }
+
+  private void dropTable(String dbName, String table) {
+    try {
+      db.dropTable(dbName, table, true, true);
+    } catch (HiveException e) {
+      LOG.warn("Unable to drop " + table + " after a failed sample: "
+          + StringUtils.stringifyException(e));
+    }
+  }
+
+  private void deleteTmpPath(Path tmpPath) {
+    try {
+      tmpPath.getFileSystem(conf).delete(tmpPath, true);
+    } catch (IOException e) {
+      LOG.warn("Unable to delete " + tmpPath + ": " + e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,360 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.sampling;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.serde.Constants;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reducer;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.RunningJob;
+import org.apache.hadoop.mapred.TextInputFormat;
+import org.apache.hadoop.mapred.TextOutputFormat;
+import org.apache.hadoop.mapred.lib.MultipleOutputs;
+
+/**
+ * StratifiedSamplingJob.
+ *
+ * Stratified sample of the rows of a text table, built by one MapReduce job.
+ * The map tasks key every line by the values of its strata columns, so that
+ * the rows of a stratum meet in one reduce call, which keeps a uniform
+ * reservoir of at most cap of them and counts them all. Next to the sample,
+ * the reducers write one line per stratum as a named output: the strata
+ * values, the row count of the stratum and its sampling rate min(1, cap /
+ * rows), in the default text format of a Hive table.
+ *
+ * The strata values are written in the form Hive prints them in, so that
+ * they compare equal to the values of the sample rows once Hive has read
+ * them: numbers are normalized and unreadable ones become NULL.
+ */
+public class StratifiedSamplingJob {
+
+  private static final Log LOG = LogFactory.getLog(StratifiedSamplingJob.class.getName());
+
+  public static final String STRATA_COLUMNS = "quicksilver.sample.job.strata";
+  public static final String STRATA_TYPES = "quicksilver.sample.job.strata.types";
+  public static final String CAP = "quicksilver.sample.job.cap";
+  public static final String FIELD_DELIM = "quicksilver.sample.job.delim";
+  public static final String NULL_FORMAT = "quicksilver.sample.job.null";
+
+  /** The named output of the strata, whose files are strata-r-<n>. */
+  public static final String STRATA_OUTPUT = "strata";
+  /** The field separator and NULL of the strata lines. */
+  public static final char STRATA_DELIM = '\001';
+  public static final String STRATA_NULL = "\\N";
+
+  /**
+   * Counters of the sampling job.
+   */
+  public static enum Counter {
+    INPUT_ROWS, SAMPLE_ROWS, SAMPLE_BYTES, STRATA
+  }
+
+  /**
+   * Rows and bytes of the sample and of its input.
+   */
+  public static class Result {
+    private final long inputRows;
+    private final long sampleRows;
+    private final long sampleBytes;
+    private final long strata;
+
+    public Result(long inputRows, long sampleRows, long sampleBytes, long strata) {
+      this.inputRows = inputRows;
+      this.sampleRows = sampleRows;
+      this.sampleBytes = sampleBytes;
+      this.strata = strata;
+    }
+
+    public long getInputRows() {
+      return inputRows;
+    }
+
+    public long getSampleRows() {
+      return sampleRows;
+    }
+
+    public long getSampleBytes() {
+      return sampleBytes;
+    }
+
+    public long getStrata() {
+      return strata;
+    }
+  }
+
+  /**
+   * Keys every line by the values of its strata columns.
+   */
+  public static class StrataMapper extends MapReduceBase implements
+      Mapper<LongWritable, Text, Text, Text> {
+
+    private int[] columns;
+    private String[] types;
+    private char delim;
+    private String nullFormat;
+    private final Text key = new Text();
+
+    @Override
+    public void configure(JobConf job) {
+      String[] ids = job.get(STRATA_COLUMNS).split(",");
+      columns = new int[ids.length];
+      for (int i = 0; i < ids.length; i++) {
+        columns[i] = Integer.parseInt(ids[i]);
+      }
+      types = job.get(STRATA_TYPES).split(",");
+      delim = (char) job.getInt(FIELD_DELIM, STRATA_DELIM);
+      nullFormat = job.get(NULL_FORMAT, STRATA_NULL);
+    }
+
+    public void map(LongWritable offset, Text line,
+        OutputCollector<Text, Text> output, Reporter reporter)
+        throws IOException {
+      reporter.incrCounter(Counter.INPUT_ROWS, 1);
+      key.set(getStratum(line.toString(), columns, types, delim, nullFormat));
+      output.collect(key, line);
+    }
+  }
+
+  /**
+   * @return the strata values of a line, separated by {@link #STRATA_DELIM}
+   */
+  static String getStratum(String line, int[] columns, String[] types,
+      char delim, String nullFormat) {
+    List<String> fields = split(line, delim);
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < columns.length; i++) {
+      if (i > 0) {
+        sb.append(STRATA_DELIM);
+      }
+      String value = columns[i] < fields.size() ? fields.get(columns[i]) : null;
+      if (value != null && value.equals(nullFormat)) {
+        value = null;
+      }
+      value = normalize(value, types[i]);
+      sb.append(value == null ? STRATA_NULL : value);
+    }
+    return sb.toString();
+  }
+
+  private static List<String> split(String line, char delim) {
+    List<String> fields = new ArrayList<String>();
+    int start = 0;
+    for (int i = 0; i < line.length(); i++) {
+      if (line.charAt(i) == delim) {
+        fields.add(line.substring(start, i));
+        start = i + 1;
+      }
+    }
+    fields.add(line.substring(start));
+    return fields;
+  }
+
+  /**
+   * @return the value as Hive prints it once read as the given type, or null
+   *         if Hive reads it as NULL
+   */
+  static String normalize(String value, String type) {
+    if (value == null) {
+      return null;
+    }
+    try {
+      if (type.equals(Constants.TINYINT_TYPE_NAME)) {
+        return Byte.toString(Byte.parseByte(value));
+      } else if (type.equals(Constants.SMALLINT_TYPE_NAME)) {
+        return Short.toString(Short.parseShort(value));
+      } else if (type.equals(Constants.INT_TYPE_NAME)) {
+        return Integer.toString(Integer.parseInt(value));
+      } else if (type.equals(Constants.BIGINT_TYPE_NAME)) {
+        return Long.toString(Long.parseLong(value));
+      } else if (type.equals(Constants.FLOAT_TYPE_NAME)) {
+        return Float.toString(Float.parseFloat(value));
+      } else if (type.equals(Constants.DOUBLE_TYPE_NAME)) {
+        return Double.toString(Double.parseDouble(value));
+      } else if (type.equals(Constants.BOOLEAN_TYPE_NAME)) {
+        if (value.equalsIgnoreCase("true")) {
+          return "true";
+        }
+        return value.equalsIgnoreCase("false") ? "false" : null;
+      }
+    } catch (NumberFormatException e) {
+      return null;
+    }
+    return value;
+  }
+
+  /**
+   * Keeps a uniform reservoir of at most cap rows of every stratum, and
+   * writes the row count and sampling rate of the stratum.
+   */
+  public static class StrataReducer extends MapReduceBase implements
+      Reducer<Text, Text, NullWritable, Text> {
+
+    private final Random random = new Random();
+    private final List<Text> reservoir = new ArrayList<Text>();
+    private final Text stratum = new Text();
+    private long cap;
+    private MultipleOutputs strataOutput;
+
+    @Override
+    public void configure(JobConf job) {
+      cap = job.getLong(CAP, 1);
+      strataOutput = new MultipleOutputs(job);
+    }
+
+    @SuppressWarnings("unchecked")
+    public void reduce(Text key, Iterator<Text> lines,
+        OutputCollector<NullWritable, Text> output, Reporter reporter)
+        throws IOException {
+      reservoir.clear();
+      long rows = 0;
+      while (lines.hasNext()) {
+        Text line = lines.next();
+        rows++;
+        if (reservoir.size() < cap) {
+          reservoir.add(new Text(line));
+        } else {
+          long k = (long) (random.nextDouble() * rows);
+          if (k < cap) {
+            reservoir.get((int) k).set(line);
+          }
+        }
+      }
+      for (Text line : reservoir) {
+        output.collect(NullWritable.get(), line);
+        reporter.incrCounter(Counter.SAMPLE_BYTES, line.getLength() + 1);
+      }
+      reporter.incrCounter(Counter.SAMPLE_ROWS, reservoir.size());
+      reporter.incrCounter(Counter.STRATA, 1);
+
+      double rate = rows > cap ? ((double) cap) / rows : 1.0;
+      stratum.set(key.toString() + STRATA_DELIM + rows + STRATA_DELIM + rate);
+      strataOutput.getCollector(STRATA_OUTPUT, reporter).collect(NullWritable.get(), stratum);
+    }
+
+    @Override
+    public void close() throws IOException {
+      strataOutput.close();
+    }
+  }
+
+  /**
+   * Sample the lines of the input files into text files in the output
+   * directory, which must not exist yet: the sample in part-<n> files and
+   * the strata in strata-r-<n> files.
+   *
+   * @param strataColumns
+   *          the positions of the strata columns in a line
+   * @param strataTypes
+   *          the Hive types of the strata columns
+   * @param delim
+   *          the field separator of the lines
+   * @param nullFormat
+   *          the text of a NULL field
+   * @param cap
+   *          the most rows kept per stratum
+   */
+  public static Result run(Configuration conf, Path[] inputs, Path output,
+      List<Integer> strataColumns, List<String> strataTypes, char delim,
+      String nullFormat, long cap) throws IOException {
+    JobConf job = new JobConf(conf, StratifiedSamplingJob.class);
+    job.setJobName("stratified sample " + output.getName());
+    StringBuilder columns = new StringBuilder();
+    StringBuilder types = new StringBuilder();
+    for (int i = 0; i < strataColumns.size(); i++) {
+      if (i > 0) {
+        columns.append(',');
+        types.append(',');
+      }
+      columns.append(strataColumns.get(i));
+      types.append(strataTypes.get(i));
+    }
+    job.set(STRATA_COLUMNS, columns.toString());
+    job.set(STRATA_TYPES, types.toString());
+    job.setInt(FIELD_DELIM, delim);
+    job.set(NULL_FORMAT, nullFormat);
+    job.setLong(CAP, cap);
+
+    job.setInputFormat(TextInputFormat.class);
+    FileInputFormat.setInputPaths(job, inputs);
+    job.setMapperClass(StrataMapper.class);
+    job.setMapOutputKeyClass(Text.class);
+    job.setMapOutputValueClass(Text.class);
+    // the strata are sampled independently, so they can spread over as many
+    // reducers as a Hive query over the same input would get
+    job.setNumReduceTasks(estimateNumberOfReducers(conf, inputs));
+    job.setReducerClass(StrataReducer.class);
+    job.setOutputKeyClass(NullWritable.class);
+    job.setOutputValueClass(Text.class);
+    job.setOutputFormat(TextOutputFormat.class);
+    MultipleOutputs.addNamedOutput(job, STRATA_OUTPUT, TextOutputFormat.class,
+        NullWritable.class, Text.class);
+    FileOutputFormat.setOutputPath(job, output);
+    job.set("hadoop.job.history.user.location", "none");
+    job.setBoolean("mapreduce.fileoutputcommitter.marksuccessfuljobs", false);
+
+    RunningJob rj = JobClient.runJob(job);
+    Counters counters = rj.getCounters();
+    Result result = new Result(counters.getCounter(Counter.INPUT_ROWS),
+        counters.getCounter(Counter.SAMPLE_ROWS),
+        counters.getCounter(Counter.SAMPLE_BYTES),
+        counters.getCounter(Counter.STRATA));
+    LOG.info("Sampled " + result.getSampleRows() + " of " + result.getInputRows()
+        + " rows in " + result.getStrata() + " strata into " + output);
+    return result;
+  }
+
+  /**
+   * Estimate the number of reducers from the size of the input, as
+   * MapRedTask does for a query.
+   */
+  private static int estimateNumberOfReducers(Configuration conf, Path[] inputs)
+      throws IOException {
+    long bytesPerReducer = HiveConf.getLongVar(conf, HiveConf.ConfVars.BYTESPERREDUCER);
+    int maxReducers = HiveConf.getIntVar(conf, HiveConf.ConfVars.MAXREDUCERS);
+    long totalInputFileSize = 0;
+    for (Path input : inputs) {
+      totalInputFileSize += input.getFileSystem(conf).getContentSummary(input).getLength();
+    }
+    int reducers = (int) ((totalInputFileSize + bytesPerReducer - 1) / bytesPerReducer);
+    reducers = Math.max(1, reducers);
+    reducers = Math.min(maxReducers, reducers);
+    return reducers;
+  }
+}
@@ -0,0 +1,565 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.DoubleObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.LongObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
+import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * GenericUDAFBlbError.
+ *
+ * Estimates the error of aggregates that have no closed-form confidence
+ * interval with the Bag of Little Bootstraps (Kleiner et al., "A Scalable
+ * Bootstrap for Massive Data"). Every row falls into one of s bags at random,
+ * so each bag is a uniform sample of about n / s of the rows whichever
+ * partial reads them. A bag is summarized by a mergeable quantile sketch,
+ * and the partials ship and merge their sketches bag by bag, never rows. The
+ * final aggregation bootstraps each bag of b rows with independent
+ * Poisson(n / b) weights on the items of its sketch: the Poissonized form of
+ * drawing n rows with replacement out of the bag, so every resample stands
+ * for all n rows and the error needs no rescaling. The errors of the bags are
+ * averaged.
+ *
+ * The estimate itself does not come from the bags: avg, variance and stddev
+ * are computed from the exact running count, mean and sum of squared
+ * deviations of all the rows, and percentile from the union of the bags.
+ *
+ * The query form blb_error(percentile(x, 0.9)) is flattened by the semantic
+ * analyzer into blb_error('percentile', z, x, 0.9).
+ */
+@Description(name = "blb_error",
+    value = "_FUNC_(agg(x[, p])) - Returns the aggregate and its error estimated with the "
+    + "Bag of Little Bootstraps. agg is one of avg, variance, stddev and percentile.")
+public class GenericUDAFBlbError extends AbstractGenericUDAFResolver {
+
+  static final Log LOG = LogFactory.getLog(GenericUDAFBlbError.class.getName());
+
+  public static final int NUM_BAGS = 10;
+  public static final int NUM_BOOTSTRAPS = 50;
+  // accuracy of the sketch of a bag, which keeps about 3 times as many items
+  public static final int BAG_SKETCH_K = 1000;
+
+  /**
+   * Statistics blb_error can bootstrap. Each one is evaluated on sorted
+   * values weighted by how many rows they stand for, n being the sum of the
+   * weights.
+   */
+  public static enum Statistic {
+    AVG {
+      @Override
+      double evaluate(double[] values, int size, long[] weights, long n, double p) {
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+          sum += weights[i] * values[i];
+        }
+        return sum / n;
+      }
+    },
+    VARIANCE {
+      @Override
+      double evaluate(double[] values, int size, long[] weights, long n, double p) {
+        double mean = AVG.evaluate(values, size, weights, n, p);
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+          double d = values[i] - mean;
+          sum += weights[i] * d * d;
+        }
+        return sum / n;
+      }
+    },
+    STDDEV {
+      @Override
+      double evaluate(double[] values, int size, long[] weights, long n, double p) {
+        return Math.sqrt(VARIANCE.evaluate(values, size, weights, n, p));
+      }
+    },
+    PERCENTILE {
+      @Override
+      double evaluate(double[] values, int size, long[] weights, long n, double p) {
+        // linear interpolation between the closest ranks, as percentile()
+        double position = p * (n - 1);
+        long lower = (long) Math.floor(position);
+        double lowerValue = valueAt(values, size, weights, lower);
+        if (position == lower) {
+          return lowerValue;
+        }
+        double upperValue = valueAt(values, size, weights, lower + 1);
+        return lowerValue + (position - lower) * (upperValue - lowerValue);
+      }
+
+      private double valueAt(double[] values, int size, long[] weights, long rank) {
+        long seen = 0;
+        for (int i = 0; i < size; i++) {
+          seen += weights[i];
+          if (rank < seen) {
+            return values[i];
+          }
+        }
+        return values[size - 1];
+      }
+    };
+
+    abstract double evaluate(double[] values, int size, long[] weights, long n, double p);
+
+    /**
+     * @return the statistic computed by the named aggregate, or null if
+     *         blb_error does not support it
+     */
+    public static Statistic forAggregate(String name) {
+      name = name.toLowerCase();
+      if (name.equals("avg")) {
+        return AVG;
+      } else if (name.equals("variance") || name.equals("var_pop")) {
+        return VARIANCE;
+      } else if (name.equals("stddev") || name.equals("std") || name.equals("stddev_pop")) {
+        return STDDEV;
+      } else if (name.equals("percentile")) {
+        return PERCENTILE;
+      }
+      return null;
+    }
+  }
+
+  @Override
+  public GenericUDAFEvaluator getEvaluator(TypeInfo[] parameters) throws SemanticException {
+    if (parameters.length != 3 && parameters.length != 4) {
+      throw new UDFArgumentTypeException(parameters.length - 1,
+          "Please specify an aggregate, optionally with its percentile.");
+    }
+    for (int i = 0; i < parameters.length; i++) {
+      if (parameters[i].getCategory() != ObjectInspector.Category.PRIMITIVE) {
+        throw new UDFArgumentTypeException(i,
+            "Only primitive type arguments are accepted but "
+            + parameters[i].getTypeName() + " was passed as parameter " + (i + 1) + ".");
+      }
+    }
+    if (((PrimitiveTypeInfo) parameters[0]).getPrimitiveCategory()
+        != PrimitiveObjectInspector.PrimitiveCategory.STRING) {
+      throw new UDFArgumentTypeException(0,
+          "The aggregate name must be a string but "
+          + parameters[0].getTypeName() + " was passed.");
+    }
+    for (int i = 1; i < parameters.length; i++) {
+      switch (((PrimitiveTypeInfo) parameters[i]).getPrimitiveCategory()) {
+      case BYTE:
+      case SHORT:
+      case INT:
+      case LONG:
+      case FLOAT:
+      case DOUBLE:
+        break;
+      default:
+        throw new UDFArgumentTypeException(i,
+            "Only numeric type arguments are accepted but "
+            + parameters[i].getTypeName() + " was passed as parameter " + (i + 1) + ".");
+      }
+    }
+    return new GenericUDAFBlbErrorEvaluator();
+  }
+
+
+  /**
+   * GenericUDAFBlbErrorEvaluator.
+   *
+   */
+  public static class GenericUDAFBlbErrorEvaluator extends GenericUDAFEvaluator {
+
+    // For PARTIAL1 and COMPLETE
+    private PrimitiveObjectInspector statisticOI;
+    private PrimitiveObjectInspector zOI;
+    private PrimitiveObjectInspector inputOI;
+    private PrimitiveObjectInspector percentileOI;
+    // seeded, so that a query reports the same error every time it runs
+    private final Random random = new Random(7919);
+
+    // For PARTIAL2 and FINAL
+    private StructObjectInspector soi;
+    private StructField countField;
+    private StructField meanField;
+    private StructField m2Field;
+    private StructField bagsField;
+    private StructField statisticField;
+    private StructField percentileField;
+    private StructField zField;
+    private LongObjectInspector countFieldOI;
+    private DoubleObjectInspector meanFieldOI;
+    private DoubleObjectInspector m2FieldOI;
+    private ListObjectInspector bagsFieldOI;
+    private ListObjectInspector bagOI;
+    private DoubleObjectInspector bagItemOI;
+    private StringObjectInspector statisticFieldOI;
+    private DoubleObjectInspector percentileFieldOI;
+    private DoubleObjectInspector zFieldOI;
+
+    // For PARTIAL1 and PARTIAL2
+    private Object[] partialResult;
+
+    // For FINAL and COMPLETE
+    private Object[] result;
+
+    @Override
+    public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+      super.init(m, parameters);
+
+      // init input
+      if (mode == Mode.PARTIAL1 || mode == Mode.COMPLETE) {
+        statisticOI = (PrimitiveObjectInspector) parameters[0];
+        zOI = (PrimitiveObjectInspector) parameters[1];
+        inputOI = (PrimitiveObjectInspector) parameters[2];
+        if (parameters.length > 3) {
+          percentileOI = (PrimitiveObjectInspector) parameters[3];
+        }
+      } else {
+        soi = (StructObjectInspector) parameters[0];
+        countField = soi.getStructFieldRef("count");
+        meanField = soi.getStructFieldRef("mean");
+        m2Field = soi.getStructFieldRef("m2");
+        bagsField = soi.getStructFieldRef("bags");
+        statisticField = soi.getStructFieldRef("statistic");
+        percentileField = soi.getStructFieldRef("percentile");
+        zField = soi.getStructFieldRef("z");
+        countFieldOI = (LongObjectInspector) countField.getFieldObjectInspector();
+        meanFieldOI = (DoubleObjectInspector) meanField.getFieldObjectInspector();
+        m2FieldOI = (DoubleObjectInspector) m2Field.getFieldObjectInspector();
+        bagsFieldOI = (ListObjectInspector) bagsField.getFieldObjectInspector();
+        bagOI = (ListObjectInspector) bagsFieldOI.getListElementObjectInspector();
+        bagItemOI = (DoubleObjectInspector) bagOI.getListElementObjectInspector();
+        statisticFieldOI = (StringObjectInspector) statisticField.getFieldObjectInspector();
+        percentileFieldOI = (DoubleObjectInspector) percentileField.getFieldObjectInspector();
+        zFieldOI = (DoubleObjectInspector) zField.getFieldObjectInspector();
+      }
+
+      // init output
+      if (mode == Mode.PARTIAL1 || mode == Mode.PARTIAL2) {
+        // The output of a partial aggregation is a struct containing the row
+        // count, the mean and the sum of squared deviations of the rows, the
+        // serialized sketch of every bag, the statistic, its percentile and z.
+        ArrayList<ObjectInspector> foi = new ArrayList<ObjectInspector>();
+        foi.add(PrimitiveObjectInspectorFactory.writableLongObjectInspector);
+        foi.add(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector);
+        foi.add(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector);
+        foi.add(ObjectInspectorFactory.getStandardListObjectInspector(
+            ObjectInspectorFactory.getStandardListObjectInspector(
+            PrimitiveObjectInspectorFactory.writableDoubleObjectInspector)));
+        foi.add(PrimitiveObjectInspectorFactory.writableStringObjectInspector);
+        foi.add(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector);
+        foi.add(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector);
+        ArrayList<String> fname = new ArrayList<String>();
+        fname.add("count");
+        fname.add("mean");
+        fname.add("m2");
+        fname.add("bags");
+        fname.add("statistic");
+        fname.add("percentile");
+        fname.add("z");
+
+        partialResult = new Object[7];
+        partialResult[0] = new LongWritable(0);
+        partialResult[1] = new DoubleWritable(0);
+        partialResult[2] = new DoubleWritable(0);
+        partialResult[3] = new ArrayList<List<DoubleWritable>>();
+        partialResult[4] = new Text();
+        partialResult[5] = new DoubleWritable(0);
+        partialResult[6] = new DoubleWritable(0);
+        return ObjectInspectorFactory.getStandardStructObjectInspector(fname, foi);
+
+      } else {
+        ArrayList<String> fname = new ArrayList<String>();
+        fname.add("estimate");
+        fname.add("error");
+        fname.add("ci");
+        ArrayList<ObjectInspector> foi = new ArrayList<ObjectInspector>();
+        foi.add(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector);
+        foi.add(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector);
+        foi.add(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector);
+
+        result = new Object[3];
+        result[0] = new DoubleWritable(0);
+        result[1] = new DoubleWritable(0);
+        result[2] = new DoubleWritable(0);
+        return ObjectInspectorFactory.getStandardStructObjectInspector(fname, foi);
+      }
+    }
+
+    static class BlbAgg implements AggregationBuffer {
+      Statistic statistic;
+      double percentile;
+      double z;
+      // the exact count, mean and sum of squared deviations of all the rows
+      long count;
+      double mean;
+      double m2;
+      // a sketch of the rows of each bag
+      QuantileSketch[] bags;
+    };
+
+    @Override
+    public AggregationBuffer getNewAggregationBuffer() throws HiveException {
+      BlbAgg result = new BlbAgg();
+      result.bags = new QuantileSketch[NUM_BAGS];
+      for (int b = 0; b < NUM_BAGS; b++) {
+        result.bags[b] = new QuantileSketch();
+      }
+      reset(result);
+      return result;
+    }
+
+    @Override
+    public void reset(AggregationBuffer agg) throws HiveException {
+      BlbAgg myagg = (BlbAgg) agg;
+      myagg.statistic = null;
+      myagg.percentile = 0;
+      myagg.z = 0;
+      myagg.count = 0;
+      myagg.mean = 0;
+      myagg.m2 = 0;
+      for (QuantileSketch bag : myagg.bags) {
+        bag.reset();
+        bag.allocate(BAG_SKETCH_K);
+      }
+    }
+
+    @Override
+    public void iterate(AggregationBuffer agg, Object[] parameters) throws HiveException {
+      Object p = parameters[2];
+      if (p == null) {
+        return;
+      }
+      BlbAgg myagg = (BlbAgg) agg;
+      if (myagg.statistic == null) {
+        String name = PrimitiveObjectInspectorUtils.getString(parameters[0], statisticOI);
+        myagg.statistic = name == null ? null : Statistic.forAggregate(name);
+        if (myagg.statistic == null) {
+          throw new HiveException("blb_error does not support the aggregate " + name);
+        }
+        myagg.z = PrimitiveObjectInspectorUtils.getDouble(parameters[1], zOI);
+        if (myagg.statistic == Statistic.PERCENTILE) {
+          if (percentileOI == null || parameters[3] == null) {
+            throw new HiveException("blb_error of percentile needs the percentile");
+          }
+          myagg.percentile = PrimitiveObjectInspectorUtils.getDouble(parameters[3], percentileOI);
+          if (myagg.percentile < 0 || myagg.percentile > 1) {
+            throw new HiveException("The percentile must be between 0 and 1");
+          }
+        }
+      }
+      double v = PrimitiveObjectInspectorUtils.getDouble(p, inputOI);
+      // Welford's update of the running mean and squared deviations
+      myagg.count++;
+      double delta = v - myagg.mean;
+      myagg.mean += delta / myagg.count;
+      myagg.m2 += delta * (v - myagg.mean);
+      myagg.bags[random.nextInt(NUM_BAGS)].add(v);
+    }
+
+    @Override
+    public Object terminatePartial(AggregationBuffer agg) throws HiveException {
+      BlbAgg myagg = (BlbAgg) agg;
+      ((LongWritable) partialResult[0]).set(myagg.count);
+      ((DoubleWritable) partialResult[1]).set(myagg.mean);
+      ((DoubleWritable) partialResult[2]).set(myagg.m2);
+      @SuppressWarnings("unchecked")
+      List<List<DoubleWritable>> bags = (List<List<DoubleWritable>>) partialResult[3];
+      bags.clear();
+      for (QuantileSketch bag : myagg.bags) {
+        bags.add(bag.serialize());
+      }
+      ((Text) partialResult[4]).set(myagg.statistic == null ? "" : myagg.statistic.name());
+      ((DoubleWritable) partialResult[5]).set(myagg.percentile);
+      ((DoubleWritable) partialResult[6]).set(myagg.z);
+      return partialResult;
+    }
+
+    @Override
+    public void merge(AggregationBuffer agg, Object partial) throws HiveException {
+      if (partial == null) {
+        return;
+      }
+      BlbAgg myagg = (BlbAgg) agg;
+      long count = countFieldOI.get(soi.getStructFieldData(partial, countField));
+      if (count == 0) {
+        return;
+      }
+      if (myagg.statistic == null) {
+        myagg.statistic = Statistic.valueOf(statisticFieldOI.getPrimitiveJavaObject(
+            soi.getStructFieldData(partial, statisticField)));
+        myagg.percentile = percentileFieldOI.get(soi.getStructFieldData(partial, percentileField));
+        myagg.z = zFieldOI.get(soi.getStructFieldData(partial, zField));
+      }
+
+      // Chan et al.'s merge of the running means and squared deviations
+      double mean = meanFieldOI.get(soi.getStructFieldData(partial, meanField));
+      double m2 = m2FieldOI.get(soi.getStructFieldData(partial, m2Field));
+      long total = myagg.count + count;
+      double delta = mean - myagg.mean;
+      myagg.m2 += m2 + delta * delta * myagg.count * count / total;
+      myagg.mean += delta * count / total;
+      myagg.count = total;
+
+      // the bags merge bag by bag
+      Object bags = soi.getStructFieldData(partial, bagsField);
+      for (int b = 0; b < NUM_BAGS; b++) {
+        Object bag = bagsFieldOI.getListElement(bags, b);
+        int size = bagOI.getListLength(bag);
+        List<DoubleWritable> sketch = new ArrayList<DoubleWritable>(size);
+        for (int i = 0; i < size; i++) {
+          sketch.add(new DoubleWritable(bagItemOI.get(bagOI.getListElement(bag, i))));
+        }
+        myagg.bags[b].merge(sketch);
+      }
+    }
+
+    @Override
+    public Object terminate(AggregationBuffer agg) throws HiveException {
+      BlbAgg myagg = (BlbAgg) agg;
+      if (myagg.count == 0) { // SQL standard - return null for zero elements
+        return null;
+      }
+      ((DoubleWritable) result[0]).set(estimate(myagg));
+      ((DoubleWritable) result[1]).set(bootstrap(myagg));
+      ((DoubleWritable) result[2]).set(GenericUDAFWithErrorEvaluator.confidenceLevel(myagg.z));
+      return result;
+    }
+
+    /**
+     * @return the statistic of all the rows
+     */
+    private double estimate(BlbAgg myagg) {
+      switch (myagg.statistic) {
+      case AVG:
+        return myagg.mean;
+      case VARIANCE:
+        return myagg.m2 / myagg.count;
+      case STDDEV:
+        return Math.sqrt(myagg.m2 / myagg.count);
+      default:
+        QuantileSketch rows = new QuantileSketch();
+        for (QuantileSketch bag : myagg.bags) {
+          rows.merge(bag.serialize());
+        }
+        double[] items = rows.getSortedItems();
+        long[] weights = new long[items.length];
+        for (int i = 0; i < items.length; i++) {
+          weights[i] = rows.getItemWeight(i);
+        }
+        return myagg.statistic.evaluate(items, items.length, weights, rows.getCount(),
+            myagg.percentile);
+      }
+    }
+
+    /**
+     * Run the little bootstraps over the bags.
+     *
+     * @return the error of the statistic, averaged over the bags
+     */
+    private double bootstrap(BlbAgg myagg) {
+      double[] estimates = new double[NUM_BOOTSTRAPS];
+      double error = 0;
+      int bags = 0;
+      for (QuantileSketch bag : myagg.bags) {
+        if (bag.getCount() == 0) {
+          continue;
+        }
+        double[] items = bag.getSortedItems();
+        long[] rows = new long[items.length];
+        for (int i = 0; i < items.length; i++) {
+          rows[i] = bag.getItemWeight(i);
+        }
+        // each resample stands for all the rows, not only those of the bag
+        double scale = (double) myagg.count / bag.getCount();
+        long[] weights = new long[items.length];
+
+        double sum = 0;
+        for (int r = 0; r < NUM_BOOTSTRAPS; r++) {
+          long total;
+          do {
+            total = poisson(rows, scale, weights);
+          } while (total == 0);
+          estimates[r] = myagg.statistic.evaluate(items, items.length, weights, total,
+              myagg.percentile);
+          sum += estimates[r];
+        }
+        double mean = sum / NUM_BOOTSTRAPS;
+        double m2 = 0;
+        for (int r = 0; r < NUM_BOOTSTRAPS; r++) {
+          m2 += (estimates[r] - mean) * (estimates[r] - mean);
+        }
+        error += myagg.z * Math.sqrt(m2 / (NUM_BOOTSTRAPS - 1));
+        bags++;
+      }
+      return error / bags;
+    }
+
+    /**
+     * Draw an independent Poisson(rows[i] * scale) weight for every item of
+     * a bag, the Poissonized form of drawing the rows of the bag times scale
+     * with replacement among them.
+     *
+     * @return the sum of the weights
+     */
+    private long poisson(long[] rows, double scale, long[] weights) {
+      long total = 0;
+      for (int i = 0; i < weights.length; i++) {
+        weights[i] = poisson(rows[i] * scale);
+        total += weights[i];
+      }
+      return total;
+    }
+
+    private long poisson(double mean) {
+      if (mean < 30) {
+        // inversion, in O(mean) expected steps
+        double q = Math.exp(-mean);
+        double u = random.nextDouble();
+        long k = 0;
+        double cdf = q;
+        while (u > cdf && q > 0) {
+          k++;
+          q *= mean / k;
+          cdf += q;
+        }
+        return k;
+      }
+      return Math.max(0, Math.round(mean + Math.sqrt(mean) * random.nextGaussian()));
+    }
+  }
+}
@@ -40,16 +40,35 @@ import org.apache.hadoop.io.LongWritable;
           +        "expression is non-NULL.\n"
 
           + "_FUNC_(DISTINCT expr[, expr...]) - Returns the number of rows for "
-          +        "which the supplied expression(s) are unique and non-NULL.")
+          +        "which the supplied expression(s) are unique and non-NULL.\n"
+
+          + "On a sample, _FUNC_(*) and _FUNC_(expr) return the number of rows "
+          +        "estimated over the base table, with its error at the configured "
+          +        "confidence level.")
 public class GenericUDAFCount implements GenericUDAFResolver2 {
 
   private static final Log LOG = LogFactory.getLog(GenericUDAFCount.class.getName());
 
+  private final boolean withError;
+
+  public GenericUDAFCount() {
+    this(false);
+  }
+
+  /**
+   * @param withError
+   *          whether this is the count with error the semantic analyzer calls
+   *          on a sample, which takes the sampling rate and z after its input
+   */
+  public GenericUDAFCount(boolean withError) {
+    this.withError = withError;
+  }
+
   @Override
   public GenericUDAFEvaluator getEvaluator(TypeInfo[] parameters)
       throws SemanticException {
     // This method implementation is preserved for backward compatibility.
-    return new GenericUDAFCountEvaluator();
+    return withError ? new GenericUDAFCountWithErrorEvaluator() : new GenericUDAFCountEvaluator();
   }
 
   @Override
@@ -58,6 +77,14 @@ public class GenericUDAFCount implements GenericUDAFResolver2 {
 
     TypeInfo[] parameters = paramInfo.getParameters();
 
+    if (withError) {
+      if (paramInfo.isDistinct() || paramInfo.isAllColumns()) {
+        throw new UDFArgumentException("DISTINCT and * are not supported with error");
+      }
+      GenericUDAFWithErrorEvaluator.checkParameters(parameters);
+      return new GenericUDAFCountWithErrorEvaluator();
+    }
+
     if (parameters.length == 0) {
       if (!paramInfo.isAllColumns()) {
         throw new UDFArgumentException("Argument expected");
@@ -160,4 +187,43 @@ public class GenericUDAFCount implements GenericUDAFResolver2 {
       return terminate(agg);
     }
   }
+
+  /**
+   * GenericUDAFCountWithErrorEvaluator.
+   *
+   * Scales the sample count by the inverse sampling rate. Under Bernoulli
+   * sampling at rate r the count is binomial, so the variance of the estimate
+   * is n * (1 - r) / r^2. With a rate per row, this is the weighted count and
+   * its variance, the sum of w (w - 1).
+   */
+  public static class GenericUDAFCountWithErrorEvaluator extends GenericUDAFWithErrorEvaluator {
+
+    @Override
+    protected String getEstimateName() {
+      return "count";
+    }
+
+    @Override
+    protected double getValue(Object p) {
+      // only the count matters, not the value
+      return 1.0;
+    }
+
+    @Override
+    protected double estimate(ErrorAgg agg) {
+      if (agg.mixedRates()) {
+        return agg.wCount;
+      }
+      return agg.count / agg.samplingRate();
+    }
+
+    @Override
+    protected double estimateVariance(ErrorAgg agg) {
+      if (agg.mixedRates()) {
+        return agg.vCount;
+      }
+      double rate = agg.samplingRate();
+      return agg.count * (1 - rate) / (rate * rate);
+    }
+  }
 }
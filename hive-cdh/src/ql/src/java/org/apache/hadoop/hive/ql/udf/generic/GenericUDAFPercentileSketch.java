@@ -0,0 +1,439 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StandardListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.typeinfo.ListTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+
+/**
+ * Computes approximate percentiles from a {@link QuantileSketch}, whose rank
+ * error is bounded, unlike the histogram of percentile_approx. The sketch
+ * keeps its accuracy at the tail percentiles, and partial aggregations merge
+ * level by level instead of re-sorting every bin.
+ *
+ * On a sample, the aggregate also takes the sampling rate and the confidence
+ * z, and returns the percentiles with their error: the half width of the
+ * values between the ranks p - e and p + e, where e adds up the rank error of
+ * the sketch and the sampling error of the rank, z sqrt(p (1 - p) (1 - rate) / n).
+ */
+@Description(name = "percentile_sketch",
+    value = "_FUNC_(expr, pc, [k]) - Computes an approximate percentile value from a quantile "
+    + "sketch, using the optional argument [k] as its accuracy. The sketch keeps about 3k "
+    + "values, and its rank error falls about as 1/k.\n"
+    + "On a sample, returns the percentiles estimated over the base table, with their error at "
+    + "the configured confidence level",
+    extended = "'expr' can be any numeric column, and 'pc' is either a single double/float "
+    + "with a requested percentile, or an array of double/float with multiple percentiles. "
+    + "If 'k' is not specified, a k of 2000 is used, for a rank error of about 0.15% of the "
+    + "rows at a confidence of 99%.\n"
+    + "Example:\n"
+    + "> SELECT percentile_sketch(latency, array(0.5, 0.95, 0.99)) FROM requests;\n")
+public class GenericUDAFPercentileSketch extends AbstractGenericUDAFResolver {
+  static final Log LOG = LogFactory.getLog(GenericUDAFPercentileSketch.class.getName());
+
+  private final boolean withError;
+
+  public GenericUDAFPercentileSketch() {
+    this(false);
+  }
+
+  /**
+   * @param withError
+   *          whether this is the aggregate with error the semantic analyzer
+   *          calls on a sample, which takes the sampling rate and z after its
+   *          other arguments
+   */
+  public GenericUDAFPercentileSketch(boolean withError) {
+    this.withError = withError;
+  }
+
+  @Override
+  public GenericUDAFEvaluator getEvaluator(TypeInfo[] parameters) throws SemanticException {
+    // (expr, pc) or (expr, pc, k), followed by (rate, z) with error
+    int arguments = withError ? parameters.length - 2 : parameters.length;
+    if (arguments < 2 || arguments > 3) {
+      throw new UDFArgumentTypeException(parameters.length - 1,
+          withError ? "The expression and the percentiles, optionally followed by k, "
+          + "then the sampling rate and z are expected."
+          : "Please specify the expression and the percentiles, optionally followed by k.");
+    }
+    boolean hasK = arguments == 3;
+
+    checkNumeric(parameters, 0, true);
+    boolean wantManyQuantiles = false;
+    switch (parameters[1].getCategory()) {
+    case PRIMITIVE:
+      checkFloating(parameters[1], 1);
+      break;
+    case LIST:
+      checkFloating(((ListTypeInfo) parameters[1]).getListElementTypeInfo(), 1);
+      wantManyQuantiles = true;
+      break;
+    default:
+      throw new UDFArgumentTypeException(1,
+          "Only a float/double or float/double array argument is accepted as parameter 2, but "
+          + parameters[1].getTypeName() + " was passed instead.");
+    }
+    if (hasK) {
+      checkNumeric(parameters, 2, false);
+    }
+    if (withError) {
+      checkNumeric(parameters, parameters.length - 2, true);
+      checkNumeric(parameters, parameters.length - 1, true);
+    }
+    return new GenericUDAFPercentileSketchEvaluator(wantManyQuantiles, hasK, withError);
+  }
+
+  private static void checkNumeric(TypeInfo[] parameters, int i, boolean allowFloating)
+      throws UDFArgumentTypeException {
+    if (parameters[i].getCategory() == ObjectInspector.Category.PRIMITIVE) {
+      switch (((PrimitiveTypeInfo) parameters[i]).getPrimitiveCategory()) {
+      case BYTE:
+      case SHORT:
+      case INT:
+      case LONG:
+        return;
+      case FLOAT:
+      case DOUBLE:
+        if (allowFloating) {
+          return;
+        }
+        break;
+      default:
+        break;
+      }
+    }
+    throw new UDFArgumentTypeException(i, "Only " + (allowFloating ? "numeric" : "integer")
+        + " arguments are accepted as parameter " + (i + 1) + ", but "
+        + parameters[i].getTypeName() + " was passed instead.");
+  }
+
+  private static void checkFloating(TypeInfo parameter, int i)
+      throws UDFArgumentTypeException {
+    if (parameter.getCategory() == ObjectInspector.Category.PRIMITIVE) {
+      switch (((PrimitiveTypeInfo) parameter).getPrimitiveCategory()) {
+      case FLOAT:
+      case DOUBLE:
+        return;
+      default:
+        break;
+      }
+    }
+    throw new UDFArgumentTypeException(i,
+        "Only a float/double or float/double array argument is accepted as parameter 2, but "
+        + parameter.getTypeName() + " was passed instead.");
+  }
+
+  /**
+   * GenericUDAFPercentileSketchEvaluator.
+   *
+   * The partial aggregation is a list of doubles: the sampling rate and z (0
+   * without error), the number of percentiles requested and the percentiles,
+   * and then the serialized sketch.
+   */
+  public static class GenericUDAFPercentileSketchEvaluator extends GenericUDAFEvaluator
+      implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private boolean wantManyQuantiles;
+    private boolean hasK;
+    private boolean withError;
+
+    // For PARTIAL1 and COMPLETE: ObjectInspectors for original data
+    private transient PrimitiveObjectInspector inputOI;
+    private transient ObjectInspector quantilesOI;
+    private transient PrimitiveObjectInspector kOI;
+    private transient PrimitiveObjectInspector rateOI;
+    private transient PrimitiveObjectInspector zOI;
+
+    // For PARTIAL2 and FINAL: ObjectInspectors for partial aggregations (list of doubles)
+    private transient StandardListObjectInspector loi;
+
+    // Used by serialization only
+    public GenericUDAFPercentileSketchEvaluator() {
+    }
+
+    public GenericUDAFPercentileSketchEvaluator(boolean wantManyQuantiles, boolean hasK,
+        boolean withError) {
+      this.wantManyQuantiles = wantManyQuantiles;
+      this.hasK = hasK;
+      this.withError = withError;
+    }
+
+    public boolean getWantManyQuantiles() {
+      return wantManyQuantiles;
+    }
+
+    public void setWantManyQuantiles(boolean wantManyQuantiles) {
+      this.wantManyQuantiles = wantManyQuantiles;
+    }
+
+    public boolean getHasK() {
+      return hasK;
+    }
+
+    public void setHasK(boolean hasK) {
+      this.hasK = hasK;
+    }
+
+    public boolean getWithError() {
+      return withError;
+    }
+
+    public void setWithError(boolean withError) {
+      this.withError = withError;
+    }
+
+    @Override
+    public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+      super.init(m, parameters);
+
+      // init input object inspectors
+      if (m == Mode.PARTIAL1 || m == Mode.COMPLETE) {
+        inputOI = (PrimitiveObjectInspector) parameters[0];
+        quantilesOI = parameters[1];
+        if (hasK) {
+          kOI = (PrimitiveObjectInspector) parameters[2];
+        }
+        if (withError) {
+          rateOI = (PrimitiveObjectInspector) parameters[parameters.length - 2];
+          zOI = (PrimitiveObjectInspector) parameters[parameters.length - 1];
+        }
+      } else {
+        loi = (StandardListObjectInspector) parameters[0];
+      }
+
+      // init output object inspectors
+      if (m == Mode.PARTIAL1 || m == Mode.PARTIAL2) {
+        return ObjectInspectorFactory.getStandardListObjectInspector(
+            PrimitiveObjectInspectorFactory.writableDoubleObjectInspector);
+      }
+      ObjectInspector estimateOI = wantManyQuantiles
+          ? ObjectInspectorFactory.getStandardListObjectInspector(
+              PrimitiveObjectInspectorFactory.writableDoubleObjectInspector)
+          : PrimitiveObjectInspectorFactory.writableDoubleObjectInspector;
+      if (!withError) {
+        return estimateOI;
+      }
+      // The output with error is a struct of the percentiles, their errors
+      // and the confidence level in percent, as for the other aggregates
+      // with error.
+      ArrayList<String> fname = new ArrayList<String>();
+      fname.add("percentile");
+      fname.add("error");
+      fname.add("ci");
+      ArrayList<ObjectInspector> foi = new ArrayList<ObjectInspector>();
+      foi.add(estimateOI);
+      foi.add(estimateOI);
+      foi.add(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector);
+      return ObjectInspectorFactory.getStandardStructObjectInspector(fname, foi);
+    }
+
+    static class SketchAggBuf implements AggregationBuffer {
+      QuantileSketch sketch; // sketch of the input
+      double[] quantiles; // the quantiles requested
+      double rate; // sampling rate of the input
+      double z; // z of the confidence level
+    };
+
+    @Override
+    public AggregationBuffer getNewAggregationBuffer() throws HiveException {
+      SketchAggBuf result = new SketchAggBuf();
+      result.sketch = new QuantileSketch();
+      reset(result);
+      return result;
+    }
+
+    @Override
+    public void reset(AggregationBuffer agg) throws HiveException {
+      SketchAggBuf result = (SketchAggBuf) agg;
+      result.sketch.reset();
+      result.quantiles = null;
+      result.rate = 0;
+      result.z = 0;
+    }
+
+    @Override
+    public void iterate(AggregationBuffer agg, Object[] parameters) throws HiveException {
+      if (parameters[0] == null || parameters[1] == null) {
+        return;
+      }
+      SketchAggBuf myagg = (SketchAggBuf) agg;
+
+      // Parse out the requested quantiles, k, the sampling rate and z just
+      // once.
+      if (myagg.quantiles == null) {
+        myagg.quantiles = getQuantiles(parameters[1]);
+        if (withError) {
+          myagg.rate = PrimitiveObjectInspectorUtils.getDouble(
+              parameters[parameters.length - 2], rateOI);
+          myagg.z = PrimitiveObjectInspectorUtils.getDouble(
+              parameters[parameters.length - 1], zOI);
+        }
+      }
+      if (!myagg.sketch.isReady()) {
+        myagg.sketch.allocate(hasK && parameters[2] != null
+            ? PrimitiveObjectInspectorUtils.getInt(parameters[2], kOI)
+            : QuantileSketch.DEFAULT_K);
+      }
+      myagg.sketch.add(PrimitiveObjectInspectorUtils.getDouble(parameters[0], inputOI));
+    }
+
+    private double[] getQuantiles(Object quantiles) throws HiveException {
+      double[] result;
+      if (quantilesOI.getCategory() == ObjectInspector.Category.LIST) {
+        ListObjectInspector quantilesLOI = (ListObjectInspector) quantilesOI;
+        PrimitiveObjectInspector elementOI =
+            (PrimitiveObjectInspector) quantilesLOI.getListElementObjectInspector();
+        result = new double[quantilesLOI.getListLength(quantiles)];
+        for (int i = 0; i < result.length; i++) {
+          result[i] = PrimitiveObjectInspectorUtils.getDouble(
+              quantilesLOI.getListElement(quantiles, i), elementOI);
+        }
+      } else {
+        result = new double[] {PrimitiveObjectInspectorUtils.getDouble(quantiles,
+            (PrimitiveObjectInspector) quantilesOI)};
+      }
+      for (double q : result) {
+        if (q < 0 || q > 1) {
+          throw new HiveException(getClass().getSimpleName() + " requires percentile values "
+              + "to lie between 0 and 1, but you supplied " + q);
+        }
+      }
+      return result;
+    }
+
+    @Override
+    public Object terminatePartial(AggregationBuffer agg) throws HiveException {
+      SketchAggBuf myagg = (SketchAggBuf) agg;
+      ArrayList<DoubleWritable> result = new ArrayList<DoubleWritable>();
+      result.add(new DoubleWritable(myagg.rate));
+      result.add(new DoubleWritable(myagg.z));
+      if (myagg.quantiles != null) {
+        result.add(new DoubleWritable(myagg.quantiles.length));
+        for (double q : myagg.quantiles) {
+          result.add(new DoubleWritable(q));
+        }
+      } else {
+        result.add(new DoubleWritable(0));
+      }
+      if (myagg.sketch.isReady()) {
+        result.addAll(myagg.sketch.serialize());
+      }
+      return result;
+    }
+
+    @Override
+    public void merge(AggregationBuffer agg, Object partial) throws HiveException {
+      if (partial == null) {
+        return;
+      }
+      SketchAggBuf myagg = (SketchAggBuf) agg;
+      // the partial is a standard list of DoubleWritables, see terminatePartial
+      List<?> list = loi.getList(partial);
+      List<DoubleWritable> partialSketch = new ArrayList<DoubleWritable>(list.size());
+      for (Object o : list) {
+        partialSketch.add((DoubleWritable) o);
+      }
+
+      // remove the sampling rate, z and the requested quantiles from the head
+      // of the list
+      int nquantiles = (int) partialSketch.get(2).get();
+      if (nquantiles > 0) {
+        myagg.rate = partialSketch.get(0).get();
+        myagg.z = partialSketch.get(1).get();
+        myagg.quantiles = new double[nquantiles];
+        for (int i = 0; i < nquantiles; i++) {
+          myagg.quantiles[i] = partialSketch.get(3 + i).get();
+        }
+      }
+      int sketchStart = 3 + nquantiles;
+      if (partialSketch.size() > sketchStart) {
+        myagg.sketch.merge(partialSketch.subList(sketchStart, partialSketch.size()));
+      }
+    }
+
+    @Override
+    public Object terminate(AggregationBuffer agg) throws HiveException {
+      SketchAggBuf myagg = (SketchAggBuf) agg;
+      if (myagg.sketch.getCount() == 0) { // SQL standard - return null for zero elements
+        return null;
+      }
+      assert (myagg.quantiles != null);
+      double[] percentiles = new double[myagg.quantiles.length];
+      for (int i = 0; i < percentiles.length; i++) {
+        percentiles[i] = myagg.sketch.quantile(myagg.quantiles[i]);
+      }
+      if (!withError) {
+        return toOutput(percentiles);
+      }
+      double[] errors = new double[percentiles.length];
+      for (int i = 0; i < errors.length; i++) {
+        errors[i] = error(myagg, myagg.quantiles[i]);
+      }
+      return new Object[] {toOutput(percentiles), toOutput(errors),
+          new DoubleWritable(GenericUDAFWithErrorEvaluator.confidenceLevel(myagg.z))};
+    }
+
+    private Object toOutput(double[] values) {
+      if (!wantManyQuantiles) {
+        return new DoubleWritable(values[0]);
+      }
+      ArrayList<DoubleWritable> result = new ArrayList<DoubleWritable>(values.length);
+      for (double v : values) {
+        result.add(new DoubleWritable(v));
+      }
+      return result;
+    }
+
+    /**
+     * @return the half width of the values between the ranks q - e and q + e,
+     *         e the rank error of the sketch plus the sampling error of the
+     *         rank of q
+     */
+    private double error(SketchAggBuf myagg, double q) {
+      double rankError = myagg.sketch.getRankError();
+      if (myagg.rate > 0 && myagg.rate < 1) {
+        rankError += Math.abs(myagg.z)
+            * Math.sqrt(q * (1 - q) * (1 - myagg.rate) / myagg.sketch.getCount());
+      }
+      return (myagg.sketch.quantile(Math.min(1, q + rankError))
+          - myagg.sketch.quantile(Math.max(0, q - rankError))) / 2;
+    }
+  }
+}
@@ -26,33 +26,47 @@ import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.parse.SemanticException;
 import org.apache.hadoop.hive.serde2.io.DoubleWritable;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
-import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
 import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
-import org.apache.hadoop.hive.serde2.objectinspector.StructField;
-import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
-import org.apache.hadoop.hive.serde2.objectinspector.primitive.DoubleObjectInspector;
-import org.apache.hadoop.hive.serde2.objectinspector.primitive.LongObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
 import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
 import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.util.StringUtils;
-import java.util.ArrayList;
 
 /**
  * GenericUDAFSum.
  *
  */
-@Description(name = "sum", value = "_FUNC_(x) - Returns the sum of a set of numbers")
+@Description(name = "sum", value = "_FUNC_(x) - Returns the sum of a set of numbers\n"
+    + "On a sample, returns the sum estimated over the base table, with its error at the "
+    + "configured confidence level")
 public class GenericUDAFSum extends AbstractGenericUDAFResolver {
 
   static final Log LOG = LogFactory.getLog(GenericUDAFSum.class.getName());
 
+  private final boolean withError;
+
+  public GenericUDAFSum() {
+    this(false);
+  }
+
+  /**
+   * @param withError
+   *          whether this is the aggregate with error the semantic analyzer
+   *          calls on a sample, which takes the sampling rate and z after its
+   *          input
+   */
+  public GenericUDAFSum(boolean withError) {
+    this.withError = withError;
+  }
+
   @Override
   public GenericUDAFEvaluator getEvaluator(TypeInfo[] parameters)
     throws SemanticException {
-    if (parameters.length != 1) {
+    if (withError) {
+      GenericUDAFWithErrorEvaluator.checkParameters(parameters);
+    } else if (parameters.length != 1) {
       throw new UDFArgumentTypeException(parameters.length - 1,
           "Exactly one argument is expected.");
     }
@@ -67,13 +81,17 @@ public class GenericUDAFSum extends AbstractGenericUDAFResolver {
     case SHORT:
     case INT:
     case LONG:
-      //return new GenericUDAFSumLong();
+      if (!withError) {
+        return new GenericUDAFSumLong();
+      }
     case FLOAT:
     case DOUBLE:
-    	return new GenericUDAFSumWithErrorEvaluator();
+      return withError ? new GenericUDAFSumWithErrorEvaluator() : new GenericUDAFSumDouble();
     case STRING:
-      //@sameerag: Commenting this out because 'approximate concatenation' makes no sense 
-      //return new GenericUDAFSumDouble();
+      //@sameerag: 'approximate concatenation' makes no sense
+      if (!withError) {
+        return new GenericUDAFSumDouble();
+      }
     case BOOLEAN:
     default:
       throw new UDFArgumentTypeException(0,
@@ -165,194 +183,38 @@ public class GenericUDAFSum extends AbstractGenericUDAFResolver {
   }
   
   /**
-  *
-  */
-   public static class GenericUDAFSumWithErrorEvaluator extends GenericUDAFEvaluator {
-
-   // For PARTIAL1 and COMPLETE
-   private PrimitiveObjectInspector inputOI;
-
-   // For PARTIAL2 and FINAL
-   private StructObjectInspector soi;
-   private StructField countField;
-   private StructField sumField;
-   private StructField varianceField;
-   private LongObjectInspector countFieldOI;
-   private DoubleObjectInspector sumFieldOI;
-   private DoubleObjectInspector varianceFieldOI;
-
-   // For PARTIAL1 and PARTIAL2
-   private Object[] partialResult;
-
-   // For FINAL and COMPLETE
-   ArrayList<DoubleWritable> result;
-
-   @Override
-   public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
-     assert (parameters.length == 1);
-     super.init(m, parameters);
-
-     // init input
-     if (mode == Mode.PARTIAL1 || mode == Mode.COMPLETE) {
-       inputOI = (PrimitiveObjectInspector) parameters[0];
-     } else {
-       soi = (StructObjectInspector) parameters[0];
-
-       countField = soi.getStructFieldRef("count");
-       sumField = soi.getStructFieldRef("sum");
-       varianceField = soi.getStructFieldRef("variance");
-
-       countFieldOI = (LongObjectInspector) countField
-           .getFieldObjectInspector();
-       sumFieldOI = (DoubleObjectInspector) sumField.getFieldObjectInspector();
-       varianceFieldOI = (DoubleObjectInspector) varianceField
-           .getFieldObjectInspector();
-     }
-
-     // init output
-     if (mode == Mode.PARTIAL1 || mode == Mode.PARTIAL2) {
-       // The output of a partial aggregation is a struct containing
-       // a long count and doubles sum and variance.
-
-       ArrayList<ObjectInspector> foi = new ArrayList<ObjectInspector>();
-
-       foi.add(PrimitiveObjectInspectorFactory.writableLongObjectInspector);
-       foi.add(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector);
-       foi.add(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector);
-
-       ArrayList<String> fname = new ArrayList<String>();
-       fname.add("count");
-       fname.add("sum");
-       fname.add("variance");
-
-       partialResult = new Object[3];
-       partialResult[0] = new LongWritable(0);
-       partialResult[1] = new DoubleWritable(0);
-       partialResult[2] = new DoubleWritable(0);
-
-       return ObjectInspectorFactory.getStandardStructObjectInspector(fname,
-           foi);
-
-     } else {
-       ArrayList<String> fname = new ArrayList<String>();
-       fname.add("sum");
-       fname.add("error");
-       fname.add("ci");
-       ArrayList<ObjectInspector> foi = new ArrayList<ObjectInspector>();
-       foi.add(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector);
-       foi.add(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector);
-       foi.add(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector);
-       result = new ArrayList<DoubleWritable>();
-       return ObjectInspectorFactory.getStandardStructObjectInspector(fname, foi);
-     }
-   }
-
-   static class StdAgg implements AggregationBuffer {
-     long count; // number of elements
-     double sum; // sum of elements
-     double variance; // sum[x-avg^2] (this is actually n times the variance)
-   };
-
-   @Override
-   public AggregationBuffer getNewAggregationBuffer() throws HiveException {
-     StdAgg result = new StdAgg();
-     reset(result);
-     return result;
-   }
-
-   @Override
-   public void reset(AggregationBuffer agg) throws HiveException {
-     StdAgg myagg = (StdAgg) agg;
-     myagg.count = 0;
-     myagg.sum = 0;
-     myagg.variance = 0;
-   }
-
-   private boolean warned = false;
-
-   @Override
-   public void iterate(AggregationBuffer agg, Object[] parameters)
-       throws HiveException {
-     assert (parameters.length == 1);
-     Object p = parameters[0];
-     if (p != null) {
-       StdAgg myagg = (StdAgg) agg;
-       try {
-         double v = PrimitiveObjectInspectorUtils.getDouble(p, inputOI);
-         myagg.count++;
-         myagg.sum += v;
-         if(myagg.count > 1) {
-           double t = myagg.count*v - myagg.sum;
-           myagg.variance += (t*t) / ((double)myagg.count*(myagg.count-1));
-         }
-       } catch (NumberFormatException e) {
-         if (!warned) {
-           warned = true;
-           LOG.warn(getClass().getSimpleName() + " "
-               + StringUtils.stringifyException(e));
-           LOG.warn(getClass().getSimpleName()
-               + " ignoring similar exceptions.");
-         }
-       }
-     }
-   }
-
-   @Override
-   public Object terminatePartial(AggregationBuffer agg) throws HiveException {
-     StdAgg myagg = (StdAgg) agg;
-     ((LongWritable) partialResult[0]).set(myagg.count);
-     ((DoubleWritable) partialResult[1]).set(myagg.sum);
-     ((DoubleWritable) partialResult[2]).set(myagg.variance);
-     return partialResult;
-   }
-
-   @Override
-   public void merge(AggregationBuffer agg, Object partial) throws HiveException {
-     if (partial != null) {
-       StdAgg myagg = (StdAgg) agg;
-
-       Object partialCount = soi.getStructFieldData(partial, countField);
-       Object partialSum = soi.getStructFieldData(partial, sumField);
-       Object partialVariance = soi.getStructFieldData(partial, varianceField);
-
-       long n = myagg.count;
-       long m = countFieldOI.get(partialCount);
-
-       if (n == 0) {
-         // Just copy the information since there is nothing so far
-         myagg.variance = sumFieldOI.get(partialVariance);
-         myagg.count = countFieldOI.get(partialCount);
-         myagg.sum = sumFieldOI.get(partialSum);
-       }
-
-       if (m != 0 && n != 0) {
-         // Merge the two partials
-
-         double a = myagg.sum;
-         double b = sumFieldOI.get(partialSum);
-
-         myagg.count += m;
-         myagg.sum += b;
-         double t = (m/(double)n)*a - b;
-         myagg.variance += sumFieldOI.get(partialVariance) + ((n/(double)m)/((double)n+m)) * t * t;
-       }
-     }
-   }
-
-   @Override
-   public Object terminate(AggregationBuffer agg) throws HiveException {
-     StdAgg myagg = (StdAgg) agg;
-
-     if (myagg.count == 0) { // SQL standard - return null for zero elements
-       return null;
-     } else {
-       result.add(new DoubleWritable(myagg.sum));
-       result.add(new DoubleWritable(1.96*Math.sqrt((myagg.variance/myagg.count))));
-       result.add(new DoubleWritable(95.0));
-       return result;
-     }
-   }
- }
+   * GenericUDAFSumWithErrorEvaluator.
+   *
+   * Scales the sample sum by the inverse sampling rate. Under Bernoulli
+   * sampling at rate r the variance of the estimate is (1 - r) / r^2 times the
+   * sum of the squares of the sampled values. With a rate per row, this is
+   * the weighted sum and its variance, the sum of w (w - 1) x^2.
+   */
+  public static class GenericUDAFSumWithErrorEvaluator extends GenericUDAFWithErrorEvaluator {
+
+    @Override
+    protected String getEstimateName() {
+      return "sum";
+    }
+
+    @Override
+    protected double estimate(ErrorAgg agg) {
+      if (agg.mixedRates()) {
+        return agg.wSum;
+      }
+      return agg.sum / agg.samplingRate();
+    }
+
+    @Override
+    protected double estimateVariance(ErrorAgg agg) {
+      if (agg.mixedRates()) {
+        return agg.vSum2;
+      }
+      double rate = agg.samplingRate();
+      double sumOfSquares = agg.m2 + agg.sum * agg.mean();
+      return (1 - rate) * sumOfSquares / (rate * rate);
+    }
+  }
 
 
   /**
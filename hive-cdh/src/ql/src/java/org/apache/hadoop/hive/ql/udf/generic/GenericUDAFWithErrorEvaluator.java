@@ -0,0 +1,526 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.DoubleObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.LongObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.util.StringUtils;
+
+/**
+ * GenericUDAFWithErrorEvaluator.
+ *
+ * Base class of the aggregates that run on a uniform sample and return their
+ * estimate together with a closed-form confidence interval. The aggregate
+ * takes two more arguments after its input: the sampling rate of the sample
+ * and the z value of the confidence level, e.g. sum(x, 0.01, 1.96).
+ *
+ * A single pass keeps the count, the sum and the central moments M2, M3 and
+ * M4 of the input, merged with the pairwise update of Chan et al. and Pebay.
+ * The sampling rate and z travel in the partial aggregation, so the final
+ * stage needs nothing but the partial struct. The output is a struct of the
+ * estimate scaled up to the base table, its error (the half width of the
+ * interval), and the confidence level in percent.
+ *
+ * The rate may differ from row to row, as on a stratified sample, where it is
+ * the rate of the stratum of the row. Next to the moments, the aggregate
+ * then keeps the Horvitz-Thompson sums of the input weighted by w = 1 / rate,
+ * and of its powers weighted by w (w - 1) for their variance, and the
+ * estimates are taken from those whenever the input had more than one rate.
+ */
+public abstract class GenericUDAFWithErrorEvaluator extends GenericUDAFEvaluator {
+
+  static final Log LOG = LogFactory.getLog(GenericUDAFWithErrorEvaluator.class.getName());
+
+  private static final String WITH_ERROR_SUFFIX = "#error";
+
+  // For PARTIAL1 and COMPLETE
+  protected PrimitiveObjectInspector inputOI;
+  private PrimitiveObjectInspector rateOI;
+  private PrimitiveObjectInspector zOI;
+
+  // For PARTIAL2 and FINAL
+  private StructObjectInspector soi;
+  private StructField countField;
+  private StructField sumField;
+  private StructField m2Field;
+  private StructField m3Field;
+  private StructField m4Field;
+  private StructField rateField;
+  private StructField zField;
+  private StructField[] weightedFields;
+  private LongObjectInspector countFieldOI;
+  private DoubleObjectInspector sumFieldOI;
+  private DoubleObjectInspector m2FieldOI;
+  private DoubleObjectInspector m3FieldOI;
+  private DoubleObjectInspector m4FieldOI;
+  private DoubleObjectInspector rateFieldOI;
+  private DoubleObjectInspector zFieldOI;
+  private DoubleObjectInspector[] weightedFieldOIs;
+
+  // the Horvitz-Thompson sums and the range of the rates in the partial
+  // aggregation, after count, sum, m2, m3, m4, rate and z
+  private static final String[] WEIGHTED_FIELDS = {"wcount", "wsum", "wsum2",
+      "vcount", "vsum", "vsum2", "vsum3", "vsum4", "minrate", "maxrate"};
+
+  // For PARTIAL1 and PARTIAL2
+  private Object[] partialResult;
+
+  // For FINAL and COMPLETE
+  private Object[] result;
+
+  /**
+   * The name the aggregate with error of the given aggregate is registered
+   * under. A HiveQL identifier cannot contain '#', even quoted, so only the
+   * semantic analyzer can call it and a user aggregate with three arguments
+   * is never taken for one with a sampling rate and z.
+   */
+  public static String getWithErrorName(String aggregate) {
+    return aggregate + WITH_ERROR_SUFFIX;
+  }
+
+  /**
+   * Check the arguments of an aggregate with error: a primitive input followed
+   * by the numeric sampling rate and z.
+   */
+  public static void checkParameters(TypeInfo[] parameters)
+      throws UDFArgumentTypeException {
+    if (parameters.length != 3) {
+      throw new UDFArgumentTypeException(parameters.length - 1,
+          "The input, the sampling rate and the confidence z are expected.");
+    }
+    for (int i = 1; i < parameters.length; i++) {
+      if (parameters[i].getCategory() != ObjectInspector.Category.PRIMITIVE) {
+        throw new UDFArgumentTypeException(i,
+            "Only a numeric sampling rate and z are accepted but "
+            + parameters[i].getTypeName() + " is passed.");
+      }
+      switch (((PrimitiveTypeInfo) parameters[i]).getPrimitiveCategory()) {
+      case BYTE:
+      case SHORT:
+      case INT:
+      case LONG:
+      case FLOAT:
+      case DOUBLE:
+        break;
+      default:
+        throw new UDFArgumentTypeException(i,
+            "Only a numeric sampling rate and z are accepted but "
+            + parameters[i].getTypeName() + " is passed.");
+      }
+    }
+  }
+
+  /**
+   * @return the name of the estimate in the output struct
+   */
+  protected abstract String getEstimateName();
+
+  /**
+   * @return the estimate of the aggregate over the base table
+   */
+  protected abstract double estimate(ErrorAgg agg);
+
+  /**
+   * @return the variance of the estimate
+   */
+  protected abstract double estimateVariance(ErrorAgg agg);
+
+  @Override
+  public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+    super.init(m, parameters);
+
+    // init input
+    if (mode == Mode.PARTIAL1 || mode == Mode.COMPLETE) {
+      assert (parameters.length == 3);
+      inputOI = (PrimitiveObjectInspector) parameters[0];
+      rateOI = (PrimitiveObjectInspector) parameters[1];
+      zOI = (PrimitiveObjectInspector) parameters[2];
+    } else {
+      assert (parameters.length == 1);
+      soi = (StructObjectInspector) parameters[0];
+
+      countField = soi.getStructFieldRef("count");
+      sumField = soi.getStructFieldRef("sum");
+      m2Field = soi.getStructFieldRef("m2");
+      m3Field = soi.getStructFieldRef("m3");
+      m4Field = soi.getStructFieldRef("m4");
+      rateField = soi.getStructFieldRef("rate");
+      zField = soi.getStructFieldRef("z");
+
+      countFieldOI = (LongObjectInspector) countField.getFieldObjectInspector();
+      sumFieldOI = (DoubleObjectInspector) sumField.getFieldObjectInspector();
+      m2FieldOI = (DoubleObjectInspector) m2Field.getFieldObjectInspector();
+      m3FieldOI = (DoubleObjectInspector) m3Field.getFieldObjectInspector();
+      m4FieldOI = (DoubleObjectInspector) m4Field.getFieldObjectInspector();
+      rateFieldOI = (DoubleObjectInspector) rateField.getFieldObjectInspector();
+      zFieldOI = (DoubleObjectInspector) zField.getFieldObjectInspector();
+      weightedFields = new StructField[WEIGHTED_FIELDS.length];
+      weightedFieldOIs = new DoubleObjectInspector[WEIGHTED_FIELDS.length];
+      for (int i = 0; i < WEIGHTED_FIELDS.length; i++) {
+        weightedFields[i] = soi.getStructFieldRef(WEIGHTED_FIELDS[i]);
+        weightedFieldOIs[i] = (DoubleObjectInspector) weightedFields[i].getFieldObjectInspector();
+      }
+    }
+
+    // init output
+    if (mode == Mode.PARTIAL1 || mode == Mode.PARTIAL2) {
+      // The output of a partial aggregation is a struct containing a long
+      // count, doubles sum, m2, m3 and m4, the sampling rate and z, and the
+      // weighted sums.
+      ArrayList<ObjectInspector> foi = new ArrayList<ObjectInspector>();
+      foi.add(PrimitiveObjectInspectorFactory.writableLongObjectInspector);
+      for (int i = 0; i < 6 + WEIGHTED_FIELDS.length; i++) {
+        foi.add(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector);
+      }
+      ArrayList<String> fname = new ArrayList<String>();
+      fname.add("count");
+      fname.add("sum");
+      fname.add("m2");
+      fname.add("m3");
+      fname.add("m4");
+      fname.add("rate");
+      fname.add("z");
+      fname.addAll(Arrays.asList(WEIGHTED_FIELDS));
+
+      partialResult = new Object[7 + WEIGHTED_FIELDS.length];
+      partialResult[0] = new LongWritable(0);
+      for (int i = 1; i < partialResult.length; i++) {
+        partialResult[i] = new DoubleWritable(0);
+      }
+      return ObjectInspectorFactory.getStandardStructObjectInspector(fname, foi);
+
+    } else {
+      ArrayList<String> fname = new ArrayList<String>();
+      fname.add(getEstimateName());
+      fname.add("error");
+      fname.add("ci");
+      ArrayList<ObjectInspector> foi = new ArrayList<ObjectInspector>();
+      foi.add(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector);
+      foi.add(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector);
+      foi.add(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector);
+
+      result = new Object[3];
+      result[0] = new DoubleWritable(0);
+      result[1] = new DoubleWritable(0);
+      result[2] = new DoubleWritable(0);
+      return ObjectInspectorFactory.getStandardStructObjectInspector(fname, foi);
+    }
+  }
+
+  static class ErrorAgg implements AggregationBuffer {
+    long count; // number of elements
+    double sum; // sum of elements
+    double m2; // sum[(x-avg)^2]
+    double m3; // sum[(x-avg)^3]
+    double m4; // sum[(x-avg)^4]
+    double rate; // sampling rate of the input
+    double z; // z of the confidence level
+    double wCount; // sum[w], w = 1 / rate of the row
+    double wSum; // sum[w * x]
+    double wSum2; // sum[w * x^2]
+    double vCount; // sum[w * (w - 1)]
+    double vSum; // sum[w * (w - 1) * x]
+    double vSum2; // sum[w * (w - 1) * x^2]
+    double vSum3; // sum[w * (w - 1) * x^3]
+    double vSum4; // sum[w * (w - 1) * x^4]
+    double minRate; // least rate of a row
+    double maxRate; // greatest rate of a row
+
+    double mean() {
+      return count == 0 ? 0 : sum / count;
+    }
+
+    /**
+     * @return true if the rows were sampled at different rates, so that the
+     *         estimates must be taken from the weighted sums
+     */
+    boolean mixedRates() {
+      return count > 0 && minRate < maxRate;
+    }
+
+    /**
+     * @return the Horvitz-Thompson estimate of the mean, the weighted sum
+     *         over the weighted count
+     */
+    double weightedMean() {
+      return wCount == 0 ? 0 : wSum / wCount;
+    }
+
+    /**
+     * @return the variance of the weighted mean, by linearization: the
+     *         variance of the weighted sum of the residuals x - mean over the
+     *         squared weighted count
+     */
+    double weightedMeanVariance() {
+      if (wCount == 0) {
+        return 0;
+      }
+      double r = weightedMean();
+      return (vSum2 - 2 * r * vSum + r * r * vCount) / (wCount * wCount);
+    }
+
+    /**
+     * @return the sampling rate, or 1 if the input is not a proper sample
+     */
+    double samplingRate() {
+      return rate > 0 && rate < 1 ? rate : 1.0;
+    }
+  };
+
+  /**
+   * Set the sampling rate a running aggregate is scaled up with. Online
+   * aggregation reads a growing fraction of the table and rescales its
+   * aggregates after every wave.
+   *
+   * @return false if the buffer is not one of an aggregate with error
+   */
+  public static boolean setSamplingRate(AggregationBuffer agg, double rate) {
+    if (!(agg instanceof ErrorAgg)) {
+      return false;
+    }
+    ((ErrorAgg) agg).rate = rate;
+    return true;
+  }
+
+  @Override
+  public AggregationBuffer getNewAggregationBuffer() throws HiveException {
+    ErrorAgg result = new ErrorAgg();
+    reset(result);
+    return result;
+  }
+
+  @Override
+  public void reset(AggregationBuffer agg) throws HiveException {
+    ErrorAgg myagg = (ErrorAgg) agg;
+    myagg.count = 0;
+    myagg.sum = 0;
+    myagg.m2 = 0;
+    myagg.m3 = 0;
+    myagg.m4 = 0;
+    myagg.rate = 0;
+    myagg.z = 0;
+    myagg.wCount = 0;
+    myagg.wSum = 0;
+    myagg.wSum2 = 0;
+    myagg.vCount = 0;
+    myagg.vSum = 0;
+    myagg.vSum2 = 0;
+    myagg.vSum3 = 0;
+    myagg.vSum4 = 0;
+    myagg.minRate = 0;
+    myagg.maxRate = 0;
+  }
+
+  private boolean warned = false;
+
+  @Override
+  public void iterate(AggregationBuffer agg, Object[] parameters)
+      throws HiveException {
+    assert (parameters.length == 3);
+    Object p = parameters[0];
+    if (p != null) {
+      ErrorAgg myagg = (ErrorAgg) agg;
+      try {
+        double v = getValue(p);
+        myagg.rate = PrimitiveObjectInspectorUtils.getDouble(parameters[1], rateOI);
+        addWeighted(myagg, v, myagg.samplingRate());
+        add(myagg, v);
+        myagg.z = PrimitiveObjectInspectorUtils.getDouble(parameters[2], zOI);
+      } catch (NumberFormatException e) {
+        if (!warned) {
+          warned = true;
+          LOG.warn(getClass().getSimpleName() + " "
+              + StringUtils.stringifyException(e));
+          LOG.warn(getClass().getSimpleName()
+              + " ignoring similar exceptions.");
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the value a non-null input contributes to the moments
+   */
+  protected double getValue(Object p) {
+    return PrimitiveObjectInspectorUtils.getDouble(p, inputOI);
+  }
+
+  private static void addWeighted(ErrorAgg myagg, double v, double rate) {
+    if (myagg.count == 0) {
+      myagg.minRate = rate;
+      myagg.maxRate = rate;
+    } else {
+      myagg.minRate = Math.min(myagg.minRate, rate);
+      myagg.maxRate = Math.max(myagg.maxRate, rate);
+    }
+    double w = 1.0 / rate;
+    double ww = w * (w - 1);
+    double v2 = v * v;
+    myagg.wCount += w;
+    myagg.wSum += w * v;
+    myagg.wSum2 += w * v2;
+    myagg.vCount += ww;
+    myagg.vSum += ww * v;
+    myagg.vSum2 += ww * v2;
+    myagg.vSum3 += ww * v2 * v;
+    myagg.vSum4 += ww * v2 * v2;
+  }
+
+  private static void add(ErrorAgg myagg, double v) {
+    long n1 = myagg.count;
+    double n = n1 + 1;
+    double delta = v - myagg.mean();
+    double deltaN = delta / n;
+    double deltaN2 = deltaN * deltaN;
+    double term1 = delta * deltaN * n1;
+    myagg.m4 += term1 * deltaN2 * (n * n - 3 * n + 3) + 6 * deltaN2 * myagg.m2
+        - 4 * deltaN * myagg.m3;
+    myagg.m3 += term1 * deltaN * (n - 2) - 3 * deltaN * myagg.m2;
+    myagg.m2 += term1;
+    myagg.count++;
+    myagg.sum += v;
+  }
+
+  @Override
+  public Object terminatePartial(AggregationBuffer agg) throws HiveException {
+    ErrorAgg myagg = (ErrorAgg) agg;
+    ((LongWritable) partialResult[0]).set(myagg.count);
+    ((DoubleWritable) partialResult[1]).set(myagg.sum);
+    ((DoubleWritable) partialResult[2]).set(myagg.m2);
+    ((DoubleWritable) partialResult[3]).set(myagg.m3);
+    ((DoubleWritable) partialResult[4]).set(myagg.m4);
+    ((DoubleWritable) partialResult[5]).set(myagg.rate);
+    ((DoubleWritable) partialResult[6]).set(myagg.z);
+    double[] weighted = {myagg.wCount, myagg.wSum, myagg.wSum2, myagg.vCount,
+        myagg.vSum, myagg.vSum2, myagg.vSum3, myagg.vSum4, myagg.minRate, myagg.maxRate};
+    for (int i = 0; i < weighted.length; i++) {
+      ((DoubleWritable) partialResult[7 + i]).set(weighted[i]);
+    }
+    return partialResult;
+  }
+
+  @Override
+  public void merge(AggregationBuffer agg, Object partial) throws HiveException {
+    if (partial == null) {
+      return;
+    }
+    ErrorAgg myagg = (ErrorAgg) agg;
+    long m = countFieldOI.get(soi.getStructFieldData(partial, countField));
+    if (m == 0) {
+      return;
+    }
+    double sum = sumFieldOI.get(soi.getStructFieldData(partial, sumField));
+    double m2 = m2FieldOI.get(soi.getStructFieldData(partial, m2Field));
+    double m3 = m3FieldOI.get(soi.getStructFieldData(partial, m3Field));
+    double m4 = m4FieldOI.get(soi.getStructFieldData(partial, m4Field));
+    myagg.rate = rateFieldOI.get(soi.getStructFieldData(partial, rateField));
+    myagg.z = zFieldOI.get(soi.getStructFieldData(partial, zField));
+    double[] weighted = new double[WEIGHTED_FIELDS.length];
+    for (int i = 0; i < weighted.length; i++) {
+      weighted[i] = weightedFieldOIs[i].get(soi.getStructFieldData(partial, weightedFields[i]));
+    }
+    myagg.wCount += weighted[0];
+    myagg.wSum += weighted[1];
+    myagg.wSum2 += weighted[2];
+    myagg.vCount += weighted[3];
+    myagg.vSum += weighted[4];
+    myagg.vSum2 += weighted[5];
+    myagg.vSum3 += weighted[6];
+    myagg.vSum4 += weighted[7];
+    myagg.minRate = myagg.count == 0 ? weighted[8] : Math.min(myagg.minRate, weighted[8]);
+    myagg.maxRate = myagg.count == 0 ? weighted[9] : Math.max(myagg.maxRate, weighted[9]);
+
+    long n = myagg.count;
+    if (n == 0) {
+      // Just copy the information since there is nothing so far
+      myagg.count = m;
+      myagg.sum = sum;
+      myagg.m2 = m2;
+      myagg.m3 = m3;
+      myagg.m4 = m4;
+      return;
+    }
+
+    // Merge the two partials
+    double total = n + m;
+    double delta = sum / m - myagg.mean();
+    double delta2 = delta * delta;
+    double mergedM2 = myagg.m2 + m2 + delta2 * n * m / total;
+    double mergedM3 = myagg.m3 + m3
+        + delta2 * delta * n * m * (n - m) / (total * total)
+        + 3 * delta * (n * m2 - m * myagg.m2) / total;
+    double mergedM4 = myagg.m4 + m4
+        + delta2 * delta2 * n * m * ((double) n * n - (double) n * m + (double) m * m)
+        / (total * total * total)
+        + 6 * delta2 * ((double) n * n * m2 + (double) m * m * myagg.m2) / (total * total)
+        + 4 * delta * (n * m3 - m * myagg.m3) / total;
+    myagg.count += m;
+    myagg.sum += sum;
+    myagg.m2 = mergedM2;
+    myagg.m3 = mergedM3;
+    myagg.m4 = mergedM4;
+  }
+
+  @Override
+  public Object terminate(AggregationBuffer agg) throws HiveException {
+    ErrorAgg myagg = (ErrorAgg) agg;
+    if (myagg.count == 0) { // SQL standard - return null for zero elements
+      return null;
+    }
+    double variance = Math.max(estimateVariance(myagg), 0);
+    ((DoubleWritable) result[0]).set(estimate(myagg));
+    ((DoubleWritable) result[1]).set(myagg.z * Math.sqrt(variance));
+    ((DoubleWritable) result[2]).set(confidenceLevel(myagg.z));
+    return result;
+  }
+
+  /**
+   * @return the two-sided confidence level in percent of the normal z value
+   */
+  static double confidenceLevel(double z) {
+    return 100.0 * erf(Math.abs(z) / Math.sqrt(2.0));
+  }
+
+  /**
+   * Error function, after Abramowitz and Stegun 7.1.26 (|error| < 1.5e-7).
+   */
+  private static double erf(double x) {
+    double t = 1.0 / (1.0 + 0.3275911 * x);
+    double poly = t * (0.254829592 + t * (-0.284496736 + t * (1.421413741
+        + t * (-1.453152027 + t * 1.061405429))));
+    return 1.0 - poly * Math.exp(-x * x);
+  }
+}
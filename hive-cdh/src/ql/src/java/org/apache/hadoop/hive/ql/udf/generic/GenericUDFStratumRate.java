@@ -0,0 +1,181 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentLengthException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+
+/**
+ * GenericUDFStratumRate.
+ *
+ * Returns the sampling rate of the stratum of a row of a stratified sample,
+ * read from the strata table the sample was built with: one line per
+ * stratum of the strata values, the row count and the rate, separated by
+ * ^A. The semantic analyzer passes it as the sampling rate of the
+ * aggregates with error of a query on a stratified sample, so that every
+ * row is weighted by the inverse rate of its own stratum.
+ *
+ * The strata are read once per task, on the first row, and only those
+ * sampled at a rate below 1 are kept; all other strata are whole in the
+ * sample.
+ */
+@Description(name = "stratum_rate",
+    value = "_FUNC_(location, key1, key2, ...) - Returns the sampling rate of"
+    + " the stratum of the keys in the strata files at location")
+public class GenericUDFStratumRate extends GenericUDF {
+
+  private static final char STRATA_DELIM = '\001';
+  private static final String STRATA_NULL = "\\N";
+
+  private PrimitiveObjectInspector locationOI;
+  private PrimitiveObjectInspector[] keyOIs;
+  private Map<String, Double> rates;
+  private final StringBuilder key = new StringBuilder();
+  private final DoubleWritable result = new DoubleWritable();
+
+  @Override
+  public ObjectInspector initialize(ObjectInspector[] arguments)
+      throws UDFArgumentException {
+    if (arguments.length < 2) {
+      throw new UDFArgumentLengthException(
+          "The function stratum_rate(location, key1, key2, ...) needs at least 2 arguments.");
+    }
+    for (int i = 0; i < arguments.length; i++) {
+      if (arguments[i].getCategory() != ObjectInspector.Category.PRIMITIVE) {
+        throw new UDFArgumentTypeException(i,
+            "Only primitive arguments are accepted by stratum_rate, but "
+            + arguments[i].getTypeName() + " was given.");
+      }
+    }
+    locationOI = (PrimitiveObjectInspector) arguments[0];
+    if (locationOI.getPrimitiveCategory() != PrimitiveCategory.STRING) {
+      throw new UDFArgumentTypeException(0,
+          "The location of stratum_rate must be a string, but "
+          + arguments[0].getTypeName() + " was given.");
+    }
+    keyOIs = new PrimitiveObjectInspector[arguments.length - 1];
+    for (int i = 0; i < keyOIs.length; i++) {
+      keyOIs[i] = (PrimitiveObjectInspector) arguments[i + 1];
+    }
+    rates = null;
+    return PrimitiveObjectInspectorFactory.writableDoubleObjectInspector;
+  }
+
+  @Override
+  public Object evaluate(DeferredObject[] arguments) throws HiveException {
+    if (rates == null) {
+      Object location = arguments[0].get();
+      if (location == null) {
+        return null;
+      }
+      rates = readRates(PrimitiveObjectInspectorUtils.getString(location, locationOI),
+          keyOIs.length);
+    }
+    key.setLength(0);
+    for (int i = 0; i < keyOIs.length; i++) {
+      if (i > 0) {
+        key.append(STRATA_DELIM);
+      }
+      String value = PrimitiveObjectInspectorUtils.getString(arguments[i + 1].get(), keyOIs[i]);
+      key.append(value == null ? STRATA_NULL : value);
+    }
+    Double rate = rates.get(key.toString());
+    result.set(rate == null ? 1.0 : rate.doubleValue());
+    return result;
+  }
+
+  /**
+   * @return the rates below 1 of the strata in the files at location, by the
+   *         strata values separated by ^A
+   */
+  static Map<String, Double> readRates(String location, int keys) throws HiveException {
+    Map<String, Double> rates = new HashMap<String, Double>();
+    Path path = new Path(location);
+    try {
+      FileSystem fs = path.getFileSystem(new Configuration());
+      for (FileStatus file : fs.listStatus(path)) {
+        String name = file.getPath().getName();
+        if (file.isDir() || name.startsWith("_") || name.startsWith(".")) {
+          continue;
+        }
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+            fs.open(file.getPath()), "UTF-8"));
+        try {
+          String line;
+          while ((line = in.readLine()) != null) {
+            int end = -1;
+            for (int i = 0; i < keys && end < line.length(); i++) {
+              end = line.indexOf(STRATA_DELIM, end + 1);
+              if (end < 0) {
+                end = line.length();
+              }
+            }
+            int rateStart = line.lastIndexOf(STRATA_DELIM) + 1;
+            if (end >= line.length() || rateStart <= end) {
+              continue;
+            }
+            double rate = Double.parseDouble(line.substring(rateStart));
+            if (rate > 0 && rate < 1) {
+              rates.put(line.substring(0, end), rate);
+            }
+          }
+        } finally {
+          in.close();
+        }
+      }
+    } catch (IOException e) {
+      throw new HiveException("Unable to read the strata at " + location, e);
+    } catch (NumberFormatException e) {
+      throw new HiveException("Invalid sampling rate in the strata at " + location, e);
+    }
+    return rates;
+  }
+
+  @Override
+  public String getDisplayString(String[] children) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("stratum_rate(");
+    for (int i = 0; i < children.length; i++) {
+      if (i > 0) {
+        sb.append(',');
+      }
+      sb.append(children[i]);
+    }
+    sb.append(')');
+    return sb.toString();
+  }
+}
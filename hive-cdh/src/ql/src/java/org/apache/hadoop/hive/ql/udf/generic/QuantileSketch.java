@@ -0,0 +1,373 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+
+/**
+ * A mergeable quantile sketch that supports partial aggregations, after
+ * Karnin, Lang and Liberty, "Optimal Quantile Approximation in Streams"
+ * (FOCS 2016). The sketch is a stack of compactors: level h keeps items of
+ * weight 2^h. A level over its capacity is sorted, and every other item, from
+ * a random offset, is promoted to the level above with twice the weight. The
+ * capacities shrink by 2/3 from the top level down, so a sketch of accuracy k
+ * keeps about 3k items whatever the number of rows.
+ *
+ * Unlike a histogram, the rank error of a quantile is bounded: with
+ * probability 99% it is within {@link #getRankError()} times the number of
+ * rows. Two sketches merge level by level, which costs no more than the items
+ * they keep and does not loosen the bound.
+ */
+public class QuantileSketch {
+
+  public static final int DEFAULT_K = 2000;
+
+  // capacity of the lowest levels, and the ratio of the capacities of two
+  // adjacent levels
+  private static final int MIN_CAPACITY = 8;
+  private static final double CAPACITY_RATIO = 2.0 / 3.0;
+
+  // the 99% rank error of a quantile is about RANK_ERROR_COEF / k^RANK_ERROR_EXP,
+  // as measured for this compaction scheme in Apache DataSketches
+  private static final double RANK_ERROR_COEF = 2.296;
+  private static final double RANK_ERROR_EXP = 0.9723;
+
+  private int k;
+  private long n;
+  private double min;
+  private double max;
+  private int numLevels;
+  private double[][] levels;
+  private int[] levelSizes;
+  private Random prng;
+
+  // the items sorted with their cumulative weights, for quantile()
+  private double[] sortedItems;
+  private long[] cumulativeWeights;
+
+  /**
+   * Creates a new sketch. Note that the allocate() or merge() method must be
+   * called before the sketch can be used.
+   */
+  public QuantileSketch() {
+    // A fixed seed makes the result of a query the same on every run.
+    prng = new Random(31183);
+    reset();
+  }
+
+  /**
+   * Resets a sketch to its initial state. allocate() or merge() must be
+   * called again before use.
+   */
+  public void reset() {
+    k = 0;
+    n = 0;
+    min = Double.POSITIVE_INFINITY;
+    max = Double.NEGATIVE_INFINITY;
+    numLevels = 0;
+    levels = null;
+    levelSizes = null;
+    sortedItems = null;
+    cumulativeWeights = null;
+  }
+
+  /**
+   * Returns true if this sketch has been initialized by calling merge() or
+   * allocate().
+   */
+  public boolean isReady() {
+    return k != 0;
+  }
+
+  /**
+   * Sets the accuracy of the sketch.
+   *
+   * @param k The capacity of the top level. The rank error falls about as
+   *          1/k, and the sketch keeps about 3k items.
+   */
+  public void allocate(int k) {
+    this.k = Math.max(k, MIN_CAPACITY);
+    numLevels = 1;
+    levels = new double[][] {new double[this.k]};
+    levelSizes = new int[1];
+  }
+
+  /**
+   * Returns the number of values added to the sketch, or to the sketches
+   * merged into it.
+   */
+  public long getCount() {
+    return n;
+  }
+
+  /**
+   * Returns the number of items the sketch keeps.
+   */
+  public int getRetainedItems() {
+    int items = 0;
+    for (int h = 0; h < numLevels; h++) {
+      items += levelSizes[h];
+    }
+    return items;
+  }
+
+  /**
+   * Returns the rank error of a quantile as a fraction of the number of rows,
+   * at a confidence of 99%. It is 0 as long as no item has been compacted.
+   */
+  public double getRankError() {
+    if (numLevels <= 1) {
+      return 0;
+    }
+    return RANK_ERROR_COEF / Math.pow(k, RANK_ERROR_EXP);
+  }
+
+  /**
+   * Adds a new data point to the sketch.
+   *
+   * @param v The data point to add to the sketch.
+   */
+  public void add(double v) {
+    append(0, v);
+    n++;
+    min = Math.min(min, v);
+    max = Math.max(max, v);
+    if (levelSizes[0] > capacity(0)) {
+      compress();
+    }
+    sortedItems = null;
+  }
+
+  /**
+   * Takes a serialized sketch created by the serialize() method and merges it
+   * with the current sketch. The merged sketch has the accuracy of the less
+   * accurate of the two.
+   *
+   * @param other A serialized sketch created by the serialize() method
+   */
+  public void merge(List<DoubleWritable> other) {
+    if (other == null) {
+      return;
+    }
+    int otherK = (int) other.get(0).get();
+    long otherN = (long) other.get(1).get();
+    if (!isReady()) {
+      allocate(otherK);
+    } else {
+      k = Math.min(k, otherK);
+    }
+    if (otherN == 0) {
+      return;
+    }
+    min = Math.min(min, other.get(2).get());
+    max = Math.max(max, other.get(3).get());
+    n += otherN;
+
+    int otherLevels = (int) other.get(4).get();
+    while (numLevels < otherLevels) {
+      addLevel();
+    }
+    int item = 5 + otherLevels;
+    for (int h = 0; h < otherLevels; h++) {
+      int size = (int) other.get(5 + h).get();
+      for (int i = 0; i < size; i++) {
+        append(h, other.get(item++).get());
+      }
+    }
+    compress();
+    sortedItems = null;
+  }
+
+  /**
+   * Gets an approximate quantile value from the current sketch.
+   *
+   * @param q The requested quantile. 0 and 1 return the smallest and the
+   *          largest value.
+   * @return The quantile value.
+   */
+  public double quantile(double q) {
+    assert (n > 0);
+    if (q <= 0) {
+      return min;
+    }
+    if (q >= 1) {
+      return max;
+    }
+    if (sortedItems == null) {
+      sort();
+    }
+    long totalWeight = cumulativeWeights[cumulativeWeights.length - 1];
+    double rank = q * totalWeight;
+    int lo = 0;
+    int hi = cumulativeWeights.length - 1;
+    // the first item whose cumulative weight reaches the rank
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (cumulativeWeights[mid] < rank) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return sortedItems[lo];
+  }
+
+  /**
+   * Returns the items the sketch keeps, sorted. Item i stands for
+   * getItemWeight(i) of the values added to the sketch.
+   */
+  double[] getSortedItems() {
+    if (sortedItems == null) {
+      sort();
+    }
+    return sortedItems;
+  }
+
+  /**
+   * Returns the number of values the i-th item of getSortedItems() stands for.
+   */
+  long getItemWeight(int i) {
+    if (sortedItems == null) {
+      sort();
+    }
+    return i == 0 ? cumulativeWeights[0] : cumulativeWeights[i] - cumulativeWeights[i - 1];
+  }
+
+  /**
+   * In preparation for a Hive merge() call, serializes the current sketch into
+   * an ArrayList of DoubleWritable objects: k, the count, the smallest and the
+   * largest value, the number of levels, the size of each level, and then the
+   * items of each level. This list is deserialized and merged by the merge
+   * method.
+   *
+   * @return An ArrayList of Hadoop DoubleWritable objects that represents the
+   *         current sketch.
+   */
+  public ArrayList<DoubleWritable> serialize() {
+    ArrayList<DoubleWritable> result = new ArrayList<DoubleWritable>(
+        5 + numLevels + getRetainedItems());
+    result.add(new DoubleWritable(k));
+    result.add(new DoubleWritable(n));
+    result.add(new DoubleWritable(min));
+    result.add(new DoubleWritable(max));
+    result.add(new DoubleWritable(numLevels));
+    for (int h = 0; h < numLevels; h++) {
+      result.add(new DoubleWritable(levelSizes[h]));
+    }
+    for (int h = 0; h < numLevels; h++) {
+      for (int i = 0; i < levelSizes[h]; i++) {
+        result.add(new DoubleWritable(levels[h][i]));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * The capacity of a level: k for the top level, and 2/3 of the capacity of
+   * the level above for the others.
+   */
+  private int capacity(int h) {
+    int depth = numLevels - 1 - h;
+    return Math.max(MIN_CAPACITY, (int) Math.ceil(k * Math.pow(CAPACITY_RATIO, depth)));
+  }
+
+  private void append(int h, double v) {
+    if (levelSizes[h] == levels[h].length) {
+      levels[h] = Arrays.copyOf(levels[h], levels[h].length * 2);
+    }
+    levels[h][levelSizes[h]++] = v;
+  }
+
+  private void addLevel() {
+    levels = Arrays.copyOf(levels, numLevels + 1);
+    levelSizes = Arrays.copyOf(levelSizes, numLevels + 1);
+    levels[numLevels] = new double[Math.max(MIN_CAPACITY, k)];
+    numLevels++;
+  }
+
+  /**
+   * Compacts the lowest level over its capacity until none is.
+   */
+  private void compress() {
+    int h = 0;
+    while (h < numLevels) {
+      if (levelSizes[h] > capacity(h)) {
+        compact(h);
+        // a new top level shrinks the capacities of the levels below
+        h = 0;
+      } else {
+        h++;
+      }
+    }
+  }
+
+  /**
+   * Promotes every other item of a level, from a random offset, to the level
+   * above. An odd item out, the smallest, stays.
+   */
+  private void compact(int h) {
+    if (h == numLevels - 1) {
+      addLevel();
+    }
+    double[] items = levels[h];
+    int size = levelSizes[h];
+    Arrays.sort(items, 0, size);
+    int kept = size % 2;
+    for (int i = kept + (prng.nextBoolean() ? 1 : 0); i < size; i += 2) {
+      append(h + 1, items[i]);
+    }
+    levelSizes[h] = kept;
+  }
+
+  private void sort() {
+    int items = getRetainedItems();
+    sortedItems = new double[items];
+    long[] weights = new long[items];
+    int sorted = 0;
+    for (int h = 0; h < numLevels; h++) {
+      // merge the sorted level into the items sorted so far, from the end
+      int size = levelSizes[h];
+      double[] level = Arrays.copyOf(levels[h], size);
+      Arrays.sort(level);
+      long weight = 1L << h;
+      int i = sorted - 1;
+      int j = size - 1;
+      for (int out = sorted + size - 1; j >= 0; out--) {
+        if (i >= 0 && sortedItems[i] > level[j]) {
+          sortedItems[out] = sortedItems[i];
+          weights[out] = weights[i--];
+        } else {
+          sortedItems[out] = level[j--];
+          weights[out] = weight;
+        }
+      }
+      sorted += size;
+    }
+    cumulativeWeights = new long[items];
+    long total = 0;
+    for (int i = 0; i < items; i++) {
+      total += weights[i];
+      cumulativeWeights[i] = total;
+    }
+  }
+}
@@ -0,0 +1,173 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.costmodel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.hive.conf.HiveConf;
+
+/**
+ * TestCostModel.
+ *
+ */
+public class TestCostModel extends TestCase {
+
+  private HiveConf conf;
+  private List<SampleInfo> samples;
+
+  @Override
+  protected void setUp() {
+    conf = new HiveConf(TestCostModel.class);
+    HiveConf.setFloatVar(conf, HiveConf.ConfVars.QUICKSILVER_CONFIDENCE_Z, (float) 2.0);
+    HiveConf.setFloatVar(conf, HiveConf.ConfVars.QUICKSILVER_COSTMODEL_CV, (float) 1.0);
+    HiveConf.setFloatVar(conf, HiveConf.ConfVars.QUICKSILVER_JOB_COST, (float) 0.0);
+
+    // 1.6k, 16k and 160k rows, scanning in 1, 10 and 100 seconds
+    samples = new ArrayList<SampleInfo>();
+    samples.add(sample("t_sample_1", 1600, 1.0));
+    samples.add(sample("t_sample_2", 16000, 10.0));
+    samples.add(sample("t_sample_3", 160000, 100.0));
+  }
+
+  private SampleInfo sample(String name, long rows, double scanCost) {
+    SampleInfo info = new SampleInfo("t", name);
+    info.setRowCount(rows);
+    info.setScanCost(scanCost);
+    return info;
+  }
+
+  private String select(double errorBound, double timeBound) {
+    Bounds bounds = new Bounds();
+    bounds.errorBound = errorBound;
+    bounds.timeBound = timeBound;
+    SampleInfo selected = CostModel.getInstance().selectSample(samples, bounds, conf);
+    return selected == null ? null : selected.getSampleTable();
+  }
+
+  public void testErrorBoundPicksCheapestSatisfyingSample() {
+    // 2 * 1 / sqrt(n) <= 0.05 needs n >= 1600
+    assertEquals("t_sample_1", select(0.05, -1.0));
+    // needs n >= 6400
+    assertEquals("t_sample_2", select(0.025, -1.0));
+    // bounds that are not in any table still resolve
+    assertEquals("t_sample_3", select(0.01, -1.0));
+  }
+
+  public void testUnreachableErrorBoundScansBaseTable() {
+    assertNull(select(0.001, -1.0));
+  }
+
+  public void testTimeBoundPicksMostAccurateSampleInTime() {
+    assertEquals("t_sample_2", select(-1.0, 20.0));
+    assertEquals("t_sample_3", select(-1.0, 1000.0));
+    assertNull(select(-1.0, 0.5));
+  }
+
+  public void testTimeBoundWinsOverErrorBound() {
+    assertEquals("t_sample_2", select(0.01, 20.0));
+    assertEquals("t_sample_1", select(0.05, 20.0));
+  }
+
+  public void testProfileExtrapolatesFromProbe() {
+    // probe on the 1.6k sample took 2 seconds, 1 of them to launch the job;
+    // worst group has 100 rows with a coefficient of variation of 0.5
+    ErrorLatencyProfile profile = new ErrorLatencyProfile(samples.get(0), 2.0, 1.0, 1.0);
+    profile.addAvg(100, 10.0, 25.0);
+    profile.addAvg(1000, 10.0, 25.0);
+    assertEquals(2, profile.getNumGroups());
+    assertEquals(0.1, profile.predictError(1600, 2.0), 1e-9);
+    assertEquals(6400, profile.requiredRows(0.05, 2.0));
+    assertEquals(11.0, profile.predictLatency(16000), 1e-9);
+    // a probe faster than the job cost predicts no cost per row
+    assertEquals(1.0, new ErrorLatencyProfile(samples.get(0), 0.5, 1.0, 1.0)
+        .predictLatency(16000), 1e-9);
+
+    Bounds bounds = new Bounds();
+    bounds.errorBound = 0.05;
+    assertEquals("t_sample_2",
+        CostModel.getInstance().selectSample(samples, profile, bounds, conf).getSampleTable());
+    bounds.timeBound = 10.0;
+    assertEquals("t_sample_1",
+        CostModel.getInstance().selectSample(samples, profile, bounds, conf).getSampleTable());
+  }
+
+  public void testJobCostAddsToEverySample() {
+    // 8 seconds to launch the job: only the 1 second scan fits in 10
+    HiveConf.setFloatVar(conf, HiveConf.ConfVars.QUICKSILVER_JOB_COST, (float) 8.0);
+    assertEquals(9.0, CostModel.getInstance().predictLatency(samples.get(0), 1, 8.0), 1e-9);
+    assertEquals("t_sample_1", select(-1.0, 10.0));
+    assertNull(select(-1.0, 5.0));
+  }
+
+  public void testStratifiedSampleNeedsTheQueryColumns() {
+    // 20k rows, but at most 2000 of every city, scanning in 5 seconds
+    SampleInfo stratified = sample("t_sample_4", 20000, 5.0);
+    stratified.setStrataColumns(Arrays.asList("city"));
+    stratified.setStrataCap(2000);
+    samples.add(stratified);
+    assertEquals(2000, CostModel.getInstance().getErrorRows(stratified));
+
+    Bounds bounds = new Bounds();
+    bounds.errorBound = 0.025;
+    Set<String> byCity = new HashSet<String>(Arrays.asList("city"));
+    Set<String> byCustomer = new HashSet<String>(Arrays.asList("city", "customer"));
+    // the error is the one of 2000 rows, too many for 6400
+    assertEquals("t_sample_2",
+        CostModel.getInstance().selectSample(samples, bounds, conf, byCity).getSampleTable());
+    bounds.errorBound = 0.05;
+    assertEquals("t_sample_1",
+        CostModel.getInstance().selectSample(samples, bounds, conf, byCity).getSampleTable());
+    // the only sample meeting both bounds, for the queries it has the columns of
+    bounds.timeBound = 8.0;
+    samples.remove(0);
+    assertEquals("t_sample_4",
+        CostModel.getInstance().selectSample(samples, bounds, conf, byCity).getSampleTable());
+    assertNull(CostModel.getInstance().selectSample(samples, bounds, conf, byCustomer));
+    assertNull(CostModel.getInstance().selectSample(samples, bounds, conf));
+  }
+
+  public void testCatalogEntryRoundTrip() {
+    SampleInfo info = sample("t_sample_1", 1600, 1.0);
+    List<String> strata = new ArrayList<String>();
+    strata.add("city");
+    strata.add("customer");
+    info.setStrataColumns(strata);
+    info.setSampleSize(1024);
+    info.setSamplingRate(0.01);
+
+    Map<String, String> params = new HashMap<String, String>();
+    info.toParameters(params);
+    SampleInfo read = SampleInfo.fromParameters("t_sample_1", params);
+    assertEquals("t", read.getBaseTable());
+    assertEquals(1600, read.getRowCount());
+    assertEquals(1024, read.getSampleSize());
+    assertEquals(0.01, read.getSamplingRate(), 1e-9);
+    assertEquals(strata, read.getStrataColumns());
+
+    assertNull(SampleInfo.fromParameters("t", new HashMap<String, String>()));
+  }
+}
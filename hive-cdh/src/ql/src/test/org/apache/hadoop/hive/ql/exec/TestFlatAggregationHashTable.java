@@ -0,0 +1,212 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.hive.ql.plan.AggregationDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFAverage;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFCount;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFMax;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFMin;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFResolver;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFSum;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFVariance;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.Mode;
+import org.apache.hadoop.hive.serde2.SerDeUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.Text;
+
+/**
+ * TestFlatAggregationHashTable.
+ *
+ */
+public class TestFlatAggregationHashTable extends TestCase {
+
+  private static final int ROWS = 50000;
+
+  private final ObjectInspector[] keyOIs = {
+      PrimitiveObjectInspectorFactory.writableStringObjectInspector,
+      PrimitiveObjectInspectorFactory.javaIntObjectInspector};
+
+  private final List<GenericUDAFEvaluator> evaluators = new ArrayList<GenericUDAFEvaluator>();
+  private final List<GenericUDAFEvaluator> expectedEvaluators = new ArrayList<GenericUDAFEvaluator>();
+  private final List<AggregationDesc> aggrs = new ArrayList<AggregationDesc>();
+  private final List<ObjectInspector[]> parameterOIs = new ArrayList<ObjectInspector[]>();
+  private final List<ObjectInspector> outputOIs = new ArrayList<ObjectInspector>();
+
+  private void addAggregation(GenericUDAFResolver resolver, TypeInfo type,
+      ObjectInspector oi) throws Exception {
+    TypeInfo[] types = type == null ? new TypeInfo[0] : new TypeInfo[] {type};
+    ObjectInspector[] ois = oi == null ? new ObjectInspector[0] : new ObjectInspector[] {oi};
+    GenericUDAFEvaluator evaluator = resolver.getEvaluator(types);
+    GenericUDAFEvaluator expected = resolver.getEvaluator(types);
+    outputOIs.add(evaluator.init(Mode.PARTIAL1, ois));
+    expected.init(Mode.PARTIAL1, ois);
+    evaluators.add(evaluator);
+    expectedEvaluators.add(expected);
+    aggrs.add(new AggregationDesc(resolver.getClass().getSimpleName(), evaluator,
+        new ArrayList<ExprNodeDesc>(), false, Mode.PARTIAL1));
+    parameterOIs.add(ois);
+  }
+
+  private FlatAggregationHashTable newTable() {
+    return new FlatAggregationHashTable(keyOIs,
+        evaluators.toArray(new GenericUDAFEvaluator[0]), aggrs,
+        parameterOIs.toArray(new ObjectInspector[0][]));
+  }
+
+  /**
+   * Aggregate random rows in the table and in heap aggregation buffers and
+   * check that both give the same partial results.
+   */
+  private void checkAggregations(FlatAggregationHashTable table, boolean clear)
+      throws Exception {
+    Random random = new Random(7);
+    Map<String, AggregationBuffer[]> expected = new HashMap<String, AggregationBuffer[]>();
+    Object[] keys = new Object[2];
+    for (int i = 0; i < ROWS; i++) {
+      int group = random.nextInt(1000);
+      keys[0] = group % 7 == 0 ? null : new Text("group" + group % 100);
+      keys[1] = Integer.valueOf(group / 100);
+      Object value = random.nextInt(20) == 0 ? null : Integer.valueOf(random.nextInt(1000) - 500);
+
+      String key = keys[0] + "/" + keys[1];
+      AggregationBuffer[] aggs = expected.get(key);
+      int entry = table.findOrAdd(keys);
+      assertEquals(aggs == null, table.isAdded());
+      if (aggs == null) {
+        aggs = new AggregationBuffer[evaluators.size()];
+        for (int a = 0; a < aggs.length; a++) {
+          aggs[a] = expectedEvaluators.get(a).getNewAggregationBuffer();
+        }
+        expected.put(key, aggs);
+      }
+      for (int a = 0; a < aggs.length; a++) {
+        Object[] parameters = parameterOIs.get(a).length == 0 ? new Object[0] : new Object[] {value};
+        expectedEvaluators.get(a).aggregate(aggs[a], parameters);
+        table.aggregate(entry, a, parameters);
+      }
+    }
+
+    assertEquals(expected.size(), table.size());
+    for (int entry = 0; entry < table.size(); entry++) {
+      Object[] entryKeys = table.getKeys(entry);
+      String key = entryKeys[0] + "/" + entryKeys[1];
+      AggregationBuffer[] aggs = expected.remove(key);
+      assertNotNull(key, aggs);
+      for (int a = 0; a < aggs.length; a++) {
+        ObjectInspector oi = outputOIs.get(a);
+        assertEquals(key + " " + aggrs.get(a).getGenericUDAFName(),
+            SerDeUtils.getJSONString(expectedEvaluators.get(a).evaluate(aggs[a]), oi),
+            SerDeUtils.getJSONString(table.evaluate(entry, a), oi));
+      }
+    }
+    assertTrue(expected.isEmpty());
+    if (clear) {
+      table.clear();
+      assertEquals(0, table.size());
+    }
+  }
+
+  public void testFlatAggregations() throws Exception {
+    addAggregation(new GenericUDAFSum(), TypeInfoFactory.intTypeInfo,
+        PrimitiveObjectInspectorFactory.javaIntObjectInspector);
+    addAggregation(new GenericUDAFCount(), TypeInfoFactory.intTypeInfo,
+        PrimitiveObjectInspectorFactory.javaIntObjectInspector);
+    addAggregation(new GenericUDAFCount(), null, null);
+    addAggregation(new GenericUDAFMin(), TypeInfoFactory.intTypeInfo,
+        PrimitiveObjectInspectorFactory.javaIntObjectInspector);
+    addAggregation(new GenericUDAFMax(), TypeInfoFactory.intTypeInfo,
+        PrimitiveObjectInspectorFactory.javaIntObjectInspector);
+    addAggregation(new GenericUDAFAverage(), TypeInfoFactory.intTypeInfo,
+        PrimitiveObjectInspectorFactory.javaIntObjectInspector);
+
+    FlatAggregationHashTable table = newTable();
+    assertFalse(table.hasBoxedAggregations());
+    for (int a = 0; a < aggrs.size(); a++) {
+      assertTrue(table.isFlat(a));
+    }
+    // the second round reuses the slabs of the first
+    checkAggregations(table, false);
+    long bytes = table.getMemoryUsage();
+    assertTrue(bytes > 0);
+    table.clear();
+    assertEquals(0, table.getMemoryUsage());
+    checkAggregations(table, false);
+    assertEquals(bytes, table.getMemoryUsage());
+  }
+
+  public void testMemoryUsageAfterClear() throws Exception {
+    addAggregation(new GenericUDAFSum(), TypeInfoFactory.intTypeInfo,
+        PrimitiveObjectInspectorFactory.javaIntObjectInspector);
+
+    FlatAggregationHashTable table = newTable();
+    Object[] keys = new Object[2];
+    Object[] parameters = new Object[1];
+    for (int i = 0; i < ROWS; i++) {
+      keys[0] = new Text("group" + i);
+      keys[1] = Integer.valueOf(i);
+      parameters[0] = Integer.valueOf(i);
+      table.aggregate(table.findOrAdd(keys), 0, parameters);
+    }
+    long full = table.getMemoryUsage();
+
+    // a flushed table is as small as a new one, or the operator would flush
+    // after every row once it first filled up
+    table.clear();
+    assertEquals(0, table.getMemoryUsage());
+    keys[0] = new Text("group");
+    table.aggregate(table.findOrAdd(keys), 0, parameters);
+    assertTrue(table.getMemoryUsage() > 0);
+    assertTrue(table.getMemoryUsage() < full / 1000);
+  }
+
+  public void testBoxedAggregations() throws Exception {
+    addAggregation(new GenericUDAFSum(), TypeInfoFactory.intTypeInfo,
+        PrimitiveObjectInspectorFactory.javaIntObjectInspector);
+    addAggregation(new GenericUDAFVariance(), TypeInfoFactory.intTypeInfo,
+        PrimitiveObjectInspectorFactory.javaIntObjectInspector);
+
+    FlatAggregationHashTable table = newTable();
+    assertTrue(table.hasBoxedAggregations());
+    assertTrue(table.isFlat(0));
+    assertFalse(table.isFlat(1));
+    checkAggregations(table, true);
+    checkAggregations(table, false);
+  }
+
+  public void testSupportsKeys() {
+    assertTrue(FlatAggregationHashTable.supportsKeys(keyOIs));
+    assertFalse(FlatAggregationHashTable.supportsKeys(new ObjectInspector[] {
+        PrimitiveObjectInspectorFactory.writableVoidObjectInspector}));
+  }
+}
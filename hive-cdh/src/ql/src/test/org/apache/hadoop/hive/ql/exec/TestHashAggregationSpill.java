@@ -0,0 +1,171 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.plan.AggregationDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFAverage;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFSum;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.Mode;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * TestHashAggregationSpill.
+ *
+ */
+public class TestHashAggregationSpill extends TestCase {
+
+  private final ObjectInspector[] keyOIs = {
+      PrimitiveObjectInspectorFactory.writableStringObjectInspector};
+  private final ObjectInspector[] valueOIs = {
+      PrimitiveObjectInspectorFactory.javaLongObjectInspector};
+
+  private GenericUDAFEvaluator[] evaluators;
+  private List<AggregationDesc> aggrs;
+  private StructObjectInspector rowOI;
+  private HashAggregationSpill spill;
+
+  @Override
+  protected void setUp() throws Exception {
+    TypeInfo[] types = {TypeInfoFactory.longTypeInfo};
+    evaluators = new GenericUDAFEvaluator[] {
+        new GenericUDAFSum().getEvaluator(types),
+        new GenericUDAFAverage().getEvaluator(types)};
+    aggrs = new ArrayList<AggregationDesc>();
+    List<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>();
+    fieldOIs.add(keyOIs[0]);
+    for (GenericUDAFEvaluator evaluator : evaluators) {
+      fieldOIs.add(evaluator.init(Mode.PARTIAL1, valueOIs));
+      aggrs.add(new AggregationDesc("agg", evaluator, new ArrayList<ExprNodeDesc>(),
+          false, Mode.PARTIAL1));
+    }
+    rowOI = ObjectInspectorFactory.getStandardStructObjectInspector(
+        Arrays.asList("_col0", "_col1", "_col2"), fieldOIs);
+    spill = new HashAggregationSpill(rowOI, keyOIs, evaluators, aggrs, 4);
+  }
+
+  @Override
+  protected void tearDown() {
+    spill.close();
+  }
+
+  /**
+   * Write a sorted run of the partial aggregates of the values of every key.
+   */
+  private void writeRun(TreeMap<String, long[]> run) throws HiveException {
+    spill.startRun(1);
+    for (String key : run.keySet()) {
+      GenericUDAFEvaluator.AggregationBuffer[] aggs =
+          new GenericUDAFEvaluator.AggregationBuffer[evaluators.length];
+      Object[] row = new Object[1 + evaluators.length];
+      row[0] = new Text(key);
+      for (int i = 0; i < evaluators.length; i++) {
+        aggs[i] = evaluators[i].getNewAggregationBuffer();
+        for (long v : run.get(key)) {
+          evaluators[i].iterate(aggs[i], new Object[] {Long.valueOf(v)});
+        }
+        row[1 + i] = evaluators[i].terminatePartial(aggs[i]);
+      }
+      spill.write(row);
+    }
+    spill.endRun();
+  }
+
+  public void testMergeRuns() throws Exception {
+    TreeMap<String, long[]> run1 = new TreeMap<String, long[]>();
+    run1.put("a", new long[] {1, 2});
+    run1.put("c", new long[] {10});
+    TreeMap<String, long[]> run2 = new TreeMap<String, long[]>();
+    run2.put("b", new long[] {5});
+    run2.put("c", new long[] {20, 30});
+    TreeMap<String, long[]> run3 = new TreeMap<String, long[]>();
+    run3.put("a", new long[] {3});
+
+    assertFalse(spill.isSpilled(1));
+    writeRun(run1);
+    writeRun(run2);
+    writeRun(run3);
+    assertTrue(spill.isSpilled(1));
+    assertFalse(spill.isSpilled(0));
+    assertEquals(5, spill.getSpilledRows());
+
+    String[] keys = {"a", "b", "c"};
+    long[] sums = {6, 5, 60};
+    long[] counts = {3, 1, 3};
+    spill.mergeRuns(1);
+    for (int i = 0; i < keys.length; i++) {
+      Object[] row = spill.nextRow();
+      assertNotNull(row);
+      assertEquals(keys[i], row[0].toString());
+      assertEquals(sums[i], ((LongWritable) row[1]).get());
+      Object[] avg = (Object[]) row[2];
+      assertEquals(counts[i], ((LongWritable) avg[0]).get());
+      assertEquals((double) sums[i], ((DoubleWritable) avg[1]).get());
+    }
+    assertNull(spill.nextRow());
+  }
+
+  public void testCompactRuns() throws Exception {
+    TreeMap<String, long[]> run = new TreeMap<String, long[]>();
+    run.put("a", new long[] {1});
+    run.put("b", new long[] {2});
+    for (int i = 0; i < HashAggregationSpill.MAX_RUNS; i++) {
+      writeRun(run);
+    }
+    spill.compactRuns(1);
+    assertEquals(1, spill.getNumRuns(1));
+
+    spill.mergeRuns(1);
+    Object[] row = spill.nextRow();
+    assertEquals("a", row[0].toString());
+    assertEquals(HashAggregationSpill.MAX_RUNS, ((LongWritable) row[1]).get());
+    row = spill.nextRow();
+    assertEquals("b", row[0].toString());
+    assertEquals(2 * HashAggregationSpill.MAX_RUNS, ((LongWritable) row[1]).get());
+    assertNull(spill.nextRow());
+  }
+
+  public void testDistinctNotMerged() throws Exception {
+    aggrs.set(0, new AggregationDesc("agg", evaluators[0], new ArrayList<ExprNodeDesc>(),
+        true, Mode.PARTIAL1));
+    try {
+      new HashAggregationSpill(rowOI, keyOIs, evaluators, aggrs, 4);
+      fail("distinct aggregates cannot be merged");
+    } catch (HiveException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,120 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec;
+
+import java.io.File;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.hive.ql.exec.HashTableSinkOperator.HashTableSinkObjectCtx;
+import org.apache.hadoop.hive.ql.exec.persistence.MapJoinObjectValue;
+import org.apache.hadoop.hive.ql.exec.persistence.MapJoinRowContainer;
+import org.apache.hadoop.hive.ql.exec.persistence.MapJoinSingleKey;
+import org.apache.hadoop.hive.ql.exec.persistence.MappedMapJoinHashTable;
+import org.apache.hadoop.hive.serde.Constants;
+import org.apache.hadoop.hive.serde2.SerDe;
+import org.apache.hadoop.hive.serde2.lazybinary.LazyBinarySerDe;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * TestMappedMapJoinHashTable.
+ *
+ */
+public class TestMappedMapJoinHashTable extends TestCase {
+
+  private static final int VALUE_TAG = 1;
+  private static final int KEYS = 1000;
+
+  private File file;
+
+  private static void putMetaData(int tag, String columns, String types) throws Exception {
+    Properties props = new Properties();
+    props.setProperty(Constants.LIST_COLUMNS, columns);
+    props.setProperty(Constants.LIST_COLUMN_TYPES, types);
+    SerDe serde = new LazyBinarySerDe();
+    serde.initialize(null, props);
+    MapJoinMetaData.put(Integer.valueOf(tag), new HashTableSinkObjectCtx(
+        ObjectInspectorUtils.getStandardObjectInspector(serde.getObjectInspector(),
+        ObjectInspectorCopyOption.WRITABLE), serde, null, null));
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    MapJoinMetaData.clear();
+    putMetaData(-1, "key", "string");
+    putMetaData(VALUE_TAG, "name,count", "string:int");
+    file = File.createTempFile("TestMappedMapJoinHashTable", ".tmp");
+  }
+
+  @Override
+  protected void tearDown() {
+    file.delete();
+    MapJoinMetaData.clear();
+  }
+
+  public void testProbe() throws Exception {
+    MappedMapJoinHashTable table = new MappedMapJoinHashTable();
+    for (int k = 0; k < KEYS; k++) {
+      MapJoinRowContainer<Object[]> rows = new MapJoinRowContainer<Object[]>();
+      // key k has k % 3 + 1 rows
+      for (int r = 0; r <= k % 3; r++) {
+        rows.add(new Object[] {new Text("row" + k + "-" + r), new IntWritable(r)});
+      }
+      table.put(new MapJoinSingleKey(new Text("key" + k)), new MapJoinObjectValue(VALUE_TAG, rows));
+    }
+    table.flushMemoryCacheToPersistent(file);
+    table.close();
+
+    MappedMapJoinHashTable mapped = new MappedMapJoinHashTable();
+    mapped.initilizePersistentHash(file.getPath());
+    assertEquals(KEYS, mapped.size());
+    for (int k = KEYS - 1; k >= 0; k--) {
+      // twice, the second probe hits the last key
+      for (int i = 0; i < 2; i++) {
+        MapJoinObjectValue value = mapped.get(new MapJoinSingleKey(new Text("key" + k)));
+        assertNotNull(value);
+        assertEquals(VALUE_TAG, value.getMetadataTag());
+        MapJoinRowContainer<Object[]> rows = value.getObj();
+        assertEquals(k % 3 + 1, rows.size());
+        int r = 0;
+        for (Object[] row = rows.first(); row != null; row = rows.next()) {
+          assertEquals("row" + k + "-" + r, row[0].toString());
+          assertEquals(r, ((IntWritable) row[1]).get());
+          r++;
+        }
+      }
+    }
+    assertNull(mapped.get(new MapJoinSingleKey(new Text("key" + KEYS))));
+    mapped.close();
+  }
+
+  public void testEmptyTable() throws Exception {
+    MappedMapJoinHashTable table = new MappedMapJoinHashTable();
+    table.flushMemoryCacheToPersistent(file);
+
+    MappedMapJoinHashTable mapped = new MappedMapJoinHashTable();
+    mapped.initilizePersistentHash(file.getPath());
+    assertEquals(0, mapped.size());
+    assertNull(mapped.get(new MapJoinSingleKey(new Text("key"))));
+  }
+}
@@ -0,0 +1,120 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.ql.exec.persistence.RowContainer;
+import org.apache.hadoop.hive.ql.io.HiveSequenceFileOutputFormat;
+import org.apache.hadoop.hive.ql.plan.TableDesc;
+import org.apache.hadoop.hive.serde2.SerDe;
+import org.apache.hadoop.hive.serde2.lazybinary.LazyBinarySerDe;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.mapred.SequenceFileInputFormat;
+
+/**
+ * TestRowContainer.
+ *
+ */
+public class TestRowContainer extends TestCase {
+
+  private static final int BLOCK_SIZE = 7;
+
+  public void testTableFormatSpill() throws Exception {
+    checkSpill(new HiveConf(TestRowContainer.class), 30);
+  }
+
+  public void testBlockSpill() throws Exception {
+    HiveConf conf = new HiveConf(TestRowContainer.class);
+    HiveConf.setBoolVar(conf, HiveConf.ConfVars.HIVEJOINSPILLBLOCKS, true);
+    checkSpill(conf, 30);
+    // a whole number of blocks, and no block at all
+    checkSpill(conf, 3 * BLOCK_SIZE);
+    checkSpill(conf, BLOCK_SIZE - 1);
+  }
+
+  public void testCompressedBlockSpill() throws Exception {
+    HiveConf conf = new HiveConf(TestRowContainer.class);
+    HiveConf.setBoolVar(conf, HiveConf.ConfVars.HIVEJOINSPILLBLOCKS, true);
+    HiveConf.setVar(conf, HiveConf.ConfVars.HIVEJOINSPILLCODEC,
+        DefaultCodec.class.getName());
+    checkSpill(conf, 100);
+  }
+
+  private void checkSpill(HiveConf conf, int numRows) throws Exception {
+    RowContainer<List<Object>> rc = createRowContainer(conf);
+    for (int round = 0; round < 2; round++) {
+      for (int i = 0; i < numRows; i++) {
+        rc.add(row(i));
+      }
+      assertEquals(numRows, rc.size());
+      // the rows read back, twice
+      for (int pass = 0; pass < 2; pass++) {
+        int i = 0;
+        for (List<Object> row = rc.first(); row != null; row = rc.next()) {
+          assertEquals(row(i), row);
+          i++;
+        }
+        assertEquals(numRows, i);
+      }
+      // and again once cleared
+      rc.clear();
+    }
+  }
+
+  private static List<Object> row(int i) {
+    List<Object> row = new ArrayList<Object>(2);
+    row.add(new IntWritable(i));
+    row.add(new Text("value_" + i));
+    return row;
+  }
+
+  @SuppressWarnings("unchecked")
+  private RowContainer<List<Object>> createRowContainer(HiveConf conf)
+      throws Exception {
+    TableDesc tblDesc = new TableDesc(LazyBinarySerDe.class,
+        SequenceFileInputFormat.class, HiveSequenceFileOutputFormat.class,
+        Utilities.makeProperties(
+        org.apache.hadoop.hive.serde.Constants.SERIALIZATION_FORMAT, ""
+        + Utilities.ctrlaCode,
+        org.apache.hadoop.hive.serde.Constants.LIST_COLUMNS, "key,value",
+        org.apache.hadoop.hive.serde.Constants.LIST_COLUMN_TYPES, "int,string"));
+    SerDe serde = new LazyBinarySerDe();
+    serde.initialize(null, tblDesc.getProperties());
+    List<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>();
+    fieldOIs.add(PrimitiveObjectInspectorFactory.writableIntObjectInspector);
+    fieldOIs.add(PrimitiveObjectInspectorFactory.writableStringObjectInspector);
+
+    RowContainer<List<Object>> rc = new RowContainer<List<Object>>(BLOCK_SIZE, conf);
+    rc.setSerDe(serde, ObjectInspectorFactory.getStandardStructObjectInspector(
+        Arrays.asList("key", "value"), fieldOIs));
+    rc.setTableDesc(tblDesc);
+    return rc;
+  }
+}
@@ -0,0 +1,246 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.exec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.ql.exec.vector.ColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.DoubleColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.LongColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizationContext;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatchCtx;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.VectorExpression;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.VectorFilterExpression;
+import org.apache.hadoop.hive.ql.parse.TypeCheckProcFactory;
+import org.apache.hadoop.hive.ql.plan.AggregationDesc;
+import org.apache.hadoop.hive.ql.plan.CollectDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeColumnDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeConstantDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.ql.plan.FilterDesc;
+import org.apache.hadoop.hive.ql.plan.GroupByDesc;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFSum;
+import org.apache.hadoop.hive.serde2.objectinspector.InspectableObject;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapred.JobConf;
+
+/**
+ * TestVectorizedExecution.
+ *
+ * Checks the vectorized expressions and operators against the row mode ones.
+ */
+public class TestVectorizedExecution extends TestCase {
+
+  private static final int ROWS = 3000;
+
+  private final StructObjectInspector rowOI = ObjectInspectorFactory
+      .getStandardStructObjectInspector(Arrays.asList("a", "b", "s"), Arrays
+      .<ObjectInspector> asList(
+      PrimitiveObjectInspectorFactory.javaIntObjectInspector,
+      PrimitiveObjectInspectorFactory.javaDoubleObjectInspector,
+      PrimitiveObjectInspectorFactory.javaStringObjectInspector));
+
+  private final ExprNodeDesc a = new ExprNodeColumnDesc(TypeInfoFactory.intTypeInfo, "a", "", false);
+  private final ExprNodeDesc b = new ExprNodeColumnDesc(TypeInfoFactory.doubleTypeInfo, "b", "", false);
+  private final ExprNodeDesc s = new ExprNodeColumnDesc(TypeInfoFactory.stringTypeInfo, "s", "", false);
+
+  private List<List<Object>> rows;
+
+  @Override
+  protected void setUp() {
+    Random r = new Random(7);
+    rows = new ArrayList<List<Object>>();
+    for (int i = 0; i < ROWS; i++) {
+      Integer av = r.nextInt(10) == 0 ? null : Integer.valueOf(r.nextInt(100) - 20);
+      Double bv = r.nextInt(10) == 0 ? null : Double.valueOf(r.nextInt(400) / 4.0);
+      String sv = r.nextInt(10) == 0 ? null : "v" + r.nextInt(8);
+      rows.add(Arrays.<Object> asList(av, bv, sv));
+    }
+  }
+
+  private List<VectorizedRowBatch> batches() {
+    List<VectorizedRowBatch> batches = new ArrayList<VectorizedRowBatch>();
+    VectorizedRowBatchCtx ctx = null;
+    for (List<Object> row : rows) {
+      if (ctx == null) {
+        ctx = VectorizedRowBatchCtx.create(rowOI, null);
+      }
+      if (ctx.addRow(row)) {
+        batches.add(ctx.getBatch());
+        ctx = null;
+      }
+    }
+    if (ctx != null) {
+      batches.add(ctx.getBatch());
+    }
+    return batches;
+  }
+
+  private ExprNodeDesc func(String name, ExprNodeDesc... children) throws Exception {
+    return TypeCheckProcFactory.DefaultExprProcessor.getFuncExprNodeDesc(name, children);
+  }
+
+  private ExprNodeDesc constant(Object value) {
+    return new ExprNodeConstantDesc(value);
+  }
+
+  private void checkFilter(ExprNodeDesc predicate) throws Exception {
+    int passed = 0;
+    for (VectorizedRowBatch batch : batches()) {
+      StructObjectInspector oi = batch.getRowObjectInspector();
+      ExprNodeEvaluator eval = ExprNodeEvaluatorFactory.get(predicate);
+      PrimitiveObjectInspector resultOI = (PrimitiveObjectInspector) eval.initialize(oi);
+      boolean[] expected = new boolean[batch.size];
+      for (int i = 0; i < batch.size; i++) {
+        Object o = resultOI.getPrimitiveJavaObject(eval.evaluate(batch.getRow(i)));
+        expected[i] = Boolean.TRUE.equals(o);
+      }
+
+      VectorFilterExpression filter = new VectorizationContext(batch).getVectorFilter(predicate);
+      assertNotNull(predicate.getExprString(), filter);
+      filter.filter(batch);
+      boolean[] got = new boolean[expected.length];
+      for (int j = 0; j < batch.size; j++) {
+        got[batch.selectedInUse ? batch.selected[j] : j] = true;
+        passed++;
+      }
+      assertTrue(predicate.getExprString(), Arrays.equals(expected, got));
+    }
+    assertTrue(predicate.getExprString(), passed > 0);
+  }
+
+  public void testFilters() throws Exception {
+    checkFilter(func(">", a, constant(Integer.valueOf(30))));
+    checkFilter(func("<=", b, a));
+    checkFilter(func("=", s, constant("v3")));
+    checkFilter(func("and", func(">", a, constant(Integer.valueOf(0))),
+        func("<>", s, constant("v1"))));
+    checkFilter(func("or", func("<", b, constant(Double.valueOf(10))),
+        func("=", s, constant("v2"))));
+    checkFilter(func("not", func("or", func(">=", a, constant(Integer.valueOf(50))),
+        func("isnull", s))));
+    checkFilter(func("isnotnull", b));
+    checkFilter(func("=", func("+", a, constant(Integer.valueOf(1))), b));
+  }
+
+  private void checkExpression(ExprNodeDesc expr) throws Exception {
+    for (VectorizedRowBatch batch : batches()) {
+      ExprNodeEvaluator eval = ExprNodeEvaluatorFactory.get(expr);
+      PrimitiveObjectInspector resultOI = (PrimitiveObjectInspector) eval
+          .initialize(batch.getRowObjectInspector());
+
+      VectorExpression vexpr = new VectorizationContext(batch).getVectorExpression(expr);
+      assertNotNull(expr.getExprString(), vexpr);
+      ColumnVector result = vexpr.evaluate(batch);
+      for (int i = 0; i < batch.size; i++) {
+        Object o = resultOI.getPrimitiveJavaObject(eval.evaluate(batch.getRow(i)));
+        if (o == null) {
+          assertTrue(expr.getExprString(), result.isNull(i));
+          continue;
+        }
+        assertFalse(expr.getExprString(), result.isNull(i));
+        int row = result.isRepeating ? 0 : i;
+        double value = result instanceof LongColumnVector
+            ? ((LongColumnVector) result).vector[row]
+            : ((DoubleColumnVector) result).vector[row];
+        assertEquals(expr.getExprString(), ((Number) o).doubleValue(), value, 1e-9);
+      }
+    }
+  }
+
+  public void testExpressions() throws Exception {
+    checkExpression(func("+", func("*", a, constant(Integer.valueOf(3))), constant(Integer.valueOf(1))));
+    checkExpression(func("-", b, a));
+    checkExpression(func("/", a, constant(Integer.valueOf(4))));
+    checkExpression(func("negative", b));
+    checkExpression(func("abs", func("-", a, constant(Integer.valueOf(40)))));
+    checkExpression(func("bigint", b));
+  }
+
+  private Map<String, Long> groupBy(boolean vectorized) throws Exception {
+    ArrayList<ExprNodeDesc> keys = new ArrayList<ExprNodeDesc>();
+    keys.add(s);
+    ArrayList<ExprNodeDesc> params = new ArrayList<ExprNodeDesc>();
+    params.add(a);
+    GenericUDAFEvaluator eval = new GenericUDAFSum().getEvaluator(
+        new org.apache.hadoop.hive.serde2.typeinfo.TypeInfo[] {TypeInfoFactory.intTypeInfo});
+    ArrayList<AggregationDesc> aggrs = new ArrayList<AggregationDesc>();
+    aggrs.add(new AggregationDesc("sum", eval, params, false,
+        GenericUDAFEvaluator.Mode.PARTIAL1));
+    ArrayList<String> outputs = new ArrayList<String>(Arrays.asList("_col0", "_col1"));
+
+    Operator<FilterDesc> filterOp = OperatorFactory.get(new FilterDesc(
+        func(">", b, constant(Double.valueOf(20))), false));
+    Operator<GroupByDesc> groupByOp = OperatorFactory.getAndMakeChild(new GroupByDesc(
+        GroupByDesc.Mode.HASH, outputs, keys, aggrs, false, 0.5f, 0.99f), filterOp);
+    CollectOperator collectOp = (CollectOperator) OperatorFactory.getAndMakeChild(
+        new CollectDesc(Integer.valueOf(ROWS)), groupByOp);
+
+    JobConf jc = new JobConf(TestVectorizedExecution.class);
+    HiveConf.setBoolVar(jc, HiveConf.ConfVars.HIVEMAPAGGRHASHOFFHEAP, true);
+    List<VectorizedRowBatch> batches = batches();
+    filterOp.initialize(jc, new ObjectInspector[] {batches.get(0).getRowObjectInspector()});
+    for (VectorizedRowBatch batch : batches) {
+      if (vectorized) {
+        filterOp.processBatch(batch, 0);
+      } else {
+        for (int i = 0; i < batch.size; i++) {
+          filterOp.process(batch.getRow(i), 0);
+        }
+      }
+    }
+    filterOp.close(false);
+
+    Map<String, Long> sums = new HashMap<String, Long>();
+    InspectableObject io = new InspectableObject();
+    while (true) {
+      collectOp.retrieve(io);
+      if (io.o == null) {
+        break;
+      }
+      List<Object> fields = ((StructObjectInspector) io.oi).getStructFieldsDataAsList(io.o);
+      Object key = fields.get(0);
+      LongWritable sum = (LongWritable) fields.get(1);
+      assertNull(sums.put(key == null ? null : key.toString(), sum == null ? null : sum.get()));
+    }
+    return sums;
+  }
+
+  public void testGroupBy() throws Exception {
+    Map<String, Long> expected = groupBy(false);
+    assertTrue(expected.size() > 1);
+    assertEquals(expected, groupBy(true));
+  }
+}
@@ -0,0 +1,276 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.ql.parse.TypeCheckProcFactory;
+import org.apache.hadoop.hive.ql.plan.ExprNodeColumnDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeConstantDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.serde2.ColumnProjectionUtils;
+import org.apache.hadoop.hive.serde2.columnar.BytesRefArrayWritable;
+import org.apache.hadoop.hive.serde2.columnar.BytesRefWritable;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+
+/**
+ * TestRCFileColumnEncoding.
+ *
+ */
+public class TestRCFileColumnEncoding extends TestCase {
+
+  private static final int ROWS = 1000;
+  private static final int ROWS_PER_GROUP = 100;
+  private static final int COLUMNS = 4;
+
+  private Configuration conf;
+  private FileSystem fs;
+  private Path dir;
+  private Path file;
+
+  @Override
+  protected void setUp() throws Exception {
+    conf = new Configuration();
+    fs = FileSystem.getLocal(conf);
+    dir = new Path(System.getProperty("java.io.tmpdir"), "TestRCFileColumnEncoding");
+    fs.delete(dir, true);
+    file = new Path(dir, "test_rcfile_encoding");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    fs.delete(dir, true);
+  }
+
+  /**
+   * The cell of a row: a sequence of integers, a few repeated strings, a
+   * string that is different in every row and integers that are not all
+   * canonical.
+   */
+  private static String cell(int row, int column) {
+    switch (column) {
+    case 0:
+      return Integer.toString(row - 10);
+    case 1:
+      return "key" + (row / 7) % 3;
+    case 2:
+      return Integer.toHexString(row * 7919) + "-" + row;
+    default:
+      return row % 3 == 0 ? "\\N" : (row % 5 == 0 ? "00" : Long.toString(-row * 100000000000L));
+    }
+  }
+
+  private long writeFile(boolean encode, CompressionCodec codec, String types)
+      throws IOException {
+    RCFileOutputFormat.setColumnNumber(conf, COLUMNS);
+    conf.setInt(RCFile.RECORD_INTERVAL_CONF_STR, ROWS_PER_GROUP);
+    conf.set(RCFile.COLUMN_TYPES_CONF_STR, types);
+    HiveConf.setBoolVar(conf, HiveConf.ConfVars.HIVERCFILECOLUMNENCODING, encode);
+    RCFile.Writer writer = new RCFile.Writer(fs, conf, file, null, codec);
+    BytesRefArrayWritable row = new BytesRefArrayWritable(COLUMNS);
+    for (int i = 0; i < ROWS; i++) {
+      for (int j = 0; j < COLUMNS; j++) {
+        row.set(j, new BytesRefWritable(cell(i, j).getBytes("UTF-8")));
+      }
+      writer.append(row);
+    }
+    writer.close();
+    return fs.getFileStatus(file).getLen();
+  }
+
+  private static String toString(BytesRefWritable cell) throws IOException {
+    return new String(cell.getData(), cell.getStart(), cell.getLength(), "UTF-8");
+  }
+
+  private void checkRows(int... columns) throws IOException {
+    ArrayList<Integer> ids = new ArrayList<Integer>();
+    for (int column : columns) {
+      ids.add(column);
+    }
+    ColumnProjectionUtils.setReadColumnIDs(conf, ids);
+    RCFile.Reader reader = new RCFile.Reader(fs, file, conf);
+    LongWritable rowID = new LongWritable();
+    BytesRefArrayWritable row = new BytesRefArrayWritable();
+    int rows = 0;
+    while (reader.next(rowID)) {
+      reader.getCurrentRow(row);
+      for (int column : columns) {
+        assertEquals(cell(rows, column), toString(row.get(column)));
+      }
+      rows++;
+    }
+    assertEquals(ROWS, rows);
+    reader.close();
+  }
+
+  private void checkColumns() throws IOException {
+    ColumnProjectionUtils.setFullyReadColumns(conf);
+    RCFile.Reader reader = new RCFile.Reader(fs, file, conf);
+    BytesRefArrayWritable column = new BytesRefArrayWritable();
+    int rows = 0;
+    while (reader.nextColumnsBatch()) {
+      for (int j = 0; j < COLUMNS; j++) {
+        column = reader.getColumn(j, column);
+        assertEquals(ROWS_PER_GROUP, column.size());
+        for (int i = 0; i < column.size(); i++) {
+          assertEquals(cell(rows + i, j), toString(column.get(i)));
+        }
+      }
+      rows += ROWS_PER_GROUP;
+    }
+    assertEquals(ROWS, rows);
+    reader.close();
+  }
+
+  private void checkDictionary() throws IOException {
+    ColumnProjectionUtils.setFullyReadColumns(conf);
+    RCFile.Reader reader = new RCFile.Reader(fs, file, conf);
+    BytesRefArrayWritable dictionary = new BytesRefArrayWritable();
+    int rows = 0;
+    while (reader.nextColumnsBatch()) {
+      assertTrue(reader.isDictionaryEncoded(1));
+      assertFalse(reader.isDictionaryEncoded(0));
+      assertFalse(reader.isDictionaryEncoded(2));
+      assertNull(reader.getDictionaryIds(0));
+      assertNull(reader.getDictionary(2, null));
+
+      dictionary = reader.getDictionary(1, dictionary);
+      assertEquals(3, dictionary.size());
+      int[] ids = reader.getDictionaryIds(1);
+      assertEquals(ROWS_PER_GROUP, reader.getCurrentRecordRows());
+      for (int i = 0; i < ROWS_PER_GROUP; i++) {
+        assertEquals(cell(rows + i, 1), toString(dictionary.get(ids[i])));
+      }
+      rows += ROWS_PER_GROUP;
+    }
+    assertEquals(ROWS, rows);
+    reader.close();
+  }
+
+  /**
+   * @return the number of rows read through the filter s = value, after
+   *         checking that they are exactly the rows whose cell is the value
+   */
+  private int readEqual(String value, int skippedGroups) throws Exception {
+    ExprNodeDesc predicate = TypeCheckProcFactory.DefaultExprProcessor.getFuncExprNodeDesc("=",
+        new ExprNodeColumnDesc(TypeInfoFactory.stringTypeInfo, "s", "", false),
+        new ExprNodeConstantDesc(value));
+    ColumnProjectionUtils.setFullyReadColumns(conf);
+    RCFile.Reader reader = new RCFile.Reader(fs, file, conf);
+    reader.setRowGroupFilter(new RCFileRowGroupFilter(predicate,
+        Arrays.asList("a", "s", "h", "b")), Long.MAX_VALUE);
+    LongWritable rowID = new LongWritable();
+    BytesRefArrayWritable row = new BytesRefArrayWritable();
+    int rows = 0;
+    int expected = 0;
+    while (reader.next(rowID)) {
+      reader.getCurrentRow(row);
+      for (; expected < rowID.get(); expected++) {
+        assertFalse(cell(expected, 1).equals(value));
+      }
+      for (int j = 0; j < COLUMNS; j++) {
+        assertEquals(cell((int) rowID.get(), j), toString(row.get(j)));
+      }
+      assertEquals(value, toString(row.get(1)));
+      expected++;
+      rows++;
+    }
+    assertEquals(skippedGroups, reader.getSkippedRowGroups());
+    assertEquals(ROWS - rows - skippedGroups * ROWS_PER_GROUP, reader.getSkippedRows());
+    reader.close();
+    return rows;
+  }
+
+  public void testDictionaryFilter() throws Exception {
+    writeFile(true, new DefaultCodec(), "");
+    int rows = 0;
+    for (int i = 0; i < ROWS; i++) {
+      if (cell(i, 1).equals("key1")) {
+        rows++;
+      }
+    }
+    assertEquals(rows, readEqual("key1", 0));
+    // no dictionary holds the value
+    assertEquals(0, readEqual("key3", ROWS / ROWS_PER_GROUP));
+  }
+
+  public void testParseCanonicalLong() throws Exception {
+    assertEquals(0, parse("0"));
+    assertEquals(-42, parse("-42"));
+    assertEquals(999999999999999999L, parse("999999999999999999"));
+    assertEquals(Long.MIN_VALUE, parse("1000000000000000000"));
+    assertEquals(Long.MIN_VALUE, parse("007"));
+    assertEquals(Long.MIN_VALUE, parse("-0"));
+    assertEquals(Long.MIN_VALUE, parse("+1"));
+    assertEquals(Long.MIN_VALUE, parse("-"));
+    assertEquals(Long.MIN_VALUE, parse(""));
+    assertEquals(Long.MIN_VALUE, parse("1.5"));
+  }
+
+  private static long parse(String s) throws IOException {
+    byte[] bytes = ("x" + s).getBytes("UTF-8");
+    return RCFileColumnEncoder.parseCanonicalLong(bytes, 1, bytes.length - 1);
+  }
+
+  public void testEncoding() throws Exception {
+    long plainLength = writeFile(false, null, "");
+    long encodedLength = writeFile(true, null, "");
+    assertTrue(encodedLength < plainLength);
+    checkRows(0, 1, 2, 3);
+    checkRows(1, 3);
+    checkRows(0);
+    checkColumns();
+    checkDictionary();
+  }
+
+  public void testCompressedEncoding() throws Exception {
+    writeFile(true, new DefaultCodec(), "");
+    checkRows(0, 1, 2, 3);
+    checkRows(2, 1);
+    checkColumns();
+    checkDictionary();
+  }
+
+  public void testEncodingWithStats() throws Exception {
+    writeFile(true, null, "int:string:string:bigint");
+    RCFile.Reader reader = new RCFile.Reader(fs, file, conf);
+    assertTrue(reader.hasColumnStats());
+    RCFileColumnStats[] stats = reader.getFileColumnStats();
+    assertEquals(-10, stats[0].getMinLong());
+    assertEquals(ROWS - 11, stats[0].getMaxLong());
+    reader.close();
+    checkRows(0, 1, 2, 3);
+
+    writeFile(true, null, "");
+    reader = new RCFile.Reader(fs, file, conf);
+    assertFalse(reader.hasColumnStats());
+    reader.close();
+  }
+}
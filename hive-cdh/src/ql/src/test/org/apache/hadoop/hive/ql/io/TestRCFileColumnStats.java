@@ -0,0 +1,205 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.ql.exec.Utilities;
+import org.apache.hadoop.hive.ql.parse.TypeCheckProcFactory;
+import org.apache.hadoop.hive.ql.plan.ExprNodeColumnDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeConstantDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.ql.plan.TableScanDesc;
+import org.apache.hadoop.hive.serde.Constants;
+import org.apache.hadoop.hive.serde2.ColumnProjectionUtils;
+import org.apache.hadoop.hive.serde2.columnar.BytesRefArrayWritable;
+import org.apache.hadoop.hive.serde2.columnar.BytesRefWritable;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.JobConf;
+
+/**
+ * TestRCFileColumnStats.
+ *
+ */
+public class TestRCFileColumnStats extends TestCase {
+
+  private static final int ROWS = 1000;
+  private static final int ROWS_PER_GROUP = 100;
+
+  private final ExprNodeDesc a = new ExprNodeColumnDesc(TypeInfoFactory.intTypeInfo, "a", "", false);
+  private final ExprNodeDesc s = new ExprNodeColumnDesc(TypeInfoFactory.stringTypeInfo, "s", "", false);
+  private final List<String> columnNames = Arrays.asList("a", "s", "d");
+
+  private Configuration conf;
+  private FileSystem fs;
+  private Path dir;
+  private Path file;
+
+  @Override
+  protected void setUp() throws Exception {
+    conf = new Configuration();
+    fs = FileSystem.getLocal(conf);
+    dir = new Path(System.getProperty("java.io.tmpdir"), "TestRCFileColumnStats");
+    fs.delete(dir, true);
+    file = new Path(dir, "test_rcfile_stats");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    fs.delete(dir, true);
+  }
+
+  private void writeFile(boolean stats) throws IOException {
+    RCFileOutputFormat.setColumnNumber(conf, 3);
+    conf.setInt(RCFile.RECORD_INTERVAL_CONF_STR, ROWS_PER_GROUP);
+    conf.set(RCFile.COLUMN_TYPES_CONF_STR, stats ? "int:string:double" : "");
+    RCFile.Writer writer = new RCFile.Writer(fs, conf, file, null, null);
+    BytesRefArrayWritable row = new BytesRefArrayWritable(3);
+    for (int i = 0; i < ROWS; i++) {
+      row.set(0, new BytesRefWritable(Integer.toString(i).getBytes("UTF-8")));
+      row.set(1, new BytesRefWritable(("k" + (char) ('a' + i / ROWS_PER_GROUP)).getBytes("UTF-8")));
+      String d = i % 7 == 0 ? "\\N" : Double.toString(i / 4.0);
+      row.set(2, new BytesRefWritable(d.getBytes("UTF-8")));
+      writer.append(row);
+    }
+    writer.close();
+  }
+
+  private ExprNodeDesc func(String name, ExprNodeDesc... children) throws Exception {
+    return TypeCheckProcFactory.DefaultExprProcessor.getFuncExprNodeDesc(name, children);
+  }
+
+  private ExprNodeDesc constant(Object value) {
+    return new ExprNodeConstantDesc(value);
+  }
+
+  /**
+   * @return the first column of the rows read through the filter
+   */
+  private List<Integer> read(ExprNodeDesc predicate, int skippedGroups) throws IOException {
+    ColumnProjectionUtils.setFullyReadColumns(conf);
+    RCFile.Reader reader = new RCFile.Reader(fs, file, conf);
+    reader.setRowGroupFilter(new RCFileRowGroupFilter(predicate, columnNames), Long.MAX_VALUE);
+    List<Integer> values = new ArrayList<Integer>();
+    LongWritable rowID = new LongWritable();
+    BytesRefArrayWritable row = new BytesRefArrayWritable();
+    while (reader.next(rowID)) {
+      reader.getCurrentRow(row);
+      BytesRefWritable cell = row.get(0);
+      int value = Integer.parseInt(new String(cell.getData(), cell.getStart(),
+          cell.getLength(), "UTF-8"));
+      assertEquals(value, rowID.get());
+      values.add(value);
+    }
+    assertEquals(skippedGroups, reader.getSkippedRowGroups());
+    reader.close();
+    return values;
+  }
+
+  public void testStats() throws Exception {
+    writeFile(true);
+    RCFile.Reader reader = new RCFile.Reader(fs, file, conf);
+    assertTrue(reader.hasColumnStats());
+    RCFileColumnStats[] stats = reader.getFileColumnStats();
+    assertEquals(3, stats.length);
+    assertEquals(RCFileColumnStats.Kind.LONG, stats[0].getKind());
+    assertEquals(0, stats[0].getMinLong());
+    assertEquals(ROWS - 1, stats[0].getMaxLong());
+    assertEquals(0, stats[0].getNullCount());
+    assertEquals("ka", stats[1].getMinText().toString());
+    assertEquals("kj", stats[1].getMaxText().toString());
+    assertEquals((ROWS + 6) / 7, stats[2].getNullCount());
+    assertEquals(ROWS - (ROWS + 6) / 7, stats[2].getValueCount());
+    assertEquals(0.25, stats[2].getMinDouble());
+    assertEquals((ROWS - 1) / 4.0, stats[2].getMaxDouble());
+
+    LongWritable rowID = new LongWritable();
+    assertTrue(reader.next(rowID));
+    stats = reader.getColumnStats();
+    assertEquals(0, stats[0].getMinLong());
+    assertEquals(ROWS_PER_GROUP - 1, stats[0].getMaxLong());
+    assertEquals("ka", stats[1].getMaxText().toString());
+    reader.close();
+  }
+
+  public void testSkipRowGroups() throws Exception {
+    writeFile(true);
+    List<Integer> values = read(func("and",
+        func(">=", a, constant(Integer.valueOf(450))),
+        func("<", a, constant(Integer.valueOf(520)))), 8);
+    assertEquals(200, values.size());
+    assertEquals(Integer.valueOf(400), values.get(0));
+
+    // constant on the left
+    assertEquals(300, read(func(">", constant(Integer.valueOf(300)), a), 7).size());
+    assertEquals(100, read(func("=", s, constant("kc")), 9).size());
+    assertEquals(0, read(func("<", s, constant("ka")), 10).size());
+    // a disjunction is not used
+    assertEquals(ROWS, read(func("or", func("=", s, constant("kc")),
+        func("=", a, constant(Integer.valueOf(5)))), 0).size());
+    // doubles compared with an int column
+    assertEquals(100, read(func("<", a, constant(Double.valueOf(0.5))), 9).size());
+  }
+
+  public void testSkipFile() throws Exception {
+    writeFile(true);
+    JobConf job = new JobConf(conf);
+    ColumnProjectionUtils.setFullyReadColumns(job);
+    job.set(Constants.LIST_COLUMNS, "a,s,d");
+    FileSplit split = new FileSplit(file, 0, fs.getFileStatus(file).getLen(), (String[]) null);
+
+    job.set(TableScanDesc.FILTER_EXPR_CONF_STR, Utilities.serializeExpression(
+        func(">", a, constant(Integer.valueOf(ROWS)))));
+    RCFileRecordReader<LongWritable, BytesRefArrayWritable> rr =
+        new RCFileRecordReader<LongWritable, BytesRefArrayWritable>(job, split);
+    assertFalse(rr.next(rr.createKey(), rr.createValue()));
+    rr.close();
+
+    job.set(TableScanDesc.FILTER_EXPR_CONF_STR, Utilities.serializeExpression(
+        func(">=", a, constant(Integer.valueOf(ROWS - 1)))));
+    rr = new RCFileRecordReader<LongWritable, BytesRefArrayWritable>(job, split);
+    int rows = 0;
+    LongWritable key = rr.createKey();
+    BytesRefArrayWritable value = rr.createValue();
+    while (rr.next(key, value)) {
+      rows++;
+    }
+    assertEquals(ROWS_PER_GROUP, rows);
+    rr.close();
+  }
+
+  public void testNoStats() throws Exception {
+    writeFile(false);
+    RCFile.Reader reader = new RCFile.Reader(fs, file, conf);
+    assertFalse(reader.hasColumnStats());
+    assertNull(reader.getFileColumnStats());
+    reader.close();
+    assertEquals(ROWS, read(func("<", a, constant(Integer.valueOf(10))), 0).size());
+  }
+}
@@ -0,0 +1,124 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.sampling;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * TestReservoirSamplingJob.
+ *
+ */
+public class TestReservoirSamplingJob extends TestCase {
+
+  private static final int ROWS = 1000;
+
+  private File dir;
+  private Path[] inputs;
+  private Configuration conf;
+
+  @Override
+  protected void setUp() throws IOException {
+    dir = new File(System.getProperty("java.io.tmpdir"), "TestReservoirSamplingJob");
+    FileUtil.fullyDelete(dir);
+    dir.mkdirs();
+    // two files, so that the sample merges the reservoirs of two splits
+    inputs = new Path[2];
+    for (int f = 0; f < inputs.length; f++) {
+      File file = new File(dir, "input" + f + ".txt");
+      FileWriter out = new FileWriter(file);
+      for (int i = f; i < ROWS; i += inputs.length) {
+        out.write("row" + i + "\n");
+      }
+      out.close();
+      inputs[f] = new Path(file.toURI());
+    }
+    conf = new Configuration();
+    conf.set("mapred.job.tracker", "local");
+    conf.set("fs.default.name", "file:///");
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    FileUtil.fullyDelete(dir);
+  }
+
+  private Set<String> readSample(Path output) throws IOException {
+    Set<String> rows = new HashSet<String>();
+    File[] files = new File(output.toUri()).listFiles();
+    for (File file : files) {
+      if (file.getName().startsWith(".")) {
+        continue;
+      }
+      BufferedReader in = new BufferedReader(new FileReader(file));
+      String line;
+      while ((line = in.readLine()) != null) {
+        assertTrue("duplicate row " + line, rows.add(line));
+      }
+      in.close();
+    }
+    return rows;
+  }
+
+  public void testRowLimit() throws IOException {
+    Path output = new Path(new File(dir, "rows").toURI());
+    ReservoirSamplingJob.Result result = ReservoirSamplingJob.run(conf, inputs,
+        output, 100, Long.MAX_VALUE);
+    assertEquals(ROWS, result.getInputRows());
+    assertEquals(100, result.getSampleRows());
+    assertEquals(0.1, result.getSamplingRate(), 1e-9);
+
+    Set<String> rows = readSample(output);
+    assertEquals(100, rows.size());
+    for (String row : rows) {
+      int i = Integer.parseInt(row.substring(3));
+      assertTrue(i >= 0 && i < ROWS);
+    }
+  }
+
+  public void testByteLimit() throws IOException {
+    Path output = new Path(new File(dir, "bytes").toURI());
+    ReservoirSamplingJob.Result result = ReservoirSamplingJob.run(conf, inputs,
+        output, Long.MAX_VALUE, 500);
+    // the sample stops at the first row reaching the limit
+    assertTrue(result.getSampleBytes() >= 500);
+    assertTrue(result.getSampleBytes() < 500 + "row999\n".length());
+    assertEquals(result.getSampleRows(), readSample(output).size());
+  }
+
+  public void testSmallInput() throws IOException {
+    Path output = new Path(new File(dir, "all").toURI());
+    ReservoirSamplingJob.Result result = ReservoirSamplingJob.run(conf, inputs,
+        output, 10 * ROWS, Long.MAX_VALUE);
+    assertEquals(ROWS, result.getSampleRows());
+    assertEquals(1.0, result.getSamplingRate(), 1e-9);
+    assertEquals(ROWS, readSample(output).size());
+  }
+}
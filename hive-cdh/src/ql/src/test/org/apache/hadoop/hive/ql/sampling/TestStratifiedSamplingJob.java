@@ -0,0 +1,136 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.sampling;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * TestStratifiedSamplingJob.
+ *
+ */
+public class TestStratifiedSamplingJob extends TestCase {
+
+  private static final int CAP = 10;
+
+  private File dir;
+  private Path[] inputs;
+  private Configuration conf;
+
+  @Override
+  protected void setUp() throws IOException {
+    dir = new File(System.getProperty("java.io.tmpdir"), "TestStratifiedSamplingJob");
+    FileUtil.fullyDelete(dir);
+    dir.mkdirs();
+    // 500 rows of stratum 1, 3 of stratum 2 and 2 of the NULL stratum, split
+    // over two files
+    inputs = new Path[2];
+    for (int f = 0; f < inputs.length; f++) {
+      File file = new File(dir, "input" + f + ".txt");
+      FileWriter out = new FileWriter(file);
+      for (int i = f; i < 500; i += inputs.length) {
+        out.write("row" + i + "\u0001" + (i % 2 == 0 ? "1" : "01") + "\n");
+      }
+      for (int i = f; i < 3; i += inputs.length) {
+        out.write("small" + i + "\u00012\n");
+      }
+      out.write("null" + f + "\u0001" + (f == 0 ? "\\N" : "x") + "\n");
+      out.close();
+      inputs[f] = new Path(file.toURI());
+    }
+    conf = new Configuration();
+    conf.set("mapred.job.tracker", "local");
+    conf.set("fs.default.name", "file:///");
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    FileUtil.fullyDelete(dir);
+  }
+
+  private List<String> readLines(Path output, String prefix) throws IOException {
+    List<String> lines = new ArrayList<String>();
+    File[] files = new File(output.toUri()).listFiles();
+    for (File file : files) {
+      if (!file.getName().startsWith(prefix)) {
+        continue;
+      }
+      BufferedReader in = new BufferedReader(new FileReader(file));
+      String line;
+      while ((line = in.readLine()) != null) {
+        lines.add(line);
+      }
+      in.close();
+    }
+    return lines;
+  }
+
+  public void testCapPerStratum() throws IOException {
+    Path output = new Path(new File(dir, "sample").toURI());
+    StratifiedSamplingJob.Result result = StratifiedSamplingJob.run(conf, inputs,
+        output, Arrays.asList(1), Arrays.asList("int"), '\u0001', "\\N", CAP);
+    assertEquals(505, result.getInputRows());
+    assertEquals(CAP + 3 + 2, result.getSampleRows());
+    assertEquals(3, result.getStrata());
+
+    Map<String, Integer> rows = new HashMap<String, Integer>();
+    for (String line : readLines(output, "part-")) {
+      String stratum = line.substring(0, line.indexOf('\u0001'));
+      stratum = stratum.startsWith("row") ? "1" : stratum.replaceAll("[0-9]", "");
+      Integer count = rows.get(stratum);
+      rows.put(stratum, count == null ? 1 : count + 1);
+    }
+    assertEquals(Integer.valueOf(CAP), rows.get("1"));
+    assertEquals(Integer.valueOf(3), rows.get("small"));
+    assertEquals(Integer.valueOf(2), rows.get("null"));
+
+    Map<String, String> strata = new HashMap<String, String>();
+    for (String line : readLines(output, StratifiedSamplingJob.STRATA_OUTPUT + "-")) {
+      String[] fields = line.split("\u0001");
+      assertEquals(3, fields.length);
+      strata.put(fields[0], fields[1] + " " + fields[2]);
+    }
+    // "01" is the same stratum as "1", and "x" is NULL as an int
+    assertEquals("500 " + (CAP / 500.0), strata.get("1"));
+    assertEquals("3 1.0", strata.get("2"));
+    assertEquals("2 1.0", strata.get("\\N"));
+  }
+
+  public void testNormalize() {
+    assertEquals("7", StratifiedSamplingJob.normalize("007", "bigint"));
+    assertNull(StratifiedSamplingJob.normalize("seven", "int"));
+    assertEquals("1.5", StratifiedSamplingJob.normalize("1.50", "double"));
+    assertEquals("true", StratifiedSamplingJob.normalize("TRUE", "boolean"));
+    assertEquals("007", StratifiedSamplingJob.normalize("007", "string"));
+  }
+}
@@ -0,0 +1,149 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.Mode;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+
+/**
+ * TestGenericUDAFBlbError.
+ *
+ */
+public class TestGenericUDAFBlbError extends TestCase {
+
+  private static final int ROWS = 20000;
+  private static final double Z = 2.0;
+
+  private final ObjectInspector[] inputOIs = {
+      PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+      PrimitiveObjectInspectorFactory.javaDoubleObjectInspector,
+      PrimitiveObjectInspectorFactory.javaDoubleObjectInspector,
+      PrimitiveObjectInspectorFactory.javaDoubleObjectInspector};
+
+  private double[] values;
+
+  @Override
+  protected void setUp() {
+    // standard normal values: the mean and the median both have a standard
+    // error close to 1 / sqrt(ROWS)
+    Random random = new Random(42);
+    values = new double[ROWS];
+    for (int i = 0; i < ROWS; i++) {
+      values[i] = random.nextGaussian();
+    }
+  }
+
+  private double[] run(String aggregate, double percentile, int partials) throws Exception {
+    return run(values, aggregate, percentile, partials);
+  }
+
+  private double[] run(double[] values, String aggregate, double percentile, int partials)
+      throws Exception {
+    GenericUDAFEvaluator partial = new GenericUDAFBlbError.GenericUDAFBlbErrorEvaluator();
+    GenericUDAFEvaluator last = new GenericUDAFBlbError.GenericUDAFBlbErrorEvaluator();
+    ObjectInspector partialOI = partial.init(Mode.PARTIAL1, inputOIs);
+    last.init(Mode.FINAL, new ObjectInspector[] {partialOI});
+
+    AggregationBuffer finalAgg = last.getNewAggregationBuffer();
+    AggregationBuffer agg = partial.getNewAggregationBuffer();
+    int perPartial = values.length / partials;
+    for (int i = 0; i < values.length; i++) {
+      partial.iterate(agg, new Object[] {aggregate, Z, values[i], percentile});
+      if ((i + 1) % perPartial == 0) {
+        last.merge(finalAgg, partial.terminatePartial(agg));
+        partial.reset(agg);
+      }
+    }
+    Object[] result = (Object[]) last.terminate(finalAgg);
+    return new double[] {((DoubleWritable) result[0]).get(), ((DoubleWritable) result[1]).get()};
+  }
+
+  public void testMean() throws Exception {
+    double stderr = 1 / Math.sqrt(ROWS);
+    double[] result = run("avg", 0, 1);
+    assertEquals(0.0, result[0], 4 * stderr);
+    assertEquals(Z * stderr, result[1], 0.25 * Z * stderr);
+
+    // bags measured on a quarter of the rows each still add up to the error
+    // of the whole
+    result = run("avg", 0, 4);
+    assertEquals(0.0, result[0], 4 * stderr);
+    assertEquals(Z * stderr, result[1], 0.25 * Z * stderr);
+  }
+
+  public void testManyRows() throws Exception {
+    // the bags keep sketches of bounded size, yet the error is that of all
+    // the rows, not of what the sketches keep
+    int rows = 500000;
+    Random random = new Random(43);
+    double[] many = new double[rows];
+    for (int i = 0; i < rows; i++) {
+      many[i] = random.nextGaussian();
+    }
+    double stderr = 1 / Math.sqrt(rows);
+    double[] result = run(many, "avg", 0, 5);
+    assertEquals(0.0, result[0], 4 * stderr);
+    assertEquals(Z * stderr, result[1], 0.25 * Z * stderr);
+
+    stderr = Math.sqrt(Math.PI / 2) / Math.sqrt(rows);
+    result = run(many, "percentile", 0.5, 5);
+    assertEquals(0.0, result[0], 4 * stderr);
+    assertEquals(Z * stderr, result[1], 0.35 * Z * stderr);
+  }
+
+  public void testPercentile() throws Exception {
+    // the standard error of the median of a standard normal is
+    // sqrt(pi / 2) / sqrt(n)
+    double stderr = Math.sqrt(Math.PI / 2) / Math.sqrt(ROWS);
+    double[] result = run("percentile", 0.5, 2);
+    assertEquals(0.0, result[0], 4 * stderr);
+    assertEquals(Z * stderr, result[1], 0.35 * Z * stderr);
+  }
+
+  public void testSortedPartials() throws Exception {
+    // every partial holds a quarter of the sorted rows, so none of their
+    // medians is close to the median of the whole
+    double[] sorted = values.clone();
+    Arrays.sort(sorted);
+    double stderr = Math.sqrt(Math.PI / 2) / Math.sqrt(ROWS);
+    double[] result = run(sorted, "percentile", 0.5, 4);
+    assertEquals(0.0, result[0], 4 * stderr);
+    assertEquals(Z * stderr, result[1], 0.35 * Z * stderr);
+
+    result = run(sorted, "avg", 0, 4);
+    assertEquals(0.0, result[0], 4 / Math.sqrt(ROWS));
+  }
+
+  public void testUnsupportedAggregate() throws Exception {
+    try {
+      run("count", 0, 1);
+      fail("blb_error of count should fail");
+    } catch (Exception e) {
+      assertTrue(e.getMessage().contains("count"));
+    }
+  }
+}
@@ -0,0 +1,199 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.Mode;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+
+/**
+ * TestGenericUDAFPercentileSketch.
+ *
+ */
+public class TestGenericUDAFPercentileSketch extends TestCase {
+
+  private static final int ROWS = 100000;
+
+  private double[] values;
+  private double[] sorted;
+
+  @Override
+  protected void setUp() {
+    // exponential values, whose upper tail is long like that of latencies
+    Random random = new Random(42);
+    values = new double[ROWS];
+    for (int i = 0; i < ROWS; i++) {
+      values[i] = -Math.log(1 - random.nextDouble());
+    }
+    sorted = values.clone();
+    Arrays.sort(sorted);
+  }
+
+  /**
+   * @return the fraction of the values below v
+   */
+  private double rank(double v) {
+    int pos = Arrays.binarySearch(sorted, v);
+    return (pos < 0 ? -pos - 1 : pos) / (double) ROWS;
+  }
+
+  public void testSketchRankError() throws Exception {
+    QuantileSketch sketch = new QuantileSketch();
+    sketch.allocate(QuantileSketch.DEFAULT_K);
+    for (double v : values) {
+      sketch.add(v);
+    }
+    assertEquals(ROWS, sketch.getCount());
+    assertTrue(sketch.getRetainedItems() < 4 * QuantileSketch.DEFAULT_K);
+    double error = sketch.getRankError();
+    assertTrue(error > 0 && error < 0.002);
+    for (double q : new double[] {0.01, 0.25, 0.5, 0.95, 0.99, 0.999}) {
+      assertEquals(q, rank(sketch.quantile(q)), error);
+    }
+    assertEquals(sorted[0], sketch.quantile(0));
+    assertEquals(sorted[ROWS - 1], sketch.quantile(1));
+  }
+
+  public void testSmallInputIsExact() throws Exception {
+    QuantileSketch sketch = new QuantileSketch();
+    sketch.allocate(QuantileSketch.DEFAULT_K);
+    for (int i = 1; i <= 100; i++) {
+      sketch.add(i);
+    }
+    assertEquals(0.0, sketch.getRankError());
+    assertEquals(50.0, sketch.quantile(0.5));
+    assertEquals(99.0, sketch.quantile(0.99));
+  }
+
+  public void testSketchMerge() throws Exception {
+    QuantileSketch merged = new QuantileSketch();
+    for (int part = 0; part < 10; part++) {
+      QuantileSketch sketch = new QuantileSketch();
+      sketch.allocate(QuantileSketch.DEFAULT_K);
+      for (int i = part; i < ROWS; i += 10) {
+        sketch.add(values[i]);
+      }
+      merged.merge(sketch.serialize());
+    }
+    assertEquals(ROWS, merged.getCount());
+    assertTrue(merged.getRetainedItems() < 4 * QuantileSketch.DEFAULT_K);
+    for (double q : new double[] {0.5, 0.95, 0.99}) {
+      assertEquals(q, rank(merged.quantile(q)), merged.getRankError());
+    }
+  }
+
+  private Object run(TypeInfo[] types, ObjectInspector[] inputOIs, Object[] arguments,
+      int partials) throws Exception {
+    return run(new GenericUDAFPercentileSketch(), types, inputOIs, arguments, partials);
+  }
+
+  private Object run(GenericUDAFResolver resolver, TypeInfo[] types,
+      ObjectInspector[] inputOIs, Object[] arguments, int partials) throws Exception {
+    GenericUDAFEvaluator partial = resolver.getEvaluator(types);
+    GenericUDAFEvaluator last = resolver.getEvaluator(types);
+    ObjectInspector partialOI = partial.init(Mode.PARTIAL1, inputOIs);
+    last.init(Mode.FINAL, new ObjectInspector[] {partialOI});
+
+    AggregationBuffer finalAgg = last.getNewAggregationBuffer();
+    AggregationBuffer agg = partial.getNewAggregationBuffer();
+    int perPartial = ROWS / partials;
+    for (int i = 0; i < ROWS; i++) {
+      arguments[0] = values[i];
+      partial.iterate(agg, arguments);
+      if ((i + 1) % perPartial == 0) {
+        last.merge(finalAgg, partial.terminatePartial(agg));
+        partial.reset(agg);
+      }
+    }
+    return last.terminate(finalAgg);
+  }
+
+  public void testPercentiles() throws Exception {
+    TypeInfo[] types = {TypeInfoFactory.doubleTypeInfo,
+        TypeInfoFactory.getListTypeInfo(TypeInfoFactory.doubleTypeInfo)};
+    ObjectInspector[] inputOIs = {PrimitiveObjectInspectorFactory.javaDoubleObjectInspector,
+        ObjectInspectorFactory.getStandardListObjectInspector(
+        PrimitiveObjectInspectorFactory.javaDoubleObjectInspector)};
+    List<Double> quantiles = Arrays.asList(0.5, 0.95, 0.99);
+    List<DoubleWritable> result = (List<DoubleWritable>) run(types, inputOIs,
+        new Object[] {null, quantiles}, 8);
+    assertEquals(3, result.size());
+    for (int i = 0; i < 3; i++) {
+      assertEquals(quantiles.get(i), rank(result.get(i).get()), 0.002);
+    }
+  }
+
+  public void testPercentileWithError() throws Exception {
+    TypeInfo[] types = {TypeInfoFactory.doubleTypeInfo, TypeInfoFactory.doubleTypeInfo,
+        TypeInfoFactory.doubleTypeInfo, TypeInfoFactory.doubleTypeInfo};
+    ObjectInspector[] inputOIs = new ObjectInspector[4];
+    Arrays.fill(inputOIs, PrimitiveObjectInspectorFactory.javaDoubleObjectInspector);
+    // the values are a 10% sample
+    Object[] result = (Object[]) run(new GenericUDAFPercentileSketch(true), types, inputOIs,
+        new Object[] {null, 0.99, 0.1, 2.0}, 4);
+    double percentile = ((DoubleWritable) result[0]).get();
+    double error = ((DoubleWritable) result[1]).get();
+    assertEquals(0.99, rank(percentile), 0.002);
+    // the 99th percentile of the unit exponential is ln(100)
+    assertEquals(Math.log(100), percentile, error);
+    assertTrue(error > 0 && error < 0.25);
+    assertEquals(95.45, ((DoubleWritable) result[2]).get(), 0.01);
+  }
+
+  public void testErrorArgumentsNeedTheInternalAggregate() throws Exception {
+    TypeInfo[] types = {TypeInfoFactory.doubleTypeInfo, TypeInfoFactory.doubleTypeInfo,
+        TypeInfoFactory.doubleTypeInfo, TypeInfoFactory.doubleTypeInfo};
+    try {
+      new GenericUDAFPercentileSketch().getEvaluator(types);
+      fail("percentile_sketch takes no sampling rate and z");
+    } catch (UDFArgumentTypeException e) {
+      // expected
+    }
+    TypeInfo[] plain = {TypeInfoFactory.doubleTypeInfo, TypeInfoFactory.doubleTypeInfo};
+    try {
+      new GenericUDAFPercentileSketch(true).getEvaluator(plain);
+      fail("the aggregate with error needs the sampling rate and z");
+    } catch (UDFArgumentTypeException e) {
+      // expected
+    }
+  }
+
+  public void testInvalidPercentile() throws Exception {
+    TypeInfo[] types = {TypeInfoFactory.doubleTypeInfo, TypeInfoFactory.doubleTypeInfo};
+    ObjectInspector[] inputOIs = {PrimitiveObjectInspectorFactory.javaDoubleObjectInspector,
+        PrimitiveObjectInspectorFactory.javaDoubleObjectInspector};
+    try {
+      run(types, inputOIs, new Object[] {null, 1.5}, 1);
+      fail("a percentile above 1 should fail");
+    } catch (Exception e) {
+      assertTrue(e.getMessage().contains("1.5"));
+    }
+  }
+}
@@ -0,0 +1,283 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.hive.ql.exec.FunctionRegistry;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.Mode;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+
+/**
+ * TestGenericUDAFWithError.
+ *
+ */
+public class TestGenericUDAFWithError extends TestCase {
+
+  private static final double[] VALUES = {3, 1, 4, 1, 5, 9, 2, 6, 5, 3, 5, 8};
+  private static final double RATE = 0.1;
+  private static final double Z = 2.0;
+
+  private final ObjectInspector[] inputOIs = {
+      PrimitiveObjectInspectorFactory.javaDoubleObjectInspector,
+      PrimitiveObjectInspectorFactory.javaDoubleObjectInspector,
+      PrimitiveObjectInspectorFactory.javaDoubleObjectInspector};
+
+  private double[] complete(GenericUDAFEvaluator eval) throws Exception {
+    eval.init(Mode.COMPLETE, inputOIs);
+    AggregationBuffer agg = eval.getNewAggregationBuffer();
+    for (double v : VALUES) {
+      eval.iterate(agg, new Object[] {v, RATE, Z});
+    }
+    return toArray(eval.terminate(agg));
+  }
+
+  /**
+   * Aggregate the values in two uneven parts in a PARTIAL1 evaluator and
+   * merge both partials in a FINAL one.
+   */
+  private double[] partialThenFinal(GenericUDAFEvaluator partial,
+      GenericUDAFEvaluator last) throws Exception {
+    ObjectInspector partialOI = partial.init(Mode.PARTIAL1, inputOIs);
+    last.init(Mode.FINAL, new ObjectInspector[] {partialOI});
+    AggregationBuffer finalAgg = last.getNewAggregationBuffer();
+    int split = VALUES.length / 3;
+    AggregationBuffer agg = partial.getNewAggregationBuffer();
+    for (int i = 0; i < VALUES.length; i++) {
+      if (i == split) {
+        last.merge(finalAgg, partial.terminatePartial(agg));
+        partial.reset(agg);
+      }
+      partial.iterate(agg, new Object[] {VALUES[i], RATE, Z});
+    }
+    last.merge(finalAgg, partial.terminatePartial(agg));
+    return toArray(last.terminate(finalAgg));
+  }
+
+  private static double[] toArray(Object result) {
+    Object[] fields = (Object[]) result;
+    double[] values = new double[fields.length];
+    for (int i = 0; i < fields.length; i++) {
+      values[i] = ((DoubleWritable) fields[i]).get();
+    }
+    return values;
+  }
+
+  private static double mean() {
+    double sum = 0;
+    for (double v : VALUES) {
+      sum += v;
+    }
+    return sum / VALUES.length;
+  }
+
+  private static double centralMoment(int k) {
+    double mean = mean();
+    double m = 0;
+    for (double v : VALUES) {
+      m += Math.pow(v - mean, k);
+    }
+    return m;
+  }
+
+  public void testCount() throws Exception {
+    double[] result = complete(new GenericUDAFCount.GenericUDAFCountWithErrorEvaluator());
+    assertEquals(120.0, result[0], 1e-9);
+    assertEquals(Z * Math.sqrt(12 * 0.9) / RATE, result[1], 1e-9);
+    assertEquals(95.45, result[2], 0.01);
+  }
+
+  public void testSum() throws Exception {
+    double sumOfSquares = 0;
+    for (double v : VALUES) {
+      sumOfSquares += v * v;
+    }
+    double[] result = complete(new GenericUDAFSum.GenericUDAFSumWithErrorEvaluator());
+    assertEquals(mean() * VALUES.length / RATE, result[0], 1e-9);
+    assertEquals(Z * Math.sqrt(0.9 * sumOfSquares) / RATE, result[1], 1e-9);
+  }
+
+  public void testAverage() throws Exception {
+    double n = VALUES.length;
+    double[] result = complete(new GenericUDAFAverage.GenericUDAFAverageWithErrorEvaluator());
+    assertEquals(mean(), result[0], 1e-9);
+    assertEquals(Z * Math.sqrt(0.9 * centralMoment(2) / (n - 1) / n), result[1], 1e-9);
+  }
+
+  public void testVariance() throws Exception {
+    double n = VALUES.length;
+    double var = centralMoment(2) / n;
+    double varOfVar = (centralMoment(4) / n - var * var * (n - 3) / (n - 1)) / n;
+    double[] result = complete(new GenericUDAFVariance.GenericUDAFVarianceEvaluatorWithError());
+    assertEquals(var, result[0], 1e-9);
+    assertEquals(Z * Math.sqrt(0.9 * varOfVar), result[1], 1e-9);
+  }
+
+  public void testRescaledSamplingRate() throws Exception {
+    GenericUDAFEvaluator eval = new GenericUDAFSum.GenericUDAFSumWithErrorEvaluator();
+    eval.init(Mode.COMPLETE, inputOIs);
+    AggregationBuffer agg = eval.getNewAggregationBuffer();
+    for (double v : VALUES) {
+      eval.iterate(agg, new Object[] {v, 1.0, Z});
+    }
+    // read as the whole table, the sum is exact
+    double[] result = toArray(eval.terminate(agg));
+    assertEquals(mean() * VALUES.length, result[0], 1e-9);
+    assertEquals(0.0, result[1], 1e-9);
+
+    assertTrue(GenericUDAFWithErrorEvaluator.setSamplingRate(agg, RATE));
+    double[] sampled = complete(new GenericUDAFSum.GenericUDAFSumWithErrorEvaluator());
+    result = toArray(eval.terminate(agg));
+    for (int i = 0; i < sampled.length; i++) {
+      assertEquals(sampled[i], result[i], 1e-9);
+    }
+    assertFalse(GenericUDAFWithErrorEvaluator.setSamplingRate(
+        new GenericUDAFSum.GenericUDAFSumDouble().getNewAggregationBuffer(), RATE));
+  }
+
+  public void testMergedPartialsMatchSinglePass() throws Exception {
+    double[] single = complete(new GenericUDAFVariance.GenericUDAFVarianceEvaluatorWithError());
+    double[] merged = partialThenFinal(
+        new GenericUDAFVariance.GenericUDAFVarianceEvaluatorWithError(),
+        new GenericUDAFVariance.GenericUDAFVarianceEvaluatorWithError());
+    for (int i = 0; i < single.length; i++) {
+      assertEquals(single[i], merged[i], 1e-9);
+    }
+
+    single = complete(new GenericUDAFSum.GenericUDAFSumWithErrorEvaluator());
+    merged = partialThenFinal(new GenericUDAFSum.GenericUDAFSumWithErrorEvaluator(),
+        new GenericUDAFSum.GenericUDAFSumWithErrorEvaluator());
+    for (int i = 0; i < single.length; i++) {
+      assertEquals(single[i], merged[i], 1e-9);
+    }
+  }
+
+  /**
+   * Aggregate the values with the first half sampled at rate 1/2 and the
+   * rest whole, as in two strata of a stratified sample.
+   */
+  private double[] stratified(GenericUDAFEvaluator eval) throws Exception {
+    eval.init(Mode.COMPLETE, inputOIs);
+    AggregationBuffer agg = eval.getNewAggregationBuffer();
+    for (int i = 0; i < VALUES.length; i++) {
+      eval.iterate(agg, new Object[] {VALUES[i], i < VALUES.length / 2 ? 0.5 : 1.0, Z});
+    }
+    return toArray(eval.terminate(agg));
+  }
+
+  public void testStratumRatesWeightEveryRow() throws Exception {
+    int half = VALUES.length / 2;
+    double wSum = 0;
+    double vSum2 = 0;
+    for (int i = 0; i < VALUES.length; i++) {
+      double w = i < half ? 2 : 1;
+      wSum += w * VALUES[i];
+      vSum2 += w * (w - 1) * VALUES[i] * VALUES[i];
+    }
+    double wCount = 2 * half + (VALUES.length - half);
+
+    double[] result = stratified(new GenericUDAFCount.GenericUDAFCountWithErrorEvaluator());
+    assertEquals(wCount, result[0], 1e-9);
+    assertEquals(Z * Math.sqrt(2 * half), result[1], 1e-9);
+
+    result = stratified(new GenericUDAFSum.GenericUDAFSumWithErrorEvaluator());
+    assertEquals(wSum, result[0], 1e-9);
+    assertEquals(Z * Math.sqrt(vSum2), result[1], 1e-9);
+
+    double mean = wSum / wCount;
+    double residuals = 0;
+    for (int i = 0; i < half; i++) {
+      residuals += 2 * (VALUES[i] - mean) * (VALUES[i] - mean);
+    }
+    result = stratified(new GenericUDAFAverage.GenericUDAFAverageWithErrorEvaluator());
+    assertEquals(mean, result[0], 1e-9);
+    assertEquals(Z * Math.sqrt(residuals) / wCount, result[1], 1e-9);
+
+    double var = 0;
+    for (int i = 0; i < VALUES.length; i++) {
+      var += (i < half ? 2 : 1) * (VALUES[i] - mean) * (VALUES[i] - mean);
+    }
+    var /= wCount;
+    double varResiduals = 0;
+    for (int i = 0; i < half; i++) {
+      double e = (VALUES[i] - mean) * (VALUES[i] - mean) - var;
+      varResiduals += 2 * e * e;
+    }
+    result = stratified(new GenericUDAFVariance.GenericUDAFVarianceEvaluatorWithError());
+    assertEquals(var, result[0], 1e-9);
+    assertEquals(Z * Math.sqrt(varResiduals) / wCount, result[1], 1e-9);
+  }
+
+  public void testStratumRatesSurviveMerge() throws Exception {
+    GenericUDAFEvaluator partial = new GenericUDAFAverage.GenericUDAFAverageWithErrorEvaluator();
+    GenericUDAFEvaluator last = new GenericUDAFAverage.GenericUDAFAverageWithErrorEvaluator();
+    ObjectInspector partialOI = partial.init(Mode.PARTIAL1, inputOIs);
+    last.init(Mode.FINAL, new ObjectInspector[] {partialOI});
+    AggregationBuffer finalAgg = last.getNewAggregationBuffer();
+    // each partial sees a single rate, only the merge sees both
+    AggregationBuffer agg = partial.getNewAggregationBuffer();
+    for (int i = 0; i < VALUES.length; i++) {
+      if (i == VALUES.length / 2) {
+        last.merge(finalAgg, partial.terminatePartial(agg));
+        partial.reset(agg);
+      }
+      partial.iterate(agg, new Object[] {VALUES[i], i < VALUES.length / 2 ? 0.5 : 1.0, Z});
+    }
+    last.merge(finalAgg, partial.terminatePartial(agg));
+    double[] merged = toArray(last.terminate(finalAgg));
+    double[] single = stratified(new GenericUDAFAverage.GenericUDAFAverageWithErrorEvaluator());
+    for (int i = 0; i < single.length; i++) {
+      assertEquals(single[i], merged[i], 1e-9);
+    }
+  }
+
+  public void testOnlyTheInternalAggregatesTakeTheSamplingRate() throws Exception {
+    TypeInfo[] three = {TypeInfoFactory.doubleTypeInfo, TypeInfoFactory.doubleTypeInfo,
+        TypeInfoFactory.doubleTypeInfo};
+    // a user's count(a, b, c) is not taken for a count with error
+    try {
+      new GenericUDAFCount().getEvaluator(
+          new SimpleGenericUDAFParameterInfo(three, false, false));
+      fail("count of several columns needs DISTINCT");
+    } catch (UDFArgumentException e) {
+      // expected
+    }
+    try {
+      new GenericUDAFSum().getEvaluator(three);
+      fail("sum takes one argument");
+    } catch (UDFArgumentException e) {
+      // expected
+    }
+
+    for (String name : new String[] {"count", "sum", "avg", "variance", "var_pop"}) {
+      GenericUDAFEvaluator eval = FunctionRegistry.getGenericUDAFEvaluator(
+          GenericUDAFWithErrorEvaluator.getWithErrorName(name),
+          Arrays.asList(three), false, false);
+      assertTrue(name, eval instanceof GenericUDAFWithErrorEvaluator);
+    }
+  }
+}
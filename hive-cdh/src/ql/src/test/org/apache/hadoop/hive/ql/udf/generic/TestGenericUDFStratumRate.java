@@ -0,0 +1,108 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.ql.udf.generic;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF.DeferredObject;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * TestGenericUDFStratumRate.
+ *
+ */
+public class TestGenericUDFStratumRate extends TestCase {
+
+  private static class Value implements DeferredObject {
+    Object value;
+
+    Value(Object value) {
+      this.value = value;
+    }
+
+    public Object get() {
+      return value;
+    }
+  }
+
+  private File dir;
+  private final GenericUDFStratumRate udf = new GenericUDFStratumRate();
+  private final Text city = new Text();
+  private final IntWritable customer = new IntWritable();
+  private Value[] args;
+
+  @Override
+  protected void setUp() throws Exception {
+    dir = new File(System.getProperty("java.io.tmpdir"), "TestGenericUDFStratumRate");
+    FileUtil.fullyDelete(dir);
+    dir.mkdirs();
+    // the strata as the sampling job writes them, in two files
+    FileWriter out = new FileWriter(new File(dir, "strata-r-00000"));
+    out.write("paris\u00011\u0001400\u00010.025\n");
+    out.write("rome\u00012\u00015\u00011.0\n");
+    out.close();
+    out = new FileWriter(new File(dir, "strata-r-00001"));
+    out.write("\\N\u00013\u000150\u00010.2\n");
+    out.close();
+
+    args = new Value[] {new Value(dir.toURI().toString()), new Value(city),
+        new Value(customer)};
+    udf.initialize(new ObjectInspector[] {
+        PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+        PrimitiveObjectInspectorFactory.writableStringObjectInspector,
+        PrimitiveObjectInspectorFactory.writableIntObjectInspector});
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    FileUtil.fullyDelete(dir);
+  }
+
+  private double rate(String c, int id) throws Exception {
+    if (c == null) {
+      args[1].value = null;
+    } else {
+      city.set(c);
+      args[1].value = city;
+    }
+    customer.set(id);
+    return ((DoubleWritable) udf.evaluate(args)).get();
+  }
+
+  public void testRatePerStratum() throws Exception {
+    assertEquals(0.025, rate("paris", 1), 1e-9);
+    assertEquals(1.0, rate("rome", 2), 1e-9);
+    assertEquals(0.2, rate(null, 3), 1e-9);
+    // a stratum without an entry is whole in the sample
+    assertEquals(1.0, rate("paris", 2), 1e-9);
+  }
+
+  public void testOnlyPartialStrataAreKept() throws Exception {
+    assertEquals(2, GenericUDFStratumRate.readRates(dir.toURI().toString(), 2).size());
+  }
+}
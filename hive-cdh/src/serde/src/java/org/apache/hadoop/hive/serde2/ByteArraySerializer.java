@@ -0,0 +1,36 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hive.serde2;
+
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+
+/**
+ * A Serializer that can serialize a row into a byte array of its own, for
+ * callers that keep the serialized rows, without first copying it to the
+ * reusable Writable that serialize returns.
+ */
+public interface ByteArraySerializer extends Serializer {
+
+  /**
+   * Serialize a row into a new byte array of exactly its serialized length.
+   * The bytes are the same as those of the Writable serialize returns.
+   */
+  byte[] serializeToByteArray(Object obj, ObjectInspector objInspector)
+      throws SerDeException;
+}
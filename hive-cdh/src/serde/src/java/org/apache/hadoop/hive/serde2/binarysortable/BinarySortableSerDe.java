@@ -30,6 +30,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hive.serde.Constants;
+import org.apache.hadoop.hive.serde2.ByteArraySerializer;
 import org.apache.hadoop.hive.serde2.SerDe;
 import org.apache.hadoop.hive.serde2.SerDeException;
 import org.apache.hadoop.hive.serde2.io.ByteWritable;
@@ -39,6 +40,7 @@ import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.MapObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
 import org.apache.hadoop.hive.serde2.objectinspector.StructField;
 import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.UnionObjectInspector;
@@ -90,7 +92,7 @@ import org.apache.hadoop.io.Writable;
  * fields in the same top-level field will have the same sort order.
  * 
  */
-public class BinarySortableSerDe implements SerDe {
+public class BinarySortableSerDe implements SerDe, ByteArraySerializer {
 
   public static final Log LOG = LogFactory.getLog(BinarySortableSerDe.class
       .getName());
@@ -413,20 +415,72 @@ public class BinarySortableSerDe implements SerDe {
   BytesWritable serializeBytesWritable = new BytesWritable();
   OutputByteBuffer outputByteBuffer = new OutputByteBuffer();
 
+  /**
+   * The fields of the rows serialized, kept while the rows come with the same
+   * object inspector.
+   */
+  StructObjectInspector serializeRowInspector;
+  StructField[] serializeFields;
+  ObjectInspector[] serializeFieldInspectors;
+  // the primitive category of each field, or null if it is not primitive
+  PrimitiveCategory[] serializeFieldCategories;
+
   @Override
   public Writable serialize(Object obj, ObjectInspector objInspector) throws SerDeException {
+    serializeRow(obj, objInspector);
+    serializeBytesWritable.set(outputByteBuffer.getData(), 0, outputByteBuffer
+        .getLength());
+    return serializeBytesWritable;
+  }
+
+  @Override
+  public byte[] serializeToByteArray(Object obj, ObjectInspector objInspector)
+      throws SerDeException {
+    serializeRow(obj, objInspector);
+    return Arrays.copyOf(outputByteBuffer.getData(), outputByteBuffer.getLength());
+  }
+
+  /**
+   * Serialize a row into outputByteBuffer, with the fields of the row and
+   * their object inspectors looked up once for all the rows.
+   */
+  private void serializeRow(Object obj, ObjectInspector objInspector) {
+    if (objInspector != serializeRowInspector) {
+      initSerializeRow((StructObjectInspector) objInspector);
+    }
     outputByteBuffer.reset();
-    StructObjectInspector soi = (StructObjectInspector) objInspector;
-    List<? extends StructField> fields = soi.getAllStructFieldRefs();
+    StructObjectInspector soi = serializeRowInspector;
 
-    for (int i = 0; i < columnNames.size(); i++) {
-      serialize(outputByteBuffer, soi.getStructFieldData(obj, fields.get(i)),
-          fields.get(i).getFieldObjectInspector(), columnSortOrderIsDesc[i]);
+    for (int i = 0; i < serializeFields.length; i++) {
+      Object o = soi.getStructFieldData(obj, serializeFields[i]);
+      boolean invert = columnSortOrderIsDesc[i];
+      if (o == null || serializeFieldCategories[i] == null) {
+        serialize(outputByteBuffer, o, serializeFieldInspectors[i], invert);
+      } else {
+        outputByteBuffer.write((byte) 1, invert);
+        serializePrimitive(outputByteBuffer, o,
+            (PrimitiveObjectInspector) serializeFieldInspectors[i],
+            serializeFieldCategories[i], invert);
+      }
     }
+  }
 
-    serializeBytesWritable.set(outputByteBuffer.getData(), 0, outputByteBuffer
-        .getLength());
-    return serializeBytesWritable;
+  private void initSerializeRow(StructObjectInspector soi) {
+    List<? extends StructField> fields = soi.getAllStructFieldRefs();
+    int size = columnNames.size();
+    serializeFields = new StructField[size];
+    serializeFieldInspectors = new ObjectInspector[size];
+    serializeFieldCategories = new PrimitiveCategory[size];
+    for (int i = 0; i < size; i++) {
+      serializeFields[i] = fields.get(i);
+      ObjectInspector foi = serializeFields[i].getFieldObjectInspector();
+      serializeFieldInspectors[i] = foi;
+      if (foi.getCategory() == ObjectInspector.Category.PRIMITIVE) {
+        serializeFieldCategories[i] = ((PrimitiveObjectInspector) foi)
+            .getPrimitiveCategory();
+      }
+    }
+    serializeRowInspector = soi;
   }
 
   static void serialize(OutputByteBuffer buffer, Object o, ObjectInspector oi,
@@ -442,107 +496,8 @@ public class BinarySortableSerDe implements SerDe {
     switch (oi.getCategory()) {
     case PRIMITIVE: {
       PrimitiveObjectInspector poi = (PrimitiveObjectInspector) oi;
-      switch (poi.getPrimitiveCategory()) {
-      case VOID: {
-        return;
-      }
-      case BOOLEAN: {
-        boolean v = ((BooleanObjectInspector) poi).get(o);
-        buffer.write((byte) (v ? 2 : 1), invert);
-        return;
-      }
-      case BYTE: {
-        ByteObjectInspector boi = (ByteObjectInspector) poi;
-        byte v = boi.get(o);
-        buffer.write((byte) (v ^ 0x80), invert);
-        return;
-      }
-      case SHORT: {
-        ShortObjectInspector spoi = (ShortObjectInspector) poi;
-        short v = spoi.get(o);
-        buffer.write((byte) ((v >> 8) ^ 0x80), invert);
-        buffer.write((byte) v, invert);
-        return;
-      }
-      case INT: {
-        IntObjectInspector ioi = (IntObjectInspector) poi;
-        int v = ioi.get(o);
-        buffer.write((byte) ((v >> 24) ^ 0x80), invert);
-        buffer.write((byte) (v >> 16), invert);
-        buffer.write((byte) (v >> 8), invert);
-        buffer.write((byte) v, invert);
-        return;
-      }
-      case LONG: {
-        LongObjectInspector loi = (LongObjectInspector) poi;
-        long v = loi.get(o);
-        buffer.write((byte) ((v >> 56) ^ 0x80), invert);
-        buffer.write((byte) (v >> 48), invert);
-        buffer.write((byte) (v >> 40), invert);
-        buffer.write((byte) (v >> 32), invert);
-        buffer.write((byte) (v >> 24), invert);
-        buffer.write((byte) (v >> 16), invert);
-        buffer.write((byte) (v >> 8), invert);
-        buffer.write((byte) v, invert);
-        return;
-      }
-      case FLOAT: {
-        FloatObjectInspector foi = (FloatObjectInspector) poi;
-        int v = Float.floatToIntBits(foi.get(o));
-        if ((v & (1 << 31)) != 0) {
-          // negative number, flip all bits
-          v = ~v;
-        } else {
-          // positive number, flip the first bit
-          v = v ^ (1 << 31);
-        }
-        buffer.write((byte) (v >> 24), invert);
-        buffer.write((byte) (v >> 16), invert);
-        buffer.write((byte) (v >> 8), invert);
-        buffer.write((byte) v, invert);
-        return;
-      }
-      case DOUBLE: {
-        DoubleObjectInspector doi = (DoubleObjectInspector) poi;
-        long v = Double.doubleToLongBits(doi.get(o));
-        if ((v & (1L << 63)) != 0) {
-          // negative number, flip all bits
-          v = ~v;
-        } else {
-          // positive number, flip the first bit
-          v = v ^ (1L << 63);
-        }
-        buffer.write((byte) (v >> 56), invert);
-        buffer.write((byte) (v >> 48), invert);
-        buffer.write((byte) (v >> 40), invert);
-        buffer.write((byte) (v >> 32), invert);
-        buffer.write((byte) (v >> 24), invert);
-        buffer.write((byte) (v >> 16), invert);
-        buffer.write((byte) (v >> 8), invert);
-        buffer.write((byte) v, invert);
-        return;
-      }
-      case STRING: {
-        StringObjectInspector soi = (StringObjectInspector) poi;
-        Text t = soi.getPrimitiveWritableObject(o);
-        byte[] data = t.getBytes();
-        int length = t.getLength();
-        for (int i = 0; i < length; i++) {
-          if (data[i] == 0 || data[i] == 1) {
-            buffer.write((byte) 1, invert);
-            buffer.write((byte) (data[i] + 1), invert);
-          } else {
-            buffer.write(data[i], invert);
-          }
-        }
-        buffer.write((byte) 0, invert);
-        return;
-      }
-      default: {
-        throw new RuntimeException("Unrecognized type: "
-            + poi.getPrimitiveCategory());
-      }
-      }
+      serializePrimitive(buffer, o, poi, poi.getPrimitiveCategory(), invert);
+      return;
     }
     case LIST: {
       ListObjectInspector loi = (ListObjectInspector) oi;
@@ -598,4 +553,112 @@ public class BinarySortableSerDe implements SerDe {
     }
 
   }
+
+  /**
+   * Serialize a primitive object that is not null, after its null marker.
+   */
+  static void serializePrimitive(OutputByteBuffer buffer, Object o,
+      PrimitiveObjectInspector poi, PrimitiveCategory category, boolean invert) {
+    switch (category) {
+    case VOID: {
+      return;
+    }
+    case BOOLEAN: {
+      boolean v = ((BooleanObjectInspector) poi).get(o);
+      buffer.write((byte) (v ? 2 : 1), invert);
+      return;
+    }
+    case BYTE: {
+      ByteObjectInspector boi = (ByteObjectInspector) poi;
+      byte v = boi.get(o);
+      buffer.write((byte) (v ^ 0x80), invert);
+      return;
+    }
+    case SHORT: {
+      ShortObjectInspector spoi = (ShortObjectInspector) poi;
+      short v = spoi.get(o);
+      buffer.write((byte) ((v >> 8) ^ 0x80), invert);
+      buffer.write((byte) v, invert);
+      return;
+    }
+    case INT: {
+      IntObjectInspector ioi = (IntObjectInspector) poi;
+      int v = ioi.get(o);
+      buffer.write((byte) ((v >> 24) ^ 0x80), invert);
+      buffer.write((byte) (v >> 16), invert);
+      buffer.write((byte) (v >> 8), invert);
+      buffer.write((byte) v, invert);
+      return;
+    }
+    case LONG: {
+      LongObjectInspector loi = (LongObjectInspector) poi;
+      long v = loi.get(o);
+      buffer.write((byte) ((v >> 56) ^ 0x80), invert);
+      buffer.write((byte) (v >> 48), invert);
+      buffer.write((byte) (v >> 40), invert);
+      buffer.write((byte) (v >> 32), invert);
+      buffer.write((byte) (v >> 24), invert);
+      buffer.write((byte) (v >> 16), invert);
+      buffer.write((byte) (v >> 8), invert);
+      buffer.write((byte) v, invert);
+      return;
+    }
+    case FLOAT: {
+      FloatObjectInspector foi = (FloatObjectInspector) poi;
+      int v = Float.floatToIntBits(foi.get(o));
+      if ((v & (1 << 31)) != 0) {
+        // negative number, flip all bits
+        v = ~v;
+      } else {
+        // positive number, flip the first bit
+        v = v ^ (1 << 31);
+      }
+      buffer.write((byte) (v >> 24), invert);
+      buffer.write((byte) (v >> 16), invert);
+      buffer.write((byte) (v >> 8), invert);
+      buffer.write((byte) v, invert);
+      return;
+    }
+    case DOUBLE: {
+      DoubleObjectInspector doi = (DoubleObjectInspector) poi;
+      long v = Double.doubleToLongBits(doi.get(o));
+      if ((v & (1L << 63)) != 0) {
+        // negative number, flip all bits
+        v = ~v;
+      } else {
+        // positive number, flip the first bit
+        v = v ^ (1L << 63);
+      }
+      buffer.write((byte) (v >> 56), invert);
+      buffer.write((byte) (v >> 48), invert);
+      buffer.write((byte) (v >> 40), invert);
+      buffer.write((byte) (v >> 32), invert);
+      buffer.write((byte) (v >> 24), invert);
+      buffer.write((byte) (v >> 16), invert);
+      buffer.write((byte) (v >> 8), invert);
+      buffer.write((byte) v, invert);
+      return;
+    }
+    case STRING: {
+      StringObjectInspector soi = (StringObjectInspector) poi;
+      Text t = soi.getPrimitiveWritableObject(o);
+      byte[] data = t.getBytes();
+      int length = t.getLength();
+      for (int i = 0; i < length; i++) {
+        if (data[i] == 0 || data[i] == 1) {
+          buffer.write((byte) 1, invert);
+          buffer.write((byte) (data[i] + 1), invert);
+        } else {
+          buffer.write(data[i], invert);
+        }
+      }
+      buffer.write((byte) 0, invert);
+      return;
+    }
+    default: {
+      throw new RuntimeException("Unrecognized type: "
+          + poi.getPrimitiveCategory());
+    }
+    }
+  }
 }
@@ -46,7 +46,14 @@ public class LazyStruct extends
   boolean parsed;
 
   /**
-   * The start positions of struct fields. Only valid when the data is parsed.
+   * The number of fields whose bytes are known. The fields are parsed only as
+   * far as the highest field asked for, so that a row of which only the first
+   * few fields are used is not scanned to its end.
+   */
+  int parsedFields;
+
+  /**
+   * The start positions of struct fields. Only valid for the parsed fields.
    * Note that startPosition[arrayLength] = begin + length + 1; that makes sure
    * we can use the same formula to compute the length of each element of the
    * array.
@@ -54,7 +61,8 @@ public class LazyStruct extends
   int[] startPosition;
 
   /**
-   * The fields of the struct.
+   * The fields of the struct. Each is created when it is first used and
+   * reused for the following rows.
    */
   LazyObject[] fields;
   /**
@@ -78,15 +86,20 @@ public class LazyStruct extends
   public void init(ByteArrayRef bytes, int start, int length) {
     super.init(bytes, start, length);
     parsed = false;
+    if (fieldInited != null) {
+      // only the parsed fields may have been inited
+      Arrays.fill(fieldInited, 0, parsedFields, false);
+    }
+    parsedFields = 0;
   }
 
   boolean missingFieldWarned = false;
   boolean extraFieldWarned = false;
 
   /**
-   * Parse the byte[] and fill each field.
+   * Parse the byte[] up to the end of the given field.
    */
-  private void parse() {
+  private void parse(int fieldID) {
 
     byte separator = oi.getSeparator();
     boolean lastColumnTakesRest = oi.getLastColumnTakesRest();
@@ -97,10 +110,6 @@ public class LazyStruct extends
       List<? extends StructField> fieldRefs = ((StructObjectInspector) oi)
           .getAllStructFieldRefs();
       fields = new LazyObject[fieldRefs.size()];
-      for (int i = 0; i < fields.length; i++) {
-        fields[i] = LazyFactory.createLazyObject(fieldRefs.get(i)
-            .getFieldObjectInspector());
-      }
       fieldInited = new boolean[fields.length];
       // Extra element to make sure we have the same formula to compute the
       // length of each element of the array.
@@ -108,61 +117,52 @@ public class LazyStruct extends
     }
 
     int structByteEnd = start + length;
-    int fieldId = 0;
-    int fieldByteBegin = start;
-    int fieldByteEnd = start;
     byte[] bytes = this.bytes.getData();
+    if (parsedFields == 0) {
+      startPosition[0] = start;
+    }
 
-    // Go through all bytes in the byte[]
-    while (fieldByteEnd <= structByteEnd) {
-      if (fieldByteEnd == structByteEnd || bytes[fieldByteEnd] == separator) {
-        // Reached the end of a field?
-        if (lastColumnTakesRest && fieldId == fields.length - 1) {
-          fieldByteEnd = structByteEnd;
-        }
-        startPosition[fieldId] = fieldByteBegin;
-        fieldId++;
-        if (fieldId == fields.length || fieldByteEnd == structByteEnd) {
-          // All fields have been parsed, or bytes have been parsed.
-          // We need to set the startPosition of fields.length to ensure we
-          // can use the same formula to calculate the length of each field.
-          // For missing fields, their starting positions will all be the same,
-          // which will make their lengths to be -1 and uncheckedGetField will
-          // return these fields as NULLs.
-          for (int i = fieldId; i <= fields.length; i++) {
-            startPosition[i] = fieldByteEnd + 1;
-          }
-          break;
-        }
-        fieldByteBegin = fieldByteEnd + 1;
-        fieldByteEnd++;
+    while (parsedFields <= fieldID && parsedFields < fields.length) {
+      int fieldByteEnd;
+      if (lastColumnTakesRest && parsedFields == fields.length - 1) {
+        fieldByteEnd = structByteEnd;
+      } else if (isEscaped) {
+        fieldByteEnd = LazyUtils.findByte(bytes, startPosition[parsedFields],
+            structByteEnd, separator, escapeChar);
       } else {
-        if (isEscaped && bytes[fieldByteEnd] == escapeChar
-            && fieldByteEnd + 1 < structByteEnd) {
-          // ignore the char after escape_char
-          fieldByteEnd += 2;
-        } else {
-          fieldByteEnd++;
-        }
+        fieldByteEnd = LazyUtils.findByte(bytes, startPosition[parsedFields],
+            structByteEnd, separator);
       }
-    }
+      parsedFields++;
+      startPosition[parsedFields] = fieldByteEnd + 1;
 
-    // Extra bytes at the end?
-    if (!extraFieldWarned && fieldByteEnd < structByteEnd) {
-      extraFieldWarned = true;
-      LOG.warn("Extra bytes detected at the end of the row! Ignoring similar "
-          + "problems.");
-    }
+      if (parsedFields == fields.length || fieldByteEnd == structByteEnd) {
+        // All fields have been parsed, or bytes have been parsed.
+        // For missing fields, their starting positions will all be the same,
+        // which will make their lengths to be -1 and uncheckedGetField will
+        // return these fields as NULLs.
+        for (int i = parsedFields + 1; i <= fields.length; i++) {
+          startPosition[i] = fieldByteEnd + 1;
+        }
 
-    // Missing fields?
-    if (!missingFieldWarned && fieldId < fields.length) {
-      missingFieldWarned = true;
-      LOG.warn("Missing fields! Expected " + fields.length + " fields but "
-          + "only got " + fieldId + "! Ignoring similar problems.");
-    }
+        // Extra bytes at the end?
+        if (!extraFieldWarned && fieldByteEnd < structByteEnd) {
+          extraFieldWarned = true;
+          LOG.warn("Extra bytes detected at the end of the row! Ignoring similar "
+              + "problems.");
+        }
+
+        // Missing fields?
+        if (!missingFieldWarned && parsedFields < fields.length) {
+          missingFieldWarned = true;
+          LOG.warn("Missing fields! Expected " + fields.length + " fields but "
+              + "only got " + parsedFields + "! Ignoring similar problems.");
+        }
 
-    Arrays.fill(fieldInited, false);
-    parsed = true;
+        parsedFields = fields.length;
+        parsed = true;
+      }
+    }
   }
 
   /**
@@ -179,8 +179,8 @@ public class LazyStruct extends
    * @return The field as a LazyObject
    */
   public Object getField(int fieldID) {
-    if (!parsed) {
-      parse();
+    if (fieldID >= parsedFields) {
+      parse(fieldID);
     }
     return uncheckedGetField(fieldID);
   }
@@ -209,6 +209,10 @@ public class LazyStruct extends
     }
     if (!fieldInited[fieldID]) {
       fieldInited[fieldID] = true;
+      if (fields[fieldID] == null) {
+        fields[fieldID] = LazyFactory.createLazyObject(((StructObjectInspector) oi)
+            .getAllStructFieldRefs().get(fieldID).getFieldObjectInspector());
+      }
       fields[fieldID].init(bytes, fieldByteBegin, fieldLength);
     }
     return fields[fieldID].getObject();
@@ -223,7 +227,7 @@ public class LazyStruct extends
    */
   public ArrayList<Object> getFieldsAsList() {
     if (!parsed) {
-      parse();
+      parse(Integer.MAX_VALUE);
     }
     if (cachedList == null) {
       cachedList = new ArrayList<Object>();
@@ -93,6 +93,50 @@ public final class LazyUtils {
     return 0;
   }
 
+  /**
+   * Returns the position of the first byte b in bytes[start, end), or end if
+   * there is none. The bytes are tested eight at a time, which saves the
+   * per-byte loop overhead on long fields.
+   */
+  public static int findByte(byte[] bytes, int start, int end, byte b) {
+    int i = start;
+    for (int blockEnd = end - 8; i <= blockEnd; i += 8) {
+      if (bytes[i] == b || bytes[i + 1] == b || bytes[i + 2] == b
+          || bytes[i + 3] == b || bytes[i + 4] == b || bytes[i + 5] == b
+          || bytes[i + 6] == b || bytes[i + 7] == b) {
+        break;
+      }
+    }
+    for (; i < end; i++) {
+      if (bytes[i] == b) {
+        return i;
+      }
+    }
+    return end;
+  }
+
+  /**
+   * Returns the position of the first byte b in bytes[start, end) that is not
+   * escaped, or end if there is none. The byte after an escape char is
+   * skipped.
+   */
+  public static int findByte(byte[] bytes, int start, int end, byte b,
+      byte escapeChar) {
+    int i = start;
+    while (i < end) {
+      if (bytes[i] == b) {
+        return i;
+      }
+      if (bytes[i] == escapeChar && i + 1 < end) {
+        // ignore the char after escape_char
+        i += 2;
+      } else {
+        i++;
+      }
+    }
+    return end;
+  }
+
   /**
    * Convert a UTF-8 byte array to String.
    * 
@@ -28,6 +28,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hive.serde.Constants;
+import org.apache.hadoop.hive.serde2.ByteArraySerializer;
 import org.apache.hadoop.hive.serde2.ByteStream;
 import org.apache.hadoop.hive.serde2.SerDe;
 import org.apache.hadoop.hive.serde2.SerDeException;
@@ -40,6 +41,7 @@ import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.StructField;
 import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector.Category;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.BooleanObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.ByteObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.DoubleObjectInspector;
@@ -61,7 +63,7 @@ import org.apache.hadoop.io.Writable;
  * deserialized until required. Binary means a field is serialized in binary
  * compact format.
  */
-public class LazyBinarySerDe implements SerDe {
+public class LazyBinarySerDe implements SerDe, ByteArraySerializer {
 
   public static final Log LOG = LogFactory.getLog(LazyBinarySerDe.class
       .getName());
@@ -166,29 +168,110 @@ public class LazyBinarySerDe implements SerDe {
   BytesWritable serializeBytesWritable = new BytesWritable();
   ByteStream.Output serializeByteStream = new ByteStream.Output();
 
+  /**
+   * The fields of the rows serialized, kept while the rows come with the same
+   * object inspector.
+   */
+  StructObjectInspector serializeRowInspector;
+  StructField[] serializeFields;
+  ObjectInspector[] serializeFieldInspectors;
+  // the primitive category of each field, or null if it is not primitive
+  PrimitiveCategory[] serializeFieldCategories;
+  Object[] serializeFieldData;
+
   /**
    * Serialize an object to a byte buffer in a binary compact way.
    */
   @Override
   public Writable serialize(Object obj, ObjectInspector objInspector)
       throws SerDeException {
-    // make sure it is a struct record
-    if (objInspector.getCategory() != Category.STRUCT) {
-      throw new SerDeException(getClass().toString()
-          + " can only serialize struct types, but we got: "
-          + objInspector.getTypeName());
-    }
-
-    serializeByteStream.reset();
-    // serialize the row as a struct
-    serializeStruct(serializeByteStream, obj,
-        (StructObjectInspector) objInspector);
+    serializeRow(obj, objInspector);
     // return the serialized bytes
     serializeBytesWritable.set(serializeByteStream.getData(), 0,
         serializeByteStream.getCount());
     return serializeBytesWritable;
   }
 
+  @Override
+  public byte[] serializeToByteArray(Object obj, ObjectInspector objInspector)
+      throws SerDeException {
+    serializeRow(obj, objInspector);
+    return Arrays.copyOf(serializeByteStream.getData(),
+        serializeByteStream.getCount());
+  }
+
+  /**
+   * Serialize a row into serializeByteStream. The same as serializeStruct,
+   * but the fields of the row and their object inspectors are looked up once
+   * for all the rows, and primitive fields are serialized directly.
+   */
+  private void serializeRow(Object obj, ObjectInspector objInspector)
+      throws SerDeException {
+    // make sure it is a struct record
+    if (objInspector != serializeRowInspector) {
+      if (objInspector.getCategory() != Category.STRUCT) {
+        throw new SerDeException(getClass().toString()
+            + " can only serialize struct types, but we got: "
+            + objInspector.getTypeName());
+      }
+      initSerializeRow((StructObjectInspector) objInspector);
+    }
+
+    serializeByteStream.reset();
+    // do nothing for null struct
+    if (null == obj) {
+      return;
+    }
+    StructObjectInspector soi = serializeRowInspector;
+    int size = serializeFields.length;
+    for (int i = 0; i < size; i++) {
+      serializeFieldData[i] = soi.getStructFieldData(obj, serializeFields[i]);
+    }
+    // Interleave one null byte and the following 8 fields, as serializeStruct
+    for (int lasti = 0; lasti < size; lasti += 8) {
+      int end = Math.min(size, lasti + 8);
+      byte nullByte = 0;
+      for (int j = lasti; j < end; j++) {
+        if (null != serializeFieldData[j]) {
+          nullByte |= 1 << (j - lasti);
+        }
+      }
+      serializeByteStream.write(nullByte);
+      for (int j = lasti; j < end; j++) {
+        Object fieldData = serializeFieldData[j];
+        if (null == fieldData) {
+          continue;
+        }
+        if (serializeFieldCategories[j] != null) {
+          serializePrimitive(serializeByteStream, fieldData,
+              (PrimitiveObjectInspector) serializeFieldInspectors[j],
+              serializeFieldCategories[j]);
+        } else {
+          serialize(serializeByteStream, fieldData, serializeFieldInspectors[j]);
+        }
+        serializeFieldData[j] = null;
+      }
+    }
+  }
+
+  private void initSerializeRow(StructObjectInspector soi) {
+    List<? extends StructField> fields = soi.getAllStructFieldRefs();
+    int size = fields.size();
+    serializeFields = fields.toArray(new StructField[size]);
+    serializeFieldInspectors = new ObjectInspector[size];
+    serializeFieldCategories = new PrimitiveCategory[size];
+    serializeFieldData = new Object[size];
+    for (int i = 0; i < size; i++) {
+      ObjectInspector foi = serializeFields[i].getFieldObjectInspector();
+      serializeFieldInspectors[i] = foi;
+      if (foi.getCategory() == Category.PRIMITIVE) {
+        serializeFieldCategories[i] = ((PrimitiveObjectInspector) foi)
+            .getPrimitiveCategory();
+      }
+    }
+    serializeRowInspector = soi;
+  }
+
   boolean nullMapKey = false;
 
   /**
@@ -258,78 +341,8 @@ public class LazyBinarySerDe implements SerDe {
     switch (objInspector.getCategory()) {
     case PRIMITIVE: {
       PrimitiveObjectInspector poi = (PrimitiveObjectInspector) objInspector;
-      switch (poi.getPrimitiveCategory()) {
-      case VOID: {
-        return;
-      }
-      case BOOLEAN: {
-        boolean v = ((BooleanObjectInspector) poi).get(obj);
-        byteStream.write((byte) (v ? 1 : 0));
-        return;
-      }
-      case BYTE: {
-        ByteObjectInspector boi = (ByteObjectInspector) poi;
-        byte v = boi.get(obj);
-        byteStream.write(v);
-        return;
-      }
-      case SHORT: {
-        ShortObjectInspector spoi = (ShortObjectInspector) poi;
-        short v = spoi.get(obj);
-        byteStream.write((byte) (v >> 8));
-        byteStream.write((byte) (v));
-        return;
-      }
-      case INT: {
-        IntObjectInspector ioi = (IntObjectInspector) poi;
-        int v = ioi.get(obj);
-        LazyBinaryUtils.writeVInt(byteStream, v);
-        return;
-      }
-      case LONG: {
-        LongObjectInspector loi = (LongObjectInspector) poi;
-        long v = loi.get(obj);
-        LazyBinaryUtils.writeVLong(byteStream, v);
-        return;
-      }
-      case FLOAT: {
-        FloatObjectInspector foi = (FloatObjectInspector) poi;
-        int v = Float.floatToIntBits(foi.get(obj));
-        byteStream.write((byte) (v >> 24));
-        byteStream.write((byte) (v >> 16));
-        byteStream.write((byte) (v >> 8));
-        byteStream.write((byte) (v));
-        return;
-      }
-      case DOUBLE: {
-        DoubleObjectInspector doi = (DoubleObjectInspector) poi;
-        long v = Double.doubleToLongBits(doi.get(obj));
-        byteStream.write((byte) (v >> 56));
-        byteStream.write((byte) (v >> 48));
-        byteStream.write((byte) (v >> 40));
-        byteStream.write((byte) (v >> 32));
-        byteStream.write((byte) (v >> 24));
-        byteStream.write((byte) (v >> 16));
-        byteStream.write((byte) (v >> 8));
-        byteStream.write((byte) (v));
-        return;
-      }
-      case STRING: {
-        StringObjectInspector soi = (StringObjectInspector) poi;
-        Text t = soi.getPrimitiveWritableObject(obj);
-        /* write byte size of the string which is a vint */
-        int length = t.getLength();
-        LazyBinaryUtils.writeVInt(byteStream, length);
-        /* write string itself */
-        byte[] data = t.getBytes();
-        byteStream.write(data, 0, length);
-        return;
-      }
-      default: {
-        throw new RuntimeException("Unrecognized type: "
-            + poi.getPrimitiveCategory());
-      }
-      }
+      serializePrimitive(byteStream, obj, poi, poi.getPrimitiveCategory());
+      return;
     }
     case LIST: {
       ListObjectInspector loi = (ListObjectInspector) objInspector;
@@ -470,4 +483,92 @@ public class LazyBinarySerDe implements SerDe {
     }
     }
   }
+
+  /**
+   * Serialize a primitive object.
+   *
+   * @param byteStream
+   *          the byte stream storing the serialization data
+   * @param obj
+   *          the primitive object to serialize, not null
+   * @param poi
+   *          the primitive object inspector
+   * @param category
+   *          the primitive category of the object inspector
+   */
+  private static void serializePrimitive(Output byteStream, Object obj,
+      PrimitiveObjectInspector poi, PrimitiveCategory category) {
+    switch (category) {
+    case VOID: {
+      return;
+    }
+    case BOOLEAN: {
+      boolean v = ((BooleanObjectInspector) poi).get(obj);
+      byteStream.write((byte) (v ? 1 : 0));
+      return;
+    }
+    case BYTE: {
+      ByteObjectInspector boi = (ByteObjectInspector) poi;
+      byte v = boi.get(obj);
+      byteStream.write(v);
+      return;
+    }
+    case SHORT: {
+      ShortObjectInspector spoi = (ShortObjectInspector) poi;
+      short v = spoi.get(obj);
+      byteStream.write((byte) (v >> 8));
+      byteStream.write((byte) (v));
+      return;
+    }
+    case INT: {
+      IntObjectInspector ioi = (IntObjectInspector) poi;
+      int v = ioi.get(obj);
+      LazyBinaryUtils.writeVInt(byteStream, v);
+      return;
+    }
+    case LONG: {
+      LongObjectInspector loi = (LongObjectInspector) poi;
+      long v = loi.get(obj);
+      LazyBinaryUtils.writeVLong(byteStream, v);
+      return;
+    }
+    case FLOAT: {
+      FloatObjectInspector foi = (FloatObjectInspector) poi;
+      int v = Float.floatToIntBits(foi.get(obj));
+      byteStream.write((byte) (v >> 24));
+      byteStream.write((byte) (v >> 16));
+      byteStream.write((byte) (v >> 8));
+      byteStream.write((byte) (v));
+      return;
+    }
+    case DOUBLE: {
+      DoubleObjectInspector doi = (DoubleObjectInspector) poi;
+      long v = Double.doubleToLongBits(doi.get(obj));
+      byteStream.write((byte) (v >> 56));
+      byteStream.write((byte) (v >> 48));
+      byteStream.write((byte) (v >> 40));
+      byteStream.write((byte) (v >> 32));
+      byteStream.write((byte) (v >> 24));
+      byteStream.write((byte) (v >> 16));
+      byteStream.write((byte) (v >> 8));
+      byteStream.write((byte) (v));
+      return;
+    }
+    case STRING: {
+      StringObjectInspector soi = (StringObjectInspector) poi;
+      Text t = soi.getPrimitiveWritableObject(obj);
+      /* write byte size of the string which is a vint */
+      int length = t.getLength();
+      LazyBinaryUtils.writeVInt(byteStream, length);
+      /* write string itself */
+      byte[] data = t.getBytes();
+      byteStream.write(data, 0, length);
+      return;
+    }
+    default: {
+      throw new RuntimeException("Unrecognized type: "
+          + poi.getPrimitiveCategory());
+    }
+    }
+  }
 }
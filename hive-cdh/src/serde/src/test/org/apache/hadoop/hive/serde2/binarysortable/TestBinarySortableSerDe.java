@@ -18,6 +18,7 @@
 package org.apache.hadoop.hive.serde2.binarysortable;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Properties;
@@ -27,6 +28,7 @@ import junit.framework.TestCase;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hive.serde.Constants;
+import org.apache.hadoop.hive.serde2.ByteArraySerializer;
 import org.apache.hadoop.hive.serde2.SerDe;
 import org.apache.hadoop.hive.serde2.SerDeUtils;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
@@ -83,6 +85,8 @@ public class TestBinarySortableSerDe extends TestCase {
       BytesWritable s = (BytesWritable) serde.serialize(rows[i], rowOI);
       bytes[i] = new BytesWritable();
       bytes[i].set(s);
+      byte[] array = ((ByteArraySerializer) serde).serializeToByteArray(rows[i], rowOI);
+      assertTrue(Arrays.equals(Arrays.copyOf(bytes[i].getBytes(), bytes[i].getLength()), array));
       if (i > 0) {
         int compareResult = bytes[i - 1].compareTo(bytes[i]);
         if ((compareResult < 0 && !ascending)
@@ -189,4 +189,58 @@ public class TestLazySimpleSerDe extends TestCase {
     }
   }
 
+  /**
+   * Test the LazySimpleSerDe class with fields read out of order, over rows
+   * of different lengths.
+   */
+  public void testLazySimpleSerDePartialParse() throws Throwable {
+    try {
+      LazySimpleSerDe serDe = new LazySimpleSerDe();
+      Configuration conf = new Configuration();
+      Properties tbl = createProperties();
+      tbl.setProperty(Constants.ESCAPE_CHAR, "\\");
+      serDe.initialize(conf, tbl);
+      StructObjectInspector oi = (StructObjectInspector) serDe
+          .getObjectInspector();
+      List<? extends StructField> fieldRefs = oi.getAllStructFieldRefs();
+
+      Object row = serDe.deserialize(new Text(
+          "1\t2\t3\t4\t5.5\tlong string with a \\\t tab\t7\tNULL"));
+      assertEquals(new IntWritable(3), getField(oi, row, fieldRefs.get(2)));
+      assertEquals(new ByteWritable((byte) 1), getField(oi, row, fieldRefs.get(0)));
+      assertEquals(new Text("long string with a \t tab"), getField(oi, row,
+          fieldRefs.get(5)));
+      assertNull(getField(oi, row, fieldRefs.get(7)));
+      assertEquals(new IntWritable(7), getField(oi, row, fieldRefs.get(6)));
+
+      // a shorter row after a parsed one
+      row = serDe.deserialize(new Text("9\t8"));
+      assertEquals(new ShortWritable((short) 8), getField(oi, row, fieldRefs.get(1)));
+      assertNull(getField(oi, row, fieldRefs.get(2)));
+      assertNull(getField(oi, row, fieldRefs.get(6)));
+      assertEquals(new ByteWritable((byte) 9), getField(oi, row, fieldRefs.get(0)));
+
+      row = serDe.deserialize(new Text("10\t\t\t\t\tabcdefghijklmnopqrstuvwxyz\t11"));
+      assertEquals(new Text("abcdefghijklmnopqrstuvwxyz"), getField(oi, row,
+          fieldRefs.get(5)));
+      assertEquals(new IntWritable(11), getField(oi, row, fieldRefs.get(6)));
+      assertNull(getField(oi, row, fieldRefs.get(7)));
+      assertEquals(8, oi.getStructFieldsDataAsList(row).size());
+
+      byte[] bytes = "abcdefghij,klmnopqrstuvwxyz,".getBytes();
+      assertEquals(10, LazyUtils.findByte(bytes, 0, bytes.length, (byte) ','));
+      assertEquals(27, LazyUtils.findByte(bytes, 11, bytes.length, (byte) ','));
+      assertEquals(20, LazyUtils.findByte(bytes, 11, 20, (byte) ','));
+      assertEquals(27, LazyUtils.findByte(bytes, 9, bytes.length, (byte) ',', (byte) 'j'));
+    } catch (Throwable e) {
+      e.printStackTrace();
+      throw e;
+    }
+  }
+
+  private Object getField(StructObjectInspector oi, Object row, StructField field) {
+    Object fieldData = oi.getStructFieldData(row, field);
+    return fieldData == null ? null : ((LazyPrimitive) fieldData).getWritableObject();
+  }
+
 }
@@ -18,6 +18,7 @@
 package org.apache.hadoop.hive.serde2.lazybinary;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -29,6 +30,7 @@ import junit.framework.TestCase;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hive.serde.Constants;
+import org.apache.hadoop.hive.serde2.ByteArraySerializer;
 import org.apache.hadoop.hive.serde2.SerDe;
 import org.apache.hadoop.hive.serde2.SerDeUtils;
 import org.apache.hadoop.hive.serde2.binarysortable.MyTestClass;
@@ -110,6 +112,8 @@ public class TestLazyBinarySerDe extends TestCase {
       BytesWritable s = (BytesWritable) serde.serialize(rows[i], rowOI);
       bytes[i] = new BytesWritable();
       bytes[i].set(s);
+      byte[] array = ((ByteArraySerializer) serde).serializeToByteArray(rows[i], rowOI);
+      assertTrue(Arrays.equals(Arrays.copyOf(bytes[i].getBytes(), bytes[i].getLength()), array));
     }
 
     // Try to deserialize
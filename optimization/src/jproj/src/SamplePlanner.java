@@ -0,0 +1,203 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Map;
+
+
+/**
+ * Picks the column sets to build stratified samples on, without an external
+ * solver. The objective and the constraints are those of the MILP written by
+ * DataGeneratorV3.AMPLgen: maximize sum_i freqs[i]*coverage[i]*delta[i] where
+ * coverage[i] = min(1, T * sum of build[j] * |c_j| / |q_i| over the candidates
+ * c_j contained in query q_i, or 1 if one equals q_i), subject to the storage
+ * budget.
+ *
+ * The benefit is monotone and submodular in the set of samples built, so the
+ * planner runs the cost-benefit greedy (most benefit gained per byte first)
+ * and keeps the better of its result and of the best single candidate that
+ * fits the budget, which is within a factor (1 - 1/e) / 2 of the optimum
+ * (Khuller, Moss and Naor, 1999).
+ */
+public class SamplePlanner extends DataGenerator {
+
+	private final ArrayList<int[]> queries;
+	private final double[][] freqs;
+	private final ArrayList<int[]> candidates;
+	private final double[][] storage;
+	private final double[][] delta;
+	private final double budget;
+	private final double T;
+	// contribution[i][j]: coverage of query i brought by building candidate j
+	private final double[][] contribution;
+
+	public SamplePlanner(Map<String, Integer> nameMapToInt, String prefix) throws Exception {
+		queries = loadStringSets(nameMapToInt, prefix + "queries.txt");
+		freqs = load(prefix + "frequencies.txt");
+		candidates = loadStringSets(nameMapToInt, prefix + "candidates.txt");
+		storage = load(prefix + "storage.txt");
+		delta = load(prefix + "delta.txt");
+		budget = load(prefix + "total_storage.txt")[0][0];
+		T = load(prefix + "T.txt")[0][0];
+
+		int nQueries = queries.size();
+		int nCandidates = candidates.size();
+		if (freqs.length != nQueries || storage.length != nCandidates || delta.length != nQueries) {
+			throw new Exception("Inconsistent input.");
+		}
+
+		contribution = new double[nQueries][nCandidates];
+		for (int i=0; i<nQueries; ++i) {
+			int[] q = queries.get(i);
+			for (int j=0; j<nCandidates; ++j) {
+				int[] c = candidates.get(j);
+				if (!contains(q, c))
+					continue;
+				contribution[i][j] = c.length < q.length ? T * c.length / q.length : 1.0;
+			}
+		}
+	}
+
+	/* both sets are sorted, as loaded by loadStringSets */
+	static boolean contains(int[] set, int[] subset) {
+		int k = 0;
+		for (int i=0; i<set.length && k<subset.length; ++i) {
+			if (set[i] == subset[k])
+				++k;
+			else if (set[i] > subset[k])
+				return false;
+		}
+		return k == subset.length;
+	}
+
+	/**
+	 * @return the total benefit of building the given candidates
+	 */
+	public double benefit(boolean[] build) {
+		double total = 0;
+		for (int i=0; i<queries.size(); ++i) {
+			double coverage = 0;
+			for (int j=0; j<candidates.size(); ++j)
+				if (build[j])
+					coverage += contribution[i][j];
+			total += freqs[i][0] * Math.min(1.0, coverage) * delta[i][0];
+		}
+		return total;
+	}
+
+	/**
+	 * @return build[j] is true for every candidate j to build
+	 */
+	public boolean[] plan() {
+		int nQueries = queries.size();
+		int nCandidates = candidates.size();
+		boolean[] build = new boolean[nCandidates];
+		double[] coverage = new double[nQueries];
+		double used = 0;
+
+		while (true) {
+			int best = -1;
+			double bestRatio = 0;
+			for (int j=0; j<nCandidates; ++j) {
+				if (build[j] || used + storage[j][0] > budget)
+					continue;
+				double gain = 0;
+				for (int i=0; i<nQueries; ++i) {
+					if (contribution[i][j] > 0 && coverage[i] < 1.0)
+						gain += freqs[i][0] * delta[i][0] * (Math.min(1.0, coverage[i] + contribution[i][j]) - coverage[i]);
+				}
+				double ratio = gain / Math.max(storage[j][0], Double.MIN_VALUE);
+				if (gain > 0 && ratio > bestRatio) {
+					best = j;
+					bestRatio = ratio;
+				}
+			}
+			if (best < 0)
+				break;
+			build[best] = true;
+			used += storage[best][0];
+			for (int i=0; i<nQueries; ++i)
+				coverage[i] += contribution[i][best];
+		}
+
+		// the greedy alone can be arbitrarily bad when one large sample is
+		// worth more than all the small ones it picked
+		boolean[] single = new boolean[nCandidates];
+		int bestSingle = -1;
+		double bestSingleBenefit = 0;
+		for (int j=0; j<nCandidates; ++j) {
+			if (storage[j][0] > budget)
+				continue;
+			single[j] = true;
+			double b = benefit(single);
+			single[j] = false;
+			if (b > bestSingleBenefit) {
+				bestSingle = j;
+				bestSingleBenefit = b;
+			}
+		}
+		if (bestSingle >= 0 && bestSingleBenefit > benefit(build)) {
+			single[bestSingle] = true;
+			return single;
+		}
+		return build;
+	}
+
+	public double storage(boolean[] build) {
+		double total = 0;
+		for (int j=0; j<build.length; ++j)
+			if (build[j])
+				total += storage[j][0];
+		return total;
+	}
+
+	/**
+	 * Write one CREATE SAMPLE command per candidate to build.
+	 */
+	public void writeCommands(Writer out, boolean[] build, Map<Integer, String> nameMap, String table, long cap) throws Exception {
+		for (int j=0; j<build.length; ++j) {
+			if (!build[j])
+				continue;
+			int[] c = candidates.get(j);
+			StringBuffer cols = new StringBuffer();
+			for (int k=0; k<c.length; ++k) {
+				if (k > 0)
+					cols.append(", ");
+				cols.append(nameMap.get(c[k]));
+			}
+			out.write("CREATE SAMPLE FROM " + table + " ON (" + cols + ") CAP " + cap + ";\n");
+		}
+		out.flush();
+	}
+
+	static void showHelp() {
+		String msg = "prefix-queries.txt, prefix-frequencies.txt, prefix-candidates.txt, prefix-storage.txt, prefix-delta.txt, prefix-total_storage.txt, prefix-T.txt\n";
+		String Usage = "java SamplePlanner nameMapFile inputParameterPrefix table cap [outputFile]\n";
+		System.err.println("Usage: " + Usage + " where all the following must be present:\n" + msg);
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		if (args.length != 4 && args.length != 5) {
+			showHelp();
+			return;
+		}
+		try {
+			ColumnMap columnMap = new ColumnMap(args[0]);
+			SamplePlanner planner = new SamplePlanner(columnMap.getName2NumberMapping(), args[1]);
+			boolean[] build = planner.plan();
+
+			Writer out = args.length == 5 ? new BufferedWriter(new FileWriter(args[4])) : new OutputStreamWriter(System.out);
+			planner.writeCommands(out, build, columnMap.getNumber2NameMapping(), args[2], Long.parseLong(args[3]));
+			if (args.length == 5)
+				out.close();
+			System.err.println("Total benefit: " + planner.benefit(build) + " using " + planner.storage(build)
+					+ " of " + planner.budget + " storage.");
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
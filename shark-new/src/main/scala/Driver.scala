@@ -141,6 +141,10 @@ class SharkDriver(conf: HiveConf) extends Driver(conf) {
 		  for (i <- 0 until numSamples)
 			  ret = run(command, i); 
 	  }
+	  else if (HiveConf.getBoolVar(conf, HiveConf.ConfVars.QUICKSILVER_PROFILE_ENABLED))
+	  {
+		  ret = runWithErrorLatencyProfile(command);
+	  }
 	  else
 	  {
 		  ret = run(command, -1);
@@ -185,6 +189,7 @@ class SharkDriver(conf: HiveConf) extends Driver(conf) {
       var command = new VariableSubstitution().substitute(conf, cmd)
       context = new Context(conf)
       context.executionFlag = executionFlag;
+      context.setSampleOverrides(getSampleOverrides)
       
       var pd: ParseDriver = new ParseDriver()
       var tree: ASTNode = pd.parse(command, context)
@@ -293,6 +298,7 @@ class SharkDriver(conf: HiveConf) extends Driver(conf) {
       op.asInstanceOf[RDDTableScanOperator].partsList = partsList 
       op.asInstanceOf[RDDTableScanOperator].firstConfPartDesc = firstPartDesc
       op.asInstanceOf[RDDTableScanOperator].numConfirmedParts= numParts
+      op.asInstanceOf[RDDTableScanOperator].columnar = !topToTable.get(op).isPartitioned()
     }}
 
     // Serialize operator tree before it is initialized
@@ -302,9 +308,16 @@ class SharkDriver(conf: HiveConf) extends Driver(conf) {
 
     val sinkOp = findSink(topOp.asInstanceOf[Operator[_ <: Serializable]])
 
+    val online =
+      if (sem.onlineBounds != null)
+        OnlineAggregation.get(conf, sem.onlineBounds, sinkOp.asInstanceOf[Operator[_ <: Serializable]])
+      else None
+
     sinkOp match {
-      case op: RDDFileSinkOperator => {
-        op.evaluate().foreach { _ => Unit } // Force spark evaluation
+      case op: RDDFileSinkOperator => online match {
+        case Some(onlineAgg) => onlineAgg.run()
+        // A query online aggregation cannot run reads the full table
+        case None => op.evaluate().foreach { _ => Unit } // Force spark evaluation
       }
       case _ =>
         throw new Exception("File Sink Operator not found")
@@ -0,0 +1,155 @@
+package shark
+
+import shark.operators._
+import spark._
+import spark.SparkContext._
+
+import org.apache.hadoop.hive.conf.HiveConf
+import org.apache.hadoop.hive.ql.costmodel.Bounds
+import org.apache.hadoop.hive.ql.exec.Operator
+import org.apache.hadoop.hive.ql.plan.GroupByDesc
+import org.apache.hadoop.hive.ql.session.SessionState
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer
+import org.apache.hadoop.hive.serde2.SerDeUtils
+
+import java.io.Serializable
+import java.util.HashMap
+
+import scala.collection.JavaConversions._
+import scala.collection.mutable.ArrayBuffer
+
+object OnlineAggregation {
+
+  /**
+   * Online aggregation of the query ending in the given sink, or None if it is
+   * not a GROUP BY over a single table with map-side aggregation and without
+   * DISTINCT.
+   */
+  def get(conf: HiveConf, bounds: Bounds,
+          sinkOp: Operator[_ <: Serializable]): Option[OnlineAggregation] = {
+    if (!sinkOp.isInstanceOf[RDDFileSinkOperator])
+      return None
+
+    // Operators between the final group-by and the sink, in evaluation order
+    var downstream: List[RDDOperator] = Nil
+    var current: Operator[_ <: Serializable] = sinkOp
+    while (!isFinalGroupBy(current)) {
+      if (current.getParentOperators == null || current.getParentOperators.size != 1)
+        return None
+      downstream = current.asInstanceOf[RDDOperator] :: downstream
+      current = current.getParentOperators.get(0)
+    }
+    val groupByOp = current.asInstanceOf[RDDGroupByOperator]
+    if (groupByOp.getConf.getAggregators.exists(_.getDistinct))
+      return None
+
+    val reduceSinkOp = groupByOp.getParentOperators.get(0) match {
+      case op: RDDReduceSinkOperator => op
+      case _ => return None
+    }
+    current = reduceSinkOp
+    while (!current.isInstanceOf[RDDTableScanOperator]) {
+      if (current.getParentOperators == null || current.getParentOperators.size != 1)
+        return None
+      current = current.getParentOperators.get(0)
+    }
+    Some(new OnlineAggregation(conf, bounds, groupByOp, reduceSinkOp, downstream))
+  }
+
+  def isFinalGroupBy(op: Operator[_]) = {
+    op match {
+      case gby: RDDGroupByOperator =>
+        gby.getConf.getMode == GroupByDesc.Mode.MERGEPARTIAL ||
+          gby.getConf.getMode == GroupByDesc.Mode.FINAL
+      case _ => false
+    }
+  }
+}
+
+/**
+ * Runs a bounded GROUP BY by online aggregation over the full table rather
+ * than on a precomputed sample. The map side of the query reads the splits of
+ * the table in random order, a wave of splits at a time. After every wave the
+ * master merges the partial aggregates into running aggregates, scales them up
+ * to the fraction of the splits read and reports their estimates with their
+ * confidence intervals. It stops once every estimate is within the error
+ * bound, the next wave would overrun the time bound, or the whole table is
+ * read. The final group-by then runs on the partials read so far.
+ *
+ * Splits are sampled whole, so the intervals assume that rows are not
+ * clustered by value across splits.
+ */
+class OnlineAggregation(conf: HiveConf, bounds: Bounds,
+                        groupByOp: RDDGroupByOperator,
+                        reduceSinkOp: RDDReduceSinkOperator,
+                        downstream: List[RDDOperator]) extends Logging {
+
+  val waveSplits = math.max(1, HiveConf.getIntVar(conf, HiveConf.ConfVars.QUICKSILVER_ONLINE_WAVE_SPLITS))
+
+  val reportRows = HiveConf.getIntVar(conf, HiveConf.ConfVars.QUICKSILVER_ONLINE_REPORT_ROWS)
+
+  def run() {
+    val start = System.currentTimeMillis
+    val mapSide = reduceSinkOp.evaluate().asInstanceOf[RDD[(ReduceKey, Array[Byte])]]
+    val numSplits = mapSide.splits.size
+    val order = RDDTableScanOperator.randomSplitOrder(numSplits)
+
+    val finalOp = RDDOperator.initializedCopy(groupByOp).asInstanceOf[RDDGroupByOperator]
+    val running = new HashMap[ReduceKey, Array[AggregationBuffer]]()
+    val partials = new ArrayBuffer[(ReduceKey, Array[Byte])]
+    var read = 0
+    var rate = 0.0
+    var done = numSplits == 0
+    while (!done) {
+      val waveStart = System.currentTimeMillis
+      val wave = order.slice(read, math.min(read + waveSplits, numSplits))
+      val waveRows = SharkEnv.sc.runJob(mapSide,
+        (iter: Iterator[(ReduceKey, Array[Byte])]) => iter.toArray, wave, false)
+      waveRows.foreach { rows => {
+        finalOp.mergePartials(rows, running)
+        partials ++= rows
+      }}
+      read += wave.length
+      rate = read.toDouble / numSplits
+
+      val error = report(finalOp, running, rate, read, numSplits, start)
+      // Stop before a wave as long as the last one would overrun the time bound
+      val now = System.currentTimeMillis
+      val expected = (now - start) + (now - waveStart)
+      done = read == numSplits ||
+        (bounds.hasErrorBound && error <= bounds.errorBound) ||
+        (bounds.hasTimeBound && expected / 1000.0 > bounds.timeBound)
+    }
+
+    // The final group-by scales its aggregates up to the fraction read
+    groupByOp.samplingRate = rate
+    RDDOperator.serializeOperator(groupByOp)
+    var rdd: RDD[_] = groupByOp.processRDD(SharkEnv.sc.parallelize(partials))
+    downstream.foreach { op => rdd = op.processRDD(rdd) }
+    rdd.foreach { _ => Unit } // Force spark evaluation
+  }
+
+  /**
+   * Rescales the running aggregates and prints the first groups.
+   *
+   * @return the largest relative error of the running aggregates
+   */
+  private def report(finalOp: RDDGroupByOperator,
+                     running: HashMap[ReduceKey, Array[AggregationBuffer]],
+                     rate: Double, read: Int, numSplits: Int, start: Long): Double = {
+    var maxError = if (running.isEmpty) Double.PositiveInfinity else 0.0
+    running.values.foreach { aggrs => {
+      finalOp.rescale(aggrs, rate)
+      maxError = math.max(maxError, finalOp.relativeError(aggrs))
+    }}
+    val console = SessionState.getConsole
+    console.printInfo("Online aggregation: read " + read + " of " + numSplits +
+      " splits in " + (System.currentTimeMillis - start) + " ms, relative error " + maxError)
+    running.take(reportRows).foreach { case (key, aggrs) =>
+      console.printInfo(SerDeUtils.getJSONString(
+        finalOp.evaluateRunning(key, aggrs), finalOp.getOutputObjInspector))
+    }
+    logInfo("Online aggregation read " + read + " of " + numSplits + " splits, relative error " + maxError)
+    maxError
+  }
+}
@@ -42,6 +42,9 @@ class SharkSemanticAnalyzer(conf: HiveConf) extends SemanticAnalyzer(conf){
 
   var ctasTableName: String = null
 
+  // Bounds of a query run by online aggregation, null for other queries
+  var onlineBounds: Bounds = null
+
   /**
   * Walk the AST, and get all the table name nodes in a list. 
   */
@@ -80,17 +83,20 @@ class SharkSemanticAnalyzer(conf: HiveConf) extends SemanticAnalyzer(conf){
      var timeErrorBound: Bounds  = new Bounds();
    	  
      WalkAST(ast, tableNameList, timeErrorBound);
-     if (timeErrorBound.isInitialized()) {
-       var costModel: CostModel = CostModel.getInstance();
-   	var iterator: Iterator[ASTNode]  = tableNameList.iterator();
-   	while (iterator.hasNext()) {
-   	  var tableNameNode: ASTNode = iterator.next();
-   	  var sampledTableName: String = costModel.getSampledTableName(timeErrorBound.errorBound, timeErrorBound.timeBound);
-   	  if (sampledTableName != null) {
-   	    LOG.info("Replacing table [" + tableNameNode.token.getText() + "] with [" + sampledTableName + "]");
-   	    tableNameNode.token.setText(sampledTableName);
-   	  }
-   	}
+     onlineBounds = null
+     if (timeErrorBound.isInitialized() && ast.getToken.getType == HiveParser.TOK_QUERY &&
+         HiveConf.getBoolVar(conf, HiveConf.ConfVars.QUICKSILVER_ONLINE_ENABLED)) {
+       // Online aggregation reads the full table and rescales the aggregates
+       // to the fraction read after every wave, see OnlineAggregation
+       onlineBounds = timeErrorBound
+       val z = new java.math.BigDecimal(java.lang.Float.toString(HiveConf.getFloatVar(conf,
+         HiveConf.ConfVars.QUICKSILVER_CONFIDENCE_Z))).toPlainString()
+       for (ch <- ast.getChildren) {
+         if (ch.asInstanceOf[ASTNode].getToken.getType == HiveParser.TOK_INSERT)
+           addErrorEstimates(ch.asInstanceOf[ASTNode], "1", z)
+       }
+     } else if (timeErrorBound.isInitialized()) {
+       replaceTablesWithSamples(ast, tableNameList, timeErrorBound)
      }
    }
 
@@ -106,6 +112,7 @@ class SharkSemanticAnalyzer(conf: HiveConf) extends SemanticAnalyzer(conf){
 
     LOG.info("Starting Semantic Analysis");
     //@sameerag: Adding Anand's table-rewriting logic
+    flattenBlbAggregates(ast)
     replaceTableNameWithSampleName(ast);
 
     //TODO: can probably reuse Hive code for this
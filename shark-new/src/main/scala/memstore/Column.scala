@@ -0,0 +1,196 @@
+package shark.memstore
+
+import java.util.BitSet
+
+import org.apache.hadoop.hive.serde2.io.ByteWritable
+import org.apache.hadoop.hive.serde2.io.DoubleWritable
+import org.apache.hadoop.hive.serde2.io.ShortWritable
+import org.apache.hadoop.io.BooleanWritable
+import org.apache.hadoop.io.FloatWritable
+import org.apache.hadoop.io.IntWritable
+import org.apache.hadoop.io.LongWritable
+import org.apache.hadoop.io.Text
+
+/**
+ * The values of one column of a cached partition, with the rows whose value
+ * is null (null if there are none). Columns are read through a ColumnReader,
+ * which owns the object the values are returned in, so that several scans can
+ * read a cached partition at once.
+ */
+abstract class Column(val nulls: BitSet) extends Serializable {
+
+  def isNull(row: Int): Boolean = nulls != null && nulls.get(row)
+
+  def newReader(): ColumnReader
+
+  /** The approximate number of bytes the column takes in memory. */
+  def memorySize: Long
+
+  protected def nullsSize: Long = if (nulls == null) 0 else nulls.size / 8
+}
+
+abstract class ColumnReader {
+  /** The value of a row, or null. The object returned is reused. */
+  def get(row: Int): Object
+}
+
+class BooleanColumn(values: BitSet, nulls: BitSet) extends Column(nulls) {
+  def newReader() = new ColumnReader {
+    val writable = new BooleanWritable
+    def get(row: Int): Object = {
+      if (isNull(row)) return null
+      writable.set(values.get(row))
+      writable
+    }
+  }
+  def memorySize = values.size / 8 + nullsSize
+}
+
+class ByteColumn(values: Array[Byte], nulls: BitSet) extends Column(nulls) {
+  def newReader() = new ColumnReader {
+    val writable = new ByteWritable
+    def get(row: Int): Object = {
+      if (isNull(row)) return null
+      writable.set(values(row))
+      writable
+    }
+  }
+  def memorySize = values.length + nullsSize
+}
+
+class ShortColumn(values: Array[Short], nulls: BitSet) extends Column(nulls) {
+  def newReader() = new ColumnReader {
+    val writable = new ShortWritable
+    def get(row: Int): Object = {
+      if (isNull(row)) return null
+      writable.set(values(row))
+      writable
+    }
+  }
+  def memorySize = 2L * values.length + nullsSize
+}
+
+class IntColumn(values: Array[Int], nulls: BitSet) extends Column(nulls) {
+  def newReader() = new ColumnReader {
+    val writable = new IntWritable
+    def get(row: Int): Object = {
+      if (isNull(row)) return null
+      writable.set(values(row))
+      writable
+    }
+  }
+  def memorySize = 4L * values.length + nullsSize
+}
+
+class LongColumn(values: Array[Long], nulls: BitSet) extends Column(nulls) {
+  def newReader() = new ColumnReader {
+    val writable = new LongWritable
+    def get(row: Int): Object = {
+      if (isNull(row)) return null
+      writable.set(values(row))
+      writable
+    }
+  }
+  def memorySize = 8L * values.length + nullsSize
+}
+
+class FloatColumn(values: Array[Float], nulls: BitSet) extends Column(nulls) {
+  def newReader() = new ColumnReader {
+    val writable = new FloatWritable
+    def get(row: Int): Object = {
+      if (isNull(row)) return null
+      writable.set(values(row))
+      writable
+    }
+  }
+  def memorySize = 4L * values.length + nullsSize
+}
+
+class DoubleColumn(values: Array[Double], nulls: BitSet) extends Column(nulls) {
+  def newReader() = new ColumnReader {
+    val writable = new DoubleWritable
+    def get(row: Int): Object = {
+      if (isNull(row)) return null
+      writable.set(values(row))
+      writable
+    }
+  }
+  def memorySize = 8L * values.length + nullsSize
+}
+
+/**
+ * Strings as the UTF-8 bytes of all the values, and the offset of each value
+ * in them: the value of row i ends where the value of row i + 1 starts.
+ */
+class PlainStringColumn(bytes: Array[Byte], offsets: Array[Int], nulls: BitSet)
+  extends Column(nulls) {
+  def newReader() = new ColumnReader {
+    val writable = new Text
+    def get(row: Int): Object = {
+      if (isNull(row)) return null
+      writable.set(bytes, offsets(row), offsets(row + 1) - offsets(row))
+      writable
+    }
+  }
+  def memorySize = bytes.length + 4L * offsets.length + nullsSize
+}
+
+/**
+ * Strings as ids into a dictionary of their distinct values, an unsigned
+ * short per row.
+ */
+class DictionaryStringColumn(dictionary: Array[Array[Byte]], ids: Array[Short], nulls: BitSet)
+  extends Column(nulls) {
+  def newReader() = new ColumnReader {
+    val writable = new Text
+    def get(row: Int): Object = {
+      if (isNull(row)) return null
+      writable.set(dictionary(ids(row) & 0xffff))
+      writable
+    }
+  }
+  def memorySize = DictionaryStringColumn.dictionarySize(dictionary) + 2L * ids.length + nullsSize
+}
+
+object DictionaryStringColumn {
+  def dictionarySize(dictionary: Array[Array[Byte]]): Long = {
+    dictionary.foldLeft(0L)((size, value) => size + value.length + 16)
+  }
+}
+
+/**
+ * Strings as runs of the same dictionary id: run i holds id runIds(i) up to
+ * row runEnds(i), exclusive. Rows are mostly read in order, so the reader
+ * remembers the run of the last row it read.
+ */
+class RunLengthStringColumn(dictionary: Array[Array[Byte]], runIds: Array[Int],
+                            runEnds: Array[Int], nulls: BitSet) extends Column(nulls) {
+  def newReader() = new ColumnReader {
+    val writable = new Text
+    var run = 0
+    def get(row: Int): Object = {
+      if (isNull(row)) return null
+      if (row >= runEnds(run) || (run > 0 && row < runEnds(run - 1))) {
+        val pos = java.util.Arrays.binarySearch(runEnds, row)
+        // the first run that ends after the row
+        run = if (pos >= 0) pos + 1 else -pos - 1
+      }
+      writable.set(dictionary(runIds(run)))
+      writable
+    }
+  }
+  def memorySize = {
+    DictionaryStringColumn.dictionarySize(dictionary) + 8L * runIds.length + nullsSize
+  }
+}
+
+/**
+ * Values of a non-primitive type, as standard objects.
+ */
+class GenericColumn(values: Array[Object], nulls: BitSet) extends Column(nulls) {
+  def newReader() = new ColumnReader {
+    def get(row: Int): Object = values(row)
+  }
+  // a guess: the objects are not measured
+  def memorySize = 64L * values.length + nullsSize
+}
@@ -0,0 +1,283 @@
+package shark.memstore
+
+import org.apache.hadoop.hive.ql.io.RCFileColumnStats
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector
+import org.apache.hadoop.io.Text
+
+import java.util.Arrays
+import java.util.BitSet
+import java.util.HashMap
+
+import scala.collection.mutable.ArrayBuffer
+import scala.collection.mutable.ArrayBuilder
+
+object ColumnBuilder {
+
+  /**
+   * A builder for a column of the type of the given object inspector. Values
+   * are appended with the object inspector of the rows they are read from.
+   */
+  def create(oi: ObjectInspector): ColumnBuilder = {
+    primitiveCategory(oi) match {
+      case PrimitiveCategory.BOOLEAN => new BooleanColumnBuilder
+      case PrimitiveCategory.BYTE => new ByteColumnBuilder
+      case PrimitiveCategory.SHORT => new ShortColumnBuilder
+      case PrimitiveCategory.INT => new IntColumnBuilder
+      case PrimitiveCategory.LONG => new LongColumnBuilder
+      case PrimitiveCategory.FLOAT => new FloatColumnBuilder
+      case PrimitiveCategory.DOUBLE => new DoubleColumnBuilder
+      case PrimitiveCategory.STRING => new StringColumnBuilder
+      case _ => new GenericColumnBuilder
+    }
+  }
+
+  /**
+   * The object inspector of the values a ColumnReader returns for a column of
+   * the type of the given object inspector.
+   */
+  def readerObjectInspector(oi: ObjectInspector): ObjectInspector = {
+    primitiveCategory(oi) match {
+      case PrimitiveCategory.BOOLEAN | PrimitiveCategory.BYTE | PrimitiveCategory.SHORT |
+           PrimitiveCategory.INT | PrimitiveCategory.LONG | PrimitiveCategory.FLOAT |
+           PrimitiveCategory.DOUBLE | PrimitiveCategory.STRING =>
+        PrimitiveObjectInspectorFactory.getPrimitiveWritableObjectInspector(primitiveCategory(oi))
+      case _ =>
+        ObjectInspectorUtils.getStandardObjectInspector(oi, ObjectInspectorCopyOption.WRITABLE)
+    }
+  }
+
+  private def primitiveCategory(oi: ObjectInspector): PrimitiveCategory = {
+    oi match {
+      case poi: PrimitiveObjectInspector => poi.getPrimitiveCategory
+      case _ => null
+    }
+  }
+}
+
+/**
+ * Appends the values of a column of a partition being cached, keeping the
+ * rows whose value is null and the min/max statistics of the values.
+ */
+abstract class ColumnBuilder {
+
+  val nulls = new BitSet
+
+  val stats: RCFileColumnStats
+
+  var size = 0
+
+  def append(o: Object, oi: ObjectInspector) {
+    if (o == null) {
+      nulls.set(size)
+      stats.addNull()
+      appendNull()
+    } else {
+      appendValue(o, oi)
+    }
+    size += 1
+  }
+
+  protected def appendNull()
+
+  protected def appendValue(o: Object, oi: ObjectInspector)
+
+  def build(): Column
+
+  protected def builtNulls: BitSet = if (nulls.isEmpty) null else nulls
+}
+
+class BooleanColumnBuilder extends ColumnBuilder {
+  val stats = new RCFileColumnStats(RCFileColumnStats.Kind.NONE)
+  val values = new BitSet
+  protected def appendNull() {}
+  protected def appendValue(o: Object, oi: ObjectInspector) {
+    if (PrimitiveObjectInspectorUtils.getBoolean(o, oi.asInstanceOf[PrimitiveObjectInspector]))
+      values.set(size)
+  }
+  def build() = new BooleanColumn(values, builtNulls)
+}
+
+class ByteColumnBuilder extends ColumnBuilder {
+  val stats = new RCFileColumnStats(RCFileColumnStats.Kind.LONG)
+  val values = new ArrayBuilder.ofByte
+  protected def appendNull() { values += 0.toByte }
+  protected def appendValue(o: Object, oi: ObjectInspector) {
+    val v = PrimitiveObjectInspectorUtils.getByte(o, oi.asInstanceOf[PrimitiveObjectInspector])
+    stats.addLong(v)
+    values += v
+  }
+  def build() = new ByteColumn(values.result(), builtNulls)
+}
+
+class ShortColumnBuilder extends ColumnBuilder {
+  val stats = new RCFileColumnStats(RCFileColumnStats.Kind.LONG)
+  val values = new ArrayBuilder.ofShort
+  protected def appendNull() { values += 0.toShort }
+  protected def appendValue(o: Object, oi: ObjectInspector) {
+    val v = PrimitiveObjectInspectorUtils.getShort(o, oi.asInstanceOf[PrimitiveObjectInspector])
+    stats.addLong(v)
+    values += v
+  }
+  def build() = new ShortColumn(values.result(), builtNulls)
+}
+
+class IntColumnBuilder extends ColumnBuilder {
+  val stats = new RCFileColumnStats(RCFileColumnStats.Kind.LONG)
+  val values = new ArrayBuilder.ofInt
+  protected def appendNull() { values += 0 }
+  protected def appendValue(o: Object, oi: ObjectInspector) {
+    val v = PrimitiveObjectInspectorUtils.getInt(o, oi.asInstanceOf[PrimitiveObjectInspector])
+    stats.addLong(v)
+    values += v
+  }
+  def build() = new IntColumn(values.result(), builtNulls)
+}
+
+class LongColumnBuilder extends ColumnBuilder {
+  val stats = new RCFileColumnStats(RCFileColumnStats.Kind.LONG)
+  val values = new ArrayBuilder.ofLong
+  protected def appendNull() { values += 0 }
+  protected def appendValue(o: Object, oi: ObjectInspector) {
+    val v = PrimitiveObjectInspectorUtils.getLong(o, oi.asInstanceOf[PrimitiveObjectInspector])
+    stats.addLong(v)
+    values += v
+  }
+  def build() = new LongColumn(values.result(), builtNulls)
+}
+
+class FloatColumnBuilder extends ColumnBuilder {
+  val stats = new RCFileColumnStats(RCFileColumnStats.Kind.FLOAT)
+  val values = new ArrayBuilder.ofFloat
+  protected def appendNull() { values += 0 }
+  protected def appendValue(o: Object, oi: ObjectInspector) {
+    val v = PrimitiveObjectInspectorUtils.getFloat(o, oi.asInstanceOf[PrimitiveObjectInspector])
+    stats.addDouble(v)
+    values += v
+  }
+  def build() = new FloatColumn(values.result(), builtNulls)
+}
+
+class DoubleColumnBuilder extends ColumnBuilder {
+  val stats = new RCFileColumnStats(RCFileColumnStats.Kind.DOUBLE)
+  val values = new ArrayBuilder.ofDouble
+  protected def appendNull() { values += 0 }
+  protected def appendValue(o: Object, oi: ObjectInspector) {
+    val v = PrimitiveObjectInspectorUtils.getDouble(o, oi.asInstanceOf[PrimitiveObjectInspector])
+    stats.addDouble(v)
+    values += v
+  }
+  def build() = new DoubleColumn(values.result(), builtNulls)
+}
+
+/**
+ * Strings are numbered in the order they are first seen while they are
+ * appended, and stored in whichever of the plain, dictionary and run-length
+ * encodings is the smallest once the column is complete. A dictionary holds
+ * at most 65536 values, as ids are kept in shorts.
+ */
+class StringColumnBuilder extends ColumnBuilder {
+  val stats = new RCFileColumnStats(RCFileColumnStats.Kind.STRING)
+  val dictionary = new ArrayBuffer[Array[Byte]]
+  val dictionaryIds = new HashMap[Text, Integer]
+  val ids = new ArrayBuilder.ofInt
+  var totalBytes = 0L
+
+  protected def appendNull() { ids += 0 }
+
+  protected def appendValue(o: Object, oi: ObjectInspector) {
+    val text = oi match {
+      case soi: StringObjectInspector => soi.getPrimitiveWritableObject(o)
+      case poi: PrimitiveObjectInspector =>
+        new Text(PrimitiveObjectInspectorUtils.getString(o, poi))
+    }
+    stats.addText(text.getBytes, 0, text.getLength)
+    totalBytes += text.getLength
+    val id = dictionaryIds.get(text)
+    if (id != null) {
+      ids += id.intValue
+    } else {
+      val bytes = Arrays.copyOf(text.getBytes, text.getLength)
+      dictionaryIds.put(new Text(bytes), dictionary.size)
+      ids += dictionary.size
+      dictionary += bytes
+    }
+  }
+
+  def build(): Column = {
+    val dict = dictionary.toArray
+    val ids = this.ids.result()
+    val (runIds, runEnds) = runs(ids)
+    val dictionarySize = DictionaryStringColumn.dictionarySize(dict)
+    val plainSize = totalBytes + 4L * (size + 1)
+    val dictionaryEncodedSize =
+      if (dict.length <= 65536) dictionarySize + 2L * size else Long.MaxValue
+    val runLengthSize = dictionarySize + 8L * runIds.length
+
+    if (runLengthSize < plainSize && runLengthSize < dictionaryEncodedSize) {
+      new RunLengthStringColumn(dict, runIds, runEnds, builtNulls)
+    } else if (dictionaryEncodedSize < plainSize) {
+      val shortIds = new Array[Short](size)
+      var row = 0
+      while (row < size) {
+        shortIds(row) = ids(row).toShort
+        row += 1
+      }
+      new DictionaryStringColumn(dict, shortIds, builtNulls)
+    } else {
+      val bytes = new Array[Byte](totalBytes.toInt)
+      val offsets = new Array[Int](size + 1)
+      var pos = 0
+      var row = 0
+      while (row < size) {
+        offsets(row) = pos
+        if (!nulls.get(row)) {
+          val value = dict(ids(row))
+          System.arraycopy(value, 0, bytes, pos, value.length)
+          pos += value.length
+        }
+        row += 1
+      }
+      offsets(size) = pos
+      new PlainStringColumn(bytes, offsets, builtNulls)
+    }
+  }
+
+  // The runs of equal ids, nulls included: a null takes the id of the run it
+  // is in, which the null bits then hide.
+  private def runs(ids: Array[Int]): (Array[Int], Array[Int]) = {
+    val runIds = new ArrayBuilder.ofInt
+    val runEnds = new ArrayBuilder.ofInt
+    var runId = -1
+    var row = 0
+    while (row < size) {
+      val id = ids(row)
+      if (row == 0 || (id != runId && !nulls.get(row))) {
+        if (row > 0)
+          runEnds += row
+        runIds += id
+        runId = id
+      }
+      row += 1
+    }
+    if (size > 0)
+      runEnds += size
+    (runIds.result(), runEnds.result())
+  }
+}
+
+class GenericColumnBuilder extends ColumnBuilder {
+  val stats = new RCFileColumnStats(RCFileColumnStats.Kind.NONE)
+  val values = new ArrayBuffer[Object]
+  protected def appendNull() { values += null }
+  protected def appendValue(o: Object, oi: ObjectInspector) {
+    values += ObjectInspectorUtils.copyToStandardObject(o, oi, ObjectInspectorCopyOption.WRITABLE)
+  }
+  def build() = new GenericColumn(values.toArray, builtNulls)
+}
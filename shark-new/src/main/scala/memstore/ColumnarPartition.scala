@@ -0,0 +1,87 @@
+package shark.memstore
+
+import org.apache.hadoop.hive.ql.io.RCFileColumnStats
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector
+
+import java.io.ObjectInputStream
+import java.io.ObjectOutputStream
+
+import scala.collection.JavaConversions._
+
+object ColumnarPartition {
+
+  /**
+   * Builds the columnar copy of the rows of a partition.
+   *
+   * @param layoutOI the object inspector of the table, which the types of the
+   *                 columns are taken from
+   * @param rowOI the object inspector of the rows, with a field for each
+   *              column of the table in the same order
+   */
+  def build(rows: Iterator[Object], layoutOI: StructObjectInspector,
+            rowOI: StructObjectInspector): ColumnarPartition = {
+    val layoutFields = layoutOI.getAllStructFieldRefs
+    val rowFields = rowOI.getAllStructFieldRefs
+    val builders = layoutFields.map(f => ColumnBuilder.create(f.getFieldObjectInspector)).toArray
+    val rowFieldOIs = rowFields.map(_.getFieldObjectInspector).toArray
+    var numRows = 0
+    rows.foreach { row => {
+      val values = rowOI.getStructFieldsDataAsList(row)
+      var i = 0
+      while (i < builders.length) {
+        builders(i).append(values.get(i), rowFieldOIs(i))
+        i += 1
+      }
+      numRows += 1
+    }}
+    new ColumnarPartition(numRows, builders.map(_.build()), builders.map(_.stats))
+  }
+}
+
+/**
+ * The rows of a cached partition as a column per field of the table, with the
+ * min/max statistics of each column, which let a scan skip the partition when
+ * its filter cannot match any of the rows.
+ */
+class ColumnarPartition(val numRows: Int, val columns: Array[Column],
+                        @transient var stats: Array[RCFileColumnStats]) extends Serializable {
+
+  def memorySize: Long = columns.foldLeft(0L)(_ + _.memorySize)
+
+  /**
+   * The rows of the partition. The same ColumnarRow is returned for every row,
+   * moved on to the next row by each call to next.
+   */
+  def iterator: Iterator[ColumnarRow] = {
+    val row = new ColumnarRow(columns.map(_.newReader()))
+    new Iterator[ColumnarRow] {
+      def hasNext = row.row + 1 < numRows
+      def next() = {
+        row.row += 1
+        row
+      }
+    }
+  }
+
+  // RCFileColumnStats is a Writable rather than Serializable
+  private def writeObject(out: ObjectOutputStream) {
+    out.defaultWriteObject()
+    stats.foreach(_.write(out))
+  }
+
+  private def readObject(in: ObjectInputStream) {
+    in.defaultReadObject()
+    stats = Array.fill(columns.length)(new RCFileColumnStats)
+    stats.foreach(_.readFields(in))
+  }
+}
+
+/**
+ * A row of a ColumnarPartition, read through ColumnarStructObjectInspector.
+ */
+class ColumnarRow(val readers: Array[ColumnReader]) {
+
+  var row = -1
+
+  def getField(i: Int): Object = readers(i).get(row)
+}
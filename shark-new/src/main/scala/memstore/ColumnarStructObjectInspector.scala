@@ -0,0 +1,59 @@
+package shark.memstore
+
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector.Category
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils
+import org.apache.hadoop.hive.serde2.objectinspector.StructField
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector
+
+import java.util.ArrayList
+import java.util.{List => JList}
+
+import scala.collection.JavaConversions._
+
+/**
+ * The object inspector of the ColumnarRows of a cached table, with the fields
+ * of the table and the writable object inspectors of its columns.
+ */
+class ColumnarStructObjectInspector(tableOI: StructObjectInspector) extends StructObjectInspector {
+
+  val fields: JList[ColumnarStructField] = {
+    val fields = new ArrayList[ColumnarStructField]
+    tableOI.getAllStructFieldRefs.zipWithIndex.foreach { case (f, i) =>
+      fields.add(new ColumnarStructField(i, f.getFieldName.toLowerCase,
+        ColumnBuilder.readerObjectInspector(f.getFieldObjectInspector)))
+    }
+    fields
+  }
+
+  override def getCategory = Category.STRUCT
+
+  override def getTypeName = ObjectInspectorUtils.getStandardStructTypeName(this)
+
+  override def getAllStructFieldRefs: JList[_ <: StructField] = fields
+
+  override def getStructFieldRef(fieldName: String): StructField = {
+    ObjectInspectorUtils.getStandardStructFieldRef(fieldName, fields)
+  }
+
+  override def getStructFieldData(data: Object, fieldRef: StructField): Object = {
+    if (data == null)
+      return null
+    data.asInstanceOf[ColumnarRow].getField(fieldRef.asInstanceOf[ColumnarStructField].index)
+  }
+
+  override def getStructFieldsDataAsList(data: Object): JList[Object] = {
+    if (data == null)
+      return null
+    val row = data.asInstanceOf[ColumnarRow]
+    val values = new ArrayList[Object](fields.size)
+    (0 until fields.size).foreach(i => values.add(row.getField(i)))
+    values
+  }
+}
+
+class ColumnarStructField(val index: Int, name: String, oi: ObjectInspector)
+  extends StructField {
+  override def getFieldName = name
+  override def getFieldObjectInspector = oi
+}
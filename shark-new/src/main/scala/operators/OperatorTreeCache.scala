@@ -51,10 +51,10 @@ object OperatorTreeCache {
       case op: RDDExtractOperator =>
         getKeyList(op.getParentOperators()(0),
                    new String(SharkUtilities.xmlSerialize(op.getConf)) :: l)
-      case op: RDDJoinOperator => // Assumes 2 parents
-        getKeyList(op.getParentOperators()(1),
-                   getKeyList(op.getParentOperators()(1),
-                              new String(SharkUtilities.xmlSerialize(op.getConf)) :: l))
+      case op: RDDJoinOperator =>
+        op.getParentOperators.foldRight(new String(SharkUtilities.xmlSerialize(op.getConf)) :: l) {
+          (parent, keys) => getKeyList(parent, keys)
+        }
 
     }
   }
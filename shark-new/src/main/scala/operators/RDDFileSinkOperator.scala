@@ -1,12 +1,11 @@
 package shark.operators
 
+import shark.memstore.ColumnarPartition
 import spark.{Serializer => _,_}
 import spark.SparkContext._
 
-import org.apache.hadoop.io.Text
-import org.apache.hadoop.io.BytesWritable
 import org.apache.hadoop.hive.ql.exec.FileSinkOperator
-import org.apache.hadoop.hive.serde2.Serializer
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector
 import scala.reflect.BeanProperty
 
 class RDDFileSinkOperator extends FileSinkOperator with RDDOperator {
@@ -39,21 +38,12 @@ class RDDFileSinkOperator extends FileSinkOperator with RDDOperator {
       closeOp(false)
       iter
     }
-    else { //Serialize data to be cached
-      val tableDesc = conf.getTableInfo
-      val serializer = tableDesc.getDeserializerClass.newInstance().asInstanceOf[Serializer]
-      serializer.initialize(null, tableDesc.getProperties)
-      iter.map { row => { //Can't have partitions in CTAS output
-        val v = serializer.serialize(row, inputObjInspectors(0))
-        //Need to copy serialized value b/c its byte array will be reused
-        v match {
-          case v: BytesWritable =>
-            new BytesWritable(v.getBytes)
-          case v: Text =>
-            new Text(v)
-        }
-      }}
+    else { //Cache the rows as a single columnar partition
+      val tableOI = conf.getTableInfo.getDeserializer.getObjectInspector
+      //Can't have partitions in CTAS output
+      Iterator(ColumnarPartition.build(iter.asInstanceOf[Iterator[Object]],
+        tableOI.asInstanceOf[StructObjectInspector],
+        inputObjInspectors(0).asInstanceOf[StructObjectInspector]))
     }
   }
 }
-
@@ -20,6 +20,7 @@ import org.apache.hadoop.hive.ql.plan.GroupByDesc
 import org.apache.hadoop.hive.ql.plan.ReduceSinkDesc
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFWithErrorEvaluator
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils
@@ -28,7 +29,9 @@ import org.apache.hadoop.hive.serde2.Deserializer
 import org.apache.hadoop.hive.serde2.SerDe
 import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector
 import org.apache.hadoop.hive.serde2.objectinspector.StandardStructObjectInspector
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo
 import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils
+import org.apache.hadoop.hive.serde2.io.DoubleWritable
 import org.apache.hadoop.io.BytesWritable
 import org.apache.hadoop.io.Text
 
@@ -53,10 +56,20 @@ class RDDGroupByOperator extends GroupByOperator with RDDOperator with Logging {
   @transient var valueSer: Deserializer = null
 
   @transient var unionExprEvaluator: ExprNodeEvaluator = null
+
+  // Evaluators in PARTIAL2 mode, which merge the partial aggregates of a map
+  // partition before the shuffle
+  @transient var partialEvals: Array[GenericUDAFEvaluator] = null
+
+  @transient var partialObjectInspector: StructObjectInspector = null
   
   @BeanProperty
   var reduceSinkConf: ReduceSinkDesc = null
 
+  // Set by online aggregation: the fraction of the input its partials cover
+  @BeanProperty
+  var samplingRate: Double = -1
+
   def getAggregationEvals: Array[GenericUDAFEvaluator] = aggregationEvals
 
   def getKeyFields: Array[ExprNodeEvaluator] = keyFields
@@ -158,6 +171,17 @@ class RDDGroupByOperator extends GroupByOperator with RDDOperator with Logging {
         Unit
     }
 
+    if (combinePartials) {
+      partialEvals = conf.getAggregators.map { agg =>
+        (agg.getGenericUDAFEvaluator.getClass).newInstance.asInstanceOf[GenericUDAFEvaluator]
+      }.toArray
+      val partialOIs = partialEvals.zipWithIndex.map { case(eval, i) =>
+        eval.init(GenericUDAFEvaluator.Mode.PARTIAL2, aggregationParameterObjectInspectors(i))
+      }
+      partialObjectInspector = ObjectInspectorFactory.getStandardStructObjectInspector(
+        reduceSinkConf.getOutputValueColumnNames, partialOIs.toList)
+    }
+
     initializeChildren(hconf)
   }
 
@@ -167,8 +191,33 @@ class RDDGroupByOperator extends GroupByOperator with RDDOperator with Logging {
 
   def getAggregationParameterFields() = aggregationParameterFields
   
+  /**
+   * Whether the values of the shuffle are partial aggregates, one for each
+   * aggregation, which can be merged into one per group on both sides of the
+   * shuffle. Raw rows (COMPLETE mode) and DISTINCT aggregations, which read
+   * their rows from the key, are shuffled as they are and grouped by
+   * groupByKey, which holds every value of a group in the reduce task.
+   */
+  def combinePartials: Boolean = {
+    (conf.getMode == GroupByDesc.Mode.FINAL || conf.getMode == GroupByDesc.Mode.MERGEPARTIAL) &&
+      reduceSinkConf != null &&
+      !conf.getAggregators.exists(_.getDistinct) &&
+      reduceSinkConf.getOutputValueColumnNames.size == conf.getAggregators.size
+  }
+
   override def processRDD[T](rdd: RDD[T]): RDD[_] = {
-    if (conf.getMode == GroupByDesc.Mode.FINAL || conf.getMode == GroupByDesc.Mode.MERGEPARTIAL|| conf.getMode == GroupByDesc.Mode.COMPLETE)
+    if (combinePartials) {
+      val merger = new PartialAggregateMerger(getOperatorId, RDDOperator.broadcastPlan(),
+        RDDOperator.opIdToTypeInfos.get(getOperatorId))
+      val combined = rdd.asInstanceOf[RDD[(ReduceKey, Array[Byte])]].mapPartitions(
+        iter => merger.combine(iter))
+      // A map partition holds one partial per group, so its combiners are the
+      // serialized partials; the reduce task merges them into live buffers.
+      super.processRDD(combined.combineByKey[PartialAggregate](
+        (value: Array[Byte]) => new PartialAggregate(value),
+        (partial: PartialAggregate, value: Array[Byte]) => merger.merge(partial, value),
+        (partial1: PartialAggregate, partial2: PartialAggregate) => merger.merge(partial1, partial2.bytes)))
+    } else if (conf.getMode == GroupByDesc.Mode.FINAL || conf.getMode == GroupByDesc.Mode.MERGEPARTIAL|| conf.getMode == GroupByDesc.Mode.COMPLETE)
       super.processRDD(rdd.asInstanceOf[RDD[(Any,Any)]].groupByKey())
     else
       super.processRDD(rdd)
@@ -186,48 +235,192 @@ class RDDGroupByOperator extends GroupByOperator with RDDOperator with Logging {
     logInfo("Running Post Shuffle Group-By")
     val outputCache = new Array[Object](keyFields.length + aggregationEvals.length)
     val keys = keyFactory.getKeyWrapper()
+
+    // Aggregates the values of a group as they are read, without copying them
+    def evaluateGroup(key: ReduceKey, values: Iterator[Array[Byte]]): Array[Object] = {
+      bytes.set(key.bytes)
+      val deserializedKey = deserializeKey(bytes)
+    /*  val writableKey = ObjectInspectorUtils.copyToStandardObject(
+        deserializedKey, getKeyObjectInspector,ObjectInspectorCopyOption.WRITABLE)*/
+      val aggrs = newAggregations()
+      values.foreach(v => {
+        bytes.set(v)
+        val deserializedValue = deserializeValue(bytes)
+        keys match {
+          case k: KeyWrapperFactory#ListKeyWrapper => 
+            k.getNewKey(Array(deserializedKey,deserializedValue), rowInspector)
+          case k: KeyWrapperFactory#TextKeyWrapper => 
+            k.getNewKey(Array(deserializedKey,deserializedValue), rowInspector)
+        }
+        aggregate(Array(deserializedKey, deserializedValue), aggrs)
+      })
+      evaluate(aggrs)
+    }
+
+    // Evaluates the buffers the reduce task merged the partials of a group into
+    def evaluateMerged(key: ReduceKey, aggrs: Array[AggregationBuffer]): Array[Object] = {
+      bytes.set(key.bytes)
+      val row = Array(deserializeKey(bytes), null)
+      keys match {
+        case k: KeyWrapperFactory#ListKeyWrapper => k.getNewKey(row, rowInspector)
+        case k: KeyWrapperFactory#TextKeyWrapper => k.getNewKey(row, rowInspector)
+      }
+      evaluate(aggrs)
+    }
+
+    def evaluate(aggrs: Array[AggregationBuffer]): Array[Object] = {
+      if (samplingRate > 0)
+        rescale(aggrs, samplingRate)
+      val arr = keys match {
+        case k: KeyWrapperFactory#ListKeyWrapper => 
+          k.getKeyArray
+        case k: KeyWrapperFactory#TextKeyWrapper => 
+          k.getKeyArray
+      }
+      arr.zipWithIndex foreach { case(key, i) => outputCache(i) = key }
+      aggrs.zipWithIndex.foreach { case(aggr, i) => 
+        outputCache(i + arr.length) = aggregationEvals(i).evaluate(aggr)
+      }
+      
+      outputCache
+      // Not sure if i need these
+//      val keys = writableKey.asInstanceOf[ArrayList[Any]].toArray
+//      ObjectInspectorUtils.copyToStandardObject(keys ++ vals,
+//                                                getOutputObjInspector, ObjectInspectorCopyOption.WRITABLE)
+    }
+
     iter.map(pair => {
       pair match {
+        // The partials of a group, merged by the combiners of the shuffle. The
+        // merged buffers come from the merger's copy of this operator, whose
+        // evaluators are of the same classes, in the same mode.
+        case (key: ReduceKey, partial: PartialAggregate) =>
+          if (partial.aggrs != null)
+            evaluateMerged(key, partial.aggrs)
+          else
+            evaluateGroup(key, Iterator(partial.bytes))
         case (key: ReduceKey,
-              values: Seq[Array[Byte]]) => {
-          bytes.set(key.bytes)
-          val deserializedKey = deserializeKey(bytes)
-        /*  val writableKey = ObjectInspectorUtils.copyToStandardObject(
-            deserializedKey, getKeyObjectInspector,ObjectInspectorCopyOption.WRITABLE)*/
-          val aggrs = newAggregations()
-          values.asInstanceOf[Seq[Array[Byte]]].foreach(v => {
-            bytes.set(v)
-            val deserializedValue = deserializeValue(bytes)
-            keys match {
-              case k: KeyWrapperFactory#ListKeyWrapper => 
-                k.getNewKey(Array(deserializedKey,deserializedValue), rowInspector)
-              case k: KeyWrapperFactory#TextKeyWrapper => 
-                k.getNewKey(Array(deserializedKey,deserializedValue), rowInspector)
-            }
-            aggregate(Array(deserializedKey, deserializedValue), aggrs)
-          })
-          val arr = keys match {
-            case k: KeyWrapperFactory#ListKeyWrapper => 
-              k.getKeyArray
-            case k: KeyWrapperFactory#TextKeyWrapper => 
-              k.getKeyArray
-          }
-          arr.zipWithIndex foreach { case(key, i) => outputCache(i) = key }
-          aggrs.zipWithIndex.foreach { case(aggr, i) => 
-            outputCache(i + arr.length) = aggregationEvals(i).evaluate(aggr)
-          }
-          
-          outputCache
-          // Not sure if i need these
-//          val keys = writableKey.asInstanceOf[ArrayList[Any]].toArray
-//          ObjectInspectorUtils.copyToStandardObject(keys ++ vals,
-//                                                    getOutputObjInspector, ObjectInspectorCopyOption.WRITABLE)
-          
-        }
+              values: Seq[Array[Byte]]) =>
+          evaluateGroup(key, values.iterator)
       }
     })
   }
 
+  /**
+   * Merges the serialized partial aggregates of a map partition into one per
+   * group. The aggregation buffers stay live while the partition is read, and
+   * each group is serialized once, as the partition is handed to the shuffle.
+   */
+  def combinePartition(iter: Iterator[(ReduceKey, Array[Byte])]): Iterator[(ReduceKey, Array[Byte])] = {
+    val bytes = new BytesWritable()
+    val groups = new java.util.HashMap[ReduceKey, Array[AggregationBuffer]]()
+    val row = new Array[Object](2)
+    iter.foreach { case (key, value) => {
+      var aggrs = groups.get(key)
+      if (aggrs == null) {
+        aggrs = partialEvals.map(_.getNewAggregationBuffer)
+        groups.put(key, aggrs)
+      }
+      bytes.set(value, 0, value.length)
+      row(1) = deserializeValue(bytes)
+      aggrs.zipWithIndex foreach { case(aggr, i) =>
+        partialEvals(i).aggregate(aggr, aggregationParameterFields(i).map(_.evaluate(row)))
+      }
+    }}
+    val partials = new Array[Object](partialEvals.length)
+    groups.toIterator.map { case (key, aggrs) => {
+      aggrs.zipWithIndex foreach { case(aggr, i) => partials(i) = partialEvals(i).terminatePartial(aggr) }
+      (key, RDDReduceSinkOperator.serialize(valueSer.asInstanceOf[SerDe], partials, partialObjectInspector))
+    }}
+  }
+
+  /**
+   * Merges a serialized partial aggregate of a group into the combiner of the
+   * group, in the reduce task. The first merge deserializes the partial the
+   * combiner holds into buffers of the final aggregation, which stay live
+   * until the group is evaluated.
+   */
+  def mergePartial(partial: PartialAggregate, value: Array[Byte]): PartialAggregate = {
+    val bytes = new BytesWritable()
+    if (partial.aggrs == null) {
+      partial.aggrs = newAggregations()
+      bytes.set(partial.bytes, 0, partial.bytes.length)
+      aggregate(Array(null, deserializeValue(bytes)), partial.aggrs)
+      partial.bytes = null
+    }
+    bytes.set(value, 0, value.length)
+    aggregate(Array(null, deserializeValue(bytes)), partial.aggrs)
+    partial
+  }
+
+  /**
+   * Merges a wave of map-side partial aggregates into the running aggregates
+   * of online aggregation. Called on the master, on an initialized copy.
+   */
+  def mergePartials(partials: Seq[(ReduceKey, Array[Byte])],
+                    running: java.util.HashMap[ReduceKey, Array[AggregationBuffer]]) {
+    val bytes = new BytesWritable()
+    partials.foreach { case (key, value) => {
+      var aggrs = running.get(key)
+      if (aggrs == null) {
+        aggrs = newAggregations()
+        running.put(key, aggrs)
+      }
+      bytes.set(key.bytes, 0, key.bytes.length)
+      val deserializedKey = deserializeKey(bytes)
+      bytes.set(value, 0, value.length)
+      aggregate(Array(deserializedKey, deserializeValue(bytes)), aggrs)
+    }}
+  }
+
+  /**
+   * Scales the aggregates with error up to the given sampling rate
+   */
+  def rescale(aggrs: Array[AggregationBuffer], rate: Double) {
+    aggrs.foreach { aggr => GenericUDAFWithErrorEvaluator.setSamplingRate(aggr, rate) }
+  }
+
+  /**
+   * Largest error of the aggregates with error of a group, relative to their
+   * estimate. 0 if the group has none.
+   */
+  def relativeError(aggrs: Array[AggregationBuffer]): Double = {
+    var maxError = 0.0
+    aggrs.zipWithIndex foreach { case(aggr, i) => aggregationEvals(i) match {
+      case eval: GenericUDAFWithErrorEvaluator => eval.evaluate(aggr) match {
+        case result: Array[Object] => {
+          val estimate = result(0).asInstanceOf[DoubleWritable].get
+          val error = result(1).asInstanceOf[DoubleWritable].get
+          if (estimate != 0)
+            maxError = math.max(maxError, error / math.abs(estimate))
+          else if (error > 0)
+            maxError = Double.PositiveInfinity
+        }
+        case _ => Unit // No rows in the group yet
+      }
+      case _ => Unit
+    }}
+    maxError
+  }
+
+  /**
+   * Output row of the running aggregates of a group, valid until the next call
+   */
+  def evaluateRunning(key: ReduceKey, aggrs: Array[AggregationBuffer]): Array[Object] = {
+    val bytes = new BytesWritable()
+    bytes.set(key.bytes, 0, key.bytes.length)
+    val row = Array(deserializeKey(bytes), null)
+    val outputCache = new Array[Object](keyFields.length + aggregationEvals.length)
+    keyFields.zipWithIndex foreach { case(keyField, i) =>
+      outputCache(i) = ObjectInspectorUtils.copyToStandardObject(
+        keyField.evaluate(row), keyObjectInspectors(i), ObjectInspectorCopyOption.WRITABLE)
+    }
+    aggrs.zipWithIndex foreach { case(aggr, i) =>
+      outputCache(i + keyFields.length) = aggregationEvals(i).evaluate(aggr)
+    }
+    outputCache
+  }
+
   def aggregate(row: AnyRef,
                 aggregations: Array[AggregationBuffer]) {
     aggregations.zipWithIndex foreach { case(aggr, i) => {
@@ -307,4 +500,46 @@ class RDDGroupByOperator extends GroupByOperator with RDDOperator with Logging {
   }
 }
 
+/**
+ * The combiner of a group in the shuffle of a group-by: the serialized
+ * partial aggregate of a map partition, or, once a reduce task has merged
+ * more partials into it, the live buffers of the final aggregation. Only the
+ * serialized form is shipped: the map partitions hold one partial per group,
+ * so their combiners are never merged.
+ */
+class PartialAggregate(var bytes: Array[Byte]) extends Serializable {
+
+  @transient var aggrs: Array[AggregationBuffer] = null
 
+  private def writeObject(out: java.io.ObjectOutputStream) {
+    if (aggrs != null)
+      throw new java.io.NotSerializableException("merged partial aggregates")
+    out.defaultWriteObject()
+  }
+}
+
+/**
+ * Merges the serialized partial aggregates of a group-by, per map partition
+ * before the shuffle and per group in the reduce task. Each task
+ * deserializes and initializes its own copy of the group-by the first time
+ * it merges, the way RDDOperator.processRDD does for a partition.
+ */
+class PartialAggregateMerger(id: String, plan: broadcast.Broadcast[SerializedPlan],
+                             typeInfos: ArrayList[TypeInfo]) extends Serializable {
+
+  @transient lazy val op = {
+    val op = plan.value.deserializeOperator(id).asInstanceOf[RDDGroupByOperator]
+    val hconf = plan.value.newConf()
+    op.initObjectInspector(id, typeInfos, hconf)
+    op.preProcess()
+    op
+  }
+
+  def combine(iter: Iterator[(ReduceKey, Array[Byte])]): Iterator[(ReduceKey, Array[Byte])] = {
+    op.combinePartition(iter)
+  }
+
+  def merge(partial: PartialAggregate, value: Array[Byte]): PartialAggregate = {
+    op.mergePartial(partial, value)
+  }
+}
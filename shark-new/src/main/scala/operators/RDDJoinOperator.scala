@@ -4,10 +4,15 @@ import spark.{Serializer => _,_}
 import spark.SparkContext._
 
 import shark.ReduceKey
+import shark.SharkEnv
 import org.apache.hadoop.conf.Configuration
+import org.apache.hadoop.fs.Path
+import org.apache.hadoop.hive.conf.HiveConf
 import org.apache.hadoop.hive.ql.exec.ExprNodeEvaluator
 import org.apache.hadoop.hive.ql.exec.JoinOperator
 import org.apache.hadoop.hive.ql.exec.JoinUtil
+import org.apache.hadoop.hive.ql.exec.Operator
+import org.apache.hadoop.hive.ql.metadata.Partition
 import org.apache.hadoop.hive.ql.plan.JoinDesc
 import org.apache.hadoop.hive.ql.plan.TableDesc
 import org.apache.hadoop.hive.ql.plan.ReduceSinkDesc
@@ -18,6 +23,7 @@ import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils
 import org.apache.hadoop.io.BytesWritable
 
+import java.io.Serializable
 import java.util.ArrayList
 import java.util.HashMap
 
@@ -40,17 +46,77 @@ object RDDJoinOperator {
     ObjectInspectorFactory.getStandardStructObjectInspector(
       conf.asInstanceOf[JoinDesc].getOutputColumnNames(), structFieldObjectInspectors);
   }
+
+  val EMPTY_VALUE = new Array[Byte](0)
+
+  /**
+   * The distinct keys of the rows of a partition, without their values: all a
+   * semi-join needs of its right side.
+   */
+  def distinctKeys(rdd: RDD[(ReduceKey, Array[Byte])]): RDD[(ReduceKey, Array[Byte])] = {
+    rdd.mapPartitions { iter => {
+      val seen = new java.util.HashSet[ReduceKey]()
+      iter.filter { case (key, _) => seen.add(key) }.map { case (key, _) => (key, EMPTY_VALUE) }
+    }}
+  }
+
+  /**
+   * Groups the rows of the small side of a broadcast join by key.
+   */
+  def buildHashTable(rows: Array[(ReduceKey, Array[Byte])]): HashMap[ReduceKey, Array[Array[Byte]]] = {
+    val table = new HashMap[ReduceKey, Array[Array[Byte]]]()
+    rows.groupBy(_._1).foreach { case (key, group) => table.put(key, group.map(_._2)) }
+    table
+  }
+
+  /**
+   * Joins the rows of the big side of a join with the broadcast hash table of
+   * the small side, in the shape left.join(right) or its outer variants give:
+   * (key, (left value, right value)), with the value of an outer side wrapped
+   * in an Option.
+   *
+   * @param smallOnLeft whether the small side is the left side of the join
+   * @param outer whether big rows without a match are kept, with None for the
+   *              small side
+   */
+  def probe(big: RDD[(ReduceKey, Array[Byte])],
+            smallTable: broadcast.Broadcast[HashMap[ReduceKey, Array[Array[Byte]]]],
+            smallOnLeft: Boolean, outer: Boolean): RDD[_] = {
+    big.mapPartitions[(ReduceKey, (Any, Any))] { iter => {
+      val table = smallTable.value
+      iter.flatMap { case (key, value) => {
+        val matches = table.get(key)
+        if (matches == null) {
+          if (!outer)
+            Iterator.empty
+          else if (smallOnLeft)
+            Iterator((key, (None, value)))
+          else
+            Iterator((key, (value, None)))
+        } else {
+          matches.iterator.map { m =>
+            val small = if (outer) Some(m) else m
+            if (smallOnLeft) (key, (small, value)) else (key, (value, small))
+          }
+        }
+      }}
+    }}
+  }
 }
 
 
 class RDDJoinOperator extends JoinOperator with RDDOperator {
 
-  // Only works for 2 parents right now
   @BeanProperty 
   var reduceSinkConfs = new Array[ReduceSinkDesc](2)
 
   @transient val tagToValueSer = new HashMap[Int, Deserializer]()
 
+  @transient val valueBytes = new BytesWritable()
+
+  // The row the value expressions of an alias are evaluated on
+  @transient val valueRow = new Array[Object](2)
+
   @transient val joinVals = new HashMap[java.lang.Byte, java.util.List[ExprNodeEvaluator]]();
   
   def getJoinVal(i: Int) = {
@@ -102,6 +168,12 @@ class RDDJoinOperator extends JoinOperator with RDDOperator {
     }}
   }
 
+  def setReduceSinkConf(tag: Int, reduceSinkConf: ReduceSinkDesc) {
+    if (tag >= reduceSinkConfs.length)
+      reduceSinkConfs = java.util.Arrays.copyOf(reduceSinkConfs, tag + 1)
+    reduceSinkConfs(tag) = reduceSinkConf
+  }
+
   def getOrder(index: Int) = {
     order(index).byteValue.toInt
   }
@@ -112,29 +184,120 @@ class RDDJoinOperator extends JoinOperator with RDDOperator {
 
   def processRDDs(rdds: HashMap[Int, RDD[_]]): RDD[_] = {
     val joinType = condn(0).getType()
+    if (order.length > 2 || joinType == JoinDesc.LEFT_SEMI_JOIN || joinType == JoinDesc.UNIQUE_JOIN)
+      return processRDD(cogroupJoin(rdds))
     val left = rdds.get(getOrder(0)).asInstanceOf[RDD[
       (ReduceKey, Array[Byte])]]
     val right = rdds.get(getOrder(1)).asInstanceOf[RDD[
       (ReduceKey, Array[Byte])]]
 
-    val joinedRDD = joinType match {
+    val joinedRDD = broadcastJoin(joinType, left, right).getOrElse(joinType match {
       case JoinDesc.INNER_JOIN       => left.join(right)
       case JoinDesc.LEFT_OUTER_JOIN  => left.leftOuterJoin(right)
       case JoinDesc.RIGHT_OUTER_JOIN => left.rightOuterJoin(right)
       case JoinDesc.FULL_OUTER_JOIN  => left.fullOuterJoin(right)
-      case JoinDesc.LEFT_SEMI_JOIN   => left.join(right) // Not implemented
-      case JoinDesc.UNIQUE_JOIN      => left.join(right) // Not implemented
-    }
+    })
     processRDD(joinedRDD)
   }
 
+  /**
+   * Shuffles every input of the join once, cogrouping their values by key in
+   * join order. The right side of a semi-join only ships its distinct keys.
+   */
+  def cogroupJoin(rdds: HashMap[Int, RDD[_]]): RDD[_] = {
+    val inputs = (0 until order.length).map { i =>
+      val rdd = rdds.get(getOrder(i)).asInstanceOf[RDD[(ReduceKey, Array[Byte])]]
+      if (i > 0 && condn(i - 1).getType == JoinDesc.LEFT_SEMI_JOIN)
+        RDDJoinOperator.distinctKeys(rdd)
+      else
+        rdd
+    }
+    val numSplits = inputs.map(_.splits.size).max
+    new CoGroupedRDD[ReduceKey](inputs, new HashPartitioner(numSplits))
+  }
+
+  /**
+   * Joins the sides without a shuffle when hive.auto.convert.join is set and
+   * the input of a side that no outer join preserves is at most
+   * hive.smalltable.filesize. The rows of the smaller such side are collected
+   * on the master, broadcast as a hash table and probed by the tasks of the
+   * other side. None if the join has to shuffle, which it also does when the
+   * small side turns out to have more than hive.mapjoin.maxsize rows; only
+   * the first hive.mapjoin.maxsize + 1 of them are read to find out.
+   */
+  def broadcastJoin(joinType: Int, left: RDD[(ReduceKey, Array[Byte])],
+                    right: RDD[(ReduceKey, Array[Byte])]): Option[RDD[_]] = {
+    val hconf = RDDOperator.hconf
+    if (!HiveConf.getBoolVar(hconf, HiveConf.ConfVars.HIVECONVERTJOIN))
+      return None
+    val threshold = HiveConf.getLongVar(hconf, HiveConf.ConfVars.HIVESMALLTABLESFILESIZE)
+    val leftSize = inputSize(getOrder(0))
+    val rightSize = inputSize(getOrder(1))
+    val broadcastLeft = (joinType == JoinDesc.INNER_JOIN || joinType == JoinDesc.RIGHT_OUTER_JOIN) &&
+      leftSize <= threshold
+    val broadcastRight = (joinType == JoinDesc.INNER_JOIN || joinType == JoinDesc.LEFT_OUTER_JOIN) &&
+      rightSize <= threshold
+    if (!broadcastLeft && !broadcastRight)
+      return None
+
+    val smallOnLeft = broadcastLeft && (!broadcastRight || leftSize < rightSize)
+    val (small, big) = if (smallOnLeft) (left, right) else (right, left)
+    // Reads no more of the small side than it takes to tell it is too big
+    val maxRows = HiveConf.getIntVar(hconf, HiveConf.ConfVars.HIVEMAXMAPJOINSIZE)
+    val rows = small.take(maxRows + 1)
+    if (rows.length > maxRows) {
+      LOG.info("Shuffling join: more than " + maxRows + " rows on its small side")
+      return None
+    }
+    LOG.info("Broadcasting the " + rows.length + " rows of the " +
+      (if (smallOnLeft) "left" else "right") + " side of the join")
+    val smallTable = SharkEnv.sc.broadcast(RDDJoinOperator.buildHashTable(rows))
+    Some(RDDJoinOperator.probe(big, smallTable, smallOnLeft, joinType != JoinDesc.INNER_JOIN))
+  }
+
+  /**
+   * Size in bytes of the files a side of the join reads, or Long.MaxValue if
+   * it is not a chain of single-parent operators over one table scan.
+   */
+  def inputSize(tag: Int): Long = {
+    var current: Operator[_ <: Serializable] = getParentOperators.find {
+      case op: RDDReduceSinkOperator => op.getConf.getTag == tag
+      case _ => false
+    }.getOrElse(return Long.MaxValue)
+    while (!current.isInstanceOf[RDDTableScanOperator]) {
+      if (current.getParentOperators == null || current.getParentOperators.size != 1)
+        return Long.MaxValue
+      current = current.getParentOperators.get(0)
+    }
+    val scan = current.asInstanceOf[RDDTableScanOperator]
+    val paths =
+      if (scan.table == null)
+        return Long.MaxValue
+      else if (!scan.table.isPartitioned)
+        List(scan.table.getDataLocation.toString)
+      else if (scan.partsList != null) {
+        val partitions = scan.partsList.getConfirmedPartns.toList.map(_.asInstanceOf[Partition])
+        // The driver prunes the partitions of the first table only
+        if (partitions.exists(_.getTable.getTableName != scan.table.getTableName))
+          return Long.MaxValue
+        partitions.map(_.getDataLocation.toString)
+      } else
+        return Long.MaxValue
+    paths.foldLeft(0L) { (size, location) =>
+      val path = new Path(location)
+      size + path.getFileSystem(RDDOperator.hconf).getContentSummary(path).getLength
+    }
+  }
+
   override def processIter[T](iter: Iterator[T]): Iterator[_] = {
     initSerializers()
     val bytes = new BytesWritable()
-    val row = new Array[Object](joinVals(0.toByte).size() + joinVals(1.toByte).size())
+    val row = new Array[Object](order.map(joinVals(_).size).sum)
     val tmp = new Array[Object](2)
-    iter.map {
-      case (key, values) =>
+    iter.flatMap {
+      case (key, groups: Seq[_]) =>
+        joinGroups(groups.asInstanceOf[Seq[Seq[Array[Byte]]]], row)
+      case (key, values) => Iterator(
         values match {
           case (left, right) => {
             left match {
@@ -165,9 +328,94 @@ class RDDJoinOperator extends JoinOperator with RDDOperator {
             }
             row
           }
+        })
+    }
+  }
+
+  /**
+   * The joined rows of a key of a cogrouped join, from its values for each
+   * alias in join order. The row returned is reused.
+   */
+  def joinGroups(groups: Seq[Seq[Array[Byte]]], row: Array[Object]): Iterator[Array[Object]] = {
+    val combinations =
+      if (condn(0).getType == JoinDesc.UNIQUE_JOIN)
+        uniqueJoinCombinations(groups)
+      else
+        (1 until groups.size).foldLeft(groups(0).map(Array(_))) { (joined, pos) =>
+          joinNext(joined, groups(pos), pos)
         }
+    combinations.iterator.map { combination => {
+      fillRow(combination, row)
+      row
+    }}
+  }
+
+  /**
+   * Joins the combinations of the values of the aliases before pos with the
+   * values of the alias at pos, by the condition between them, the way
+   * CommonJoinOperator does: a value is null where an outer join found no
+   * match, and a condition only matches combinations whose value of its left
+   * alias is not null.
+   */
+  def joinNext(joined: Seq[Array[Array[Byte]]], values: Seq[Array[Byte]],
+               pos: Int): Seq[Array[Array[Byte]]] = {
+    val left = condn(pos - 1).getLeft
+    val matched = joined.filter(_(left) != null)
+    val unmatched = joined.filter(_(left) == null)
+    def cross = for (combination <- matched; value <- values) yield combination :+ value
+    def withNull(combinations: Seq[Array[Array[Byte]]]) = combinations.map(_ :+ (null: Array[Byte]))
+    def nullsWith = values.map(value => new Array[Array[Byte]](pos) :+ value)
+    condn(pos - 1).getType match {
+      case JoinDesc.INNER_JOIN => cross
+      case JoinDesc.LEFT_OUTER_JOIN =>
+        if (values.isEmpty) withNull(joined) else cross ++ withNull(unmatched)
+      case JoinDesc.RIGHT_OUTER_JOIN =>
+        if (matched.isEmpty) nullsWith else cross
+      case JoinDesc.FULL_OUTER_JOIN =>
+        if (values.isEmpty) withNull(joined)
+        else cross ++ withNull(unmatched) ++ (if (matched.isEmpty) nullsWith else Nil)
+      // The semi-joined alias has no values in the output
+      case JoinDesc.LEFT_SEMI_JOIN =>
+        if (values.isEmpty) Nil else withNull(matched)
+    }
+  }
+
+  /**
+   * The combinations of the values of a UNIQUEJOIN: all of them, with null for
+   * the aliases without values, unless an alias has no values and none of the
+   * preserved aliases has any.
+   */
+  def uniqueJoinCombinations(groups: Seq[Seq[Array[Byte]]]): Seq[Array[Array[Byte]]] = {
+    val hasEmpty = groups.exists(_.isEmpty)
+    val preserved = groups.zipWithIndex.exists { case (values, i) =>
+      !values.isEmpty && condn(i).getPreserved
+    }
+    if (hasEmpty && !preserved)
+      return Nil
+    groups.foldLeft(Seq(new Array[Array[Byte]](0))) { (combinations, values) =>
+      val aliasValues = if (values.isEmpty) Seq[Array[Byte]](null) else values
+      for (combination <- combinations; value <- aliasValues) yield combination :+ value
     }
   }
+
+  /**
+   * Evaluates the output columns of each alias on its value in the
+   * combination, or sets them to null if it has none.
+   */
+  def fillRow(combination: Array[Array[Byte]], row: Array[Object]) {
+    var pos = 0
+    order.zipWithIndex.foreach { case (tag, i) => {
+      val evals = joinVals(tag)
+      if (combination(i) == null) {
+        (0 until evals.size).foreach(j => row(pos + j) = null)
+      } else {
+        valueBytes.set(combination(i), 0, combination(i).length)
+        valueRow(1) = deserialize(tagToValueSer.get(tag.intValue), valueBytes)
+        evals.zipWithIndex.foreach { case (eval, j) => row(pos + j) = eval.evaluate(valueRow) }
+      }
+      pos += evals.size
+    }}
+  }
   /*override def processIter[T](iter: Iterator[T]): Iterator[_] = {
     initSerializers()
     val bytes = new BytesWritable()
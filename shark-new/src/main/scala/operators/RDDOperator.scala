@@ -1,6 +1,7 @@
 package shark.operators
 
 import shark._
+import shark.memstore.ColumnarStructObjectInspector
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hive.ql.plan._
@@ -43,7 +44,14 @@ object RDDOperator extends Logging {
   val opIdToSerializedOp: HashMap[String, Array[Byte]] =
     new HashMap[String, Array[Byte]]()
 
-  var broadcastOps: broadcast.Broadcast[HashMap[String, Array[Byte]]] = null
+  // The ids of the parents of each serialized operator, in order, to link the
+  // deserialized operators back together
+  val opIdToParentIds: HashMap[String, ArrayList[String]] =
+    new HashMap[String, ArrayList[String]]()
+
+  // The plan the slaves read the operators from, broadcast again after an
+  // operator is serialized
+  var plan: broadcast.Broadcast[SerializedPlan] = null
 
   var hconf: Configuration = null
 
@@ -55,7 +63,6 @@ object RDDOperator extends Logging {
     val t = System.currentTimeMillis
     val s = Stack[Operator[_ <: Serializable]]()
     val visited = scala.collection.mutable.Set[Operator[_ <: Serializable]]()
-    val emptyList = new java.util.ArrayList[Operator[_ <: Serializable]]()
 
     s.push(op)
     while(!s.isEmpty) {
@@ -66,14 +73,7 @@ object RDDOperator extends Logging {
       if (!parentsInitialized)
         s.push(current)
       else if (!(visited.contains(current))) {
-        val prevParents = current.getParentOperators
-        val prevChildren = current.getChildOperators
-        //current.setParentOperators(emptyList) TODO: Slightly hacky way, serializes operator tree multiple times
-        current.setChildOperators(emptyList)
-        val serializedCurrent = SharkUtilities.xmlSerialize(current)
-        opIdToSerializedOp.put(current.getOperatorId, serializedCurrent)
-        current.setParentOperators(prevParents)
-        current.setChildOperators(prevChildren)
+        serializeOperator(current)
         visited.add(current)
 
         current match {
@@ -86,7 +86,7 @@ object RDDOperator extends Logging {
               case op: RDDExtractOperator =>
                 op.reduceSinkConf = operator.getConf
               case op: RDDJoinOperator => {
-                op.reduceSinkConfs(operator.getConf.getTag) = operator.getConf                
+                op.setReduceSinkConf(operator.getConf.getTag, operator.getConf)
               }
             }}
           }
@@ -99,7 +99,86 @@ object RDDOperator extends Logging {
         current.getParentOperators.filter(op => !(visited.contains(op))).foreach(s.push(_))
     }
     logInfo("Operator Tree serialized in " + (System.currentTimeMillis - t) + " ms")
-    //broadcastOps = SharkEnv.sc.broadcast(opIdToSerializedOp)
+  }
+
+  /**
+   *Serializes a single operator without its parents and children and adds it
+   *to the opIdToSerializedOp map, replacing the copy the slaves got so far.
+   *Each operator is encoded once; deserializeOperator links it back to its
+   *ancestors by id.
+   */
+  def serializeOperator(op: Operator[_ <: Serializable]) {
+    val prevParents = op.getParentOperators
+    val prevChildren = op.getChildOperators
+    if (prevParents != null) {
+      val parentIds = new ArrayList[String]()
+      prevParents.foreach { parent => parentIds.add(parent.getOperatorId) }
+      opIdToParentIds.put(op.getOperatorId, parentIds)
+    }
+    op.setParentOperators(null)
+    op.setChildOperators(new java.util.ArrayList[Operator[_ <: Serializable]]())
+    opIdToSerializedOp.put(op.getOperatorId, SharkUtilities.xmlSerialize(op))
+    op.setParentOperators(prevParents)
+    op.setChildOperators(prevChildren)
+    plan = null
+  }
+
+  /**
+   *Deserializes an operator together with all the operators above it, each
+   *one once, linked the way they were in the tree, so that initObjectInspector
+   *can initialize the operator from its table scans. The operator itself has
+   *no children, and its ancestors only the children that lead to it.
+   */
+  def deserializeOperator(ops: HashMap[String, Array[Byte]],
+                          parentIds: HashMap[String, ArrayList[String]],
+                          id: String): RDDOperator = {
+    val deserialized = new HashMap[String, Operator[_ <: Serializable]]()
+    def get(id: String): Operator[_ <: Serializable] = {
+      var op = deserialized.get(id)
+      if (op == null) {
+        op = SharkUtilities.xmlDeserialize(ops.get(id)).asInstanceOf[Operator[_ <: Serializable]]
+        deserialized.put(id, op)
+        val ids = parentIds.get(id)
+        if (ids != null) {
+          val parents = new ArrayList[Operator[_ <: Serializable]]()
+          ids.foreach { parentId => {
+            val parent = get(parentId)
+            if (parent.getChildOperators == null)
+              parent.setChildOperators(new ArrayList[Operator[_ <: Serializable]]())
+            parent.getChildOperators.add(op)
+            parents.add(parent)
+          }}
+          op.setParentOperators(parents)
+        }
+      }
+      op
+    }
+    get(id).asInstanceOf[RDDOperator]
+  }
+
+  /**
+   *Broadcasts the serialized operators and the configuration, unless they have
+   *not changed since they were last broadcast
+   */
+  def broadcastPlan(): broadcast.Broadcast[SerializedPlan] = synchronized {
+    if (plan == null) {
+      val t = System.currentTimeMillis
+      plan = SharkEnv.sc.broadcast(SerializedPlan(opIdToSerializedOp, opIdToParentIds, hconf))
+      logInfo("Plan broadcast in " + (System.currentTimeMillis - t) + " ms")
+    }
+    plan
+  }
+
+  /**
+   *Deserializes and initializes a copy of an operator on the master node, the
+   *way processRDD does on the slaves
+   */
+  def initializedCopy(op: Operator[_ <: Serializable]): RDDOperator = {
+    val id = op.getOperatorId
+    val copy = deserializeOperator(opIdToSerializedOp, opIdToParentIds, id)
+    copy.initObjectInspector(id, opIdToTypeInfos.get(id), hconf)
+    copy.preProcess()
+    copy
   }
 }
 
@@ -142,6 +221,9 @@ trait RDDOperator extends Serializable {
                 partObjectInspector.asInstanceOf[StructObjectInspector])
               // new oi is union of table + partition object inspectors
                 ObjectInspectorFactory.getUnionStructObjectInspector(oiList)
+            } else if (op.columnar) {
+              new ColumnarStructObjectInspector(
+                table.getDeserializer().getObjectInspector().asInstanceOf[StructObjectInspector])
             } else table.getDeserializer().getObjectInspector()
           op.initialize(hconf, Array(rowObjectInspector))
         }
@@ -209,17 +291,13 @@ trait RDDOperator extends Serializable {
   }
   // Called on Master node
   def processRDD[T](rdd: RDD[T], cached: Boolean): RDD[_] = {
-    val serializedHConf = SharkUtilities.xmlSerialize(RDDOperator.hconf)
     setChildOperators(new java.util.ArrayList())
     val id = getOperatorId
-    val serializedOp = RDDOperator.opIdToSerializedOp.get(id)
-    //println(id + " len " + serializedOp.length)
+    val plan = RDDOperator.broadcastPlan()
     val typeInfos = RDDOperator.opIdToTypeInfos.get(getOperatorId)
-//    val broadcastOps = RDDOperator.broadcastOps
     rdd.mapPartitions { iter => {
-      //val op = SharkUtilities.xmlDeserialize(broadcastOps.value.get(id)).asInstanceOf[RDDOperator]
-      val op = SharkUtilities.xmlDeserialize(serializedOp).asInstanceOf[RDDOperator]
-      val hconf = SharkUtilities.xmlDeserialize(serializedHConf).asInstanceOf[Configuration]
+      val op = plan.value.deserializeOperator(id)
+      val hconf = plan.value.newConf()
       op.initObjectInspector(id, typeInfos, hconf)
       op.preProcess()
       val newIter = op.processIter(iter)
@@ -11,6 +11,7 @@ import org.apache.hadoop.hive.ql.plan.TableDesc
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils
+import org.apache.hadoop.hive.serde2.ByteArraySerializer
 import org.apache.hadoop.hive.serde2.Deserializer
 import org.apache.hadoop.hive.serde2.SerDe
 import org.apache.hadoop.io.BytesWritable
@@ -20,10 +21,28 @@ import org.apache.hadoop.mapred.JobConf
 import java.io.ObjectOutputStream
 import java.io.ByteArrayOutputStream
 import java.util.ArrayList
+import java.util.Arrays
 
 import scala.collection.JavaConversions._
 
 
+object RDDReduceSinkOperator {
+
+  /**
+   * Serializes a row into an array of its own. Serializers that can write it
+   * directly skip the copy to their reusable BytesWritable.
+   */
+  def serialize(ser: SerDe, fields: Array[Object], oi: ObjectInspector): Array[Byte] = {
+    ser match {
+      case s: ByteArraySerializer => s.serializeToByteArray(fields, oi)
+      case _ => {
+        val bytes = ser.serialize(fields, oi).asInstanceOf[BytesWritable]
+        Arrays.copyOf(bytes.getBytes, bytes.getLength)
+      }
+    }
+  }
+}
+
 class RDDReduceSinkOperator extends ReduceSinkOperator with RDDOperator {
 
   var joinTag = 0
@@ -102,18 +121,27 @@ class RDDReduceSinkOperator extends ReduceSinkOperator with RDDOperator {
   }
 
   override def processIter[T](iter: Iterator[T]) = {
-      var rowInspector = getInputObjInspectors()(0)    
+      // The evaluated fields are reused for every row, they are serialized
+      // before the next row is evaluated
+      val keyFields = new Array[Object](keyEval.length)
+      val valueFields = new Array[Object](valueEval.length)
       iter.map { row => {
-        val key = keySer.serialize(getKeyEval.map { k => k.evaluate(row) },
-          keyObjInspector).asInstanceOf[BytesWritable]
-        val value = valueSer.serialize(getValueEval.map { v => v.evaluate(row) },
-          valObjInspector).asInstanceOf[BytesWritable]
-        val keyArr = new ReduceKey(new Array[Byte](key.getLength))
-        val valueArr = new Array[Byte](value.getLength)
-        Array.copy(key.getBytes, 0, keyArr.bytes, 0, key.getLength)
-        Array.copy(value.getBytes, 0, valueArr, 0, value.getLength)
-        (keyArr, valueArr)
+        var i = 0
+        while (i < keyEval.length) {
+          keyFields(i) = keyEval(i).evaluate(row)
+          i += 1
+        }
+        i = 0
+        while (i < valueEval.length) {
+          valueFields(i) = valueEval(i).evaluate(row)
+          i += 1
+        }
+        (new ReduceKey(serialize(keySer, keyFields, keyObjInspector)),
+          serialize(valueSer, valueFields, valObjInspector))
       }}
   }
-}
 
+  def serialize(ser: SerDe, fields: Array[Object], oi: ObjectInspector): Array[Byte] = {
+    RDDReduceSinkOperator.serialize(ser, fields, oi)
+  }
+}
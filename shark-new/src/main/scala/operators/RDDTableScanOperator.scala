@@ -1,6 +1,7 @@
 package shark.operators
 
 import shark._
+import shark.memstore.ColumnarPartition
 import spark.{Serializer => _,_}
 import spark.SparkContext._
 
@@ -10,12 +11,14 @@ import org.apache.hadoop.io.Text
 import org.apache.hadoop.hive.ql.exec.Operator
 import org.apache.hadoop.hive.ql.exec.TableScanOperator
 import org.apache.hadoop.hive.ql.exec.Utilities
+import org.apache.hadoop.hive.ql.io.RCFileRowGroupFilter
 import org.apache.hadoop.hive.ql.metadata.Table
 import org.apache.hadoop.hive.ql.metadata.Partition;
 import org.apache.hadoop.hive.ql.optimizer.ppr.PartitionPruner
 import org.apache.hadoop.hive.ql.parse.ParseContext
 import org.apache.hadoop.hive.ql.parse.PrunedPartitionList
 import org.apache.hadoop.hive.ql.plan.PartitionDesc
+import org.apache.hadoop.hive.ql.plan.TableDesc
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
@@ -35,6 +38,33 @@ import java.util.Arrays
 import scala.collection.JavaConversions._
 import scala.collection.mutable.Stack
 import scala.reflect.BeanProperty
+import scala.util.Random
+
+object RDDTableScanOperator {
+
+  /**
+   * Order in which online aggregation reads the splits of a scan. Reading them
+   * in random order makes every prefix a random sample of the splits.
+   */
+  def randomSplitOrder(numSplits: Int): Array[Int] = {
+    Random.shuffle((0 until numSplits).toList).toArray
+  }
+
+  /**
+   * Deserializes the lines of a split of a table into a single columnar
+   * partition, the form unpartitioned tables are cached in.
+   */
+  def buildColumnar(lines: Iterator[String], tableDesc: TableDesc): Iterator[ColumnarPartition] = {
+    val deserializer = tableDesc.getDeserializer
+    val oi = deserializer.getObjectInspector.asInstanceOf[StructObjectInspector]
+    val text = new Text
+    val rows = lines.map { line => {
+      text.set(line)
+      deserializer.deserialize(text)
+    }}
+    Iterator(ColumnarPartition.build(rows, oi, oi))
+  }
+}
 
 class RDDTableScanOperator extends TableScanOperator with RDDOperator {
 
@@ -45,6 +75,9 @@ class RDDTableScanOperator extends TableScanOperator with RDDOperator {
   var firstConfPartDesc: PartitionDesc  = _
   @BeanProperty
   var numConfirmedParts: Int = _
+  // Whether the table is cached as ColumnarPartitions rather than as lines
+  @BeanProperty
+  var columnar = false
 
 /*  override def cacheRDD[T](rdd: RDD[T]): RDD[_] = {
     rdd.cache()
@@ -106,9 +139,14 @@ class RDDTableScanOperator extends TableScanOperator with RDDOperator {
         rowsRDD
       } else {
         val tablePath = table.getDataLocation.toString
-        getTableDesc.getInputFileFormatClass match {
+        val lines = getTableDesc.getInputFileFormatClass match {
           case _ => SharkEnv.sc.textFile(tablePath)
         }
+        if (columnar) {
+          val tableDesc = getTableDesc
+          lines.mapPartitions(iter => RDDTableScanOperator.buildColumnar(iter, tableDesc))
+        } else
+          lines
       }
     if (!cached) {
       newRDD.cache()
@@ -120,6 +158,8 @@ class RDDTableScanOperator extends TableScanOperator with RDDOperator {
   }
 
   override def processIter[T](iter: Iterator[T]): Iterator[_] = {
+    if (columnar)
+      return processColumnar(iter)
     val deserializer = getTableDesc.getDeserializer
     iter.map { value => 
       value match { 
@@ -130,5 +170,25 @@ class RDDTableScanOperator extends TableScanOperator with RDDOperator {
       }
     }
   }
-}
 
+  /**
+   * The rows of the cached partitions, leaving out the partitions whose column
+   * statistics show that the filter pushed into the scan matches none of their
+   * rows.
+   */
+  def processColumnar[T](iter: Iterator[T]): Iterator[_] = {
+    val filter =
+      if (getConf != null && getConf.getFilterExpr != null) {
+        val columnNames = inputObjInspectors(0).asInstanceOf[StructObjectInspector]
+          .getAllStructFieldRefs.map(_.getFieldName)
+        new RCFileRowGroupFilter(getConf.getFilterExpr, columnNames)
+      } else null
+    iter.flatMap { value =>
+      val part = value.asInstanceOf[ColumnarPartition]
+      if (filter == null || filter.mayMatch(part.stats))
+        part.iterator
+      else
+        Iterator.empty
+    }
+  }
+}
@@ -0,0 +1,70 @@
+package shark.operators
+
+import org.apache.hadoop.conf.Configuration
+
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.Serializable
+import java.util.ArrayList
+import java.util.HashMap
+import java.util.LinkedHashMap
+import java.util.Map.Entry
+import java.util.UUID
+
+object SerializedPlan {
+
+  // Number of plans whose configurations a slave keeps decoded
+  val CACHED_PLANS = 8
+
+  // Decoded configurations of the most recently used plans, by plan id
+  private val confs = new LinkedHashMap[String, Configuration](16, 0.75f, true) {
+    override def removeEldestEntry(eldest: Entry[String, Configuration]) = size > CACHED_PLANS
+  }
+
+  def apply(ops: HashMap[String, Array[Byte]], parentIds: HashMap[String, ArrayList[String]],
+            conf: Configuration): SerializedPlan = {
+    new SerializedPlan(UUID.randomUUID.toString, new HashMap(ops), new HashMap(parentIds),
+      serializeConf(conf))
+  }
+
+  def serializeConf(conf: Configuration): Array[Byte] = {
+    val out = new ByteArrayOutputStream()
+    val dataOut = new DataOutputStream(out)
+    conf.write(dataOut)
+    dataOut.close()
+    out.toByteArray()
+  }
+
+  def deserializeConf(bytes: Array[Byte]): Configuration = {
+    val conf = new Configuration(false)
+    conf.readFields(new DataInputStream(new ByteArrayInputStream(bytes)))
+    conf
+  }
+
+  private def decodedConf(plan: SerializedPlan): Configuration = confs.synchronized {
+    var conf = confs.get(plan.id)
+    if (conf == null) {
+      conf = deserializeConf(plan.conf)
+      confs.put(plan.id, conf)
+    }
+    conf
+  }
+}
+
+/**
+ * The serialized operators of a query and the configuration they run with,
+ * broadcast to the slaves once rather than shipped with every task. The
+ * configuration travels as a Writable and is decoded once per plan on each
+ * slave; tasks get their own copy of it.
+ */
+class SerializedPlan(val id: String, val ops: HashMap[String, Array[Byte]],
+                     val parentIds: HashMap[String, ArrayList[String]],
+                     val conf: Array[Byte]) extends Serializable {
+
+  def newConf(): Configuration = new Configuration(SerializedPlan.decodedConf(this))
+
+  def deserializeOperator(opId: String): RDDOperator =
+    RDDOperator.deserializeOperator(ops, parentIds, opId)
+}
@@ -8,6 +8,7 @@ import org.apache.hadoop.hive.metastore.api.FieldSchema
 import org.apache.hadoop.hive.ql.exec.FetchTask
 import org.apache.hadoop.hive.ql.exec.MoveTask
 import org.apache.hadoop.hive.ql.exec.TaskFactory
+import org.apache.hadoop.hive.ql.metadata.HiveException
 import org.apache.hadoop.hive.ql.optimizer.Optimizer
 import org.apache.hadoop.hive.ql.parse._
 import org.apache.hadoop.hive.ql.plan.HiveOperation
@@ -72,15 +73,26 @@ class SharkSemanticAnalyzer(conf: HiveConf) extends SemanticAnalyzer(conf){
      WalkAST(ast, tableNameList, timeErrorBound);
      if (timeErrorBound.isInitialized()) {
        var costModel: CostModel = CostModel.getInstance();
+       val catalog = new SampleCatalog(db)
+       val samplingRates = new java.util.HashMap[ASTNode, java.lang.Double]()
    	var iterator: Iterator[ASTNode]  = tableNameList.iterator();
    	while (iterator.hasNext()) {
    	  var tableNameNode: ASTNode = iterator.next();
-   	  var sampledTableName: String = costModel.getSampledTableName(timeErrorBound.errorBound, timeErrorBound.timeBound);
+   	  val tableName = BaseSemanticAnalyzer.unescapeIdentifier(tableNameNode.token.getText())
+   	  var sampledTableName: String = null
+   	  try {
+   	    sampledTableName = costModel.getSampledTableName(catalog, tableName, timeErrorBound, conf)
+   	  } catch {
+   	    case e: HiveException =>
+   	      LOG.warn("Sample lookup failed for table [" + tableName + "], using the full table: " + e.getMessage)
+   	  }
    	  if (sampledTableName != null) {
    	    LOG.info("Replacing table [" + tableNameNode.token.getText() + "] with [" + sampledTableName + "]");
    	    tableNameNode.token.setText(sampledTableName);
+   	    samplingRates.put(tableNameNode, getSamplingRate(catalog, sampledTableName))
    	  }
    	}
+   	addErrorEstimates(ast, samplingRates)
      }
    }
   
@@ -97,6 +109,7 @@ class SharkSemanticAnalyzer(conf: HiveConf) extends SemanticAnalyzer(conf){
     LOG.info("Starting Semantic Analysis");
     
     //@sameerag: Adding Anand's table-rewriting logic
+    flattenBlbAggregates(ast)
     replaceTableNameWithSampleName(ast);
 
     // analyze create table command